@@ -0,0 +1,149 @@
+package simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+
+import fr.emse.fayol.maqit.simulator.components.Robot;
+
+/**
+ * Mode d'exécution où chaque agent (MyRobot ou Worker) tourne dans son propre thread virtuel.
+ * Chaque pas de simulation comporte deux phases séparées par une barrière (Phaser) :
+ * <ul>
+ *   <li>préparation, en parallèle : chaque agent calcule son prochain déplacement (planificateur
+ *   hiérarchique, plus court chemin sur les voies, choix glouton) sur l'état de la grille au début du pas,
+ *   sans rien modifier ;</li>
+ *   <li>action, dans l'ordre de la liste des agents : chaque agent reçoit son tour du précédent, décide,
+ *   reprend son déplacement préparé si sa cible n'a pas changé et que la case est encore libre
+ *   (sinon le recalcule), puis met à jour la grille.</li>
+ * </ul>
+ * L'ordre des actions est donc fixe et une exécution est reproductible ; elle peut différer du mode séquentiel,
+ * où un déplacement voit les robots déjà déplacés pendant le même pas.
+ * Les messages restent déposés dans la boîte de réception propre à chaque robot.
+ * <p>
+ * Ce mode est plus lent que la boucle séquentielle et se comporte comme elle : seule la préparation est parallèle,
+ * l'action reste la boucle séquentielle, plus deux barrières et un passage de tour entre threads par agent.
+ * Mesures sur une machine à un cœur (entrepôts générés, quiet = 1, sans affichage ni sorties) :
+ * <ul>
+ *   <li>débit, séquentiel / threads virtuels : 50 robots 1385 / 805 pas/s, 5 000 robots 27,3 / 9,9,
+ *   20 000 robots 10,3 / 2,5, 100 000 robots 2,8 / 0,5 ;</li>
+ *   <li>réalisme, 50 robots et 200 colis sur 100x100 : tout livré en 1580 / 1561 pas, 68,7 / 68,0 % de batterie
+ *   par colis, 4459 / 4859 pas perdus ; scénario de base : 224 / 219 pas.</li>
+ * </ul>
+ */
+public class AgentThreadScheduler {
+
+    // un Phaser accepte au plus 65535 participants : on les regroupe en arbre
+    private static final int AGENTS_PER_PHASER = 1000;
+
+    private final MySimFactory factory;
+    private final Phaser root = new Phaser(1); // le participant 1 est l'ordonnanceur
+    private final List<Thread> threads = new ArrayList<>();
+    private Semaphore[] turns; // turns[i] : l'agent i peut agir
+    private volatile boolean running = true;
+
+    public AgentThreadScheduler(MySimFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Démarrer un thread virtuel par agent
+     * @param agents robots et travailleurs de l'environnement, dans l'ordre de leurs actions
+     */
+    public void start(List<Robot> agents) {
+        // tous les participants sont inscrits avant le premier thread : un groupe dont les agents déjà lancés
+        // attendent tous le pas suivant bloquerait register() jusqu'à ce pas
+        Phaser[] barriers = new Phaser[agents.size()];
+        turns = new Semaphore[agents.size()];
+        Phaser group = null;
+        for (int i = 0; i < agents.size(); i++) {
+            if (i % AGENTS_PER_PHASER == 0) {
+                group = new Phaser(root);
+            }
+            group.register();
+            barriers[i] = group;
+            turns[i] = new Semaphore(0);
+        }
+        for (int i = 0; i < agents.size(); i++) {
+            int index = i;
+            Robot agent = agents.get(i);
+            Phaser barrier = barriers[i];
+            threads.add(Thread.ofVirtual().name(agent.getName()).start(() -> runAgent(index, agent, barrier)));
+        }
+        System.out.println(threads.size() + " agents lancés dans des threads virtuels");
+    }
+
+    /**
+     * Boucle de vie d'un agent : attendre le début du pas, préparer, attendre son tour, agir,
+     * passer le tour au suivant, signaler la fin du pas.
+     * Une erreur de l'agent est affichée sans interrompre le pas ; si le thread se termine,
+     * il quitte la barrière pour ne pas bloquer les pas suivants.
+     */
+    private void runAgent(int index, Robot agent, Phaser barrier) {
+        try {
+            while (true) {
+                if (barrier.arriveAndAwaitAdvance() < 0 || !running) {
+                    return;
+                }
+                try {
+                    factory.prepareRobot(agent);
+                } catch (Throwable t) {
+                    report(agent, t);
+                }
+                if (barrier.arriveAndAwaitAdvance() < 0) {
+                    return;
+                }
+                turns[index].acquireUninterruptibly();
+                try {
+                    factory.activateRobot(agent);
+                } catch (Throwable t) {
+                    report(agent, t);
+                } finally {
+                    if (index + 1 < turns.length) {
+                        turns[index + 1].release();
+                    }
+                }
+                if (barrier.arriveAndAwaitAdvance() < 0) {
+                    return;
+                }
+            }
+        } finally {
+            barrier.arriveAndDeregister();
+        }
+    }
+
+    private static void report(Robot agent, Throwable t) {
+        System.out.println("Erreur de l'agent " + agent.getName() + " :");
+        t.printStackTrace();
+    }
+
+    /**
+     * Faire avancer la simulation d'un pas : libérer les agents, attendre qu'ils aient tous préparé
+     * leur déplacement, puis donner le tour au premier et attendre que le dernier ait agi
+     */
+    public void tick() {
+        root.arriveAndAwaitAdvance();
+        root.arriveAndAwaitAdvance();
+        if (turns.length > 0) {
+            turns[0].release();
+        }
+        root.arriveAndAwaitAdvance();
+    }
+
+    /**
+     * Arrêter tous les agents et attendre la fin de leurs threads
+     */
+    public void stop() {
+        running = false;
+        root.forceTermination();
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+
+/**
+ * Vérification qu'un pas de simulation en régime établi n'alloue rien : les scénarios fixes ci-dessous
+ * (scénario de parameters/ sans interface ni sorties, puis chaque mode du simulateur) sont lancés chacun dans
+ * une JVM séparée avec [profiling] allocations = 1 ; après warmup pas de chauffe, les octets alloués par le thread
+ * de simulation sont comptés sur steps pas (AllocationProbe). Un seul octet alloué est un échec : le programme sort
+ * avec le code 1.
+ * Les simulations tournent avec le seul compilateur C1 (-XX:TieredStopAtLevel=1) : sans analyse d'échappement,
+ * toute allocation écrite dans le code est comptée, même celles que C2 sait supprimer ; et les désoptimisations
+ * de C2, qui allouent sur le thread de simulation en recompilant, ne viennent pas brouiller la mesure.
+ * Lancement depuis le dossier qui contient parameters/ : java simulator.AllocationCheck
+ */
+public class AllocationCheck {
+
+    private static final Pattern ALLOCATIONS = Pattern.compile("Allocations : (\\d+) pas mesurés après \\d+ de chauffe : "
+            + "[0-9.,]+ octets/pas en moyenne, (\\d+) pas avec allocation, maximum (\\d+) octets \\(pas (\\d+)\\)");
+
+    /**
+     * Scénarios : nom puis réglages section.clé=valeur ajoutés au scénario de base
+     */
+    private static final String[][] SCENARIOS = {
+        {"base"},
+        {"hierarchique", "pathfinding.hierarchical=1"},
+        {"voies", "lanes.enabled=1"},
+        {"foule", "workers.crowd=1"},
+        {"evenementiel", "configuration.eventdriven=1"},
+        {"chargement", "carry.capacity=3"},
+        {"sla", "sla.enabled=1", "sla.policy=edf", "carry.capacity=2"},
+        {"entrepot", "warehouse.enabled=1", "warehouse.rows=60", "warehouse.columns=60", "warehouse.robots=20",
+            "warehouse.racks=40"},
+    };
+
+    private final String scenario;    // configuration.ini
+    private final Path environment;   // environment.ini
+    private final int steps;          // pas mesurés
+    private final int warmup;         // pas de chauffe
+    private final int timeout;        // s par simulation
+
+    public AllocationCheck(Path parameters, int steps, int warmup, int timeout) throws IOException {
+        this.scenario = new String(Files.readAllBytes(parameters.resolve("configuration.ini")), StandardCharsets.UTF_8);
+        this.environment = parameters.resolve("environment.ini");
+        this.steps = steps;
+        this.warmup = warmup;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Configuration d'un scénario : sorties et journal coupés, assez de colis pour ne jamais finir avant steps pas
+     */
+    String configure(String[] settings) {
+        String ini = scenario;
+        ini = FleetTuner.set(ini, "configuration", "display", "0");
+        ini = FleetTuner.set(ini, "configuration", "led", "0");
+        ini = FleetTuner.set(ini, "configuration", "mqtt", "0");
+        ini = FleetTuner.set(ini, "configuration", "quiet", "1");
+        ini = FleetTuner.set(ini, "configuration", "waittime", "0");
+        ini = FleetTuner.set(ini, "configuration", "agentthreads", "0");
+        ini = FleetTuner.set(ini, "configuration", "step", Integer.toString(warmup + steps));
+        ini = FleetTuner.set(ini, "configuration", "packages", Integer.toString(Math.max(300, (warmup + steps) / 10)));
+        ini = FleetTuner.set(ini, "heatmap", "enabled", "0");
+        ini = FleetTuner.set(ini, "steadystate", "enabled", "0");
+        ini = FleetTuner.set(ini, "profiling", "phases", "0");
+        ini = FleetTuner.set(ini, "profiling", "latency", "0");
+        ini = FleetTuner.set(ini, "profiling", "allocations", "1");
+        ini = FleetTuner.set(ini, "profiling", "warmup", Integer.toString(warmup));
+        for (int i = 1; i < settings.length; i++) {
+            String[] kv = settings[i].split("=", 2);
+            int dot = kv[0].indexOf('.');
+            ini = FleetTuner.set(ini, kv[0].substring(0, dot), kv[0].substring(dot + 1), kv[1]);
+        }
+        return ini;
+    }
+
+    /**
+     * Une simulation dans une JVM séparée, dans un dossier temporaire
+     * @return verdict à afficher, commençant par "ok" si aucun pas mesuré n'a alloué
+     */
+    String check(String ini) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("alloccheck");
+        try {
+            Path parameters = Files.createDirectory(dir.resolve("parameters"));
+            Files.write(parameters.resolve("configuration.ini"), ini.getBytes(StandardCharsets.UTF_8));
+            Files.copy(environment, parameters.resolve("environment.ini"));
+            Path log = dir.resolve("simulation.log");
+            Process p = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-XX:TieredStopAtLevel=1", "-Djava.awt.headless=true", "-Dstdout.encoding=UTF-8",
+                    "-cp", FleetTuner.classpath(), "simulator.MySimFactory")
+                    .directory(dir.toFile()).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+            if (!p.waitFor(timeout, TimeUnit.SECONDS)) {
+                p.destroyForcibly().waitFor();
+                return "échec : simulation interrompue après " + timeout + " s";
+            }
+            List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                Matcher m = ALLOCATIONS.matcher(line);
+                if (!m.find()) continue;
+                int measured = Integer.parseInt(m.group(1));
+                int allocating = Integer.parseInt(m.group(2));
+                if (measured == 0) {
+                    return "échec : aucun pas mesuré";
+                }
+                if (allocating > 0) {
+                    return "échec : " + allocating + " pas sur " + measured + " ont alloué, jusqu'à " + m.group(3)
+                            + " octets (pas " + m.group(4) + ")";
+                }
+                return "ok : " + measured + " pas sans allocation";
+            }
+            StringBuilder sb = new StringBuilder("échec : pas de mesure, fin du journal :");
+            for (String line : lines.subList(Math.max(0, lines.size() - 10), lines.size())) {
+                sb.append(System.lineSeparator()).append("  ").append(line);
+            }
+            return sb.toString();
+        } finally {
+            FleetTuner.delete(dir.toFile());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path parameters = Paths.get("parameters");
+        IniFile ifile = new IniFile(parameters.resolve("configuration.ini").toString());
+        AllocationCheck check = new AllocationCheck(parameters,
+                ifile.getIntValue("alloccheck", "steps") > 0 ? ifile.getIntValue("alloccheck", "steps") : 3000,
+                ifile.getIntValue("alloccheck", "warmup") > 0 ? ifile.getIntValue("alloccheck", "warmup") : 500,
+                ifile.getIntValue("alloccheck", "timeout") > 0 ? ifile.getIntValue("alloccheck", "timeout") : 600);
+        int failures = 0;
+        for (String[] s : SCENARIOS) {
+            String verdict = check.check(check.configure(s));
+            System.out.println(String.format("%-14s %s", s[0], verdict));
+            if (!verdict.startsWith("ok")) failures++;
+        }
+        if (failures > 0) {
+            System.out.println(failures + " scénario(s) sur " + SCENARIOS.length + " allouent en régime établi");
+            System.exit(1);
+        }
+        System.out.println("Aucune allocation en régime établi (" + SCENARIOS.length + " scénarios)");
+    }
+}
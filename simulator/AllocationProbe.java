@@ -0,0 +1,86 @@
+package simulator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Octets alloués par le thread de simulation pendant chaque pas, génération des colis exceptée (les colis sont
+ * de nouveaux objets), lus dans les compteurs d'allocation par thread de la JVM (com.sun.management.ThreadMXBean).
+ * Les premiers pas sont ignorés (chargement des classes, compilation, tampons alloués au premier usage) ;
+ * ensuite, journal des robots coupé, un pas en régime établi ne doit rien allouer.
+ */
+public class AllocationProbe {
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final int warmup;
+    private long before;
+    private int ticks = 0;
+
+    // métriques après la chauffe
+    private int measured = 0;
+    private int allocating = 0;
+    private long totalBytes = 0;
+    private long maxBytes = 0;
+    private int worstTick = 0;
+
+    private AllocationProbe(com.sun.management.ThreadMXBean threads, int warmup) {
+        this.threads = threads;
+        this.warmup = warmup;
+    }
+
+    /**
+     * @param warmup pas ignorés au début
+     * @return la sonde, ou null si la JVM ne compte pas les allocations par thread
+     */
+    public static AllocationProbe create(int warmup) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return new AllocationProbe(threads, warmup);
+    }
+
+    /**
+     * Début du pas, après la génération des colis (sur le thread de simulation)
+     */
+    public void begin() {
+        before = threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Fin du pas, sorties comprises (sur le même thread)
+     */
+    public void end() {
+        long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+        ticks++;
+        if (ticks <= warmup) return;
+        measured++;
+        totalBytes += bytes;
+        if (bytes > 0) allocating++;
+        if (bytes > maxBytes) {
+            maxBytes = bytes;
+            worstTick = ticks;
+        }
+    }
+
+    /**
+     * Aucun octet alloué sur les pas mesurés
+     */
+    public boolean isAllocationFree() {
+        return measured > 0 && allocating == 0;
+    }
+
+    public String report() {
+        if (measured == 0) {
+            return "aucun pas mesuré (" + ticks + " pas, " + warmup + " de chauffe)";
+        }
+        return String.format("%d pas mesurés après %d de chauffe : %.1f octets/pas en moyenne, %d pas avec allocation, "
+                + "maximum %d octets (pas %d)%s", measured, warmup, totalBytes / (double) measured, allocating,
+                maxBytes, worstTick, isAllocationFree() ? " - aucune allocation" : "");
+    }
+}
@@ -0,0 +1,297 @@
+package simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+
+/**
+ * Banc d'essai des performances du simulateur : scénarios canoniques tirés de parameters/ à l'échelle 1, 10, 100, 1000...
+ * L'échelle 1 est le scénario tel quel ; à l'échelle k, l'entrepôt est généré avec k fois la surface, les racks,
+ * les robots, les travailleurs et les colis (quais, goals, zones de transit et stations suivent la taille du plan),
+ * l'autonomie des robots et la capacité des tampons de transit croissent comme le côté, et la simulation est
+ * bornée à [benchmark] steps pas.
+ * Chaque scénario est lancé runs fois, l'un après l'autre, dans une JVM séparée sans interface ni sorties ;
+ * on garde la médiane des pas par seconde, des colis livrés par pas, du p99 de la durée d'un pas et du tas maximal.
+ * Les résultats sont comparés à la référence enregistrée (benchmarks/baseline.ini) : tout écart défavorable au-delà
+ * de la tolérance est une régression, et le programme sort avec le code 1. Le p99 d'une courte simulation dépend
+ * des quelques pas pendant lesquels la JVM compile ou ramasse les miettes : sa tolérance est à part.
+ * Lancement depuis le dossier qui contient parameters/ : java simulator.BenchmarkSuite [record]
+ * (record : enregistrer les résultats comme nouvelle référence). La référence ne vaut que pour la machine qui l'a produite.
+ */
+public class BenchmarkSuite {
+
+    private static final Pattern LATENCY = Pattern.compile("(\\d+) pas, moyenne ([0-9.]+) ms, p50 [0-9.]+ ms, p99 ([0-9.]+) ms, "
+            + "max [0-9.]+ ms, tas max ([0-9.]+) Mo");
+    private static final Pattern DELIVERED = Pattern.compile("Livraisons : (\\d+) colis");
+
+    /**
+     * Mesures d'un scénario (médianes)
+     */
+    static final class Result {
+        double ticksPerSecond;
+        double packagesPerTick;
+        double p99;      // ms
+        double peakHeap; // Mo
+    }
+
+    private final String scenario;    // configuration.ini
+    private final Path environment;   // environment.ini
+    private final int runs;
+    private final int steps;          // pas au plus aux échelles > 1
+    private final int timeout;        // s par simulation
+
+    public BenchmarkSuite(Path parameters, int runs, int steps, int timeout) throws IOException {
+        this.scenario = new String(Files.readAllBytes(parameters.resolve("configuration.ini")), StandardCharsets.UTF_8);
+        this.environment = parameters.resolve("environment.ini");
+        this.runs = Math.max(1, runs);
+        this.steps = steps;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Configuration du scénario à l'échelle k : sorties coupées, durée des pas mesurée
+     */
+    String configure(IniFile ifile, int k) {
+        String ini = scenario;
+        ini = FleetTuner.set(ini, "configuration", "display", "0");
+        ini = FleetTuner.set(ini, "configuration", "led", "0");
+        ini = FleetTuner.set(ini, "configuration", "mqtt", "0");
+        ini = FleetTuner.set(ini, "configuration", "quiet", "1");
+        ini = FleetTuner.set(ini, "configuration", "waittime", "0");
+        ini = FleetTuner.set(ini, "heatmap", "enabled", "0");
+        ini = FleetTuner.set(ini, "profiling", "phases", "0");
+        ini = FleetTuner.set(ini, "profiling", "allocations", "0");
+        ini = FleetTuner.set(ini, "profiling", "latency", "1");
+        if (k == 1) {
+            return ini;
+        }
+        // mêmes densités que le scénario de base (20x20, 5 robots, obstacle / 2 travailleurs, 10 colis par défaut)
+        int side = (int) Math.round(20 * Math.sqrt(k));
+        int robots = ifile.getIntValue("warehouse", "robots") > 0 ? ifile.getIntValue("warehouse", "robots") : 5;
+        int workers = ifile.getIntValue("workers", "count") > 0 ? ifile.getIntValue("workers", "count")
+                : ifile.getIntValue("configuration", "obstacle") / 2;
+        int packages = ifile.getIntValue("configuration", "packages") > 0 ? ifile.getIntValue("configuration", "packages") : 10;
+        ini = FleetTuner.set(ini, "warehouse", "enabled", "1");
+        ini = FleetTuner.set(ini, "warehouse", "rows", Integer.toString(side));
+        ini = FleetTuner.set(ini, "warehouse", "columns", Integer.toString(side));
+        ini = FleetTuner.set(ini, "warehouse", "racks", Integer.toString(k * ifile.getIntValue("configuration", "obstacle")));
+        ini = FleetTuner.set(ini, "warehouse", "robots", Integer.toString(k * robots));
+        ini = FleetTuner.set(ini, "workers", "count", Integer.toString(k * workers));
+        ini = FleetTuner.set(ini, "configuration", "packages", Integer.toString(k * packages));
+        // trajets sqrt(k) fois plus longs : autonomie allongée d'autant, sinon un robot ne peut plus aller d'un quai
+        // à un goal sur une charge (il perd son colis en route et le scénario ne livre plus rien) ;
+        // k fois plus de robots pour sqrt(k) fois plus de zones de transit : tampons agrandis d'autant,
+        // sinon les robots rôle 0 qui attendent une place bloquent la bande de transit
+        int battery = ifile.getIntValue("battery", "capacity") > 0 ? ifile.getIntValue("battery", "capacity") : 100;
+        int buffer = ifile.getIntValue("transit", "capacity") > 0 ? ifile.getIntValue("transit", "capacity") : 1;
+        ini = FleetTuner.set(ini, "battery", "capacity", Long.toString(Math.round(battery * side / 20.0)));
+        ini = FleetTuner.set(ini, "transit", "capacity", Long.toString(Math.round(buffer * side / 20.0)));
+        // horizon propre aux grandes échelles : celui du scénario de base est calé sur ses trajets de 20 cases
+        if (steps > 0) {
+            ini = FleetTuner.set(ini, "configuration", "step", Integer.toString(steps));
+        }
+        return ini;
+    }
+
+    /**
+     * Lancer un scénario runs fois et garder les médianes
+     * @return les mesures, ou null si une simulation a échoué
+     */
+    Result measure(String ini) throws IOException, InterruptedException {
+        double[] rate = new double[runs];
+        double[] delivered = new double[runs];
+        double[] p99 = new double[runs];
+        double[] heap = new double[runs];
+        for (int r = 0; r < runs; r++) {
+            double[] m = simulate(ini);
+            if (m == null) return null;
+            rate[r] = m[0];
+            delivered[r] = m[1];
+            p99[r] = m[2];
+            heap[r] = m[3];
+        }
+        Result result = new Result();
+        result.ticksPerSecond = median(rate);
+        result.packagesPerTick = median(delivered);
+        result.p99 = median(p99);
+        result.peakHeap = median(heap);
+        return result;
+    }
+
+    /**
+     * Une simulation dans une JVM séparée, dans un dossier temporaire
+     * @return pas par seconde, colis par pas, p99 (ms), tas maximal (Mo) ; null en cas d'échec
+     */
+    private double[] simulate(String ini) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("benchmark");
+        try {
+            Path parameters = Files.createDirectory(dir.resolve("parameters"));
+            Files.write(parameters.resolve("configuration.ini"), ini.getBytes(StandardCharsets.UTF_8));
+            Files.copy(environment, parameters.resolve("environment.ini"));
+            Path log = dir.resolve("simulation.log");
+            Process p = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Djava.awt.headless=true", "-Dstdout.encoding=UTF-8", "-cp", FleetTuner.classpath(), "simulator.MySimFactory")
+                    .directory(dir.toFile()).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+            if (!p.waitFor(timeout, TimeUnit.SECONDS)) {
+                p.destroyForcibly().waitFor();
+                System.out.println("Simulation interrompue après " + timeout + " s");
+                return null;
+            }
+            double[] m = null;
+            int delivered = -1;
+            for (String line : new String(Files.readAllBytes(log), StandardCharsets.UTF_8).split("\n")) {
+                Matcher l = LATENCY.matcher(line);
+                if (l.find()) {
+                    double ticks = Double.parseDouble(l.group(1));
+                    double mean = Double.parseDouble(l.group(2));
+                    m = new double[]{mean > 0 ? 1000 / mean : 0, ticks, Double.parseDouble(l.group(3)),
+                        Double.parseDouble(l.group(4))};
+                }
+                Matcher d = DELIVERED.matcher(line);
+                if (d.find()) delivered = Integer.parseInt(d.group(1));
+            }
+            if (m == null || delivered < 0 || m[1] == 0) {
+                System.out.println("Simulation sans résultat, voir la fin du journal :");
+                List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+                for (String line : lines.subList(Math.max(0, lines.size() - 10), lines.size())) {
+                    System.out.println("  " + line);
+                }
+                return null;
+            }
+            m[1] = delivered / m[1];
+            return m;
+        } finally {
+            FleetTuner.delete(dir.toFile());
+        }
+    }
+
+    private static double median(double[] v) {
+        double[] s = v.clone();
+        Arrays.sort(s);
+        return s.length % 2 == 1 ? s[s.length / 2] : (s[s.length / 2 - 1] + s[s.length / 2]) / 2;
+    }
+
+    /**
+     * Ecarts défavorables au-delà des tolérances (liste vide : pas de régression)
+     * @param tolerance écart relatif admis sur les pas par seconde et le tas
+     * @param latencyTolerance écart relatif admis sur le p99
+     * @param packageTolerance écart relatif admis sur les colis livrés par pas
+     */
+    static List<String> compare(Result now, Result base, double tolerance, double latencyTolerance, double packageTolerance) {
+        List<String> regressions = new ArrayList<>();
+        if (now.ticksPerSecond < base.ticksPerSecond * (1 - tolerance)) {
+            regressions.add(String.format(Locale.ROOT, "pas/s %.1f < %.1f", now.ticksPerSecond, base.ticksPerSecond));
+        }
+        if (now.packagesPerTick < base.packagesPerTick * (1 - packageTolerance)) {
+            regressions.add(String.format(Locale.ROOT, "colis/pas %.5f < %.5f", now.packagesPerTick, base.packagesPerTick));
+        }
+        if (now.p99 > base.p99 * (1 + latencyTolerance)) {
+            regressions.add(String.format(Locale.ROOT, "p99 %.4f ms > %.4f ms", now.p99, base.p99));
+        }
+        if (now.peakHeap > base.peakHeap * (1 + tolerance)) {
+            regressions.add(String.format(Locale.ROOT, "tas %.1f Mo > %.1f Mo", now.peakHeap, base.peakHeap));
+        }
+        return regressions;
+    }
+
+    private static String format(Result r) {
+        return String.format(Locale.ROOT, "%10.1f %12.5f %10.4f %9.1f", r.ticksPerSecond, r.packagesPerTick, r.p99, r.peakHeap);
+    }
+
+    /**
+     * @param args record : enregistrer les résultats comme nouvelle référence
+     */
+    public static void main(String[] args) throws Exception {
+        boolean record = args.length > 0 && args[0].equals("record");
+        Path parameters = Paths.get("parameters");
+        IniFile ifile = new IniFile(parameters.resolve("configuration.ini").toString());
+        String scales = ifile.getStringValue("benchmark", "scales");
+        if (scales == null || scales.isEmpty()) scales = "1,10,100,1000";
+        String baseline = ifile.getStringValue("benchmark", "baseline");
+        if (baseline == null || baseline.isEmpty()) baseline = "benchmarks/baseline.ini";
+        double tolerance = ifile.getDoubleValue("benchmark", "tolerance") > 0 ? ifile.getDoubleValue("benchmark", "tolerance") : 0.3;
+        double latencyTolerance = ifile.getDoubleValue("benchmark", "latencytolerance") > 0
+                ? ifile.getDoubleValue("benchmark", "latencytolerance") : 0.6;
+        double packageTolerance = ifile.getDoubleValue("benchmark", "packagetolerance") > 0
+                ? ifile.getDoubleValue("benchmark", "packagetolerance") : 0.02;
+        BenchmarkSuite suite = new BenchmarkSuite(parameters, ifile.getIntValue("benchmark", "runs"),
+                ifile.getIntValue("benchmark", "steps"),
+                ifile.getIntValue("benchmark", "timeout") > 0 ? ifile.getIntValue("benchmark", "timeout") : 600);
+
+        Path file = Paths.get(baseline);
+        IniFile reference = !record && Files.exists(file) ? new IniFile(file.toString()) : null;
+        if (!record && reference == null) {
+            System.out.println("Pas de référence " + file + " : lancer java simulator.BenchmarkSuite record");
+        }
+        System.out.println(String.format("%-10s %10s %12s %10s %9s", "scénario", "pas/s", "colis/pas", "p99 (ms)", "tas (Mo)"));
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "# référence BenchmarkSuite du %s : Java %s, %s %s, %d cœur(s), médiane de %d simulation(s)%n"
+                + "# propre à cette machine : à réenregistrer (java simulator.BenchmarkSuite record) sur toute autre machine%n",
+                LocalDate.now(), System.getProperty("java.version"), System.getProperty("os.name"), System.getProperty("os.arch"),
+                Runtime.getRuntime().availableProcessors(), suite.runs));
+        int regressions = 0;
+        int failures = 0;
+        for (String s : scales.split(",")) {
+            int k = Integer.parseInt(s.trim());
+            String name = "scale" + k;
+            Result now = suite.measure(suite.configure(ifile, k));
+            if (now == null) {
+                failures++;
+                System.out.println(String.format("%-10s échec", name));
+                continue;
+            }
+            if (now.packagesPerTick == 0) {
+                // scénario qui ne livre rien : ni référence ni comparaison possible sur le débit
+                failures++;
+                System.out.println(String.format("%-10s %s  échec : aucun colis livré", name, format(now)));
+                continue;
+            }
+            out.append(String.format(Locale.ROOT, "%n[%s]%n  ticks_per_s = %.1f%n  packages_per_tick = %.5f%n  p99_ms = %.4f%n"
+                    + "  peak_heap_mb = %.1f%n", name, now.ticksPerSecond, now.packagesPerTick, now.p99, now.peakHeap));
+            String verdict = "";
+            if (reference != null) {
+                if (reference.getDoubleValue(name, "ticks_per_s") == 0) {
+                    verdict = "  (pas de référence)";
+                } else {
+                    Result base = new Result();
+                    base.ticksPerSecond = reference.getDoubleValue(name, "ticks_per_s");
+                    base.packagesPerTick = reference.getDoubleValue(name, "packages_per_tick");
+                    base.p99 = reference.getDoubleValue(name, "p99_ms");
+                    base.peakHeap = reference.getDoubleValue(name, "peak_heap_mb");
+                    List<String> r = compare(now, base, tolerance, latencyTolerance, packageTolerance);
+                    verdict = r.isEmpty() ? "  ok" : "  RÉGRESSION : " + String.join(", ", r);
+                    if (!r.isEmpty()) regressions++;
+                    System.out.println(String.format("%-10s %s", "  référence", format(base)));
+                }
+            }
+            System.out.println(String.format("%-10s %s%s", name, format(now), verdict));
+        }
+
+        if (record) {
+            if (failures > 0) {
+                System.out.println("Référence non enregistrée : " + failures + " scénario(s) en échec");
+                System.exit(1);
+            }
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            Files.write(file, out.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.println("Référence écrite dans " + file);
+        } else if (regressions > 0 || failures > 0) {
+            System.out.println(regressions + " scénario(s) en régression, " + failures + " en échec (tolérance "
+                    + Math.round(tolerance * 100) + " %, p99 " + Math.round(latencyTolerance * 100) + " %, colis/pas "
+                    + Math.round(packageTolerance * 100) + " %)");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package simulator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import fr.emse.fayol.maqit.simulator.components.Robot;
+
+/**
+ * Avance hybride du temps : un robot dont le prochain changement d'état est prévisible s'endort
+ * au lieu d'être activé à chaque pas.
+ * - Un robot en charge s'endort jusqu'au pas qui termine sa charge (réveil daté, file de priorité).
+ * - Un robot de rôle 1 libre, à l'écart et sans colis en transit s'endort jusqu'au prochain dépôt
+ *   en transit (réveil sur signal).
+ * Au réveil, le robot rattrape les pas sautés (recharge cumulée, compteurs de la carte de trafic)
+ * avant d'être activé ; les robots éveillés sont activés dans l'ordre de la liste, comme en mode pas à pas,
+ * si bien que la simulation suit exactement la même trajectoire.
+ */
+public class EventScheduler {
+
+    private static final int ON_SIGNAL = Integer.MAX_VALUE;
+
+    private final List<Robot> robots;
+    private final BitSet awake = new BitSet();
+    private int[] wakeAt = new int[16];      // pas de réveil, ON_SIGNAL pour un dépôt en transit
+    private int[] lastStep = new int[16];    // dernier pas où le robot a été activé
+    private long[] heap = new long[16];      // (pas de réveil << 32) | indice du robot
+    private int heapSize = 0;
+    private int[] waiters = new int[16];     // robots endormis en attente d'un dépôt en transit
+    private int waiterCount = 0;
+    private int known = 0;
+    private int tick = 0;
+
+    // métriques
+    private long stepped = 0;
+    private long skipped = 0;
+
+    public EventScheduler(List<Robot> robots) {
+        this.robots = robots;
+    }
+
+    /**
+     * Début du pas : réveiller les robots dont l'échéance est atteinte
+     */
+    public void advanceTo(int tick) {
+        this.tick = tick;
+        for (; known < robots.size(); known++) {
+            ensureCapacity(known);
+            awake.set(known);
+            lastStep[known] = tick - 1;
+        }
+        while (heapSize > 0 && (int) (heap[0] >>> 32) <= tick) {
+            wake((int) pop());
+        }
+    }
+
+    /**
+     * Prochain robot éveillé à partir de l'indice from, -1 s'il n'y en a plus pour ce pas
+     */
+    public int nextAwake(int from) {
+        return from < known ? awake.nextSetBit(from) : -1;
+    }
+
+    /**
+     * Juste avant l'activation : rattraper les pas sautés pendant le sommeil
+     */
+    public void beforeStep(int k, Robot r) {
+        catchUp(r, tick - lastStep[k] - 1);
+        lastStep[k] = tick;
+        stepped++;
+    }
+
+    private void catchUp(Robot r, int missed) {
+        if (missed <= 0) return;
+        skipped += missed;
+        if (r instanceof MyRobot) {
+            ((MyRobot) r).skipTicks(missed);
+        }
+        if (SimFactory.heatmap != null) {
+            SimFactory.heatmap.stay(r.getX(), r.getY(), missed);
+        }
+    }
+
+    /**
+     * Juste après l'activation : endormir le robot si ses prochains pas sont prévisibles
+     */
+    public void afterStep(int k, Robot r) {
+        if (!(r instanceof MyRobot)) return;
+        MyRobot robot = (MyRobot) r;
+        int idle = robot.chargingIdleTicks();
+        if (idle > 0) {
+            sleep(k, tick + idle + 1);
+            push(((long) wakeAt[k] << 32) | k);
+        } else if (robot.isWaitingForTransitPackage()) {
+            sleep(k, ON_SIGNAL);
+            if (waiterCount == waiters.length) {
+                waiters = Arrays.copyOf(waiters, waiterCount * 2);
+            }
+            waiters[waiterCount++] = k;
+        }
+    }
+
+    /**
+     * Un colis vient d'être déposé en transit : réveiller les robots qui l'attendaient.
+     * Ceux qui suivent dans la liste sont activés dès ce pas, les autres au pas suivant.
+     */
+    public void signalTransitPackage() {
+        for (int i = 0; i < waiterCount; i++) {
+            wake(waiters[i]);
+        }
+        waiterCount = 0;
+    }
+
+    private void sleep(int k, int until) {
+        wakeAt[k] = until;
+        awake.clear(k);
+    }
+
+    private void wake(int k) {
+        wakeAt[k] = 0;
+        awake.set(k);
+    }
+
+    private void ensureCapacity(int k) {
+        if (k >= wakeAt.length) {
+            int n = Math.max(k + 1, wakeAt.length * 2);
+            wakeAt = Arrays.copyOf(wakeAt, n);
+            lastStep = Arrays.copyOf(lastStep, n);
+        }
+    }
+
+    private void push(long key) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (heap[parent] <= key) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (heapSize > 0) heap[i] = last;
+        return top;
+    }
+
+    /**
+     * Faire rattraper aux robots endormis les pas sautés jusqu'au pas courant
+     * (avant un export de la carte de trafic, en fin de simulation)
+     */
+    public void synchronize() {
+        for (int k = awake.nextClearBit(0); k < known; k = awake.nextClearBit(k + 1)) {
+            catchUp(robots.get(k), tick - lastStep[k]);
+            lastStep[k] = tick;
+        }
+    }
+
+    public String report() {
+        long total = stepped + skipped;
+        return String.format("%d activations, %d évitées (%.1f %%), %d robot(s) endormi(s) en fin de simulation",
+                stepped, skipped, total == 0 ? 0 : 100.0 * skipped / total, known - awake.cardinality());
+    }
+}
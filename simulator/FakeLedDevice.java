@@ -0,0 +1,129 @@
+package simulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.emse.fayol.maqit.simulator.display.LEDTable;
+
+/**
+ * Table LED factice : applique les messages reçus à sa propre image, comme le ferait la table,
+ * et enregistre chaque trame (instant, table, nombre de pixels) pour vérifier la sortie sans matériel :
+ * image finale identique à la grille, débit réel inférieur à la fréquence de rafraîchissement.
+ */
+public class FakeLedDevice implements TelemetrySink {
+
+    /**
+     * Trame reçue
+     */
+    public static final class Frame {
+        public final long nanos;
+        public final String table;
+        public final int pixels;
+
+        Frame(long nanos, String table, int pixels) {
+            this.nanos = nanos;
+            this.table = table;
+            this.pixels = pixels;
+        }
+    }
+
+    private final List<LEDTable> tables;
+    private final Map<String, int[]> images = new HashMap<>(); // sujet -> couleurs, comme LedPanelOutput
+    private final List<Frame> frames = new ArrayList<>();
+    private int errors = 0;
+
+    public FakeLedDevice(List<LEDTable> tables) {
+        this.tables = tables;
+        for (LEDTable t : tables) {
+            int[] image = new int[t.getWidth() * t.getHeight()];
+            Arrays.fill(image, -1); // éteint tant qu'aucun message ne l'a allumé
+            images.put(t.getId() + "/leds", image);
+        }
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) {
+        int[] image = images.get(topic);
+        if (image == null) {
+            errors++;
+            return;
+        }
+        LEDTable table = tables.get(indexOf(topic));
+        // les seuls nombres du message sont, dans l'ordre, x, y, r, g, b de chaque pixel
+        String json = new String(payload, StandardCharsets.UTF_8);
+        int[] v = new int[5];
+        int k = 0;
+        int pixels = 0;
+        for (int i = 0; i < json.length(); i++) {
+            if (!Character.isDigit(json.charAt(i))) continue;
+            int n = 0;
+            while (i < json.length() && Character.isDigit(json.charAt(i))) {
+                n = n * 10 + json.charAt(i++) - '0';
+            }
+            v[k++] = n;
+            if (k == 5) {
+                k = 0;
+                if (v[0] >= table.getWidth() || v[1] >= table.getHeight()) {
+                    errors++;
+                    continue;
+                }
+                image[v[0] * table.getHeight() + v[1]] = v[2] << 16 | v[3] << 8 | v[4];
+                pixels++;
+            }
+        }
+        if (k != 0) errors++;
+        frames.add(new Frame(System.nanoTime(), topic, pixels));
+    }
+
+    @Override
+    public void close() {
+        // rien à libérer
+    }
+
+    public List<Frame> getFrames() {
+        return frames;
+    }
+
+    /**
+     * Pixels dont la couleur affichée diffère de la grille (0 = la table montre exactement la simulation)
+     */
+    public int mismatches(LedPanelOutput output) {
+        int count = 0;
+        for (LEDTable t : tables) {
+            int[] image = images.get(t.getId() + "/leds");
+            for (int i = 0; i < t.getWidth(); i++) {
+                for (int j = 0; j < t.getHeight(); j++) {
+                    if (image[i * t.getHeight() + j] != output.colorOf(t.getPositionX() + i, t.getPositionY() + j)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    public String report(LedPanelOutput output) {
+        long pixels = 0;
+        long minGap = Long.MAX_VALUE;
+        Map<String, Long> last = new HashMap<>();
+        for (Frame f : frames) {
+            pixels += f.pixels;
+            Long previous = last.put(f.table, f.nanos);
+            if (previous != null) minGap = Math.min(minGap, f.nanos - previous);
+        }
+        return String.format("%d trames enregistrées, %d pixels, intervalle minimal %s, %d messages invalides, "
+                + "pixels différents de la grille : %d", frames.size(), pixels,
+                minGap == Long.MAX_VALUE ? "-" : String.format("%.1f ms", minGap / 1e6), errors, mismatches(output));
+    }
+
+    private int indexOf(String topic) {
+        for (int i = 0; i < tables.size(); i++) {
+            if (topic.equals(tables.get(i).getId() + "/leds")) return i;
+        }
+        return -1;
+    }
+}
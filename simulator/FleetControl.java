@@ -0,0 +1,80 @@
+package simulator;
+
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+
+/**
+ * Réglages de la flotte (section [control], optimisés par FleetTuner) et règles de décision
+ * communes aux robots MyRobot et au mode flotte FleetSimulation :
+ * - un robot dont la batterie passe sous lowBattery abandonne sa tâche et part se charger ;
+ * - un robot libre ne prend un colis qu'à partir de taskBattery, sinon il part se charger ;
+ * - sur une station, il gagne chargingRate par pas et repart libre une fois plein.
+ * Seuils en % ; la batterie est dans l'unité de l'appelant, full valant 100 %.
+ */
+public class FleetControl {
+
+    /**
+     * Réglages par défaut, sans section [control]
+     */
+    public static final FleetControl DEFAULT = new FleetControl(20, 60, 5, 8.0, 4.0, 2.0, 0.5);
+
+    public final int lowBattery;           // seuil (%) de départ en charge
+    public final int taskBattery;          // batterie minimale (%) pour prendre un colis
+    public final int chargingRate;         // % gagnés par pas sur une station
+    public final double returnDistance;    // distance au transit où un robot rôle 0 repart vers les quais
+    public final double transitClearance;  // distance gardée des zones de transit par un robot qui attend un colis
+    public final double zoneClearance;     // distance prise après un passage à un quai ou à un goal
+    public final double role0Share;        // part des robots qui prennent le rôle 0
+
+    public FleetControl(int lowBattery, int taskBattery, int chargingRate, double returnDistance,
+            double transitClearance, double zoneClearance, double role0Share) {
+        this.lowBattery = lowBattery;
+        this.taskBattery = taskBattery;
+        this.chargingRate = chargingRate;
+        this.returnDistance = returnDistance;
+        this.transitClearance = transitClearance;
+        this.zoneClearance = zoneClearance;
+        this.role0Share = role0Share;
+    }
+
+    /**
+     * Lire la section [control] si enabled = 1, sinon les réglages par défaut
+     */
+    public static FleetControl load(IniFile ifile) {
+        if (ifile.getIntValue("control", "enabled") != 1) {
+            return DEFAULT;
+        }
+        return new FleetControl(ifile.getIntValue("control", "lowbattery"), ifile.getIntValue("control", "taskbattery"),
+                ifile.getIntValue("control", "chargingrate"), ifile.getDoubleValue("control", "returndistance"),
+                ifile.getDoubleValue("control", "transitclearance"), ifile.getDoubleValue("control", "zoneclearance"),
+                ifile.getDoubleValue("control", "role0share"));
+    }
+
+    /**
+     * Batterie critique : abandonner la tâche en cours et partir se charger
+     */
+    public boolean mustCharge(int battery, int full) {
+        return battery * 100L <= (long) lowBattery * full;
+    }
+
+    /**
+     * Robot libre : assez de batterie pour prendre un colis (sinon partir se charger)
+     */
+    public boolean canTakeTask(int battery, int full) {
+        return battery * 100L >= (long) taskBattery * full;
+    }
+
+    /**
+     * Batterie après ticks pas sur une station, plafonnée à full (la charge est alors terminée)
+     */
+    public int charge(int battery, int full, int ticks) {
+        return (int) Math.min(full, battery + (long) chargingRate * full / 100 * ticks);
+    }
+
+    /**
+     * Pas de charge restants avant d'être plein
+     */
+    public int ticksToFull(int battery, int full) {
+        long step = (long) chargingRate * full / 100;
+        return step <= 0 ? Integer.MAX_VALUE : (int) ((full - battery + step - 1) / step);
+    }
+}
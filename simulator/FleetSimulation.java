@@ -0,0 +1,563 @@
+package simulator;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+
+/**
+ * Mode flotte : simuler sans interface des flottes de plusieurs centaines de milliers de robots dont l'état
+ * (position, état, batterie, rôle, goal visé comme destination, colis porté) tient dans un FleetStore,
+ * parcouru dans l'ordre des indices à chaque pas.
+ * Mêmes règles que MyRobot (FleetControl, section [control]) : le rôle 0 prend un colis à un quai et le dépose
+ * dans une zone de transit, le rôle 1 le reprend et le livre au goal ; un robot libre sous taskBattery va se charger,
+ * un robot chargé sous lowBattery abandonne son colis pour s'y rendre ; un robot de rôle 1 inactif s'écarte
+ * des zones de transit.
+ * Pas de messages ni d'objets par robot : les robots descendent des champs de distances (FlowField)
+ * partagés - quais, bancs de charge, zones de transit non pleines (dépôt) ou non vides (retrait),
+ * ces deux derniers recalculés tous les refresh pas si l'état des zones a changé - et, vers les goals,
+ * des champs de directions sur quatre bits par case calculés à la première demande.
+ * L'occupation de la grille tient dans un tableau d'entiers (indice du robot + 1, 0 si libre).
+ */
+public class FleetSimulation {
+
+    // batterie en centièmes de %
+    static final int FULL_BATTERY = 10000;
+
+    private static final byte FREE = FleetStore.FREE;
+    private static final byte TRANSPORT = FleetStore.TRANSPORT;
+    private static final byte MOVING_AWAY = FleetStore.MOVING_AWAY;
+    private static final byte CHARGING = FleetStore.CHARGING;
+    private static final byte GOING_TO_CHARGE = FleetStore.GOING_TO_CHARGE;
+    private static final int NONE = FleetStore.NONE;
+    private static final int MAX_WAIT = 3;  // pas bloqués avant un pas de côté
+
+    private final int rows;
+    private final int columns;
+    private final boolean[] passable;
+    private final int[] occupant;
+    private final FleetControl control;
+    private final int transitClearance;  // distances de control, en cases
+    private final int zoneClearance;
+    private final int drain;
+    private final int refresh;
+    private final Random rnd;
+
+    // robots : état dans le FleetStore, pas bloqués tenus ici
+    private final FleetStore fleet;
+    private final byte[] waits;
+
+    // zones de transit : colis stockés dans des files circulaires à plat
+    private final int[] transitOf;      // case -> indice de zone + 1, 0 sinon
+    private final int[][] transitCells;
+    private final int[] slotStart;
+    private final int[] slotCapacity;
+    private final int[] slotHead;
+    private final int[] slotCount;
+    private final int[] slotPackage;
+    private final int[] slotGoal;       // case du goal de chaque colis
+
+    // champs de distances
+    private final int[][] goals;
+    private final int[] goalOf;         // case -> indice de goal + 1, 0 sinon
+    private final FlowField startField;
+    private final FlowField chargingField;
+    private final FlowField transitField;
+    private FlowField dropField;
+    private FlowField pickupField;
+    private boolean transitChanged = true;
+    private final byte[][] goalMasks;   // directions vers chaque goal, null tant qu'aucun robot n'y va
+    private final NavigationCache cache; // champs fixes relus du disque, null : toujours calculés
+    private int fieldBuilds = 0;
+
+    // métriques
+    private int tick = 0;
+    private int nextPackage = 0;
+    private long moves = 0;
+    private long blocked = 0;
+    private long delivered = 0;
+    private long charges = 0;
+
+    /**
+     * @param layout plan de l'entrepôt
+     * @param capacity nombre maximal de robots
+     * @param control seuils de batterie, vitesse de charge, distances aux zones et part des robots au rôle 0
+     * @param drain batterie consommée par déplacement, en centièmes de %
+     * @param refresh période de mise à jour des champs de dépôt et de retrait
+     * @param cache dossier du cache de navigation (champs des quais, stations, zones de transit et goals), null sans cache
+     */
+    public FleetSimulation(WarehouseLayout layout, int capacity, FleetControl control, int drain, int refresh, long seed, File cache) {
+        this.rows = layout.rows;
+        this.columns = layout.columns;
+        this.control = control;
+        this.transitClearance = (int) control.transitClearance;
+        this.zoneClearance = (int) control.zoneClearance;
+        this.drain = drain;
+        this.refresh = refresh;
+        this.rnd = new Random(seed);
+        this.passable = new boolean[rows * columns];
+        for (int c = 0; c < passable.length; c++) {
+            byte type = layout.cells[c];
+            passable[c] = type == WarehouseLayout.EMPTY || type == WarehouseLayout.GOAL;
+        }
+        this.occupant = new int[rows * columns];
+        this.cache = cache != null ? NavigationCache.open(cache, rows, columns, passable) : null;
+
+        this.fleet = new FleetStore(columns, capacity);
+        this.waits = new byte[capacity];
+
+        int nbTransit = layout.transitZoneData.size();
+        this.transitOf = new int[rows * columns];
+        this.transitCells = new int[nbTransit][];
+        this.slotStart = new int[nbTransit];
+        this.slotCapacity = new int[nbTransit];
+        this.slotHead = new int[nbTransit];
+        this.slotCount = new int[nbTransit];
+        int slots = 0;
+        for (int z = 0; z < nbTransit; z++) {
+            int[] data = layout.transitZoneData.get(z);
+            transitCells[z] = new int[]{data[0], data[1]};
+            transitOf[data[0] * columns + data[1]] = z + 1;
+            slotStart[z] = slots;
+            slotCapacity[z] = Math.max(1, data[2]);
+            slots += slotCapacity[z];
+        }
+        this.slotPackage = new int[slots];
+        this.slotGoal = new int[slots];
+
+        this.goals = layout.goalPositions.values().toArray(new int[0][]);
+        this.goalOf = new int[rows * columns];
+        for (int g = 0; g < goals.length; g++) {
+            goalOf[goals[g][0] * columns + goals[g][1]] = g + 1;
+        }
+        this.startField = field(layout.startZonePositions.values().toArray(new int[0][]), true);
+        this.chargingField = field(layout.chargingStationPositions.values().toArray(new int[0][]), true);
+        this.transitField = field(transitCells, true);
+        this.goalMasks = new byte[goals.length][];
+    }
+
+    /**
+     * Placer des robots sur des cases libres tirées au hasard, batterie pleine.
+     * Les premiers (part role0Share) prennent le rôle 0, les autres le rôle 1, comme après la négociation de MyRobot.
+     */
+    public void populate(int count) {
+        FreeCellIndex free = new FreeCellIndex(rows, columns);
+        for (int c = 0; c < passable.length; c++) {
+            if (passable[c] && occupant[c] == 0) free.add(c / columns, c % columns);
+        }
+        int first = fleet.size();
+        for (int k = 0; k < count && fleet.size() < waits.length; k++) {
+            int[] pos = free.sample(rnd);
+            if (pos == null) break;
+            free.remove(pos[0], pos[1]);
+            int i = fleet.add(pos[0], pos[1]);
+            occupant[fleet.cell[i]] = i + 1;
+            fleet.battery[i] = FULL_BATTERY;
+            fleet.role[i] = (byte) (i - first < (int) (count * control.role0Share) ? 0 : 1);
+        }
+    }
+
+    public FleetStore getFleet() {
+        return fleet;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Un pas de simulation : tous les robots, par indice croissant
+     */
+    public void step() {
+        tick++;
+        if (transitChanged && (tick - 1) % refresh == 0) {
+            rebuildTransitFields();
+        }
+        for (int i = 0; i < fleet.size; i++) {
+            if (fleet.role[i] == 0) {
+                stepRole0(i);
+            } else {
+                stepRole1(i);
+            }
+        }
+    }
+
+    private void stepRole0(int i) {
+        byte e = fleet.etat[i];
+        if (e == FREE) {
+            if (goToChargeIfNeeded(i)) return;
+            if (moveAlong(i, startField)) {
+                fleet.carried[i] = nextPackage++;
+                fleet.destination[i] = goalCell(rnd.nextInt(goals.length));
+                fleet.etat[i] = TRANSPORT;
+            }
+        } else if (e == TRANSPORT) {
+            if (abandonIfCritical(i)) return;
+            if (moveAlong(i, dropField) && deposit(i)) {
+                fleet.carried[i] = NONE;
+                fleet.destination[i] = NONE;
+                fleet.etat[i] = FREE;
+            }
+        } else {
+            stepCharging(i);
+        }
+    }
+
+    private void stepRole1(int i) {
+        byte e = fleet.etat[i];
+        if (e == FREE) {
+            if (goToChargeIfNeeded(i)) return;
+            if (pickupField.distance(fleet.getX(i), fleet.getY(i)) == FlowField.UNREACHABLE) {
+                // aucun colis en transit : ne pas gêner les dépôts
+                if (transitField.distance(fleet.getX(i), fleet.getY(i)) < transitClearance) {
+                    fleet.etat[i] = MOVING_AWAY;
+                }
+                return;
+            }
+            if (moveAlong(i, pickupField)) {
+                pickUp(i);
+            }
+        } else if (e == TRANSPORT) {
+            if (abandonIfCritical(i)) return;
+            if (moveTowardsGoal(i)) {
+                delivered++;
+                fleet.carried[i] = NONE;
+                fleet.etat[i] = MOVING_AWAY; // d'abord libérer le goal (encore dans destination)
+            }
+        } else if (e == MOVING_AWAY) {
+            if (fleet.destination[i] != NONE) {
+                if (!moveAwayFromGoal(i)) {
+                    fleet.destination[i] = NONE;
+                }
+            } else if (transitField.distance(fleet.getX(i), fleet.getY(i)) >= transitClearance || !moveAway(i, transitField)) {
+                fleet.etat[i] = FREE;
+            }
+        } else {
+            stepCharging(i);
+        }
+    }
+
+    private boolean goToChargeIfNeeded(int i) {
+        if (control.canTakeTask(fleet.battery[i], FULL_BATTERY)) return false;
+        fleet.etat[i] = GOING_TO_CHARGE;
+        return true;
+    }
+
+    /**
+     * Batterie critique en cours de tâche : le colis porté est perdu, comme pour MyRobot
+     */
+    private boolean abandonIfCritical(int i) {
+        if (!control.mustCharge(fleet.battery[i], FULL_BATTERY)) return false;
+        fleet.carried[i] = NONE;
+        fleet.destination[i] = NONE;
+        fleet.etat[i] = GOING_TO_CHARGE;
+        return true;
+    }
+
+    private void stepCharging(int i) {
+        if (fleet.etat[i] == GOING_TO_CHARGE) {
+            if (moveAlong(i, chargingField)) {
+                fleet.etat[i] = CHARGING;
+                charges++;
+            }
+            return;
+        }
+        fleet.battery[i] = control.charge(fleet.battery[i], FULL_BATTERY, 1);
+        if (fleet.battery[i] == FULL_BATTERY) {
+            fleet.etat[i] = FREE;
+        }
+    }
+
+    /**
+     * Déposer le colis porté dans une zone de transit voisine non pleine
+     */
+    private boolean deposit(int i) {
+        int z = adjacentTransit(i, false);
+        if (z < 0) return false;
+        int slot = slotStart[z] + (slotHead[z] + slotCount[z]) % slotCapacity[z];
+        slotPackage[slot] = fleet.carried[i];
+        slotGoal[slot] = fleet.destination[i];
+        slotCount[z]++;
+        transitChanged = true;
+        return true;
+    }
+
+    /**
+     * Prendre le plus ancien colis d'une zone de transit voisine
+     */
+    private void pickUp(int i) {
+        int z = adjacentTransit(i, true);
+        if (z < 0) return;
+        int slot = slotStart[z] + slotHead[z];
+        fleet.carried[i] = slotPackage[slot];
+        fleet.destination[i] = slotGoal[slot];
+        slotHead[z] = (slotHead[z] + 1) % slotCapacity[z];
+        slotCount[z]--;
+        transitChanged = true;
+        fleet.etat[i] = TRANSPORT;
+    }
+
+    /**
+     * Zone de transit voisine du robot, non vide (retrait) ou non pleine (dépôt), -1 sinon
+     */
+    private int adjacentTransit(int i, boolean withPackage) {
+        int x = fleet.getX(i), y = fleet.getY(i);
+        for (int m = 0; m < 4; m++) {
+            int nx = x + (m == 0 ? -1 : m == 1 ? 1 : 0);
+            int ny = y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+            if (nx < 0 || nx >= rows || ny < 0 || ny >= columns) continue;
+            int z = transitOf[nx * columns + ny] - 1;
+            if (z < 0) continue;
+            if (withPackage ? slotCount[z] > 0 : slotCount[z] < slotCapacity[z]) return z;
+        }
+        return -1;
+    }
+
+    /**
+     * Avancer d'une case vers la destination du champ
+     * @return true si le robot y est déjà
+     */
+    private boolean moveAlong(int i, FlowField field) {
+        int x = fleet.getX(i), y = fleet.getY(i);
+        int d = field.distance(x, y);
+        if (d == 0) return true;
+        if (d == FlowField.UNREACHABLE || fleet.battery[i] == 0) return false;
+        int best = -1, bestD = d;
+        for (int m = 0; m < 4; m++) {
+            int nx = x + (m == 0 ? -1 : m == 1 ? 1 : 0);
+            int ny = y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+            int nd = field.distance(nx, ny);
+            if (nd < bestD && occupant[nx * columns + ny] == 0) {
+                bestD = nd;
+                best = nx * columns + ny;
+            }
+        }
+        if (best < 0) {
+            blocked++;
+            if (++waits[i] <= MAX_WAIT) return false;
+            // bloqué trop longtemps : pas de côté vers une case libre quelconque
+            best = sideStep(x, y, field);
+            if (best < 0) return false;
+        }
+        moveTo(i, best);
+        return false;
+    }
+
+    /**
+     * Avancer d'une case vers le goal visé en suivant son champ de directions
+     * @return true si le robot est sur le goal
+     */
+    private boolean moveTowardsGoal(int i) {
+        int target = fleet.destination[i];
+        if (fleet.cell[i] == target) return true;
+        if (fleet.battery[i] == 0) return false;
+        int mask = FlowField.descent(goalMasks(goalOf[target] - 1), fleet.cell[i]);
+        if (mask == 0) return false; // goal inaccessible
+        int x = fleet.getX(i), y = fleet.getY(i);
+        for (int m = 0; m < 4; m++) {
+            if ((mask & (1 << m)) == 0) continue;
+            int next = (x + (m == 0 ? -1 : m == 1 ? 1 : 0)) * columns + y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+            if (occupant[next] == 0) {
+                moveTo(i, next);
+                return false;
+            }
+        }
+        blocked++;
+        if (++waits[i] > MAX_WAIT) {
+            int next = sideStep(x, y, transitField);
+            if (next >= 0) moveTo(i, next);
+        }
+        return false;
+    }
+
+    /**
+     * Après une livraison, s'écarter du goal (distance de Manhattan)
+     * @return false une fois assez loin, ou si aucune case plus lointaine n'est libre
+     */
+    private boolean moveAwayFromGoal(int i) {
+        int gx = fleet.getDestX(i), gy = fleet.getDestY(i);
+        int x = fleet.getX(i), y = fleet.getY(i);
+        int d = Math.abs(x - gx) + Math.abs(y - gy);
+        if (d >= zoneClearance) return false;
+        for (int m = 0; m < 4; m++) {
+            int nx = x + (m == 0 ? -1 : m == 1 ? 1 : 0);
+            int ny = y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+            if (nx < 0 || nx >= rows || ny < 0 || ny >= columns) continue;
+            int next = nx * columns + ny;
+            if (Math.abs(nx - gx) + Math.abs(ny - gy) > d && passable[next] && occupant[next] == 0) {
+                moveTo(i, next);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * S'éloigner d'une case des destinations du champ
+     * @return false si aucune case plus lointaine n'est libre
+     */
+    private boolean moveAway(int i, FlowField field) {
+        int x = fleet.getX(i), y = fleet.getY(i);
+        int d = field.distance(x, y);
+        for (int m = 0; m < 4; m++) {
+            int nx = x + (m == 0 ? -1 : m == 1 ? 1 : 0);
+            int ny = y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+            int nd = field.distance(nx, ny);
+            if (nd > d && nd != FlowField.UNREACHABLE && occupant[nx * columns + ny] == 0) {
+                moveTo(i, nx * columns + ny);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int sideStep(int x, int y, FlowField field) {
+        int first = rnd.nextInt(4);
+        for (int k = 0; k < 4; k++) {
+            int m = (first + k) % 4;
+            int nx = x + (m == 0 ? -1 : m == 1 ? 1 : 0);
+            int ny = y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+            if (field.distance(nx, ny) != FlowField.UNREACHABLE && occupant[nx * columns + ny] == 0) {
+                return nx * columns + ny;
+            }
+        }
+        return -1;
+    }
+
+    private void moveTo(int i, int target) {
+        occupant[fleet.cell[i]] = 0;
+        occupant[target] = i + 1;
+        fleet.cell[i] = target;
+        waits[i] = 0;
+        fleet.battery[i] = Math.max(0, fleet.battery[i] - drain);
+        moves++;
+    }
+
+    /**
+     * Champs de dépôt (zones non pleines) et de retrait (zones non vides)
+     */
+    private void rebuildTransitFields() {
+        int[][] notFull = new int[transitCells.length][];
+        int[][] notEmpty = new int[transitCells.length][];
+        int nf = 0, ne = 0;
+        for (int z = 0; z < transitCells.length; z++) {
+            if (slotCount[z] < slotCapacity[z]) notFull[nf++] = transitCells[z];
+            if (slotCount[z] > 0) notEmpty[ne++] = transitCells[z];
+        }
+        dropField = field(Arrays.copyOf(notFull, nf), false);
+        pickupField = field(Arrays.copyOf(notEmpty, ne), false);
+        transitChanged = false;
+    }
+
+    private int goalCell(int g) {
+        return goals[g][0] * columns + goals[g][1];
+    }
+
+    private byte[] goalMasks(int g) {
+        if (goalMasks[g] == null) {
+            goalMasks[g] = field(new int[][]{goals[g]}, true).descentMasks();
+        }
+        return goalMasks[g];
+    }
+
+    /**
+     * Champ vers des destinations : la case elle-même si elle est franchissable (goal), sinon ses voisines
+     * @param fixed destinations fixes, dont le champ peut être relu du cache ; les champs de dépôt et de retrait
+     * changent avec l'occupation des zones et sont toujours calculés
+     */
+    private FlowField field(int[][] destinations, boolean fixed) {
+        int[][] sources = new int[destinations.length * 4][];
+        int n = 0;
+        for (int[] dst : destinations) {
+            if (passable[dst[0] * columns + dst[1]]) {
+                sources[n++] = dst;
+                continue;
+            }
+            for (int m = 0; m < 4; m++) {
+                int nx = dst[0] + (m == 0 ? -1 : m == 1 ? 1 : 0);
+                int ny = dst[1] + (m == 2 ? -1 : m == 3 ? 1 : 0);
+                if (nx >= 0 && nx < rows && ny >= 0 && ny < columns) {
+                    sources[n++] = new int[]{nx, ny};
+                }
+            }
+        }
+        if (fixed && cache != null) {
+            return cache.field(Arrays.copyOf(sources, n));
+        }
+        fieldBuilds++;
+        return new FlowField(rows, columns, passable, Arrays.copyOf(sources, n));
+    }
+
+    /**
+     * Somme de contrôle des positions et des états, pour comparer deux exécutions
+     */
+    public long checksum() {
+        return fleet.checksum();
+    }
+
+    public String report() {
+        int[] byState = new int[MyRobot.Etat.values().length];
+        for (int i = 0; i < fleet.size; i++) {
+            byState[fleet.etat[i]]++;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(fleet.size()).append(" robots, ").append(delivered).append(" livraisons, ").append(nextPackage)
+                .append(" colis pris, ").append(moves).append(" déplacements, ").append(blocked)
+                .append(" pas bloqués, ").append(charges).append(" charges, ").append(fieldBuilds)
+                .append(" champs calculés").append(System.lineSeparator());
+        if (cache != null) {
+            sb.append("Cache de navigation : ").append(cache.report()).append(System.lineSeparator());
+        }
+        sb.append("États :");
+        for (MyRobot.Etat e : MyRobot.Etat.values()) {
+            if (byState[e.ordinal()] > 0) sb.append(' ').append(e).append('=').append(byState[e.ordinal()]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Mode flotte : simuler un grand nombre de robots sur un entrepôt généré ([warehouse]), sans interface
+     * @param args [robots] [pas]
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        IniFile ifile = new IniFile("parameters/configuration.ini");
+        int robots = args.length > 0 ? Integer.parseInt(args[0]) : ifile.getIntValue("fleet", "robots");
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : ifile.getIntValue("configuration", "step");
+        long seed = ifile.getIntValue("configuration", "seed");
+        String dir = ifile.getStringValue("navcache", "dir");
+        File cache = ifile.getIntValue("navcache", "enabled") == 1 ? new File(dir != null ? dir : "cache") : null;
+
+        long t0 = System.nanoTime();
+        WarehouseLayout layout = WarehouseLayout.generate(
+                ifile.getIntValue("warehouse", "rows"),
+                ifile.getIntValue("warehouse", "columns"),
+                ifile.getIntValue("warehouse", "racks"),
+                seed);
+        FleetSimulation sim = new FleetSimulation(layout, robots, FleetControl.load(ifile),
+                Math.max(1, ifile.getIntValue("fleet", "drain")),
+                Math.max(1, ifile.getIntValue("fleet", "refresh")),
+                seed, cache);
+        sim.populate(robots);
+        System.out.println("Entrepôt " + layout.rows + "x" + layout.columns + ", " + sim.getFleet().size() + " robots placés en "
+                + (System.nanoTime() - t0) / 1000000 + " ms");
+
+        long start = System.nanoTime();
+        for (int t = 1; t <= steps; t++) {
+            sim.step();
+            if (t % 100 == 0 || t == steps) {
+                System.out.println("Pas " + t + " : " + sim.getDelivered() + " livraisons");
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long heap = rt.totalMemory() - rt.freeMemory();
+        System.out.println(sim.report());
+        System.out.println(String.format("%d pas en %.3f s (%.1f pas/s, %.2f M activations/s), tas occupé %d Mo, "
+                + "somme de contrôle %s", steps, seconds, steps / seconds, (double) steps * sim.getFleet().size() / seconds / 1e6,
+                heap >> 20, Long.toHexString(sim.checksum())));
+    }
+}
@@ -0,0 +1,139 @@
+package simulator;
+
+import java.util.Arrays;
+
+/**
+ * État des robots stocké par colonnes (struct of arrays) : position, état, batterie, rôle, destination
+ * et colis porté sont des tableaux primitifs indexés par robot.
+ * MyRobot y lit et y écrit son état à travers son indice ; FleetSimulation y fait avancer
+ * sans objet par robot des flottes de plusieurs centaines de milliers de robots.
+ * Les colonnes s'agrandissent à l'ajout d'un robot (à faire entre deux pas) ; les indices libérés sont réutilisés.
+ */
+public class FleetStore {
+
+    // états : mêmes valeurs que MyRobot.Etat
+    static final byte FREE = (byte) MyRobot.Etat.FREE.ordinal();
+    static final byte TRANSPORT = (byte) MyRobot.Etat.TRANSPORT.ordinal();
+    static final byte MOVING_AWAY = (byte) MyRobot.Etat.MOVING_AWAY.ordinal();
+    static final byte CHARGING = (byte) MyRobot.Etat.CHARGING.ordinal();
+    static final byte GOING_TO_CHARGE = (byte) MyRobot.Etat.GOING_TO_CHARGE.ordinal();
+    private static final MyRobot.Etat[] ETATS = MyRobot.Etat.values();
+
+    static final int NONE = -1; // pas de destination, pas de colis
+
+    final int columns;
+    int size = 0;
+    int[] cell;         // x * columns + y
+    byte[] etat;
+    int[] battery;      // dans l'unité du propriétaire (déplacements pour MyRobot, centièmes de % pour FleetSimulation)
+    byte[] role;        // -1 tant que la négociation n'a rien attribué
+    int[] destination;  // case visée, NONE sinon
+    int[] carried;      // identifiant du colis porté, NONE sinon
+    private int[] released = new int[0];
+    private int releasedCount = 0;
+
+    /**
+     * @param columns largeur de la grille, pour le codage des cases
+     * @param capacity nombre de robots prévu (les colonnes s'agrandissent au-delà)
+     */
+    public FleetStore(int columns, int capacity) {
+        this.columns = columns;
+        int n = Math.max(1, capacity);
+        this.cell = new int[n];
+        this.etat = new byte[n];
+        this.battery = new int[n];
+        this.role = new byte[n];
+        this.destination = new int[n];
+        this.carried = new int[n];
+    }
+
+    /**
+     * Réserver l'indice d'un robot placé en (x, y), sans rôle, destination ni colis
+     */
+    public int add(int x, int y) {
+        int i;
+        if (releasedCount > 0) {
+            i = released[--releasedCount];
+        } else {
+            if (size == cell.length) {
+                int n = size * 2;
+                cell = Arrays.copyOf(cell, n);
+                etat = Arrays.copyOf(etat, n);
+                battery = Arrays.copyOf(battery, n);
+                role = Arrays.copyOf(role, n);
+                destination = Arrays.copyOf(destination, n);
+                carried = Arrays.copyOf(carried, n);
+            }
+            i = size++;
+        }
+        cell[i] = x * columns + y;
+        etat[i] = FREE;
+        battery[i] = 0;
+        role[i] = -1;
+        destination[i] = NONE;
+        carried[i] = NONE;
+        return i;
+    }
+
+    /**
+     * Rendre l'indice d'un robot retiré de la simulation (mode distribué : robot passé dans une autre région)
+     */
+    public void release(int i) {
+        if (releasedCount == released.length) {
+            released = Arrays.copyOf(released, Math.max(8, releasedCount * 2));
+        }
+        released[releasedCount++] = i;
+        cell[i] = NONE;
+        carried[i] = NONE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getX(int i) {
+        return cell[i] / columns;
+    }
+
+    public int getY(int i) {
+        return cell[i] % columns;
+    }
+
+    public void setLocation(int i, int x, int y) {
+        cell[i] = x * columns + y;
+    }
+
+    public MyRobot.Etat getEtat(int i) {
+        return ETATS[etat[i]];
+    }
+
+    public void setEtat(int i, MyRobot.Etat e) {
+        etat[i] = (byte) e.ordinal();
+    }
+
+    public int getDestX(int i) {
+        return destination[i] / columns;
+    }
+
+    public int getDestY(int i) {
+        return destination[i] % columns;
+    }
+
+    public void setDestination(int i, int x, int y) {
+        destination[i] = x * columns + y;
+    }
+
+    /**
+     * Somme de contrôle des positions et des états, pour comparer deux exécutions
+     */
+    public long checksum() {
+        long h = 1125899906842597L;
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + cell[i];
+            h = 31 * h + etat[i];
+            h = 31 * h + battery[i];
+            h = 31 * h + carried[i];
+        }
+        return h;
+    }
+}
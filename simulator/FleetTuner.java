@@ -0,0 +1,475 @@
+package simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+
+/**
+ * Réglage automatique des paramètres de pilotage des robots (section [control]) par CMA-ES.
+ * Chaque candidat est évalué par des simulations sans interface du scénario de parameters/ (mêmes graines pour tous),
+ * lancées en parallèle dans des JVM séparées : l'état de la simulation est statique, une simulation par processus.
+ * Le critère est le nombre de colis livrés par pas. Le meilleur réglage est écrit dans une copie de configuration.ini.
+ * Lancement depuis le dossier qui contient parameters/ : java simulator.FleetTuner [générations]
+ * La vitesse de charge, propriété des stations et non du pilotage, reste celle du scénario.
+ */
+public class FleetTuner {
+
+    private static final String[] KEYS = {
+        "lowbattery", "taskbattery", "returndistance", "transitclearance", "zoneclearance", "role0share"
+    };
+    private static final double[] LOWER = {5, 30, 2, 1, 1, 0.2};
+    private static final double[] UPPER = {50, 95, 14, 8, 6, 0.8};
+    private static final double[] DEFAULTS = {20, 60, 8.0, 4.0, 2.0, 0.5};
+    private static final boolean[] INTEGER = {true, true, false, false, false, false};
+    private static final double PENALTY = 1.0; // pénalité par unité² de sortie des bornes (espace normalisé)
+
+    private static final Pattern DELIVERED = Pattern.compile("Livraisons : (\\d+) colis");
+    private static final Pattern STEPS = Pattern.compile(" : (\\d+) étapes en ");
+
+    private final String scenario;    // configuration.ini du scénario
+    private final Path environment;   // environment.ini du scénario
+    private final int seed;           // graine de la première simulation de chaque évaluation
+    private final int seeds;          // simulations par évaluation
+    private final int timeout;        // s par simulation
+    private final ExecutorService pool;
+    private int runs = 0;
+    private int failures = 0;
+
+    public FleetTuner(Path parameters, int seeds, int jobs, int timeout) throws Exception {
+        this.scenario = new String(Files.readAllBytes(parameters.resolve("configuration.ini")), StandardCharsets.UTF_8);
+        this.environment = parameters.resolve("environment.ini");
+        this.seed = new IniFile(parameters.resolve("configuration.ini").toString()).getIntValue("configuration", "seed");
+        this.seeds = Math.max(1, seeds);
+        this.timeout = timeout;
+        this.pool = Executors.newFixedThreadPool(jobs);
+    }
+
+    /**
+     * Valeurs des paramètres d'un point de l'espace normalisé ([0,1] par paramètre), ramenées dans les bornes
+     */
+    static double[] decode(double[] x) {
+        double[] v = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            double u = Math.min(1, Math.max(0, x[i]));
+            v[i] = LOWER[i] + u * (UPPER[i] - LOWER[i]);
+            v[i] = INTEGER[i] ? Math.round(v[i]) : Math.round(v[i] * 100) / 100.0;
+        }
+        v[1] = Math.max(v[1], v[0] + 5); // prendre un colis exige plus de batterie que le départ en charge
+        return v;
+    }
+
+    static double[] encode(double[] v) {
+        double[] x = new double[v.length];
+        for (int i = 0; i < v.length; i++) {
+            x[i] = (v[i] - LOWER[i]) / (UPPER[i] - LOWER[i]);
+        }
+        return x;
+    }
+
+    /**
+     * Evaluer des réglages en parallèle : colis livrés par pas, en moyenne sur les graines (0 si une simulation échoue)
+     */
+    double[] evaluate(List<double[]> candidates) throws Exception {
+        List<Future<Double>> results = new ArrayList<>();
+        for (double[] v : candidates) {
+            for (int k = 0; k < seeds; k++) {
+                String ini = configure(scenario, v, seed + k);
+                results.add(pool.submit(() -> simulate(ini)));
+            }
+        }
+        double[] score = new double[candidates.size()];
+        for (int i = 0; i < results.size(); i++) {
+            score[i / seeds] += results.get(i).get() / seeds;
+        }
+        return score;
+    }
+
+    /**
+     * Configuration d'une simulation : scénario sans affichage ni sorties, réglages et graine du candidat
+     */
+    private static String configure(String ini, double[] v, int seed) {
+        ini = set(ini, "configuration", "display", "0");
+        ini = set(ini, "configuration", "led", "0");
+        ini = set(ini, "configuration", "mqtt", "0");
+        ini = set(ini, "configuration", "quiet", "1");
+        ini = set(ini, "configuration", "waittime", "0");
+        ini = set(ini, "configuration", "agentthreads", "0");
+        ini = set(ini, "configuration", "seed", Integer.toString(seed));
+        ini = set(ini, "heatmap", "enabled", "0");
+        ini = set(ini, "profiling", "allocations", "0");
+        return control(ini, v);
+    }
+
+    private static String control(String ini, double[] v) {
+        ini = set(ini, "control", "enabled", "1");
+        for (int i = 0; i < KEYS.length; i++) {
+            ini = set(ini, "control", KEYS[i], INTEGER[i] ? Long.toString(Math.round(v[i])) : Double.toString(v[i]));
+        }
+        return ini;
+    }
+
+    /**
+     * Une simulation dans une JVM séparée, dans un dossier temporaire : colis livrés par pas
+     */
+    private double simulate(String ini) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("tuning");
+        try {
+            Path parameters = Files.createDirectory(dir.resolve("parameters"));
+            Files.write(parameters.resolve("configuration.ini"), ini.getBytes(StandardCharsets.UTF_8));
+            Files.copy(environment, parameters.resolve("environment.ini"));
+            Path log = dir.resolve("simulation.log");
+            Process p = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Djava.awt.headless=true", "-Dstdout.encoding=UTF-8", "-cp", classpath(), "simulator.MySimFactory")
+                    .directory(dir.toFile()).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+            boolean done = p.waitFor(timeout, TimeUnit.SECONDS);
+            if (!done) {
+                p.destroyForcibly().waitFor();
+            }
+            int delivered = -1;
+            int steps = -1;
+            for (String line : new String(Files.readAllBytes(log), StandardCharsets.UTF_8).split("\n")) {
+                Matcher m = DELIVERED.matcher(line);
+                if (m.find()) delivered = Integer.parseInt(m.group(1));
+                m = STEPS.matcher(line);
+                if (m.find()) steps = Integer.parseInt(m.group(1));
+            }
+            synchronized (this) {
+                runs++;
+                if (!done || delivered < 0 || steps <= 0) {
+                    failures++;
+                    return 0;
+                }
+            }
+            return delivered / (double) steps;
+        } finally {
+            delete(dir.toFile());
+        }
+    }
+
+    /**
+     * Chemin des classes en absolu : les simulations tournent dans un autre dossier
+     */
+    static String classpath() {
+        StringBuilder cp = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (cp.length() > 0) cp.append(File.pathSeparator);
+            cp.append(new File(entry).getAbsolutePath());
+        }
+        return cp.toString();
+    }
+
+    static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+
+    /**
+     * Remplacer (ou ajouter) une clé d'une section d'un fichier ini, en gardant commentaires et mise en forme
+     */
+    static String set(String ini, String section, String key, String value) {
+        String[] lines = ini.split("\n", -1);
+        List<String> out = new ArrayList<>(Arrays.asList(lines));
+        String current = null;
+        int header = -1;
+        for (int i = 0; i < out.size(); i++) {
+            String l = out.get(i).trim();
+            if (l.startsWith("[") && l.endsWith("]")) {
+                current = l.substring(1, l.length() - 1);
+                if (current.equals(section)) header = i;
+            } else if (section.equals(current) && l.matches(Pattern.quote(key) + "\\s*=.*")) {
+                out.set(i, "  " + key + " = " + value);
+                return String.join("\n", out);
+            }
+        }
+        if (header >= 0) {
+            out.add(header + 1, "  " + key + " = " + value);
+        } else {
+            out.add("");
+            out.add("[" + section + "]");
+            out.add("  " + key + " = " + value);
+        }
+        return String.join("\n", out);
+    }
+
+    /**
+     * Recherche CMA-ES (Hansen), en maximisant le débit dans l'espace normalisé
+     * @return meilleurs réglages rencontrés et leur débit (dernière case)
+     */
+    double[] optimize(int generations, int lambda, double sigma, long randomSeed) throws Exception {
+        int n = KEYS.length;
+        Random rnd = new Random(randomSeed);
+        if (lambda <= 0) lambda = 4 + (int) (3 * Math.log(n));
+        int mu = lambda / 2;
+        double[] w = new double[mu];
+        double sum = 0;
+        for (int i = 0; i < mu; i++) {
+            w[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+            sum += w[i];
+        }
+        double sum2 = 0;
+        for (int i = 0; i < mu; i++) {
+            w[i] /= sum;
+            sum2 += w[i] * w[i];
+        }
+        double mueff = 1 / sum2;
+        double cc = (4 + mueff / n) / (n + 4 + 2 * mueff / n);
+        double cs = (mueff + 2) / (n + mueff + 5);
+        double c1 = 2 / ((n + 1.3) * (n + 1.3) + mueff);
+        double cmu = Math.min(1 - c1, 2 * (mueff - 2 + 1 / mueff) / ((n + 2) * (n + 2) + mueff));
+        double damps = 1 + 2 * Math.max(0, Math.sqrt((mueff - 1) / (n + 1)) - 1) + cs;
+        double chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21 * n * n));
+
+        double[] mean = encode(DEFAULTS);
+        double[] pc = new double[n];
+        double[] ps = new double[n];
+        double[][] c = new double[n][n];
+        double[][] b = new double[n][n];
+        double[] d = new double[n];
+        for (int i = 0; i < n; i++) {
+            c[i][i] = 1;
+            b[i][i] = 1;
+            d[i] = 1;
+        }
+
+        double[] best = null;
+        double bestScore = -1;
+        for (int g = 1; g <= generations; g++) {
+            // échantillonnage : x = m + sigma * B D z
+            double[][] x = new double[lambda][n];
+            double[][] y = new double[lambda][n];
+            List<double[]> candidates = new ArrayList<>();
+            for (int k = 0; k < lambda; k++) {
+                double[] z = new double[n];
+                for (int i = 0; i < n; i++) {
+                    z[i] = d[i] * rnd.nextGaussian();
+                }
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j < n; j++) {
+                        y[k][i] += b[i][j] * z[j];
+                    }
+                    x[k][i] = mean[i] + sigma * y[k][i];
+                }
+                candidates.add(decode(x[k]));
+            }
+            double[] score = evaluate(candidates);
+
+            // coût à minimiser : débit opposé, plus la sortie des bornes (le candidat évalué est ramené dedans)
+            double[] cost = new double[lambda];
+            Integer[] order = new Integer[lambda];
+            for (int k = 0; k < lambda; k++) {
+                cost[k] = -score[k];
+                for (int i = 0; i < n; i++) {
+                    double out = x[k][i] - Math.min(1, Math.max(0, x[k][i]));
+                    cost[k] += PENALTY * out * out;
+                }
+                order[k] = k;
+                if (score[k] > bestScore) {
+                    bestScore = score[k];
+                    best = candidates.get(k);
+                }
+            }
+            Arrays.sort(order, Comparator.comparingDouble(k -> cost[k]));
+
+            // nouvelle moyenne et chemins d'évolution
+            double[] old = mean.clone();
+            double[] step = new double[n]; // (m - m_old) / sigma = somme pondérée des y
+            mean = new double[n];
+            for (int r = 0; r < mu; r++) {
+                for (int i = 0; i < n; i++) {
+                    mean[i] += w[r] * x[order[r]][i];
+                    step[i] += w[r] * y[order[r]][i];
+                }
+            }
+            // C^-1/2 step = B D^-1 B^T step
+            double[] t = new double[n];
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < n; i++) {
+                    t[j] += b[i][j] * step[i];
+                }
+                t[j] /= d[j];
+            }
+            double norm = 0;
+            for (int i = 0; i < n; i++) {
+                double v = 0;
+                for (int j = 0; j < n; j++) {
+                    v += b[i][j] * t[j];
+                }
+                ps[i] = (1 - cs) * ps[i] + Math.sqrt(cs * (2 - cs) * mueff) * v;
+                norm += ps[i] * ps[i];
+            }
+            norm = Math.sqrt(norm);
+            boolean hsig = norm / Math.sqrt(1 - Math.pow(1 - cs, 2 * g)) / chiN < 1.4 + 2.0 / (n + 1);
+            for (int i = 0; i < n; i++) {
+                pc[i] = (1 - cc) * pc[i] + (hsig ? Math.sqrt(cc * (2 - cc) * mueff) * step[i] : 0);
+            }
+            // covariance : rang un et rang mu
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double rankMu = 0;
+                    for (int r = 0; r < mu; r++) {
+                        rankMu += w[r] * y[order[r]][i] * y[order[r]][j];
+                    }
+                    c[i][j] = (1 - c1 - cmu) * c[i][j]
+                            + c1 * (pc[i] * pc[j] + (hsig ? 0 : cc * (2 - cc) * c[i][j]))
+                            + cmu * rankMu;
+                    c[j][i] = c[i][j];
+                }
+            }
+            sigma *= Math.exp(cs / damps * (norm / chiN - 1));
+            eigen(c, b, d);
+            for (int i = 0; i < n; i++) {
+                d[i] = Math.sqrt(Math.max(d[i], 1e-20));
+            }
+
+            double mean0 = 0;
+            for (double s : score) mean0 += s / lambda;
+            System.out.println(String.format(Locale.ROOT, "Génération %d : meilleur %.5f colis/pas, moyenne %.5f, sigma %.4f, "
+                    + "meilleur jusqu'ici %.5f %s", g, score[order[0]], mean0, sigma, bestScore, describe(best)));
+            if (sigma * d[argmax(d)] < 1e-3) {
+                System.out.println("Recherche convergée.");
+                break;
+            }
+        }
+        double[] result = Arrays.copyOf(best, n + 1);
+        result[n] = bestScore;
+        return result;
+    }
+
+    /**
+     * Valeurs et vecteurs propres d'une matrice symétrique (méthode de Jacobi) ; vecteurs propres dans les colonnes de b
+     */
+    static void eigen(double[][] a, double[][] b, double[] d) {
+        int n = d.length;
+        double[][] m = new double[n][];
+        for (int i = 0; i < n; i++) {
+            m[i] = a[i].clone();
+            Arrays.fill(b[i], 0);
+            b[i][i] = 1;
+        }
+        for (int sweep = 0; sweep < 100; sweep++) {
+            double off = 0;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    off += m[p][q] * m[p][q];
+                }
+            }
+            if (off < 1e-30) break;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if (m[p][q] == 0) continue;
+                    double theta = (m[q][q] - m[p][p]) / (2 * m[p][q]);
+                    double t = (theta >= 0 ? 1 : -1) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    double cos = 1 / Math.sqrt(t * t + 1);
+                    double sin = t * cos;
+                    for (int k = 0; k < n; k++) {
+                        double kp = m[k][p], kq = m[k][q];
+                        m[k][p] = cos * kp - sin * kq;
+                        m[k][q] = sin * kp + cos * kq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double pk = m[p][k], qk = m[q][k];
+                        m[p][k] = cos * pk - sin * qk;
+                        m[q][k] = sin * pk + cos * qk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double kp = b[k][p], kq = b[k][q];
+                        b[k][p] = cos * kp - sin * kq;
+                        b[k][q] = sin * kp + cos * kq;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            d[i] = m[i][i];
+        }
+    }
+
+    private static int argmax(double[] v) {
+        int k = 0;
+        for (int i = 1; i < v.length; i++) {
+            if (v[i] > v[k]) k = i;
+        }
+        return k;
+    }
+
+    static String describe(double[] v) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < KEYS.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(KEYS[i]).append('=').append(INTEGER[i] ? Long.toString(Math.round(v[i])) : Double.toString(v[i]));
+        }
+        return sb.append(')').toString();
+    }
+
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @param args nombre de générations (sinon [tuning] generations)
+     */
+    public static void main(String[] args) throws Exception {
+        Path parameters = Paths.get("parameters");
+        IniFile ifile = new IniFile(parameters.resolve("configuration.ini").toString());
+        int generations = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(1, ifile.getIntValue("tuning", "generations"));
+        int jobs = ifile.getIntValue("tuning", "jobs") > 0 ? ifile.getIntValue("tuning", "jobs")
+                : Runtime.getRuntime().availableProcessors();
+        double sigma = ifile.getDoubleValue("tuning", "sigma") > 0 ? ifile.getDoubleValue("tuning", "sigma") : 0.3;
+        String output = ifile.getStringValue("tuning", "output");
+        if (output == null || output.isEmpty()) output = "output/tuned_configuration.ini";
+
+        FleetTuner tuner = new FleetTuner(parameters, ifile.getIntValue("tuning", "seeds"), jobs,
+                ifile.getIntValue("tuning", "timeout") > 0 ? ifile.getIntValue("tuning", "timeout") : 300);
+        try {
+            long start = System.nanoTime();
+            System.out.println("Réglage de [control] : " + generations + " générations, " + tuner.seeds
+                    + " graine(s) par évaluation, " + jobs + " simulations en parallèle");
+            double reference = tuner.evaluate(List.of(DEFAULTS.clone()))[0];
+            System.out.println(String.format(Locale.ROOT, "Réglages par défaut : %.5f colis/pas %s", reference, describe(DEFAULTS)));
+
+            double[] best = tuner.optimize(generations, ifile.getIntValue("tuning", "population"), sigma, tuner.seed);
+            double score = best[KEYS.length];
+            double[] values = Arrays.copyOf(best, KEYS.length);
+            if (score <= reference) {
+                values = DEFAULTS.clone();
+                score = reference;
+                System.out.println("Aucun réglage ne fait mieux que les valeurs par défaut.");
+            }
+            String ini = control(tuner.scenario, values);
+            String header = String.format(Locale.ROOT, "# réglage FleetTuner : %.5f colis/pas contre %.5f par défaut (%+.1f %%), "
+                    + "graines %d à %d%n", score, reference, 100 * (score / Math.max(1e-9, reference) - 1),
+                    tuner.seed, tuner.seed + tuner.seeds - 1);
+            Path file = Paths.get(output);
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            Files.write(file, (header + ini).getBytes(StandardCharsets.UTF_8));
+            System.out.println(String.format(Locale.ROOT, "Meilleur réglage : %.5f colis/pas (%+.1f %%) %s",
+                    score, 100 * (score / Math.max(1e-9, reference) - 1), describe(values)));
+            System.out.println(String.format(Locale.ROOT, "%d simulations (%d échouées) en %.1f s, configuration écrite dans %s",
+                    tuner.runs, tuner.failures, (System.nanoTime() - start) / 1e9, file));
+        } finally {
+            tuner.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package simulator;
+
+import java.util.Arrays;
+
+/**
+ * Champ de distances vers un ensemble de cases destination, calculé une fois par parcours en largeur
+ * sur les cases franchissables puis partagé par tous les agents qui se rendent à cette destination :
+ * chacun descend le champ en ne regardant que ses quatre voisines.
+ * Les distances sont stockées sur deux octets par case.
+ */
+public class FlowField {
+
+    public static final char UNREACHABLE = Character.MAX_VALUE;
+
+    public final int rows;
+    public final int columns;
+    private final char[] dist; // indice x * columns + y
+
+    /**
+     * @param passable cases franchissables (indice x * columns + y)
+     * @param sources cases destination [x, y] (distance 0)
+     */
+    public FlowField(int rows, int columns, boolean[] passable, int[][] sources) {
+        this.rows = rows;
+        this.columns = columns;
+        this.dist = new char[rows * columns];
+        Arrays.fill(dist, UNREACHABLE);
+        int[] queue = new int[rows * columns];
+        int head = 0, tail = 0;
+        for (int[] s : sources) {
+            int cell = s[0] * columns + s[1];
+            if (passable[cell] && dist[cell] == UNREACHABLE) {
+                dist[cell] = 0;
+                queue[tail++] = cell;
+            }
+        }
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell / columns, y = cell % columns;
+            char d = (char) Math.min(dist[cell] + 1, UNREACHABLE - 1);
+            if (x > 0) tail = visit(cell - columns, d, passable, queue, tail);
+            if (x < rows - 1) tail = visit(cell + columns, d, passable, queue, tail);
+            if (y > 0) tail = visit(cell - 1, d, passable, queue, tail);
+            if (y < columns - 1) tail = visit(cell + 1, d, passable, queue, tail);
+        }
+    }
+
+    /**
+     * Champ déjà calculé (relu du cache de navigation)
+     * @param dist distances, indice x * columns + y
+     */
+    FlowField(int rows, int columns, char[] dist) {
+        this.rows = rows;
+        this.columns = columns;
+        this.dist = dist;
+    }
+
+    /**
+     * Distances de toutes les cases, indice x * columns + y (à ne pas modifier)
+     */
+    char[] distances() {
+        return dist;
+    }
+
+    private int visit(int cell, char d, boolean[] passable, int[] queue, int tail) {
+        if (passable[cell] && dist[cell] == UNREACHABLE) {
+            dist[cell] = d;
+            queue[tail++] = cell;
+        }
+        return tail;
+    }
+
+    /**
+     * Directions qui rapprochent de la destination, sur quatre bits par case (1 haut, 2 bas, 4 gauche,
+     * 8 droite), deux cases par octet : un quart de la place des distances, de quoi garder un champ
+     * par destination quand il y en a beaucoup. Lire avec descent().
+     */
+    public byte[] descentMasks() {
+        byte[] masks = new byte[(rows * columns + 1) / 2];
+        for (int x = 0; x < rows; x++) {
+            for (int y = 0; y < columns; y++) {
+                int d = dist[x * columns + y];
+                if (d == 0 || d == UNREACHABLE) continue;
+                int mask = (distance(x - 1, y) < d ? 1 : 0) | (distance(x + 1, y) < d ? 2 : 0)
+                        | (distance(x, y - 1) < d ? 4 : 0) | (distance(x, y + 1) < d ? 8 : 0);
+                int cell = x * columns + y;
+                masks[cell >> 1] |= (byte) (mask << ((cell & 1) << 2));
+            }
+        }
+        return masks;
+    }
+
+    /**
+     * Directions de descente de la case (indice x * columns + y) dans un tableau de descentMasks()
+     */
+    public static int descent(byte[] masks, int cell) {
+        return (masks[cell >> 1] >> ((cell & 1) << 2)) & 0xF;
+    }
+
+    /**
+     * Distance à la destination la plus proche, UNREACHABLE si inaccessible
+     */
+    public int distance(int x, int y) {
+        if (x < 0 || x >= rows || y < 0 || y >= columns) return UNREACHABLE;
+        return dist[x * columns + y];
+    }
+}
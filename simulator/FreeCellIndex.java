@@ -0,0 +1,127 @@
+package simulator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import fr.emse.fayol.maqit.simulator.environment.Cell;
+import fr.emse.fayol.maqit.simulator.environment.GridEnvironment;
+
+/**
+ * Index des cases libres de la grille : un tableau compact des cases libres (retrait par échange
+ * avec le dernier élément) et, pour chaque case, sa position dans ce tableau.
+ * Ajout, retrait et tirage uniforme d'une case libre se font en O(1), quelle que soit la densité,
+ * contrairement à GridEnvironment.getPlace() qui tire au hasard jusqu'à tomber sur une case vide.
+ */
+public class FreeCellIndex {
+
+    private static final int REGION_ATTEMPTS = 32;
+
+    private final int rows;
+    private final int columns;
+    private final int[] free;      // cases libres codées x * columns + y
+    private final int[] position;  // indice de la case dans free, -1 si occupée
+    private int size;
+
+    public FreeCellIndex(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.free = new int[rows * columns];
+        this.position = new int[rows * columns];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * Construire l'index à partir du contenu actuel de la grille
+     * @param environment grille
+     * @return index des cases sans contenu
+     */
+    public static FreeCellIndex build(GridEnvironment environment) {
+        Cell[][] grid = environment.getGrid();
+        FreeCellIndex index = new FreeCellIndex(grid.length, grid[0].length);
+        for (int x = 0; x < grid.length; x++) {
+            for (int y = 0; y < grid[x].length; y++) {
+                if (grid[x][y].getContent() == null) {
+                    index.add(x, y);
+                }
+            }
+        }
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFree(int x, int y) {
+        return position[x * columns + y] >= 0;
+    }
+
+    /**
+     * Marquer une case comme libre
+     */
+    public void add(int x, int y) {
+        int cell = x * columns + y;
+        if (position[cell] >= 0) return;
+        free[size] = cell;
+        position[cell] = size;
+        size++;
+    }
+
+    /**
+     * Marquer une case comme occupée
+     */
+    public void remove(int x, int y) {
+        int cell = x * columns + y;
+        int i = position[cell];
+        if (i < 0) return;
+        int last = free[--size];
+        free[i] = last;
+        position[last] = i;
+        position[cell] = -1;
+    }
+
+    /**
+     * Tirer uniformément une case libre
+     * @param rnd générateur aléatoire
+     * @return position [x, y], ou null si la grille est pleine
+     */
+    public int[] sample(Random rnd) {
+        if (size == 0) return null;
+        int cell = free[rnd.nextInt(size)];
+        return new int[]{cell / columns, cell % columns};
+    }
+
+    /**
+     * Tirer uniformément une case libre dans le rectangle [x0, x1] x [y0, y1] (bornes incluses).
+     * Quelques tirages dans le rectangle suffisent tant qu'il n'est pas presque plein ;
+     * sinon on parcourt le rectangle.
+     * @return position [x, y], ou null si le rectangle n'a aucune case libre
+     */
+    public int[] sampleIn(Random rnd, int x0, int y0, int x1, int y1) {
+        x0 = Math.max(0, x0);
+        y0 = Math.max(0, y0);
+        x1 = Math.min(rows - 1, x1);
+        y1 = Math.min(columns - 1, y1);
+        if (x0 > x1 || y0 > y1 || size == 0) return null;
+        int height = x1 - x0 + 1;
+        int width = y1 - y0 + 1;
+        for (int attempt = 0; attempt < REGION_ATTEMPTS; attempt++) {
+            int x = x0 + rnd.nextInt(height);
+            int y = y0 + rnd.nextInt(width);
+            if (isFree(x, y)) {
+                return new int[]{x, y};
+            }
+        }
+        // rectangle presque plein : tirage exact parmi les cases libres du rectangle
+        int count = 0;
+        int[] chosen = null;
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                if (isFree(x, y) && rnd.nextInt(++count) == 0) {
+                    chosen = new int[]{x, y};
+                }
+            }
+        }
+        return chosen;
+    }
+}
@@ -0,0 +1,64 @@
+package simulator;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Fenêtre affichant la carte de trafic à côté de la fenêtre de simulation :
+ * passages du bleu (peu) au rouge (beaucoup, échelle logarithmique),
+ * cases avec des tentatives bloquées encadrées en noir.
+ */
+public class HeatmapWindow {
+
+    private final TrafficHeatmap heatmap;
+    private final JFrame frame;
+    private final JPanel panel;
+
+    public HeatmapWindow(TrafficHeatmap heatmap, int x, int y, int width, int height) {
+        this.heatmap = heatmap;
+        this.frame = new JFrame("Carte de trafic");
+        this.panel = new JPanel() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                paintHeatmap(g, getWidth(), getHeight());
+            }
+        };
+        frame.add(panel);
+        frame.setBounds(x, y, width, height);
+    }
+
+    public void init() {
+        SwingUtilities.invokeLater(() -> frame.setVisible(true));
+    }
+
+    public void refresh() {
+        panel.repaint();
+    }
+
+    private void paintHeatmap(Graphics g, int width, int height) {
+        int cell = Math.max(1, Math.min(width / heatmap.columns, height / heatmap.rows));
+        int max = 1;
+        for (int v : heatmap.visits) {
+            max = Math.max(max, v);
+        }
+        double logMax = Math.log1p(max);
+        for (int x = 0; x < heatmap.rows; x++) {
+            for (int y = 0; y < heatmap.columns; y++) {
+                int i = x * heatmap.columns + y;
+                float heat = (float) (Math.log1p(heatmap.visits[i]) / logMax);
+                g.setColor(Color.getHSBColor(0.66f * (1 - heat), 1f, heatmap.visits[i] == 0 ? 0.2f : 1f));
+                // même convention que la grille : x = ligne, y = colonne
+                g.fillRect(y * cell, x * cell, cell, cell);
+                if (heatmap.blocked[i] > 0 && cell > 2) {
+                    g.setColor(Color.BLACK);
+                    g.drawRect(y * cell, x * cell, cell - 1, cell - 1);
+                }
+            }
+        }
+    }
+}
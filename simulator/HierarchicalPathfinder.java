@@ -0,0 +1,735 @@
+package simulator;
+
+import java.io.File;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import fr.emse.fayol.maqit.simulator.components.Robot;
+import fr.emse.fayol.maqit.simulator.environment.Cell;
+import fr.emse.fayol.maqit.simulator.environment.GridEnvironment;
+
+/**
+ * Planificateur hiérarchique (type HPA*) pour les grandes grilles.
+ * La grille est découpée en clusters carrés. Sur chaque frontière entre deux clusters, chaque
+ * passage (suite de cases franchissables des deux côtés) donne une ou deux transitions ; leurs cases
+ * sont les noeuds du graphe abstrait. Les distances entre noeuds d'un même cluster sont précalculées.
+ * Une requête se résout par une recherche A* courte sur ce graphe, puis le chemin est raffiné
+ * localement, un cluster à la fois. Seuls les éléments fixes (racks, zones, stations) bloquent :
+ * les robots et travailleurs sont évités au moment du pas. Les voies à sens unique sont respectées.
+ */
+public class HierarchicalPathfinder {
+
+    public static final int DEFAULT_CLUSTER_SIZE = 16;
+    private static final int LONG_ENTRANCE = 6; // au-delà, une transition à chaque extrémité du passage
+    // clé du tas : f (20 bits), complément de g (20 bits), case (24 bits)
+    private static final long COST_MASK = (1L << 20) - 1;
+    private static final long CELL_MASK = (1L << 24) - 1;
+
+    /**
+     * Chemin abstrait mémorisé par un robot : suite de noeuds jusqu'au cluster de la cible
+     */
+    public static final class Route {
+        private int target = -1;
+        private int version = -1;
+        private int[] waypoints;  // réutilisé d'un plan à l'autre, agrandi au besoin
+        private int length = -1;  // nombre de points de passage, -1 = pas de chemin
+        private int next;
+    }
+
+    private static final class Cluster {
+        int[] nodes = new int[0];    // cases d'entrée du cluster
+        int[][] twins = new int[0][]; // pour chaque entrée, entrées voisines atteignables dans d'autres clusters
+        int[][] dist = new int[0][];  // distances entre entrées à l'intérieur du cluster (-1 si non reliées)
+    }
+
+    public final int rows;
+    public final int columns;
+    private final int clusterSize;
+    private final int clusterRows;
+    private final int clusterColumns;
+    private final boolean[] passable; // indice x * columns + y
+    private final LaneNetwork lanes;
+    private final Cluster[] clusters;
+    private final int[] localIndex;   // indice de la case parmi les entrées de son cluster, -1 sinon
+    private int version = 0;
+
+    // états de recherche libres, un par requête simultanée ; builder (le premier) sert aussi à la construction
+    private final ArrayDeque<Search> searches = new ArrayDeque<>();
+    private final Search builder;
+    // requêtes en lecture, mises à jour d'obstacle en écriture
+    private final ReentrantReadWriteLock gridLock = new ReentrantReadWriteLock();
+
+    public HierarchicalPathfinder(int rows, int columns, boolean[] passable, int clusterSize, LaneNetwork lanes) {
+        this(rows, columns, passable, clusterSize, lanes, null);
+    }
+
+    /**
+     * @param graph graphe abstrait écrit par writeGraph() pour les mêmes cases, clusters et voies, null pour le calculer
+     */
+    HierarchicalPathfinder(int rows, int columns, boolean[] passable, int clusterSize, LaneNetwork lanes, IntBuffer graph) {
+        if ((long) rows * columns > CELL_MASK) {
+            throw new IllegalArgumentException("Grille trop grande pour le planificateur: " + rows + "x" + columns);
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.passable = passable;
+        this.clusterSize = clusterSize;
+        this.lanes = lanes;
+        this.clusterRows = (rows + clusterSize - 1) / clusterSize;
+        this.clusterColumns = (columns + clusterSize - 1) / clusterSize;
+        this.clusters = new Cluster[clusterRows * clusterColumns];
+        this.localIndex = new int[rows * columns];
+        this.builder = new Search();
+        searches.push(builder);
+        Arrays.fill(localIndex, -1);
+        for (int k = 0; k < clusters.length; k++) {
+            clusters[k] = new Cluster();
+        }
+        for (int k = 0; k < clusters.length; k++) {
+            if (graph == null) {
+                buildCluster(k);
+            } else {
+                readCluster(k, graph);
+            }
+        }
+    }
+
+    /**
+     * Construire le planificateur à partir des éléments fixes de la grille
+     * (toute case dont le contenu n'est pas un robot ou un travailleur est bloquante)
+     * @param cache dossier du cache de navigation où relire ou enregistrer le graphe abstrait, null sans cache
+     */
+    public static HierarchicalPathfinder fromEnvironment(GridEnvironment environment, int clusterSize, LaneNetwork lanes,
+                                                         File cache) {
+        Cell[][] grid = environment.getGrid();
+        int rows = grid.length;
+        int columns = grid[0].length;
+        boolean[] passable = new boolean[rows * columns];
+        for (int x = 0; x < rows; x++) {
+            for (int y = 0; y < columns; y++) {
+                Object content = grid[x][y].getContent();
+                passable[x * columns + y] = content == null || content instanceof Robot;
+            }
+        }
+        if (cache != null) {
+            return NavigationCache.open(cache, rows, columns, passable).pathfinder(clusterSize, lanes);
+        }
+        return new HierarchicalPathfinder(rows, columns, passable, clusterSize, lanes);
+    }
+
+    public int getNodeCount() {
+        int n = 0;
+        for (Cluster c : clusters) {
+            n += c.nodes.length;
+        }
+        return n;
+    }
+
+    /**
+     * Une case change d'état (obstacle posé ou retiré) : seuls son cluster et, si elle est en bordure,
+     * les clusters voisins sont reconstruits. Les chemins mémorisés sont invalidés.
+     */
+    public void setPassable(int x, int y, boolean value) {
+        int cell = x * columns + y;
+        gridLock.writeLock().lock();
+        try {
+            if (passable[cell] == value) return;
+            passable[cell] = value;
+            int k = clusterOf(cell);
+            int cr = k / clusterColumns;
+            int cc = k % clusterColumns;
+            buildCluster(k);
+            if (x % clusterSize == 0 && cr > 0) buildCluster(k - clusterColumns);
+            if ((x + 1) % clusterSize == 0 && cr < clusterRows - 1) buildCluster(k + clusterColumns);
+            if (y % clusterSize == 0 && cc > 0) buildCluster(k - 1);
+            if ((y + 1) % clusterSize == 0 && cc < clusterColumns - 1) buildCluster(k + 1);
+            version++;
+        } finally {
+            gridLock.writeLock().unlock();
+        }
+    }
+
+    // CONSTRUCTION DU GRAPHE ABSTRAIT
+
+    /**
+     * Recalculer les entrées d'un cluster et les distances entre elles
+     */
+    private void buildCluster(int k) {
+        Cluster cluster = clusters[k];
+        for (int cell : cluster.nodes) {
+            localIndex[cell] = -1;
+        }
+        int cr = k / clusterColumns;
+        int cc = k % clusterColumns;
+        // paires (case du cluster, case voisine) sur les quatre frontières, calculées comme le fait le voisin
+        int[] pairs = new int[8 * clusterSize + 8];
+        int n = 0;
+        if (cc < clusterColumns - 1) n = entrances(k, true, pairs, n, false);
+        if (cc > 0) n = entrances(k - 1, true, pairs, n, true);
+        if (cr < clusterRows - 1) n = entrances(k, false, pairs, n, false);
+        if (cr > 0) n = entrances(k - clusterColumns, false, pairs, n, true);
+
+        int[] nodes = new int[n / 2];
+        int[][] twins = new int[n / 2][];
+        int nbNodes = 0;
+        for (int p = 0; p < n; p += 2) {
+            int own = pairs[p];
+            int other = pairs[p + 1];
+            int i = localIndex[own];
+            if (i < 0) {
+                i = nbNodes++;
+                nodes[i] = own;
+                twins[i] = new int[0];
+                localIndex[own] = i;
+            }
+            if (allows(own, other)) {
+                twins[i] = Arrays.copyOf(twins[i], twins[i].length + 1);
+                twins[i][twins[i].length - 1] = other;
+            }
+        }
+        cluster.nodes = Arrays.copyOf(nodes, nbNodes);
+        cluster.twins = Arrays.copyOf(twins, nbNodes);
+        cluster.dist = new int[nbNodes][nbNodes];
+        for (int i = 0; i < nbNodes; i++) {
+            builder.fillDistances(k, cluster.nodes[i], false, builder.scratchDist);
+            for (int j = 0; j < nbNodes; j++) {
+                cluster.dist[i][j] = builder.scratchDist[local(k, cluster.nodes[j])];
+            }
+        }
+    }
+
+    /**
+     * Nombre d'entiers écrits par writeGraph()
+     */
+    int graphSize() {
+        int size = 0;
+        for (Cluster cluster : clusters) {
+            size += 1 + cluster.nodes.length * (2 + cluster.nodes.length);
+            for (int[] t : cluster.twins) {
+                size += t.length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Ecrire le graphe abstrait, cluster par cluster : nombre d'entrées, entrées,
+     * pour chaque entrée le nombre de ses voisines puis les voisines, enfin les distances ligne par ligne
+     */
+    void writeGraph(IntBuffer out) {
+        for (Cluster cluster : clusters) {
+            out.put(cluster.nodes.length);
+            out.put(cluster.nodes);
+            for (int[] t : cluster.twins) {
+                out.put(t.length);
+                out.put(t);
+            }
+            for (int[] d : cluster.dist) {
+                out.put(d);
+            }
+        }
+    }
+
+    /**
+     * Relire un cluster écrit par writeGraph()
+     */
+    private void readCluster(int k, IntBuffer in) {
+        Cluster cluster = clusters[k];
+        int n = in.get();
+        cluster.nodes = new int[n];
+        in.get(cluster.nodes);
+        cluster.twins = new int[n][];
+        for (int i = 0; i < n; i++) {
+            cluster.twins[i] = new int[in.get()];
+            in.get(cluster.twins[i]);
+            localIndex[cluster.nodes[i]] = i;
+        }
+        cluster.dist = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            in.get(cluster.dist[i]);
+        }
+    }
+
+    /**
+     * Transitions de la frontière droite (right) ou basse du cluster k avec son voisin
+     * @param swap true pour ranger les paires du point de vue du voisin
+     * @return nouvelle taille de pairs
+     */
+    private int entrances(int k, boolean right, int[] pairs, int n, boolean swap) {
+        int x0 = (k / clusterColumns) * clusterSize;
+        int y0 = (k % clusterColumns) * clusterSize;
+        int length = right ? Math.min(clusterSize, rows - x0) : Math.min(clusterSize, columns - y0);
+        // case du cluster k en position t le long de la frontière, pas entre deux positions, saut vers le voisin
+        int first = right ? x0 * columns + y0 + clusterSize - 1 : (x0 + clusterSize - 1) * columns + y0;
+        int step = right ? columns : 1;
+        int across = right ? 1 : columns;
+        int runStart = -1;
+        for (int t = 0; t <= length; t++) {
+            int a = first + t * step;
+            boolean open = t < length && passable[a] && passable[a + across];
+            if (open && runStart < 0) {
+                runStart = t;
+            } else if (!open && runStart >= 0) {
+                int runLength = t - runStart;
+                int runFirst = first + runStart * step;
+                if (runLength < LONG_ENTRANCE) {
+                    n = addPair(pairs, n, runFirst + (runLength / 2) * step, across, swap);
+                } else {
+                    n = addPair(pairs, n, runFirst, across, swap);
+                    n = addPair(pairs, n, runFirst + (runLength - 1) * step, across, swap);
+                }
+                runStart = -1;
+            }
+        }
+        return n;
+    }
+
+    private static int addPair(int[] pairs, int n, int a, int across, boolean swap) {
+        pairs[n++] = swap ? a + across : a;
+        pairs[n++] = swap ? a : a + across;
+        return n;
+    }
+
+    // REQUÊTES
+
+    /**
+     * Prochaine case vers la cible : la cible elle-même si elle est franchissable, sinon une case voisine.
+     * Le chemin abstrait est mémorisé dans route et recalculé quand la cible change, quand le robot
+     * s'en écarte ou quand la grille a changé.
+     * @return prochaine case [x, y], ou null si la cible est atteinte ou inaccessible
+     */
+    public int[] nextStep(Route route, int x, int y, int targetX, int targetY) {
+        int cell = nextCell(route, x, y, targetX, targetY);
+        return cell < 0 ? null : toPosition(cell);
+    }
+
+    /**
+     * Comme nextStep(), sans allocation ; appels simultanés possibles (un état de recherche par appel)
+     * @return prochaine case (x * columns + y), ou -1 si la cible est atteinte ou inaccessible
+     */
+    public int nextCell(Route route, int x, int y, int targetX, int targetY) {
+        Search search;
+        synchronized (searches) {
+            search = searches.poll();
+        }
+        if (search == null) search = new Search();
+        gridLock.readLock().lock();
+        try {
+            return search.nextCell(route, x * columns + y, targetX * columns + targetY);
+        } finally {
+            gridLock.readLock().unlock();
+            synchronized (searches) {
+                searches.push(search);
+            }
+        }
+    }
+
+    // OUTILS
+
+    private int heuristic(int cell, int tx, int ty, int slack) {
+        int h = Math.abs(cell / columns - tx) + Math.abs(cell % columns - ty) - slack;
+        return Math.max(0, h);
+    }
+
+    private boolean allows(int from, int to) {
+        return lanes == null || lanes.allows(from / columns, from % columns, to / columns, to % columns);
+    }
+
+    private boolean isNeighbour(int a, int b) {
+        return Math.abs(a / columns - b / columns) + Math.abs(a % columns - b % columns) == 1;
+    }
+
+    private int clusterOf(int cell) {
+        return (cell / columns / clusterSize) * clusterColumns + (cell % columns) / clusterSize;
+    }
+
+    private int local(int k, int cell) {
+        return (cell / columns - (k / clusterColumns) * clusterSize) * clusterSize
+                + (cell % columns - (k % clusterColumns) * clusterSize);
+    }
+
+    private int[] toPosition(int cell) {
+        return new int[]{cell / columns, cell % columns};
+    }
+
+    /**
+     * État d'une requête (tas de l'A*, marques, parcours locaux), réutilisé d'une requête à l'autre.
+     * Un état par requête simultanée : les agents du mode un thread par agent planifient en parallèle.
+     */
+    private final class Search {
+        private final int[] g = new int[rows * columns];
+        private final int[] parent = new int[rows * columns];
+        private final int[] stamp = new int[rows * columns];
+        private int currentStamp = 0;
+        private long[] heap = new long[1024];
+        private int heapSize;
+        private final int[] scratchDist = new int[clusterSize * clusterSize];
+        private final int[] scratchParent = new int[clusterSize * clusterSize];
+        private final int[] scratchQueue = new int[clusterSize * clusterSize];
+        private final int[] goalMark = new int[clusterSize * clusterSize];
+        private int goalStamp = 0;
+        private final int[] goalCells = new int[4];
+        private int nbGoalCells;
+        private final int[] goalClusters = new int[4];
+        private final int[][] goalDist = new int[4][clusterSize * clusterSize];
+        private int nbGoalClusters;
+
+        /**
+         * Requête de nextCell(), de la case start vers la case target
+         */
+        int nextCell(Route route, int start, int target) {
+            setGoals(target);
+            if (nbGoalCells == 0 || isGoal(start)) {
+                return -1;
+            }
+            int k = clusterOf(start);
+            // cible dans le même cluster : recherche locale directe
+            if (hasGoalIn(k)) {
+                int step = firstStep(k, start, -1);
+                if (step >= 0) return step;
+            }
+            boolean planned = false;
+            if (route.target != target || route.version != version || route.length < 0) {
+                plan(route, start, target);
+                planned = true;
+            }
+            int step = followRoute(route, start);
+            if (step < 0 && !planned) {
+                // le robot s'est écarté du chemin abstrait
+                plan(route, start, target);
+                step = followRoute(route, start);
+            }
+            return step;
+        }
+
+        private int followRoute(Route route, int start) {
+            if (route.length < 0) return -1;
+            while (route.next < route.length && route.waypoints[route.next] == start) {
+                route.next++;
+            }
+            int k = clusterOf(start);
+            if (route.next == route.length) {
+                // dernier tronçon, dans le cluster de la cible
+                return hasGoalIn(k) ? firstStep(k, start, -1) : -1;
+            }
+            int w = route.waypoints[route.next];
+            if (isNeighbour(start, w)) {
+                return allows(start, w) && passable[w] ? w : -1;
+            }
+            return clusterOf(w) == k ? firstStep(k, start, w) : -1;
+        }
+
+        /**
+         * Recherche A* sur le graphe abstrait depuis start jusqu'à l'une des cases cibles
+         */
+        private void plan(Route route, int start, int target) {
+            route.target = target;
+            route.version = version;
+            route.next = 0;
+            route.length = -1;
+
+            // distances de chaque case des clusters de la cible aux cases cibles (parcours inverse)
+            nbGoalClusters = 0;
+            for (int i = 0; i < nbGoalCells; i++) {
+                int kg = clusterOf(goalCells[i]);
+                boolean known = false;
+                for (int j = 0; j < nbGoalClusters; j++) {
+                    if (goalClusters[j] == kg) known = true;
+                }
+                if (!known) {
+                    goalClusters[nbGoalClusters] = kg;
+                    fillDistances(kg, -1, true, goalDist[nbGoalClusters]);
+                    nbGoalClusters++;
+                }
+            }
+
+            currentStamp++;
+            heapSize = 0;
+            int tx = target / columns, ty = target % columns;
+            int slack = passable[target] ? 0 : 1;
+
+            int ks = clusterOf(start);
+            Cluster cs = clusters[ks];
+            fillDistances(ks, start, false, scratchDist);
+            for (int node : cs.nodes) {
+                int d = scratchDist[local(ks, node)];
+                if (d >= 0) relax(node, d, -1, tx, ty, slack);
+            }
+
+            int bestCost = Integer.MAX_VALUE;
+            int bestLast = -1;
+            while (heapSize > 0) {
+                long top = pop();
+                int f = (int) (top >>> 44);
+                int cell = (int) (top & CELL_MASK);
+                if (f >= bestCost) break;
+                int gc = g[cell];
+                if (f > gc + heuristic(cell, tx, ty, slack)) continue; // entrée périmée
+                int kc = clusterOf(cell);
+                for (int j = 0; j < nbGoalClusters; j++) {
+                    if (goalClusters[j] == kc) {
+                        int exit = goalDist[j][local(kc, cell)];
+                        if (exit >= 0 && gc + exit < bestCost) {
+                            bestCost = gc + exit;
+                            bestLast = cell;
+                        }
+                    }
+                }
+                Cluster c = clusters[kc];
+                int i = localIndex[cell];
+                for (int j = 0; j < c.nodes.length; j++) {
+                    int d = c.dist[i][j];
+                    if (d > 0) relax(c.nodes[j], gc + d, cell, tx, ty, slack);
+                }
+                for (int twin : c.twins[i]) {
+                    relax(twin, gc + 1, cell, tx, ty, slack);
+                }
+            }
+            if (bestLast < 0) return;
+
+            int length = 0;
+            for (int cell = bestLast; cell >= 0; cell = parent[cell]) {
+                length++;
+            }
+            if (route.waypoints == null || route.waypoints.length < length) {
+                // dès le premier plan, de quoi traverser la grille d'un bord à l'autre : la route n'est plus
+                // agrandie en cours de simulation que pour un chemin abstrait très sinueux
+                route.waypoints = new int[Math.max(length, route.waypoints == null
+                        ? 4 * (clusterRows + clusterColumns) : 2 * route.waypoints.length)];
+            }
+            route.length = length;
+            for (int cell = bestLast; cell >= 0; cell = parent[cell]) {
+                route.waypoints[--length] = cell;
+            }
+        }
+
+        private void relax(int cell, int cost, int from, int tx, int ty, int slack) {
+            if (stamp[cell] == currentStamp && g[cell] <= cost) return;
+            stamp[cell] = currentStamp;
+            g[cell] = cost;
+            parent[cell] = from;
+            // à f égal, on développe d'abord le noeud le plus avancé (g le plus grand)
+            long f = Math.min(cost + heuristic(cell, tx, ty, slack), COST_MASK);
+            push((f << 44) | ((COST_MASK - Math.min(cost, COST_MASK)) << 24) | cell);
+        }
+
+        // RECHERCHES LOCALES (limitées à un cluster)
+
+        /**
+         * Parcours en largeur dans le cluster k depuis source (ou, à rebours, depuis les cases cibles
+         * du cluster si reverse est vrai) ; dist est indexé par position locale, -1 si inaccessible
+         */
+        private void fillDistances(int k, int source, boolean reverse, int[] dist) {
+            int x0 = (k / clusterColumns) * clusterSize;
+            int y0 = (k % clusterColumns) * clusterSize;
+            int x1 = Math.min(rows, x0 + clusterSize);
+            int y1 = Math.min(columns, y0 + clusterSize);
+            Arrays.fill(dist, -1);
+            int head = 0, tail = 0;
+            if (reverse) {
+                for (int i = 0; i < nbGoalCells; i++) {
+                    if (clusterOf(goalCells[i]) == k) {
+                        dist[local(k, goalCells[i])] = 0;
+                        scratchQueue[tail++] = goalCells[i];
+                    }
+                }
+            } else {
+                dist[local(k, source)] = 0;
+                scratchQueue[tail++] = source;
+            }
+            while (head < tail) {
+                int cell = scratchQueue[head++];
+                int cx = cell / columns, cy = cell % columns;
+                int d = dist[local(k, cell)];
+                for (int m = 0; m < 4; m++) {
+                    int nx = cx + (m == 0 ? -1 : m == 1 ? 1 : 0);
+                    int ny = cy + (m == 2 ? -1 : m == 3 ? 1 : 0);
+                    if (nx < x0 || nx >= x1 || ny < y0 || ny >= y1) continue;
+                    int n = nx * columns + ny;
+                    int ln = local(k, n);
+                    if (dist[ln] >= 0 || !passable[n]) continue;
+                    if (reverse ? !allows(n, cell) : !allows(cell, n)) continue;
+                    dist[ln] = d + 1;
+                    scratchQueue[tail++] = n;
+                }
+            }
+        }
+
+        /**
+         * Première case du plus court chemin dans le cluster k, de from vers to (ou vers une case cible si to < 0)
+         * @return case, ou -1 si aucun chemin dans le cluster
+         */
+        private int firstStep(int k, int from, int to) {
+            int x0 = (k / clusterColumns) * clusterSize;
+            int y0 = (k % clusterColumns) * clusterSize;
+            int x1 = Math.min(rows, x0 + clusterSize);
+            int y1 = Math.min(columns, y0 + clusterSize);
+            goalStamp++;
+            if (to >= 0) {
+                goalMark[local(k, to)] = goalStamp;
+            } else {
+                for (int i = 0; i < nbGoalCells; i++) {
+                    if (clusterOf(goalCells[i]) == k) goalMark[local(k, goalCells[i])] = goalStamp;
+                }
+            }
+            Arrays.fill(scratchParent, -2);
+            int head = 0, tail = 0;
+            scratchParent[local(k, from)] = -1;
+            scratchQueue[tail++] = from;
+            while (head < tail) {
+                int cell = scratchQueue[head++];
+                if (cell != from && goalMark[local(k, cell)] == goalStamp) {
+                    int step = cell;
+                    while (scratchParent[local(k, step)] != from) {
+                        step = scratchParent[local(k, step)];
+                    }
+                    return step;
+                }
+                int cx = cell / columns, cy = cell % columns;
+                for (int m = 0; m < 4; m++) {
+                    int nx = cx + (m == 0 ? -1 : m == 1 ? 1 : 0);
+                    int ny = cy + (m == 2 ? -1 : m == 3 ? 1 : 0);
+                    if (nx < x0 || nx >= x1 || ny < y0 || ny >= y1) continue;
+                    int n = nx * columns + ny;
+                    int ln = local(k, n);
+                    if (scratchParent[ln] != -2 || !passable[n] || !allows(cell, n)) continue;
+                    scratchParent[ln] = cell;
+                    scratchQueue[tail++] = n;
+                }
+            }
+            return -1;
+        }
+
+        // OUTILS
+
+        /**
+         * Cases à atteindre : la cible si elle est franchissable, sinon ses voisines franchissables
+         */
+        private void setGoals(int target) {
+            nbGoalCells = 0;
+            if (passable[target]) {
+                goalCells[nbGoalCells++] = target;
+                return;
+            }
+            int tx = target / columns, ty = target % columns;
+            if (tx > 0 && passable[target - columns]) goalCells[nbGoalCells++] = target - columns;
+            if (tx < rows - 1 && passable[target + columns]) goalCells[nbGoalCells++] = target + columns;
+            if (ty > 0 && passable[target - 1]) goalCells[nbGoalCells++] = target - 1;
+            if (ty < columns - 1 && passable[target + 1]) goalCells[nbGoalCells++] = target + 1;
+        }
+
+        private boolean isGoal(int cell) {
+            for (int i = 0; i < nbGoalCells; i++) {
+                if (goalCells[i] == cell) return true;
+            }
+            return false;
+        }
+
+        private boolean hasGoalIn(int k) {
+            for (int i = 0; i < nbGoalCells; i++) {
+                if (clusterOf(goalCells[i]) == k) return true;
+            }
+            return false;
+        }
+
+        private void push(long entry) {
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heap.length * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int p = (i - 1) / 2;
+                if (heap[p] <= entry) break;
+                heap[i] = heap[p];
+                i = p;
+            }
+            heap[i] = entry;
+        }
+
+        private long pop() {
+            long top = heap[0];
+            long last = heap[--heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+                if (heap[child] >= last) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            if (heapSize > 0) heap[i] = last;
+            return top;
+        }
+    }
+
+    /**
+     * Mesurer la construction et les requêtes sur un grand entrepôt généré
+     * @param args [lignes] [colonnes] [racks] [requêtes] [taille des clusters]
+     */
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int racks = args.length > 2 ? Integer.parseInt(args[2]) : rows * columns / 4;
+        int queries = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        int clusterSize = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_CLUSTER_SIZE;
+
+        WarehouseLayout layout = WarehouseLayout.generate(rows, columns, racks, 250);
+        boolean[] passable = new boolean[rows * columns];
+        for (int i = 0; i < passable.length; i++) {
+            passable[i] = layout.cells[i] == WarehouseLayout.EMPTY || layout.cells[i] == WarehouseLayout.GOAL;
+        }
+        long t0 = System.nanoTime();
+        HierarchicalPathfinder pathfinder = new HierarchicalPathfinder(rows, columns, passable, clusterSize, null);
+        long t1 = System.nanoTime();
+        System.out.println("Entrepôt " + rows + "x" + columns + " (" + layout.racks + " racks) : graphe abstrait de "
+                + pathfinder.getNodeCount() + " noeuds construit en " + (t1 - t0) / 1000000 + " ms");
+
+        Random rnd = new Random(250);
+        long planning = 0;
+        long following = 0;
+        long steps = 0;
+        int reached = 0;
+        for (int q = 0; q < queries; q++) {
+            int[] from = randomPassable(rnd, pathfinder);
+            int[] to = randomPassable(rnd, pathfinder);
+            Route route = new Route();
+            long start = System.nanoTime();
+            int[] next = pathfinder.nextStep(route, from[0], from[1], to[0], to[1]);
+            planning += System.nanoTime() - start;
+            start = System.nanoTime();
+            int guard = 4 * (rows + columns) + 1000;
+            while (next != null && guard-- > 0) {
+                next = pathfinder.nextStep(route, next[0], next[1], to[0], to[1]);
+                steps++;
+                if (next == null) reached++;
+            }
+            following += System.nanoTime() - start;
+        }
+        System.out.println(queries + " requêtes : planification " + String.format("%.3f", planning / 1e6 / queries)
+                + " ms en moyenne, " + reached + " cibles atteintes, " + steps + " pas suivis à "
+                + String.format("%.2f", following / 1e3 / Math.max(1, steps)) + " µs par pas");
+
+        // obstacles posés puis retirés : reconstruction locale des clusters concernés
+        long start = System.nanoTime();
+        for (int u = 0; u < queries; u++) {
+            int[] cell = randomPassable(rnd, pathfinder);
+            pathfinder.setPassable(cell[0], cell[1], false);
+            pathfinder.setPassable(cell[0], cell[1], true);
+        }
+        System.out.println(2 * queries + " mises à jour d'obstacle : " + String.format("%.3f", (System.nanoTime() - start) / 2e6 / queries)
+                + " ms en moyenne");
+    }
+
+    private static int[] randomPassable(Random rnd, HierarchicalPathfinder pathfinder) {
+        while (true) {
+            int cell = rnd.nextInt(pathfinder.rows * pathfinder.columns);
+            if (pathfinder.passable[cell]) {
+                return new int[]{cell / pathfinder.columns, cell % pathfinder.columns};
+            }
+        }
+    }
+}
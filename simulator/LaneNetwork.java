@@ -0,0 +1,130 @@
+package simulator;
+
+import java.util.Arrays;
+
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+
+/**
+ * Réseau de voies à sens unique superposé à la grille.
+ * Chaque case garde l'ensemble des directions dans lesquelles un robot peut la quitter :
+ * une voie orientée vers la gauche interdit de la quitter vers la droite, les changements de voie
+ * (vers le haut ou le bas) restant permis. Les voies viennent de la section [lanes] de environment.ini
+ * ou sont générées : lignes alternativement orientées vers les goals (colonne 0) et vers les
+ * zones de départ (dernière colonne), comme des autoroutes à double sens séparées.
+ */
+public class LaneNetwork {
+
+    public static final byte UP = 1;     // x - 1
+    public static final byte DOWN = 2;   // x + 1
+    public static final byte LEFT = 4;   // y - 1
+    public static final byte RIGHT = 8;  // y + 1
+    public static final byte ALL = UP | DOWN | LEFT | RIGHT;
+
+    private static final int BORDER = 2; // colonnes libres de chaque côté pour accéder aux goals et aux quais
+
+    public final int rows;
+    public final int columns;
+    private final byte[] allowed; // directions de sortie permises, indice x * columns + y
+    private int lanes = 0;
+
+    public LaneNetwork(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.allowed = new byte[rows * columns];
+        Arrays.fill(allowed, ALL);
+    }
+
+    /**
+     * Rendre à sens unique les cases du rectangle [x0, x1] x [y0, y1] (bornes incluses) :
+     * le sens opposé à la direction donnée est interdit
+     * @param direction UP, DOWN, LEFT ou RIGHT
+     */
+    public void addLane(int x0, int y0, int x1, int y1, byte direction) {
+        byte forbidden = opposite(direction);
+        for (int x = Math.max(0, Math.min(x0, x1)); x <= Math.min(rows - 1, Math.max(x0, x1)); x++) {
+            for (int y = Math.max(0, Math.min(y0, y1)); y <= Math.min(columns - 1, Math.max(y0, y1)); y++) {
+                int i = x * columns + y;
+                allowed[i] = (byte) (allowed[i] & ~forbidden);
+            }
+        }
+        lanes++;
+    }
+
+    /**
+     * Le déplacement de (x, y) vers la case voisine (nx, ny) respecte-t-il le sens des voies ?
+     */
+    public boolean allows(int x, int y, int nx, int ny) {
+        byte direction;
+        if (nx == x - 1) direction = UP;
+        else if (nx == x + 1) direction = DOWN;
+        else if (ny == y - 1) direction = LEFT;
+        else if (ny == y + 1) direction = RIGHT;
+        else return true;
+        return (allowed[x * columns + y] & direction) != 0;
+    }
+
+    public int getLaneCount() {
+        return lanes;
+    }
+
+    /**
+     * Directions permises de chaque case, indice x * columns + y (empreinte du réseau pour le cache de navigation)
+     */
+    byte[] directions() {
+        return allowed;
+    }
+
+    /**
+     * Générer le réseau par défaut : une voie par ligne, en alternant les sens
+     * (lignes paires vers les goals, lignes impaires vers les zones de départ),
+     * hors des colonnes de bordure qui restent à double sens
+     */
+    public static LaneNetwork generate(int rows, int columns) {
+        LaneNetwork network = new LaneNetwork(rows, columns);
+        for (int x = 0; x < rows; x++) {
+            network.addLane(x, BORDER, x, columns - 1 - BORDER, x % 2 == 0 ? LEFT : RIGHT);
+        }
+        return network;
+    }
+
+    /**
+     * Lire les voies de la section [lanes] (lane1, lane2, ... jusqu'à la première clé absente),
+     * au format x0,y0,x1,y1,sens avec sens = up, down, left ou right
+     * @param ifile fichier d'environnement
+     * @return le réseau, sans voie si la section est absente
+     */
+    public static LaneNetwork load(IniFile ifile, int rows, int columns) {
+        LaneNetwork network = new LaneNetwork(rows, columns);
+        for (int i = 1; ; i++) {
+            String value = ifile.getStringValue("lanes", "lane" + i);
+            if (value == null) break;
+            String[] parts = value.split(",");
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("Voie lane" + i + " invalide: " + value);
+            }
+            network.addLane(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                    Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()),
+                    parseDirection(parts[4].trim()));
+        }
+        return network;
+    }
+
+    private static byte parseDirection(String s) {
+        switch (s.toLowerCase()) {
+            case "up": return UP;
+            case "down": return DOWN;
+            case "left": return LEFT;
+            case "right": return RIGHT;
+            default: throw new IllegalArgumentException("Sens de voie inconnu: " + s);
+        }
+    }
+
+    private static byte opposite(byte direction) {
+        switch (direction) {
+            case UP: return DOWN;
+            case DOWN: return UP;
+            case LEFT: return RIGHT;
+            default: return LEFT;
+        }
+    }
+}
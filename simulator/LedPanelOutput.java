@@ -0,0 +1,212 @@
+package simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import fr.emse.fayol.maqit.simulator.display.LEDTable;
+import fr.emse.fayol.maqit.simulator.environment.ColorCell;
+
+/**
+ * Sortie vers les tables LED, sur un thread d'entrées-sorties dédié.
+ * A chaque pas, la boucle de simulation recopie les couleurs des cases couvertes par les tables dans un tampon
+ * et l'échange contre le tampon intermédiaire (triple tampon : jamais d'attente, jamais d'allocation).
+ * Au rythme de rafraîchissement des tables, le thread d'envoi prend la dernière image, la compare à celle
+ * déjà affichée et ne publie que les pixels modifiés, dans le format de LEDColorGridEnvironment
+ * (sujet id/leds, {"led":[{"x":..,"y":..,"c":{"r":..,"g":..,"b":..}},...]}).
+ * Les images produites entre deux rafraîchissements sont sautées : seule la plus récente est affichée.
+ */
+public class LedPanelOutput {
+
+    private static final int UNKNOWN = -1; // pixel dont la couleur affichée n'est pas connue
+    private static final int DEFAULT_HZ = 30;
+
+    /**
+     * Couleurs (0xRRGGBB) des pixels de toutes les tables à un pas
+     */
+    private static final class Image {
+        final int[] rgb;
+        volatile int tick = 0;
+
+        Image(int pixels) {
+            rgb = new int[pixels];
+        }
+    }
+
+    private final ColorCell[][] grid;
+    private final LEDTable[] tables;
+    private final int[] offsets; // premier pixel de chaque table dans les images
+    private final TelemetrySink sink;
+    private final long period;   // ns entre deux rafraîchissements
+    private final int keyframe;  // rafraîchissements entre deux images complètes (0 = jamais)
+
+    private Image back;                               // rempli par la simulation
+    private final AtomicReference<Image> middle;      // dernière image déposée
+    private Image front;                              // lue par le thread d'envoi
+    private final int[] shown;                        // couleurs affichées sur les tables
+    private final Thread sender;
+    private volatile boolean running = true;
+
+    // métriques (thread d'envoi, sauf captured)
+    private long captured = 0;
+    private long refreshes = 0;
+    private long messages = 0;
+    private long pixelsSent = 0;
+    private long bytes = 0;
+    private int lastTick = 0;
+    private long skipped = 0;
+    private long maxSendNanos = 0;
+
+    /**
+     * @param grid grille de la simulation
+     * @param tables tables LED et leur position sur la grille
+     * @param sink destination des messages (broker MQTT de la table, ou FakeLedDevice)
+     * @param hz fréquence de rafraîchissement des tables (0 = 30 Hz)
+     * @param keyframe nombre de rafraîchissements entre deux images complètes, pour rattraper une table
+     *        redémarrée ou un message perdu (0 = seulement la première)
+     */
+    public LedPanelOutput(ColorCell[][] grid, List<LEDTable> tables, TelemetrySink sink, int hz, int keyframe) {
+        this.grid = grid;
+        this.tables = tables.toArray(new LEDTable[0]);
+        this.offsets = new int[this.tables.length + 1];
+        for (int t = 0; t < this.tables.length; t++) {
+            offsets[t + 1] = offsets[t] + this.tables[t].getWidth() * this.tables[t].getHeight();
+        }
+        int pixels = offsets[this.tables.length];
+        this.sink = sink;
+        this.period = 1_000_000_000L / (hz > 0 ? hz : DEFAULT_HZ);
+        this.keyframe = keyframe;
+        this.back = new Image(pixels);
+        this.middle = new AtomicReference<>(new Image(pixels));
+        this.front = new Image(pixels);
+        this.shown = new int[pixels];
+        Arrays.fill(shown, UNKNOWN);
+        this.sender = new Thread(this::run, "table-led");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Fin de pas (thread de simulation) : recopier les couleurs des tables et déposer l'image
+     */
+    public void capture(int tick) {
+        int[] rgb = back.rgb;
+        for (int t = 0; t < tables.length; t++) {
+            LEDTable table = tables[t];
+            int p = offsets[t];
+            for (int i = 0; i < table.getWidth(); i++) {
+                for (int j = 0; j < table.getHeight(); j++) {
+                    rgb[p++] = colorOf(table.getPositionX() + i, table.getPositionY() + j);
+                }
+            }
+        }
+        back.tick = tick;
+        back = middle.getAndSet(back);
+        captured++;
+    }
+
+    /**
+     * Couleur d'une case telle que l'affiche GraphicalWindow : couleur par défaut si la case est vide
+     */
+    int colorOf(int x, int y) {
+        if (x < 0 || x >= grid.length || y < 0 || y >= grid[0].length) return 0;
+        ColorCell c = grid[x][y];
+        int[] color = c.getContent() == null ? ColorCell.defaultcolor : c.getColor();
+        return (color[0] & 0xff) << 16 | (color[1] & 0xff) << 8 | (color[2] & 0xff);
+    }
+
+    private void run() {
+        StringBuilder json = new StringBuilder();
+        long next = System.nanoTime();
+        while (running) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue; // réveil anticipé possible : revérifier l'échéance
+            }
+            refresh(json);
+            // échéance comptée depuis la fin de l'envoi : jamais deux trames plus rapprochées que la période des tables
+            next = System.nanoTime() + period;
+        }
+        // dernière image de la simulation, elle aussi au rythme des tables
+        for (long wait = next - System.nanoTime(); wait > 0; wait = next - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+        }
+        refresh(json);
+    }
+
+    /**
+     * Un rafraîchissement : prendre la dernière image et publier les pixels modifiés
+     */
+    private void refresh(StringBuilder json) {
+        front = middle.getAndSet(front);
+        int tick = front.tick;
+        if (tick <= lastTick) {
+            return; // rien de neuf depuis le dernier rafraîchissement
+        }
+        skipped += tick - lastTick - 1;
+        lastTick = tick;
+        if (keyframe > 0 && refreshes > 0 && refreshes % keyframe == 0) {
+            Arrays.fill(shown, UNKNOWN);
+        }
+        refreshes++;
+        long start = System.nanoTime();
+        int[] rgb = front.rgb;
+        for (int t = 0; t < tables.length; t++) {
+            LEDTable table = tables[t];
+            json.setLength(0);
+            json.append("{\"led\":[");
+            int changed = 0;
+            int p = offsets[t];
+            for (int i = 0; i < table.getWidth(); i++) {
+                for (int j = 0; j < table.getHeight(); j++, p++) {
+                    if (rgb[p] == shown[p]) continue;
+                    if (changed++ > 0) json.append(',');
+                    json.append("{\"x\":").append(i).append(",\"y\":").append(j)
+                        .append(",\"c\":{\"r\":").append(rgb[p] >> 16 & 0xff)
+                        .append(",\"g\":").append(rgb[p] >> 8 & 0xff)
+                        .append(",\"b\":").append(rgb[p] & 0xff).append("}}");
+                }
+            }
+            if (changed == 0) continue;
+            json.append("]}");
+            byte[] payload = json.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                sink.publish(table.getId() + "/leds", payload);
+            } catch (IOException e) {
+                System.out.println("Table LED " + table.getId() + " : " + e.getMessage());
+                continue; // pixels non marqués comme affichés : renvoyés au prochain rafraîchissement
+            }
+            System.arraycopy(rgb, offsets[t], shown, offsets[t], offsets[t + 1] - offsets[t]);
+            messages++;
+            pixelsSent += changed;
+            bytes += payload.length;
+        }
+        maxSendNanos = Math.max(maxSendNanos, System.nanoTime() - start);
+    }
+
+    /**
+     * Fin de simulation : envoyer la dernière image puis fermer la sortie
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(sender);
+        try {
+            sender.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    public String report() {
+        long full = refreshes * (long) shown.length;
+        return String.format("%d table(s), %d pas capturés, %d rafraîchissements (%d images sautées), %d messages, "
+                + "%d pixels envoyés sur %d en images complètes (%.1f %%), %.1f Ko, envoi le plus long %.2f ms",
+                tables.length, captured, refreshes, skipped, messages, pixelsSent, full,
+                full == 0 ? 0 : 100.0 * pixelsSent / full, bytes / 1024.0, maxSendNanos / 1e6);
+    }
+}
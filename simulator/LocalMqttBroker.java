@@ -0,0 +1,271 @@
+package simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broker MQTT 3.1.1 de substitution, pour tester la télémétrie sans installer de broker :
+ * CONNECT, PUBLISH (QoS 0 et 1), SUBSCRIBE avec les jokers + et #, PINGREQ, DISCONNECT.
+ * Pas de messages retenus, de sessions persistantes ni de QoS 2.
+ * Un délai par message reçu simule un broker ou un réseau lent (test de la contre-pression).
+ * Lancé seul (main), il affiche les messages reçus : java simulator.LocalMqttBroker [port] [sujet]
+ */
+public class LocalMqttBroker {
+
+    private static final int SLOW_BUFFER = 4096; // octets, tampon de réception d'un broker lent
+
+    private final ServerSocket server;
+    private final int delay;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile boolean running = true;
+
+    private static final class Client {
+        final Socket socket;
+        final OutputStream out;
+        final List<String> filters = new CopyOnWriteArrayList<>();
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        synchronized void send(int header, byte[] body) throws IOException {
+            MqttPublisher.writePacket(out, header, body);
+            out.flush();
+        }
+    }
+
+    /**
+     * Démarrer le broker sur l'interface locale
+     * @param port port d'écoute (0 = port libre quelconque)
+     * @param delay délai de traitement de chaque message publié (ms, 0 = aucun)
+     */
+    public LocalMqttBroker(int port, int delay) throws IOException {
+        this.server = new ServerSocket();
+        if (delay > 0) {
+            // petit tampon de réception : l'émetteur ressent la lenteur au lieu de la masquer dans le noyau
+            server.setReceiveBufferSize(SLOW_BUFFER);
+        }
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        this.delay = delay;
+        Thread.ofVirtual().name("broker").start(this::accept);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public String report() {
+        return String.format("%d messages reçus (%.1f Ko), %d client(s) connecté(s)",
+                messages.get(), bytes.get() / 1024.0, clients.size());
+    }
+
+    public void close() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // déjà fermé
+        }
+        for (Client c : clients) {
+            try {
+                c.socket.close();
+            } catch (IOException e) {
+                // déjà fermé
+            }
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                Client c = new Client(s);
+                clients.add(c);
+                Thread.ofVirtual().name("broker-client").start(() -> serve(c));
+            } catch (IOException e) {
+                if (running) System.out.println("Broker local : " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Client c) {
+        try (Socket s = c.socket) {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            while (running) {
+                int header = in.readUnsignedByte();
+                byte[] body = new byte[readLength(in)];
+                in.readFully(body);
+                switch (header >> 4) {
+                    case 1: // CONNECT
+                        c.send(0x20, new byte[]{0, 0});
+                        break;
+                    case 3: // PUBLISH
+                        received(c, header, body);
+                        break;
+                    case 8: // SUBSCRIBE
+                        subscribe(c, body);
+                        break;
+                    case 12: // PINGREQ
+                        c.send(0xD0, new byte[0]);
+                        break;
+                    case 14: // DISCONNECT
+                        return;
+                    default:
+                        break;
+                }
+            }
+        } catch (EOFException e) {
+            // client parti sans DISCONNECT
+        } catch (IOException e) {
+            if (running) System.out.println("Broker local : " + e.getMessage());
+        } finally {
+            clients.remove(c);
+        }
+    }
+
+    private void received(Client from, int header, byte[] body) throws IOException {
+        int qos = (header >> 1) & 3;
+        int topicLength = ((body[0] & 0xff) << 8) | (body[1] & 0xff);
+        String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+        int offset = 2 + topicLength;
+        if (qos > 0) {
+            from.send(0x40, new byte[]{body[offset], body[offset + 1]}); // PUBACK
+            offset += 2;
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        messages.incrementAndGet();
+        bytes.addAndGet(body.length - offset);
+
+        // retransmettre en QoS 0 aux abonnés
+        ByteArrayOutputStream forward = null;
+        for (Client c : clients) {
+            if (!matchesAny(c.filters, topic)) continue;
+            if (forward == null) {
+                forward = new ByteArrayOutputStream(body.length);
+                MqttPublisher.writeString(forward, topic);
+                forward.write(body, offset, body.length - offset);
+            }
+            try {
+                c.send(0x30, forward.toByteArray());
+            } catch (IOException e) {
+                clients.remove(c);
+            }
+        }
+    }
+
+    private void subscribe(Client c, byte[] body) throws IOException {
+        ByteArrayOutputStream ack = new ByteArrayOutputStream();
+        ack.write(body[0]); // identifiant du paquet
+        ack.write(body[1]);
+        int i = 2;
+        while (i < body.length) {
+            int length = ((body[i] & 0xff) << 8) | (body[i + 1] & 0xff);
+            c.filters.add(new String(body, i + 2, length, StandardCharsets.UTF_8));
+            i += 2 + length + 1; // filtre puis QoS demandée
+            ack.write(0);        // QoS 0 accordée
+        }
+        c.send(0x90, ack.toByteArray());
+    }
+
+    private static boolean matchesAny(List<String> filters, String topic) {
+        for (String f : filters) {
+            if (matches(f, topic)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sujet couvert par un filtre : + remplace un niveau, # tous les niveaux restants
+     */
+    static boolean matches(String filter, String topic) {
+        String[] f = filter.split("/", -1);
+        String[] t = topic.split("/", -1);
+        for (int i = 0; i < f.length; i++) {
+            if (f[i].equals("#")) return true;
+            if (i >= t.length) return false;
+            if (!f[i].equals("+") && !f[i].equals(t[i])) return false;
+        }
+        return f.length == t.length;
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = 0;
+        int multiplier = 1;
+        int digit;
+        do {
+            digit = in.readUnsignedByte();
+            length += (digit & 0x7f) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+        return length;
+    }
+
+    /**
+     * Broker seul, avec un abonné interne qui affiche la taille et le début de chaque message reçu
+     * @param args port (1883 par défaut) et filtre d'abonnement (# par défaut)
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 1883;
+        String filter = args.length > 1 ? args[1] : "#";
+        LocalMqttBroker broker = new LocalMqttBroker(port, 0);
+        System.out.println("Broker local en écoute sur le port " + broker.getPort() + ", abonné à " + filter);
+
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), broker.getPort())) {
+            OutputStream out = s.getOutputStream();
+            ByteArrayOutputStream connect = new ByteArrayOutputStream();
+            MqttPublisher.writeString(connect, "MQTT");
+            connect.write(new byte[]{4, 0x02, 0, 0});
+            MqttPublisher.writeString(connect, "moniteur");
+            MqttPublisher.writePacket(out, 0x10, connect.toByteArray());
+            ByteArrayOutputStream sub = new ByteArrayOutputStream();
+            sub.write(new byte[]{0, 1});
+            MqttPublisher.writeString(sub, filter);
+            sub.write(0);
+            MqttPublisher.writePacket(out, 0x82, sub.toByteArray());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            while (true) {
+                int header = in.readUnsignedByte();
+                byte[] body = new byte[readLength(in)];
+                in.readFully(body);
+                if (header >> 4 != 3) continue;
+                int topicLength = ((body[0] & 0xff) << 8) | (body[1] & 0xff);
+                String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+                String payload = new String(body, 2 + topicLength, body.length - 2 - topicLength, StandardCharsets.UTF_8);
+                System.out.println(topic + " (" + payload.length() + " car.) "
+                        + payload.substring(0, Math.min(120, payload.length())));
+            }
+        }
+    }
+}
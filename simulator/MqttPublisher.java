@@ -0,0 +1,114 @@
+package simulator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client MQTT 3.1.1 minimal : connexion, publication en QoS 0, déconnexion.
+ * La classe Mqtt du simulateur repose sur Paho, absent de lib/ ; ce client n'utilise que les sockets
+ * et suffit pour pousser la télémétrie vers n'importe quel broker (ou LocalMqttBroker).
+ */
+public class MqttPublisher implements TelemetrySink {
+
+    private static final int CONNECT_TIMEOUT = 2000; // ms
+    private static final int SEND_BUFFER = 32 * 1024; // octets
+
+    private final Socket socket;
+    private final OutputStream out;
+
+    /**
+     * Se connecter au broker (session propre, sans keep-alive : on publie à chaque pas)
+     * @param host adresse du broker
+     * @param port port du broker
+     * @param clientId identifiant du client
+     */
+    public MqttPublisher(String host, int port, String clientId) throws IOException {
+        socket = new Socket();
+        // tampon d'émission borné : sous contrainte, les lots périmés sont fusionnés dans la file de
+        // TelemetryPublisher au lieu de s'accumuler dans le noyau et d'arriver avec des secondes de retard
+        socket.setSendBufferSize(SEND_BUFFER);
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+        socket.setTcpNoDelay(true);
+        out = new BufferedOutputStream(socket.getOutputStream());
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeString(body, "MQTT");
+        body.write(4);    // version 3.1.1
+        body.write(0x02); // session propre
+        body.write(0);    // keep-alive désactivé
+        body.write(0);
+        writeString(body, clientId);
+        writePacket(out, 0x10, body.toByteArray());
+        out.flush();
+
+        socket.setSoTimeout(CONNECT_TIMEOUT);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        int type = in.readUnsignedByte();
+        int length = in.readUnsignedByte();
+        byte[] ack = new byte[length];
+        in.readFully(ack);
+        if (type != 0x20 || length != 2 || ack[1] != 0) {
+            socket.close();
+            throw new IOException("Connexion refusée par le broker (code " + (length == 2 ? ack[1] : -1) + ")");
+        }
+        socket.setSoTimeout(0);
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) throws IOException {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        out.write(0x30); // PUBLISH, QoS 0
+        writeLength(out, 2 + name.length + payload.length);
+        out.write(name.length >> 8);
+        out.write(name.length & 0xff);
+        out.write(name);
+        out.write(payload);
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.write(0xE0); // DISCONNECT
+            out.write(0);
+            out.flush();
+        } catch (IOException e) {
+            // connexion déjà perdue
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // rien à faire
+        }
+    }
+
+    static void writePacket(OutputStream out, int header, byte[] body) throws IOException {
+        out.write(header);
+        writeLength(out, body.length);
+        out.write(body);
+    }
+
+    /**
+     * Longueur restante d'un paquet MQTT : 7 bits par octet, bit de poids fort = suite
+     */
+    static void writeLength(OutputStream out, int length) throws IOException {
+        do {
+            int digit = length % 128;
+            length /= 128;
+            out.write(length > 0 ? digit | 0x80 : digit);
+        } while (length > 0);
+    }
+
+    static void writeString(OutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.write(b.length >> 8);
+        out.write(b.length & 0xff);
+        out.write(b);
+    }
+}
@@ -7,16 +7,25 @@ import fr.emse.fayol.maqit.simulator.components.ColorTransitZone;
 import fr.emse.fayol.maqit.simulator.components.Message;
 import fr.emse.fayol.maqit.simulator.components.Orientation;
 import fr.emse.fayol.maqit.simulator.components.PackageState;
+import fr.emse.fayol.maqit.simulator.components.Robot;
 import fr.emse.fayol.maqit.simulator.environment.Cell;
 import fr.emse.fayol.maqit.simulator.environment.ColorCell;
 import fr.emse.fayol.maqit.simulator.environment.ColorGridEnvironment;
-import fr.emse.fayol.maqit.simulator.environment.Location;
 
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 
 public class MyRobot extends ColorInteractionRobot {
@@ -25,39 +34,79 @@ public class MyRobot extends ColorInteractionRobot {
 
     protected enum Etat { FREE, TRANSPORT, DELIVRE, MOVING_AWAY, ROLE_NEGOTIATION, CHARGING, GOING_TO_CHARGE }
 
-    protected Etat etat;
-    public ColorPackage carriedPackage;
-    protected int destX;
-	protected int destY;
+    public ColorPackage carriedPackage; // écrit par setCarriedPackage(), qui tient à jour la colonne du FleetStore
+    // dimensionnés au chargement maximal (configureCarry() précède la création des robots) : pas d'agrandissement en cours de route
+    protected List<ColorPackage> batch = new ArrayList<>(carryCapacity); // colis portés en plus de carriedPackage, même goal
+    private final List<ColorPackage> picked = new ArrayList<>(carryCapacity); // tampon de selectBatch()
     protected long tempsDepart;
     protected long tempsArrivee;
     protected ColorGridEnvironment env;
     protected int waittime; // Référence au waittime de configuration
 
     // Variables pour le système de batterie
-    protected int batteryLevel = 100;           // Niveau de batterie (0-100%)
-    protected int maxBatteryLevel = 100;        // Capacité maximale
+    protected int maxBatteryLevel = batteryCapacity; // Capacité maximale
     protected int batteryConsumptionPerMove = 1; // Consommation par mouvement
-    protected int lowBatteryThreshold = 20;     // Seuil critique (20%)
-    protected int minBatteryForTask = 60;       // Seuil minimum pour prendre un colis (60%)
-    protected boolean isCharging = false;       // En cours de charge
-    protected int chargingRate = 5;             // Vitesse de charge par step
+    protected boolean isCharging = false;       // En cours de charge (seuils et vitesse de charge : control)
     protected String reservedChargingStation = null; // Station réservée
     protected int lastBatteryDisplayLevel = 100; // Dernier niveau affiché
+    protected double loadWear = 0;              // fraction de % due à la charge portée, pas encore décomptée
 
     // Variables pour la communication décentralisée
     protected static int totalRobots = 0;
+    protected static boolean verbose = true; // journal des robots sur la sortie standard
+    protected static List<Robot> agents = null; // agents de la simulation (robots et travailleurs), sinon env.getRobot()
     protected static List<String> transitPackageNotifications = new ArrayList<>();
 
-    // Variables pour la négociation des rôles
-    protected int assignedRole = -1; // -1 = pas encore assigné, 0 = rôle start→transit, 1 = rôle transit→goal
+    // Variables pour la négociation des rôles : comptage de la flotte sur un arbre binaire implicite,
+    // le parent du robot n étant le robot (n - 1) / 2 (voir negotiateRole())
+    protected static List<MyRobot> directory = new ArrayList<>(); // robots par identifiant, pour les messages adressés
+    protected static RegionWorker region = null; // mode distribué : relais des messages vers les autres régions
+    protected final int id; // ordre de création (0 = racine de l'arbre)
+    protected final int slot; // indice du robot dans fleet
     protected boolean roleNegotiationComplete = false;
-    protected int negotiationStep = 0;
     protected List<String> receivedRoleMessages = new ArrayList<>();
-    protected int knownRole0Count = 0;
-    protected int knownTotalRobots = 0;
-    protected boolean hasRequestedRole = false;
-    protected long negotiationStartTime = 0;
+    private final int[] childSizes = {NO_CHILD, NO_CHILD}; // robots 2n+1 et 2n+2 : absent, attendu ou taille du sous-arbre
+    private boolean countReported = false; // taille du sous-arbre envoyée au parent
+    protected int fleetSize = 0;           // taille de la flotte apprise de la racine (0 = inconnue)
+    private int role0Granted = 0;          // racine : rôles 0 attribués, pour les arrivées tardives
+    private static final int NO_CHILD = -2;
+    private static final int PENDING = -1;
+
+    // cases voisines dans l'ordre où getNextCoordinate() les énumérait (gauche, devant, droite, derrière),
+    // par orientation (up, down, left, right) : même départage des ex aequo, sans HashMap ni Location
+    private static final int[][][] NEIGHBOURS = {
+        { {0, -1}, {-1, 0}, {0, 1}, {1, 0} },
+        { {0, 1}, {1, 0}, {0, -1}, {-1, 0} },
+        { {1, 0}, {0, -1}, {-1, 0}, {0, 1} },
+        { {-1, 0}, {0, 1}, {1, 0}, {0, -1} }
+    };
+    private static final int[][] MOVES = { {-1, 0}, {1, 0}, {0, -1}, {0, 1} };
+
+    protected static final double WORKER_AVOIDANCE = 2.0; // pénalité des cases où un travailleur est attendu
+
+    // Réglages et règles de décision de la flotte (section [control], FleetTuner), partagés avec FleetSimulation
+    protected static FleetControl control = FleetControl.DEFAULT;
+
+    // Etat des robots par colonnes : position, état, batterie, rôle, destination et colis porté
+    protected static FleetStore fleet = null;
+
+    // Détection des blocages et oscillations
+    protected StallDetector stallDetector = new StallDetector();
+    protected int yieldTicks = 0; // pas restants à céder le passage
+
+    // Chemin abstrait courant (planificateur hiérarchique)
+    protected HierarchicalPathfinder.Route route = new HierarchicalPathfinder.Route();
+    // parcours de replanStep() : fenêtre de REPLAN_RADIUS cases autour du robot, tampons partagés par thread
+    private static final int REPLAN_RADIUS = 32;
+    private static final ThreadLocal<ReplanScratch> REPLAN_SCRATCH = ThreadLocal.withInitial(ReplanScratch::new);
+    // mode un thread par agent : pas préparé par plan(), cible pour laquelle il l'a été, cible du dernier déplacement
+    private int plannedCell = -1;
+    private int plannedTarget = -1;
+    private int lastTarget = -1;
+
+    // Zones de transit visées (indices du TransitDispatcher, -1 = aucune)
+    protected int dropZone = -1;   // rôle 0 : dépôt réservé
+    protected int pickupZone = -1; // rôle 1 : colis convoité
 
     /**
      *  definir la liste des goals (destination)
@@ -66,26 +115,241 @@ public class MyRobot extends ColorInteractionRobot {
     static {
         GOALS.put(1, new int[]{5, 0});   // Z1
         GOALS.put(2, new int[]{15, 0});  // Z2
+        goalArray = GOALS.values().toArray(new int[0][]);
     }
 
+    // Zones de départ, de transit et stations de charge (carte 20x20 par défaut)
+    protected static int[][] START_ZONES = { {6, 19}, {9, 19}, {12, 19} };
+    protected static int[][] TRANSIT_ZONES = { {12, 10}, {12, 9}, {9, 10}, {9, 9} };
+    protected static int[][] goalArray; // positions de GOALS, pour ne pas les recopier à chaque appel
+    protected static final Map<String, int[]> CHARGING_STATIONS = new HashMap<>();
+    static {
+        CHARGING_STATIONS.put("station1", new int[]{2, 2});
+        CHARGING_STATIONS.put("station2", new int[]{17, 2});
+        CHARGING_STATIONS.put("station3", new int[]{2, 17});
+        CHARGING_STATIONS.put("station4", new int[]{17, 17});
+        indexChargingStations();
+    }
+    // noms et positions de CHARGING_STATIONS, dans l'ordre de la table, parcourus sans itérateur
+    protected static String[] stationNames;
+    protected static int[][] stationArray;
+
+    private static void indexChargingStations() {
+        stationNames = CHARGING_STATIONS.keySet().toArray(new String[0]);
+        stationArray = CHARGING_STATIONS.values().toArray(new int[0][]);
+    }
+
+    // Voies à sens unique (null = circulation libre)
+    protected static LaneNetwork lanes = null;
+
+    // Répartition entre les zones de transit (null = première zone disponible)
+    protected static TransitDispatcher transit = null;
+
+    // Capacité de la batterie en déplacements (1 par mouvement) : 100 = 1 % par mouvement
+    protected static int batteryCapacity = 100;
+
+    // Chargement : nombre de colis portés à la fois et surconsommation par colis supplémentaire (% par mouvement)
+    protected static int carryCapacity = 1;
+    protected static double loadConsumption = 0;
+
+    // Bilan des livraisons (trajets jusqu'à un goal, batterie consommée)
+    protected static int deliveryTrips = 0;
+    protected static long batteryUsed = 0;
+
+    // Pipeline à N étapes : tampons par niveau (indice 1 = zones de transit, 0 inutilisé)
+    // et nombre de robots par étape (0 = répartition égale) ; null = deux étapes start → transit → goal
+    protected static TransitDispatcher[] buffers = null;
+    protected static int[] stagePools = null;
+
     // Zones de départ et de transit
-    int[][] startZones = { {6, 19}, {9, 19}, {12, 19} };
-    int[][] transitZones = { {12, 10}, {12, 9}, {9, 10}, {9, 9} };
+    int[][] startZones = START_ZONES;
+    int[][] transitZones = TRANSIT_ZONES;
+
+    /**
+     * Remplacer les zones par défaut par celles de l'environnement chargé (environment.ini ou entrepôt généré).
+     * A appeler avant la création des robots.
+     * @param starts positions des zones de départ
+     * @param transits positions des zones de transit
+     * @param goals positions des goals par identifiant
+     * @param stations positions des stations de charge par nom
+     */
+    public static void configureZones(int[][] starts, int[][] transits, Map<Integer, int[]> goals, Map<String, int[]> stations) {
+        START_ZONES = starts;
+        TRANSIT_ZONES = transits;
+        GOALS.clear();
+        GOALS.putAll(goals);
+        goalArray = GOALS.values().toArray(new int[0][]);
+        CHARGING_STATIONS.clear();
+        CHARGING_STATIONS.putAll(stations);
+        indexChargingStations();
+    }
+
+    /**
+     * Activer ou couper le journal des robots ; coupé, un pas de robot ne construit aucune chaîne
+     */
+    public static void configureLogging(boolean enabled) {
+        verbose = enabled;
+    }
+
+    /**
+     * Liste des agents à consulter (stations occupées, encombrement des zones de départ, diffusion des messages)
+     * au lieu de env.getRobot(), qui parcourt toute la grille et alloue une liste à chaque appel
+     */
+    public static void configureAgents(List<Robot> list) {
+        agents = list;
+    }
+
+    private List<Robot> agents() {
+        return agents != null ? agents : env.getRobot();
+    }
+
+    /**
+     * Imposer un réseau de voies à sens unique aux déplacements des robots
+     * @param network réseau de voies, null pour revenir à la circulation libre
+     */
+    public static void configureLanes(LaneNetwork network) {
+        lanes = network;
+    }
+
+    public static void configureTransit(TransitDispatcher dispatcher) {
+        transit = dispatcher;
+    }
+
+    /**
+     * Porter plusieurs colis à la fois : à chaque prise, le robot complète son chargement avec les colis
+     * de la même zone destinés au même goal
+     * @param capacity nombre maximal de colis portés
+     * @param consumption batterie supplémentaire par mouvement et par colis au-delà du premier
+     */
+    public static void configureCarry(int capacity, double consumption) {
+        carryCapacity = Math.max(1, capacity);
+        loadConsumption = consumption;
+    }
+
+    /**
+     * Capacité de la batterie, en déplacements par charge complète : les seuils de [control] et la charge
+     * par pas restent en %, seuls les trajets possibles sur une charge s'allongent
+     * (à appeler avant la création des robots)
+     */
+    public static void configureBattery(int capacity) {
+        batteryCapacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Batterie consommée, en % d'une charge complète
+     */
+    static long batteryPercent(long used) {
+        return used * 100 / batteryCapacity;
+    }
+
+    /**
+     * Bilan des livraisons : colis par trajet et batterie consommée par colis ("n/a" sans livraison)
+     */
+    static String deliveryReport(long delivered, long trips, long consumed) {
+        long used = batteryPercent(consumed);
+        return String.format("Livraisons : %d colis en %d trajets (%.2f colis/trajet), batterie consommée %d %% (%s %%/colis)",
+                delivered, trips, delivered / (double) Math.max(1, trips), used,
+                delivered == 0 ? "n/a" : String.format("%.2f", used / (double) delivered));
+    }
+
+    /**
+     * Passer à un pipeline de levels.length étapes : l'étape k prend les colis au niveau k
+     * (les zones de départ pour k = 0) et les dépose au niveau k + 1 (les goals pour la dernière étape)
+     * @param levels tampons par niveau, levels[1] étant celui des zones de transit
+     * @param pools nombre de robots par étape (0 partout = répartition égale)
+     */
+    public static void configurePipeline(TransitDispatcher[] levels, int[] pools) {
+        buffers = levels;
+        stagePools = pools;
+    }
+
+    /**
+     * Remplacer les réglages de la flotte codés jusqu'ici en dur. A appeler avant la création des robots.
+     * @param settings seuils de batterie, vitesse de charge, distances aux zones et part des robots au rôle 0
+     */
+    public static void configureControl(FleetControl settings) {
+        control = settings;
+    }
+
+    /**
+     * Colonnes où les robots créés ensuite tiennent leur état. A appeler avant la création des robots
+     * (à défaut, le premier robot en crée une à la largeur de sa grille).
+     */
+    public static void configureFleet(FleetStore store) {
+        fleet = store;
+    }
 
     // CONSTRUCTEUR ET INITIALISATION
 
     public MyRobot(String name, int field, int debug, int[] pos, Color color, int rows, int columns, ColorGridEnvironment env, long seed, int waittime) {
+        this(name, field, debug, pos, color, rows, columns, env, seed, waittime, totalRobots++, true);
+    }
+
+    /**
+     * @param id identifiant du robot dans la flotte
+     * @param fresh true pour un robot nouveau (inscrit à l'annuaire et signalé à son parent),
+     *              false pour un robot reçu d'une autre région (mode distribué), dont readState() relit l'état
+     */
+    MyRobot(String name, int field, int debug, int[] pos, Color color, int rows, int columns, ColorGridEnvironment env, long seed, int waittime,
+            int id, boolean fresh) {
         super(name, field, debug, pos, color, rows, columns,seed);
         this.env = env;
         this.waittime = waittime; // Stocker le waittime pour les calculs de timeout
-        this.etat = Etat.ROLE_NEGOTIATION; // Commencer par la négociation des rôles
-        this.carriedPackage = null;
-        totalRobots++;
-        this.negotiationStartTime = System.currentTimeMillis();
-        System.out.println(getName() + " créé - en attente d'attribution de rôle (Total robots: " + totalRobots + ")");
+        if (fleet == null) configureFleet(new FleetStore(columns, 0));
+        this.slot = fleet.add(super.getX(), super.getY());
+        setEtat(Etat.ROLE_NEGOTIATION); // Commencer par la négociation des rôles
+        setCarriedPackage(null);
+        setDestination(0, 0);
+        setBatteryCharge(batteryCapacity);
+        this.id = id;
+        totalRobots = Math.max(totalRobots, id + 1);
+        // graine propre à chaque robot : avec la même suite aléatoire, deux robots face à face
+        // reculeraient et céderaient le passage en même temps, indéfiniment
+        this.rnd = new Random(seed + id + 1);
+        // tampons de replanStep() du thread qui crée les robots (celui de la simulation, hors agentthreads) :
+        // alloués ici plutôt qu'au premier interblocage
+        REPLAN_SCRATCH.get();
+        if (!fresh) {
+            return;
+        }
+        register(this);
+        if (verbose) System.out.println(getName() + " créé - en attente d'attribution de rôle (Total robots: " + totalRobots + ")");
 
-        // Annoncer sa présence aux autres robots
-        broadcastMessage("ROBOT_ANNOUNCE:" + getName());
+        // Se signaler à son parent dans l'arbre de comptage
+        if (id > 0) {
+            sendMessage((id - 1) / 2, "JOIN:" + id);
+        }
+    }
+
+    /**
+     * Inscrire un robot à l'annuaire des messages, à la place de son identifiant
+     */
+    static void register(MyRobot robot) {
+        while (directory.size() <= robot.id) {
+            directory.add(null);
+        }
+        directory.set(robot.id, robot);
+    }
+
+    /**
+     * Retirer de l'annuaire un robot passé dans une autre région : ses messages y seront relayés
+     */
+    static void unregister(int id) {
+        directory.set(id, null);
+    }
+
+    /**
+     * Rendre l'indice du robot dans fleet : robot passé dans une autre région, ou refusé à son arrivée
+     */
+    void discard() {
+        fleet.release(slot);
+    }
+
+    /**
+     * Mode distribué : région où tourne ce processus, qui relaie les messages des robots absents de l'annuaire
+     */
+    public static void configureRegion(RegionWorker worker) {
+        region = worker;
     }
 
     // MÉTHODES DE COMMUNICATION
@@ -96,23 +360,45 @@ public class MyRobot extends ColorInteractionRobot {
      */
     private void broadcastMessage(String messageContent) {
         // Obtenir tous les robots de l'environnement et leur envoyer le message
-        if (env != null && env.getRobot() != null) {
-            for (fr.emse.fayol.maqit.simulator.components.Robot robot : env.getRobot()) {
-                if (robot instanceof MyRobot && !robot.getName().equals(getName())) {
+        if (env != null) {
+            List<Robot> all = agents();
+            for (int i = 0; i < all.size(); i++) {
+                Robot robot = all.get(i);
+                if (robot instanceof MyRobot && robot != this) {
                     // Simuler l'envoi de message en appelant directement handleMessage
                     ((MyRobot) robot).receiveMessage(messageContent);
                 }
             }
         }
-        System.out.println(getName() + " diffuse: " + messageContent);
+        if (verbose) System.out.println(getName() + " diffuse: " + messageContent);
+    }
+
+    /**
+     * Envoyer un message à un seul robot
+     * @param to identifiant du destinataire
+     */
+    private void sendMessage(int to, String messageContent) {
+        MyRobot target = to < directory.size() ? directory.get(to) : null;
+        if (target != null) {
+            target.receiveMessage(messageContent);
+        } else if (region != null) {
+            region.forward(to, messageContent); // robot d'une autre région
+        }
     }
 
     /**
      * Recevoir un message d'un autre robot (simulation de communication)
      */
-    private void receiveMessage(String messageContent) {
-        receivedRoleMessages.add(messageContent);
-        System.out.println(getName() + " reçoit: " + messageContent);
+    void receiveMessage(String messageContent) {
+        if (verbose) System.out.println(getName() + " reçoit: " + messageContent);
+        if (!roleNegotiationComplete) {
+            // traités au prochain pas de négociation
+            receivedRoleMessages.add(messageContent);
+        } else if (messageContent.startsWith("COUNT:") || messageContent.startsWith("LATE:")) {
+            // un robot au travail relaie aussitôt les arrivées tardives vers la racine
+            handleLateJoin(field(messageContent, 1), field(messageContent, 2));
+        }
+        // les autres messages ne sont plus lus une fois le rôle attribué
     }
 
     @Override
@@ -120,133 +406,186 @@ public class MyRobot extends ColorInteractionRobot {
         // Traiter le message reçu via le framework
         String content = msg.getContent();
         receiveMessage(content);
-        System.out.println(getName() + " a reçu un message via handleMessage: " + content);
+        if (verbose) System.out.println(getName() + " a reçu un message via handleMessage: " + content);
     }
 
     /**
      * Notifier les autres robots qu'un colis a été déposé en transit
      */
-    private void notifyPackageInTransit(String packageId, int transitZoneX, int transitZoneY) {
-        String notification = "PACKAGE_IN_TRANSIT:" + packageId + ":" + transitZoneX + ":" + transitZoneY + ":" + getName();
-        broadcastMessage(notification);
-        System.out.println(getName() + " notifie: colis " + packageId + " déposé en transit (" + transitZoneX + "," + transitZoneY + ")");
+    private void notifyPackageInTransit(ColorPackage p, int transitZoneX, int transitZoneY) {
+        if (verbose) {
+            // notification informative (les robots lisent directement les zones de transit) : seulement avec le journal
+            String packageId = p.getStartZone() + "_" + p.getDestinationGoalId();
+            broadcastMessage("PACKAGE_IN_TRANSIT:" + packageId + ":" + transitZoneX + ":" + transitZoneY + ":" + getName());
+            System.out.println(getName() + " notifie: colis " + packageId + " déposé en transit (" + transitZoneX + "," + transitZoneY + ")");
+        }
+        if (SimFactory.events != null) {
+            SimFactory.events.signalTransitPackage();
+        }
     }
 
     // MÉTHODES DE NÉGOCIATION DES RÔLES
     // Maintenant que les robots peuvent communiquer, ils doivent négocier leurs rôles
 
     /**
-     * Négociation des rôles basée sur les messages
-     * Utilise l'ordre lexicographique des noms pour éviter les conflits
+     * Négociation des rôles, un tour par pas, sans horloge ni compteur global :
+     * 1. à sa création, chaque robot se signale à son parent (JOIN), le robot (n - 1) / 2 ;
+     * 2. remontée : un robot dont tous les enfants ont donné la taille de leur sous-arbre envoie la sienne (COUNT),
+     *    la racine connaît la taille N de la flotte après une profondeur d'arbre, soit log2(N) tours ;
+     * 3. descente : la racine numérote les robots dans l'ordre préfixe de l'arbre et donne le rôle 0 aux
+     *    N * role0Share premiers rangs (FLEET:N:base:places:rang) ; chaque robot transmet à ses enfants le premier
+     *    rang de leur sous-arbre et commence le travail. La fin de la négociation est connue, sans délai d'attente.
+     * Un robot arrivé après le comptage (avec son sous-arbre) est signalé à la racine par ses ancêtres (LATE) ;
+     * elle lui donne les rangs suivants et les rôles 0 qui manquent pour la nouvelle taille de flotte.
+     * Messages : O(N) pour la flotte, O(log N) par arrivée tardive.
      */
     private void negotiateRole() {
-        // Traiter les messages reçus pour mettre à jour les connaissances
+        SimFactory.profiler.begin(TickProfiler.MESSAGES);
         processReceivedMessages();
+        SimFactory.profiler.end();
+        if (roleNegotiationComplete || countReported || childSizes[0] == PENDING || childSizes[1] == PENDING) {
+            return; // rôle reçu, ou en attente d'un enfant ou des rangs
+        }
+        countReported = true;
+        int size = 1 + Math.max(0, childSizes[0]) + Math.max(0, childSizes[1]);
+        if (id > 0) {
+            sendMessage((id - 1) / 2, "COUNT:" + id + ":" + size);
+            return;
+        }
+        // racine : taille de la flotte connue, début de la descente
+        role0Granted = (int) (size * control.role0Share);
+        assignRanks(size, 0, role0Granted, 0);
+        // arrivées tardives reçues pendant le comptage
+        List<String> late = new ArrayList<>(receivedRoleMessages);
+        receivedRoleMessages.clear();
+        for (String message : late) {
+            if (message.startsWith("LATE:")) {
+                handleLateJoin(field(message, 1), field(message, 2));
+            }
+        }
+    }
 
-        int targetRole0Count = totalRobots / 2;
-
-        switch (negotiationStep) {
-            case 0:
-                // Étape 1: Attendre pour recevoir les annonces des autres robots
-                // Attendre 4 fois le waittime pour permettre la communication
-                if (System.currentTimeMillis() - negotiationStartTime > waittime * 4) {
-                    knownTotalRobots = totalRobots; // Utiliser le total connu
-                    negotiationStep++;
-                }
-                break;
-
-            case 1:
-                // Étape 2: Demander le rôle 0 basé sur l'ordre lexicographique
-                if (!hasRequestedRole) {
-                    // Compter combien de robots avec un nom "plus petit" devraient prendre le rôle 0
-                    int robotsBeforeMe = 0;
-                    for (int i = 0; i < totalRobots; i++) {
-                        String otherRobotName = "Robot" + i;
-                        if (otherRobotName.compareTo(getName()) < 0) {
-                            robotsBeforeMe++;
-                        }
-                    }
+    /**
+     * Champ entier k (à partir de 1) d'un message "TYPE:a:b:...", lu sans découper la chaîne
+     */
+    private static int field(String message, int k) {
+        int start = 0;
+        for (int i = 0; i < k; i++) {
+            start = message.indexOf(':', start) + 1;
+        }
+        int end = message.indexOf(':', start);
+        return Integer.parseInt(message, start, end < 0 ? message.length() : end, 10);
+    }
 
-                    // Si je suis parmi les premiers robots (ordre lexicographique), je prends le rôle 0
-                    if (robotsBeforeMe < targetRole0Count) {
-                        assignedRole = 0;
-                        knownRole0Count++;
-                        broadcastMessage("ROLE_ASSIGNED:0:" + getName() + ":count:" + knownRole0Count);
-                        System.out.println(getName() + " s'attribue le rôle 0 (start→transit) - Position: " + robotsBeforeMe + "/" + targetRole0Count);
-                    } else {
-                        assignedRole = 1;
-                        broadcastMessage("ROLE_ASSIGNED:1:" + getName());
-                        System.out.println(getName() + " prend le rôle 1 (transit→goal) - Position: " + robotsBeforeMe + " >= " + targetRole0Count);
-                    }
-                    hasRequestedRole = true;
-                    negotiationStep++;
-                }
-                break;
+    /**
+     * Fin de la négociation : rôle d'après le rang, puis premier rang du sous-arbre de chaque enfant
+     * @param n taille de la flotte
+     * @param base premier rang de l'attribution (0, ou celui d'une arrivée tardive)
+     * @param slots rôles 0 de l'attribution, donnés aux premiers rangs à partir de base
+     * @param rank rang du robot
+     */
+    private void assignRanks(int n, int base, int slots, int rank) {
+        fleetSize = n;
+        if (stagePools != null) {
+            // Pipeline à N étapes : les étapes sont attribuées dans l'ordre des rangs
+            setAssignedRole(stageForRank(rank, n));
+        } else {
+            setAssignedRole(rank - base < slots ? 0 : 1);
+        }
+        int next = rank + 1;
+        for (int c = 0; c < 2; c++) {
+            if (childSizes[c] > 0) {
+                sendMessage(2 * id + 1 + c, "FLEET:" + n + ":" + base + ":" + slots + ":" + next);
+                next += childSizes[c];
+            }
+        }
+        roleNegotiationComplete = true;
+        setEtat(Etat.FREE);
+        if (verbose) System.out.println(getName() + " commence le travail en tant que rôle " + getAssignedRole()
+                + " - rang " + rank + " sur " + n + " robots");
+    }
 
-            case 2:
-                // Étape 3: Attendre un peu puis terminer la négociation
-                // Timeout après 9 fois le waittime pour finaliser la négociation
-                if (System.currentTimeMillis() - negotiationStartTime > waittime * 9) {
-                    roleNegotiationComplete = true;
-                    if (assignedRole == 0) {
-                        etat = Etat.FREE; // Robot rôle 0 commence à travailler
-                        System.out.println(getName() + " commence le travail en tant que rôle 0");
-                    } else {
-                        etat = Etat.FREE; // Robot rôle 1 commence à travailler
-                        System.out.println(getName() + " commence le travail en tant que rôle 1");
-                    }
-                }
-                break;
+    /**
+     * Arrivée d'un robot (et de son sous-arbre) après le comptage : relayée jusqu'à la racine, qui lui donne ses rangs.
+     * Appelée sur la racine seulement une fois sa négociation terminée.
+     * @param robot identifiant du robot arrivé
+     * @param size taille de son sous-arbre
+     */
+    private void handleLateJoin(int robot, int size) {
+        if (id > 0) {
+            sendMessage((id - 1) / 2, "LATE:" + robot + ":" + size);
+            return;
         }
+        int base = fleetSize;
+        fleetSize += size;
+        int slots = Math.min(size, Math.max(0, (int) (fleetSize * control.role0Share) - role0Granted));
+        role0Granted += slots;
+        if (verbose) System.out.println(getName() + " accueille " + size + " robot(s) arrivé(s) après le comptage, flotte de " + fleetSize);
+        sendMessage(robot, "FLEET:" + fleetSize + ":" + base + ":" + slots + ":" + base);
     }
 
     /**
      * Traiter les messages reçus pour la négociation des rôles et la communication
      */
     private void processReceivedMessages() {
-        List<String> messagesToKeep = new ArrayList<>();
-
-        for (String message : receivedRoleMessages) {
-            String[] parts = message.split(":");
-            if (parts.length >= 2) {
-                String messageType = parts[0];
-
-                switch (messageType) {
-                    case "ROBOT_ANNOUNCE":
-                        // Un nouveau robot s'annonce
-                        if (parts.length >= 2) {
-                            knownTotalRobots = Math.max(knownTotalRobots, totalRobots);
-                        }
-                        break;
-
-                    case "ROLE_ASSIGNED":
-                        // Un robot s'est assigné un rôle
-                        if (parts.length >= 3 && parts[1].equals("0")) {
-                            // Quelqu'un a pris le rôle 0
-                            if (parts.length >= 4 && parts[2].startsWith("count")) {
-                                try {
-                                    int count = Integer.parseInt(parts[3]);
-                                    knownRole0Count = Math.max(knownRole0Count, count);
-                                } catch (NumberFormatException e) {
-                                    // Ignorer si le parsing échoue
-                                }
-                            }
-                        }
-                        break;
-
-                    case "PACKAGE_IN_TRANSIT":
-                        // Un paquet a été déposé en transit - garder ce message pour les robots rôle 1
-                        if (assignedRole == 1 || assignedRole == -1) {
-                            messagesToKeep.add(message);
-                        }
-                        break;
+        if (receivedRoleMessages.isEmpty()) {
+            return; // robot en attente : rien à traiter à ce tour
+        }
+        // messages lus sur place, sans découpage : ceux à garder sont recopiés en tête de la liste
+        int kept = 0;
+        for (int i = 0; i < receivedRoleMessages.size(); i++) {
+            String message = receivedRoleMessages.get(i);
+            if (message.startsWith("JOIN:")) {
+                // un enfant arrivé après l'envoi de notre taille sera compté comme arrivée tardive
+                if (!countReported) {
+                    childSizes[field(message, 1) - 2 * id - 1] = PENDING;
+                }
+            } else if (message.startsWith("COUNT:") || message.startsWith("LATE:")) {
+                int robot = field(message, 1);
+                int size = field(message, 2);
+                int c = robot - 2 * id - 1;
+                if (message.startsWith("COUNT:") && !countReported && c >= 0 && c < 2 && childSizes[c] == PENDING) {
+                    childSizes[c] = size; // sous-arbre compté
+                } else if (id == 0 && !roleNegotiationComplete) {
+                    // la racine n'a pas encore de rangs à donner
+                    receivedRoleMessages.set(kept++, message.startsWith("LATE:") ? message : "LATE:" + robot + ":" + size);
+                } else {
+                    handleLateJoin(robot, size);
+                }
+            } else if (message.startsWith("FLEET:")) {
+                assignRanks(field(message, 1), field(message, 2), field(message, 3), field(message, 4));
+            } else if (message.startsWith("PACKAGE_IN_TRANSIT:")) {
+                // Un paquet a été déposé en transit - garder ce message pour les robots rôle 1
+                if (getAssignedRole() >= 1 || getAssignedRole() == -1) {
+                    receivedRoleMessages.set(kept++, message);
                 }
             }
         }
 
-        // Remplacer la liste par les messages à garder (notifications de paquets)
-        receivedRoleMessages.clear();
-        receivedRoleMessages.addAll(messagesToKeep);
+        // Ne garder que les messages à conserver (arrivées tardives de la racine, notifications de paquets)
+        while (receivedRoleMessages.size() > kept) {
+            receivedRoleMessages.remove(receivedRoleMessages.size() - 1);
+        }
+    }
+
+    /**
+     * Étape du pipeline pour le robot de rang donné :
+     * les effectifs fixés par étape sont remplis dans l'ordre, sinon les robots sont répartis également
+     * @param n taille de la flotte
+     */
+    private int stageForRank(int rank, int n) {
+        int stages = stagePools.length;
+        int assigned = 0;
+        for (int k = 0; k < stages; k++) {
+            if (stagePools[k] <= 0) {
+                return (int) ((long) rank * stages / Math.max(1, n));
+            }
+            assigned += stagePools[k];
+            if (rank < assigned) {
+                return k;
+            }
+        }
+        return stages - 1;
     }
 
     /**
@@ -256,6 +595,19 @@ public class MyRobot extends ColorInteractionRobot {
         return roleNegotiationComplete;
     }
 
+    /**
+     * Un tour de la phase de négociation, sans passer par step()
+     * @return true une fois le rôle attribué
+     */
+    boolean negotiationRound() {
+        if (!roleNegotiationComplete) {
+            SimFactory.profiler.begin(TickProfiler.NEGOTIATION);
+            negotiateRole();
+            SimFactory.profiler.end();
+        }
+        return roleNegotiationComplete;
+    }
+
     // MÉTHODES DE COMPORTEMENT PRINCIPAL
     // Maintenant que les rôles sont négociés, les robots peuvent exécuter leur logique de comportement principal...
 
@@ -263,40 +615,51 @@ public class MyRobot extends ColorInteractionRobot {
      *  la logique de deplacement selon le rôle attribué
      */
     public void step() {
-        if (etat == Etat.ROLE_NEGOTIATION) {
+        lastTarget = -1;
+        if (getEtat() == Etat.ROLE_NEGOTIATION) {
+            SimFactory.profiler.begin(TickProfiler.NEGOTIATION);
             negotiateRole();
+            SimFactory.profiler.end();
             return;
         }
 
         // PRIORITÉ 1: Gestion de la batterie
-        if (etat == Etat.CHARGING) {
+        if (getEtat() == Etat.CHARGING) {
+            SimFactory.profiler.begin(TickProfiler.BATTERY);
             handleChargingLogic();
+            SimFactory.profiler.end();
             return;
         }
 
-        if (etat == Etat.GOING_TO_CHARGE) {
+        if (getEtat() == Etat.GOING_TO_CHARGE) {
+            SimFactory.profiler.begin(TickProfiler.BATTERY);
             goToChargingStation();
+            SimFactory.profiler.end();
             return;
         }
 
         // Vérifier si la batterie est critique et abandonner la tâche actuelle
-        if (needsCharging() && etat != Etat.CHARGING && etat != Etat.GOING_TO_CHARGE) {
+        if (needsCharging() && getEtat() != Etat.CHARGING && getEtat() != Etat.GOING_TO_CHARGE) {
             // Abandonner la tâche actuelle
             if (carriedPackage != null) {
-                System.out.println(getName() + " - Batterie critique! Colis perdu!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+                if (verbose) System.out.println(getName() + " - Batterie critique! Colis perdu!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
                 // Remettre le paquet à sa place si possible
-                carriedPackage = null;
+                setCarriedPackage(null);
+                batch.clear();
             }
-            etat = Etat.GOING_TO_CHARGE;
-            System.out.println(getName() + " - Batterie critique (" + batteryLevel + "%), recherche d'une station de chargement");
+            releaseTransitZones();
+            setEtat(Etat.GOING_TO_CHARGE);
+            if (verbose) System.out.println(getName() + " - Batterie critique (" + getBatteryLevel() + "%), recherche d'une station de chargement");
             return;
         }
 
         // Exécuter la logique selon le rôle attribué
-        if (assignedRole == 0) {
+        if (getAssignedRole() == 0) {
             stepRole0(); // Logique rôle 0 (start → transit)
-        } else if (assignedRole == 1) {
+        } else if (getAssignedRole() == lastStage()) {
             stepRole1(); // Logique rôle 1 (transit → goal)
+        } else if (getAssignedRole() > 0) {
+            stepRelay(); // Étape intermédiaire du pipeline (niveau k → niveau k + 1)
         }
     }
 
@@ -309,42 +672,68 @@ public class MyRobot extends ColorInteractionRobot {
      * Logique pour les robots rôle 0 (start → transit)
      */
     private void stepRole0() {
-        if (etat == Etat.MOVING_AWAY) {
+        if (getEtat() == Etat.MOVING_AWAY) {
             // S'éloigner de la zone de transit après dépôt et se diriger vers les zones de départ
-            moveAwayFromTransitZones(true, 8.0, true);
+            moveAwayFromTransitZones(dropZones(), true, control.returnDistance, true);
             return;
         }
 
-        if (etat == Etat.FREE) {
+        if (getEtat() == Etat.FREE) {
+            if (carriedPackage != null) {
+                // Chargement déjà en main : chercher une place en transit avant toute autre prise
+                SimFactory.profiler.begin(TickProfiler.ZONES);
+                ColorTransitZone transitZone = findAvailableTransitZone();
+                SimFactory.profiler.end();
+                if (transitZone != null) {
+                    reserveDropZone(transitZone);
+                    setDestination(transitZone.getX(), transitZone.getY());
+                    setEtat(Etat.TRANSPORT);
+                }
+                return;
+            }
+
             // Vérifier d'abord si on a assez de batterie pour prendre un colis
             if (!hasSufficientBatteryForTask()) {
-                System.out.println(getName() + " (rôle 0) - Batterie insuffisante (" + batteryLevel + "%), va se charger");
-                etat = Etat.GOING_TO_CHARGE;
+                if (verbose) System.out.println(getName() + " (rôle 0) - Batterie insuffisante (" + getBatteryLevel() + "%), va se charger");
+                setEtat(Etat.GOING_TO_CHARGE);
                 return;
             }
 
             // Vérifier d'abord si on est déjà adjacent à une zone de départ
+            SimFactory.profiler.begin(TickProfiler.ZONES);
             ColorStartZone adjacentStartZone = findAdjacentStartZone();
+            SimFactory.profiler.end();
             if (adjacentStartZone != null) {
                 // On est adjacent à une zone de départ
                 if (!adjacentStartZone.getPackages().isEmpty()) {
+                    // Chercher d'abord une zone de transit libre : sans place, le colis reste dans la zone de départ
+                    SimFactory.profiler.begin(TickProfiler.ZONES);
+                    ColorTransitZone transitZone = findAvailableTransitZone();
+                    SimFactory.profiler.end();
+                    if (transitZone == null) {
+                        return;
+                    }
                     // Il y a un paquet, le prendre
-                    carriedPackage = adjacentStartZone.getPackages().get(0);
+                    setCarriedPackage(adjacentStartZone.getPackages().get(0));
                     adjacentStartZone.removePackage(carriedPackage);
+                    List<ColorPackage> more = selectBatch(adjacentStartZone.getPackages());
+                    for (int i = 0; i < more.size(); i++) {
+                        adjacentStartZone.removePackage(more.get(i));
+                        batch.add(more.get(i));
+                    }
+                    if (SimFactory.world != null) SimFactory.world.zoneChanged(adjacentStartZone.getX(), adjacentStartZone.getY());
                     tempsDepart = System.currentTimeMillis();
 
-                    // Chercher une zone de transit libre
-                    ColorTransitZone transitZone = findAvailableTransitZone();
-                    if (transitZone != null) {
-                        destX = transitZone.getX();
-                        destY = transitZone.getY();
-                        etat = Etat.TRANSPORT;
-                        System.out.println(getName() + " (rôle 0) a pris un paquet de " + carriedPackage.getStartZone() + " vers transit (" + destX + "," + destY + ") - Batterie: " + batteryLevel + "%");
-                    }
+                    reserveDropZone(transitZone);
+                    setDestination(transitZone.getX(), transitZone.getY());
+                    setEtat(Etat.TRANSPORT);
+                    if (verbose) System.out.println(getName() + " (rôle 0) a pris " + describeLoad() + " de " + carriedPackage.getStartZone() + " vers transit (" + getDestX() + "," + getDestY() + ") - Batterie: " + getBatteryLevel() + "%");
                 } else {
                     // Zone de départ vide, s'éloigner un peu pour éviter l'encombrement
                     // puis chercher d'autres zones avec des paquets
+                    SimFactory.profiler.begin(TickProfiler.ZONES);
                     ColorStartZone zoneWithPackage = findStartZoneWithPackage();
+                    SimFactory.profiler.end();
                     if (zoneWithPackage != null) {
                         // Il y a des paquets ailleurs, aller les chercher
                         moveOneStepTo(zoneWithPackage.getX(), zoneWithPackage.getY());
@@ -352,16 +741,18 @@ public class MyRobot extends ColorInteractionRobot {
                     } else {
                         // Pas de paquets disponibles, s'éloigner un peu de cette zone pour éviter l'encombrement
                         moveAwayFromStartZones();
-                        System.out.println(getName() + " (rôle 0) s'éloigne temporairement de la zone de départ vide");
+                        if (verbose) System.out.println(getName() + " (rôle 0) s'éloigne temporairement de la zone de départ vide");
                         return;
                     }
                 }
             } else {
                 // Pas adjacent à une zone de départ, chercher une zone avec des paquets
+                SimFactory.profiler.begin(TickProfiler.ZONES);
                 ColorStartZone zone = findStartZoneWithPackage();
+                ColorStartZone closestStartZone = zone == null ? findClosestStartZone() : null;
+                SimFactory.profiler.end();
                 if (zone == null) {
                     // Pas de paquets disponibles, se diriger vers la zone de départ la plus proche pour s'y positionner
-                    ColorStartZone closestStartZone = findClosestStartZone();
                     if (closestStartZone != null) {
                         moveOneStepTo(closestStartZone.getX(), closestStartZone.getY());
                     }
@@ -371,23 +762,8 @@ public class MyRobot extends ColorInteractionRobot {
                     moveOneStepTo(zone.getX(), zone.getY());
                 }
             }
-        } else if (etat == Etat.TRANSPORT) {
-            if (isAdjacentTo(destX, destY)) {
-                // Déposer le colis en zone de transit
-                Cell c = env.getGrid()[destX][destY];
-                if (c instanceof ColorCell && c.getContent() instanceof ColorTransitZone) {
-                    ColorTransitZone transitZone = (ColorTransitZone) c.getContent();
-                    if (!transitZone.isFull()) {
-                        transitZone.addPackage(carriedPackage);
-                        notifyPackageInTransit(carriedPackage.getStartZone() + "_" + carriedPackage.getDestinationGoalId(), destX, destY);
-                        carriedPackage = null;
-                        etat = Etat.MOVING_AWAY;
-                        System.out.println(getName() + " (rôle 0) a déposé un colis en transit (" + destX + "," + destY + ")");
-                    }
-                }
-            } else {
-                moveOneStepTo(destX, destY);
-            }
+        } else if (getEtat() == Etat.TRANSPORT) {
+            depositInBuffer();
         }
     }
 
@@ -395,57 +771,246 @@ public class MyRobot extends ColorInteractionRobot {
      * Logique pour les robots rôle 1 (transit → goal)
      */
     private void stepRole1() {
-        if (etat == Etat.MOVING_AWAY) {
+        if (getEtat() == Etat.MOVING_AWAY) {
             // S'éloigner de la zone de goal après livraison
             moveAwayFromGoalZones();
             return;
         }
 
-        if (etat == Etat.FREE) {
+        if (getEtat() == Etat.FREE) {
             // Vérifier d'abord si on a assez de batterie pour prendre un colis
             if (!hasSufficientBatteryForTask()) {
-                System.out.println(getName() + " (rôle 1) - Batterie insuffisante (" + batteryLevel + "%), va se charger");
-                etat = Etat.GOING_TO_CHARGE;
+                if (verbose) System.out.println(getName() + " (rôle 1) - Batterie insuffisante (" + getBatteryLevel() + "%), va se charger");
+                releaseTransitZones();
+                setEtat(Etat.GOING_TO_CHARGE);
                 return;
             }
 
-            ColorTransitZone zone = findTransitZoneWithPackage();
-            if (zone == null) {
-                // Pas de paquets en transit, s'éloigner des zones de transit pour éviter l'encombrement
-                moveAwayFromTransitZones(false, 4.0, false);
-                return;
+            // un chargement déjà en main (goal inconnu au pas précédent) n'est pas remplacé
+            if (carriedPackage != null || collectFromBuffer()) {
+                // Aller vers le goal final
+                int[] goalPos = GOALS.get(carriedPackage.getDestinationGoalId());
+                if (goalPos != null) {
+                    setDestination(goalPos[0], goalPos[1]);
+                    setEtat(Etat.TRANSPORT);
+                    if (verbose) System.out.println(getName() + " (rôle " + getAssignedRole() + ") a pris " + describeLoad() + " du transit vers goal " + carriedPackage.getDestinationGoalId() + " - Batterie: " + getBatteryLevel() + "%");
+                }
             }
-
-            if (isAdjacentTo(zone.getX(), zone.getY())) {
-                if (!zone.getPackages().isEmpty()) {
-                    carriedPackage = zone.getPackages().get(0);
-                    zone.removePackage(carriedPackage);
-                    tempsDepart = System.currentTimeMillis();
-
-                    // Aller vers le goal final
-                    int[] goalPos = GOALS.get(carriedPackage.getDestinationGoalId());
-                    if (goalPos != null) {
-                        destX = goalPos[0];
-                        destY = goalPos[1];
-                        etat = Etat.TRANSPORT;
-                        System.out.println(getName() + " (rôle 1) a pris un paquet du transit vers goal " + carriedPackage.getDestinationGoalId() + " - Batterie: " + batteryLevel + "%");
+        } else if (getEtat() == Etat.TRANSPORT) {
+            if ((this.getX() == getDestX()) && (this.getY() == getDestY())) {
+                // Livrer le colis au goal (et ceux du même chargement)
+                batch.add(0, carriedPackage);
+                for (int i = 0; i < batch.size(); i++) {
+                    ColorPackage p = batch.get(i);
+                    p.setState(PackageState.ARRIVED);
+                    MySimFactory.deliveredCount++;
+                    if (SimFactory.sla != null) {
+                        SimFactory.sla.delivered(p);
                     }
+                    if (SimFactory.telemetry != null) {
+                        SimFactory.telemetry.delivered(this, p);
+                    }
+                    if (verbose) System.out.println(getName() + " (rôle 1) a livré un colis au goal " + p.getDestinationGoalId() + " - Total livré: " + MySimFactory.deliveredCount);
                 }
+                deliveryTrips++;
+                batch.clear();
+                setCarriedPackage(null);
+                setEtat(Etat.MOVING_AWAY);
             } else {
-                moveOneStepTo(zone.getX(), zone.getY());
-            }
-        } else if (etat == Etat.TRANSPORT) {
-            if ((this.getX() == destX) && (this.getY() == destY)) {
-                // Livrer le colis au goal
-                carriedPackage.setState(PackageState.ARRIVED);
-                MySimFactory.deliveredCount++;
-                System.out.println(getName() + " (rôle 1) a livré un colis au goal " + carriedPackage.getDestinationGoalId() + " - Total livré: " + MySimFactory.deliveredCount);
-                carriedPackage = null;
-                etat = Etat.MOVING_AWAY;
-            } else {
-                moveOneStepTo(destX, destY);
+                moveOneStepTo(getDestX(), getDestY());
+            }
+        }
+    }
+
+    /**
+     * Logique pour les robots d'une étape intermédiaire du pipeline (niveau k → niveau k + 1)
+     */
+    private void stepRelay() {
+        if (getEtat() == Etat.MOVING_AWAY) {
+            // S'éloigner du niveau où le colis vient d'être déposé et revenir vers le niveau amont
+            moveAwayFromZones(dropZones(), control.transitClearance, pickupZones(), true, null);
+            return;
+        }
+
+        if (getEtat() == Etat.FREE) {
+            if (carriedPackage == null) {
+                if (!hasSufficientBatteryForTask()) {
+                    if (verbose) System.out.println(getName() + " (rôle " + getAssignedRole() + ") - Batterie insuffisante (" + getBatteryLevel() + "%), va se charger");
+                    releaseTransitZones();
+                    setEtat(Etat.GOING_TO_CHARGE);
+                    return;
+                }
+                if (!collectFromBuffer()) {
+                    return;
+                }
+            }
+            // Colis en main : chercher une place au niveau suivant (sinon réessayer au pas suivant)
+            SimFactory.profiler.begin(TickProfiler.ZONES);
+            ColorTransitZone next = findAvailableTransitZone();
+            SimFactory.profiler.end();
+            if (next != null) {
+                reserveDropZone(next);
+                setDestination(next.getX(), next.getY());
+                setEtat(Etat.TRANSPORT);
+                if (verbose) System.out.println(getName() + " (rôle " + getAssignedRole() + ") relaie " + describeLoad() + " vers (" + getDestX() + "," + getDestY() + ") - Batterie: " + getBatteryLevel() + "%");
+            }
+        } else if (getEtat() == Etat.TRANSPORT) {
+            depositInBuffer();
+        }
+    }
+
+    /**
+     * Aller chercher un colis dans le niveau de tampons en amont (étapes après la première)
+     * @return true si un colis vient d'être pris
+     */
+    private boolean collectFromBuffer() {
+        if (carriedPackage != null) {
+            return false;
+        }
+        SimFactory.profiler.begin(TickProfiler.ZONES);
+        ColorTransitZone zone = selectPickupZone();
+        SimFactory.profiler.end();
+        if (zone == null) {
+            // Pas de paquets en transit, s'éloigner des zones de transit pour éviter l'encombrement
+            moveAwayFromTransitZones(pickupZones(), false, control.transitClearance, false);
+            return false;
+        }
+        if (!isAdjacentTo(zone.getX(), zone.getY())) {
+            moveOneStepTo(zone.getX(), zone.getY());
+            return false;
+        }
+        if (zone.getPackages().isEmpty()) {
+            return false;
+        }
+        setCarriedPackage(zone.getPackages().get(0));
+        zone.removePackage(carriedPackage);
+        List<ColorPackage> more = selectBatch(zone.getPackages());
+        for (int i = 0; i < more.size(); i++) {
+            zone.removePackage(more.get(i));
+            batch.add(more.get(i));
+        }
+        if (SimFactory.world != null) SimFactory.world.zoneChanged(zone.getX(), zone.getY());
+        tempsDepart = System.currentTimeMillis();
+        TransitDispatcher buffer = pickupBuffer();
+        if (buffer != null) {
+            int z = buffer.indexOf(zone.getX(), zone.getY());
+            buffer.pickedUp(z, carriedPackage);
+            for (int i = 0; i < batch.size(); i++) {
+                buffer.pickedUp(z, batch.get(i));
+            }
+            releaseTransitZones();
+        }
+        return true;
+    }
+
+    /**
+     * Colis d'une zone à ajouter au chargement : ceux destinés au même goal que carriedPackage,
+     * dans l'ordre de la zone, dans la limite de la capacité de transport
+     * @param available colis encore présents dans la zone
+     * @return colis choisis (à retirer de la zone par l'appelant)
+     */
+    private List<ColorPackage> selectBatch(List<ColorPackage> available) {
+        picked.clear();
+        for (int i = 0; i < available.size(); i++) {
+            ColorPackage p = available.get(i);
+            if (1 + batch.size() + picked.size() >= carryCapacity) break;
+            if (p.getDestinationGoalId() == carriedPackage.getDestinationGoalId()) {
+                picked.add(p);
             }
         }
+        return picked;
+    }
+
+    private String describeLoad() {
+        return batch.isEmpty() ? "un paquet" : (1 + batch.size()) + " paquets";
+    }
+
+    /**
+     * Porter le colis jusqu'à la zone réservée du niveau aval et l'y déposer (toutes les étapes sauf la dernière)
+     */
+    private void depositInBuffer() {
+        if (!isAdjacentTo(getDestX(), getDestY())) {
+            moveOneStepTo(getDestX(), getDestY());
+            return;
+        }
+        // Déposer le colis en zone de transit
+        Cell c = env.getGrid()[getDestX()][getDestY()];
+        if (!(c instanceof ColorCell) || !(c.getContent() instanceof ColorTransitZone)) {
+            return;
+        }
+        ColorTransitZone transitZone = (ColorTransitZone) c.getContent();
+        TransitDispatcher buffer = dropBuffer();
+        if (transitZone.isFull() && buffer != null && buffer.isBalanced()) {
+            // Tampon plein à l'arrivée : se rabattre sur une autre zone qui a de la place
+            int z = buffer.selectDrop(getX(), getY());
+            if (z >= 0 && !buffer.zone(z).isFull()) {
+                reserveDropZone(buffer.zone(z));
+                setDestination(buffer.zone(z).getX(), buffer.zone(z).getY());
+            }
+        } else if (!transitZone.isFull()) {
+            // Déposer autant de colis du chargement que le tampon peut en recevoir
+            while (carriedPackage != null && !transitZone.isFull()) {
+                transitZone.addPackage(carriedPackage);
+                if (SimFactory.sla != null) {
+                    SimFactory.sla.enqueue(transitZone.getPackages());
+                }
+                if (buffer != null) {
+                    buffer.deposited(buffer.indexOf(getDestX(), getDestY()), carriedPackage);
+                }
+                notifyPackageInTransit(carriedPackage, getDestX(), getDestY());
+                if (verbose) System.out.println(getName() + " (rôle " + getAssignedRole() + ") a déposé un colis en transit (" + getDestX() + "," + getDestY() + ")");
+                setCarriedPackage(batch.isEmpty() ? null : batch.remove(0));
+            }
+            if (SimFactory.world != null) SimFactory.world.zoneChanged(getDestX(), getDestY());
+            if (buffer != null) {
+                releaseTransitZones();
+            }
+            if (carriedPackage == null) {
+                setEtat(Etat.MOVING_AWAY);
+                return;
+            }
+            // Tampon rempli avant la fin du chargement : porter le reste à une autre zone
+            SimFactory.profiler.begin(TickProfiler.ZONES);
+            ColorTransitZone next = findAvailableTransitZone();
+            SimFactory.profiler.end();
+            if (next != null) {
+                reserveDropZone(next);
+                setDestination(next.getX(), next.getY());
+            }
+        }
+    }
+
+    /**
+     * Dernière étape du pipeline (celle qui livre aux goals)
+     */
+    private int lastStage() {
+        return buffers != null ? buffers.length - 1 : 1;
+    }
+
+    /**
+     * Tampons où le robot dépose ses colis (null pour la dernière étape ou sans répartiteur)
+     */
+    private TransitDispatcher dropBuffer() {
+        if (buffers == null) return getAssignedRole() == 0 ? transit : null;
+        return getAssignedRole() + 1 < buffers.length ? buffers[getAssignedRole() + 1] : null;
+    }
+
+    /**
+     * Tampons où le robot prend ses colis (null pour la première étape ou sans répartiteur)
+     */
+    private TransitDispatcher pickupBuffer() {
+        if (buffers == null) return getAssignedRole() == 1 ? transit : null;
+        return getAssignedRole() >= 1 && getAssignedRole() < buffers.length ? buffers[getAssignedRole()] : null;
+    }
+
+    private int[][] dropZones() {
+        TransitDispatcher buffer = dropBuffer();
+        return buffer != null ? buffer.positions() : transitZones;
+    }
+
+    private int[][] pickupZones() {
+        TransitDispatcher buffer = pickupBuffer();
+        return buffer != null ? buffer.positions() : transitZones;
     }
 
     // MÉTHODES DE RECHERCHE DE ZONES ET UTILITAIRES
@@ -456,6 +1021,9 @@ public class MyRobot extends ColorInteractionRobot {
      * @return
      */
     protected ColorStartZone findStartZoneWithPackage() {
+        if (SimFactory.world != null) {
+            return SimFactory.world.startZoneWithPackage();
+        }
         for (int[] pos : startZones) {
             Cell c = env.getGrid()[pos[0]][pos[1]];
             if (c instanceof ColorCell && c.getContent() instanceof ColorStartZone) {
@@ -473,7 +1041,12 @@ public class MyRobot extends ColorInteractionRobot {
      * @return
      */
     protected ColorTransitZone findAvailableTransitZone() {
-        for (int[] pos : transitZones) {
+        TransitDispatcher buffer = dropBuffer();
+        if (buffer != null) {
+            int z = buffer.selectDrop(getX(), getY());
+            return z < 0 ? null : buffer.zone(z);
+        }
+        for (int[] pos : dropZones()) {
             Cell c = env.getGrid()[pos[0]][pos[1]];
             if (c instanceof ColorCell && c.getContent() instanceof ColorTransitZone) {
                 ColorTransitZone zone = (ColorTransitZone) c.getContent();
@@ -485,12 +1058,59 @@ public class MyRobot extends ColorInteractionRobot {
         return null;
     }
 
+    /**
+     * Zone de transit où aller chercher un colis (rôle 1) : avec le répartiteur, la plus proche
+     * dont un colis n'est pas déjà convoité par un autre robot, et la demande du robot y est enregistrée
+     * @return la zone ou null si aucune
+     */
+    protected ColorTransitZone selectPickupZone() {
+        TransitDispatcher buffer = pickupBuffer();
+        if (buffer == null) {
+            return findTransitZoneWithPackage();
+        }
+        // aucun colis en transit d'après le résumé : inutile de parcourir les zones
+        boolean empty = SimFactory.world != null && buffer == transit
+                && SimFactory.world.transitZoneWithPackage() == null;
+        int z = empty ? -1 : buffer.selectPickup(getX(), getY(), pickupZone);
+        if (z != pickupZone) {
+            if (pickupZone >= 0) buffer.unclaim(pickupZone);
+            if (z >= 0) buffer.claim(z);
+            pickupZone = z;
+        }
+        return z < 0 ? null : buffer.zone(z);
+    }
+
+    /**
+     * Réserver une place dans la zone de transit où le colis porté sera déposé (rôle 0)
+     */
+    private void reserveDropZone(ColorTransitZone zone) {
+        TransitDispatcher buffer = dropBuffer();
+        if (buffer == null) return;
+        if (dropZone >= 0) buffer.cancelDrop(dropZone);
+        dropZone = buffer.indexOf(zone.getX(), zone.getY());
+        buffer.reserveDrop(dropZone);
+    }
+
+    /**
+     * Libérer la réservation de dépôt et la demande de retrait du robot
+     */
+    private void releaseTransitZones() {
+        if (dropZone >= 0) dropBuffer().cancelDrop(dropZone);
+        if (pickupZone >= 0) pickupBuffer().unclaim(pickupZone);
+        dropZone = -1;
+        pickupZone = -1;
+    }
+
     /**
      * Trouver une zone de transit avec des colis (pour les robots rôle 1)
      * @return
      */
     protected ColorTransitZone findTransitZoneWithPackage() {
-        for (int[] pos : transitZones) {
+        if (SimFactory.world != null && (buffers == null || getAssignedRole() <= 1)) {
+            // zones de transit du niveau 1, dans le même ordre que pickupZones()
+            return SimFactory.world.transitZoneWithPackage();
+        }
+        for (int[] pos : pickupZones()) {
             Cell c = env.getGrid()[pos[0]][pos[1]];
             if (c instanceof ColorCell && c.getContent() instanceof ColorTransitZone) {
                 ColorTransitZone zone = (ColorTransitZone) c.getContent();
@@ -507,6 +1127,9 @@ public class MyRobot extends ColorInteractionRobot {
      * @return la zone de départ adjacente ou null si aucune
      */
     private ColorStartZone findAdjacentStartZone() {
+        if (SimFactory.world != null) {
+            return SimFactory.world.adjacentStartZone(getX(), getY());
+        }
         for (int[] pos : startZones) {
             if (isAdjacentTo(pos[0], pos[1])) {
                 Cell c = env.getGrid()[pos[0]][pos[1]];
@@ -526,13 +1149,30 @@ public class MyRobot extends ColorInteractionRobot {
         ColorStartZone best = null;
         double bestScore = Double.MAX_VALUE;
 
+        WorldSummary world = SimFactory.world;
+        if (world != null) {
+            for (int s = 0; s < world.startCount(); s++) {
+                ColorStartZone zone = world.startZone(s);
+                if (zone == null) continue;
+                double score = distanceTo(this.getX(), this.getY(), zone.getX(), zone.getY())
+                        + (world.agentsNear(s, this.getX(), this.getY()) * 5.0);
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = zone;
+                }
+            }
+            return best;
+        }
+
         for (int[] pos : startZones) {
             Cell c = env.getGrid()[pos[0]][pos[1]];
             if (c instanceof ColorCell && c.getContent() instanceof ColorStartZone) {
                 // Calculer le nombre de robots dans un rayon de 3 cases autour de cette zone
                 int robotsNearby = 0;
-                for (fr.emse.fayol.maqit.simulator.components.Robot robot : env.getRobot()) {
-                    if (!robot.getName().equals(getName())) {
+                List<Robot> all = agents();
+                for (int i = 0; i < all.size(); i++) {
+                    Robot robot = all.get(i);
+                    if (robot != this) {
                         double dist = distanceTo(robot.getX(), robot.getY(), pos[0], pos[1]);
                         if (dist <= 3.0) {
                             robotsNearby++;
@@ -574,45 +1214,333 @@ public class MyRobot extends ColorInteractionRobot {
      * @param targetY
      */
     protected void moveOneStepTo(int targetX, int targetY) {
-        HashMap<String, Location> directions = getNextCoordinate();
-        Location bestMove = null;
+        SimFactory.profiler.begin(TickProfiler.PATH);
+        lastTarget = targetX * columns + targetY;
+        if (yieldTicks > 0) {
+            // céder le passage aux autres robots
+            yieldTicks--;
+        } else if (!recoverIfStuck(targetX, targetY)) {
+            int next = plannedTarget == lastTarget && plannedCell >= 0 && isCellFree(plannedCell / columns, plannedCell % columns)
+                    ? plannedCell : chooseStep(targetX, targetY);
+            plannedCell = -1;
+            if (next >= 0) {
+                stepTowards(next / columns, next % columns);
+            } else if (SimFactory.heatmap != null) {
+                SimFactory.heatmap.block(getX(), getY());
+            }
+        }
+        stallDetector.record(getX(), getY(), targetX, targetY);
+        SimFactory.profiler.end();
+    }
+
+    /**
+     * Case voisine où avancer vers la cible : planificateur hiérarchique (qui suit le sens des voies)
+     * ou meilleure case libre. Ne modifie pas la grille (seulement le chemin mémorisé du robot).
+     * @return case (x * columns + y), ou -1 si le robot doit attendre
+     */
+    private int chooseStep(int targetX, int targetY) {
+        if (SimFactory.pathfinder != null) {
+            // planificateur hiérarchique ; si la case suivante est occupée par un robot, attendre
+            int next = SimFactory.pathfinder.nextCell(route, getX(), getY(), targetX, targetY);
+            if (next >= 0) {
+                return isCellFree(next / columns, next % columns) ? next : -1;
+            }
+        }
+        int bestX = -1, bestY = -1;
         double minDist = Double.MAX_VALUE;
         // chercher la meilleure position
-        for (Map.Entry<String, Location> entry : directions.entrySet()) {
-            Location loc = entry.getValue();
-            if (loc.getX() < 0 || loc.getX() >= rows || loc.getY() < 0 || loc.getY() >= columns) continue;
-
-            if (!isCellFree(loc.getX(), loc.getY())) continue;
-
-            double dist = distanceTo(loc.getX(), loc.getY(), targetX, targetY);
+        int o = getCurrentOrientation().ordinal();
+        for (int m = 0; m < 4; m++) {
+            int x = getX() + NEIGHBOURS[o][m][0];
+            int y = getY() + NEIGHBOURS[o][m][1];
+            if (x < 0 || x >= rows || y < 0 || y >= columns) continue;
+
+            if (!isCellFree(x, y)) continue;
+            if (!laneAllows(x, y)) continue;
+
+            double dist = distanceTo(x, y, targetX, targetY);
+            if (SimFactory.crowd != null && SimFactory.crowd.isPredicted(x, y)) {
+                dist += WORKER_AVOIDANCE; // un travailleur doit passer par là : contourner si possible
+            }
             if (dist < minDist) {
                 minDist = dist;
-                bestMove = loc;
+                bestX = x;
+                bestY = y;
             }
         }
-        // s'orienter vers la meilleure position
-        if (bestMove != null && isCellFree(bestMove.getX(), bestMove.getY())) {
-            if (bestMove.getX() == this.getX() - 1) setCurrentOrientation(Orientation.up);
-            if (bestMove.getX() == this.getX() + 1) setCurrentOrientation(Orientation.down);
-            if (bestMove.getY() == this.getY() - 1) setCurrentOrientation(Orientation.left);
-            if (bestMove.getY() == this.getY() + 1) setCurrentOrientation(Orientation.right);
+        return bestX >= 0 ? bestX * columns + bestY : -1;
+    }
 
-            moveForward();
+    /**
+     * Mode un thread par agent, phase parallèle : préparer le prochain pas vers la cible du pas précédent
+     * sans modifier la grille. moveOneStepTo() le reprend si la cible n'a pas changé et que la case
+     * est toujours libre, sinon il le recalcule.
+     */
+    public void plan() {
+        plannedTarget = lastTarget;
+        plannedCell = -1;
+        if (lastTarget >= 0 && yieldTicks == 0 && stallDetector.status() == StallDetector.Status.OK) {
+            plannedCell = chooseStep(lastTarget / columns, lastTarget % columns);
         }
     }
 
     /**
-     * Override de moveForward pour consommer la batterie à chaque mouvement réel
+     * Le pas vers la case voisine (x, y) respecte-t-il le sens des voies ?
+     */
+    private boolean laneAllows(int x, int y) {
+        return lanes == null || lanes.allows(getX(), getY(), x, y);
+    }
+
+    /**
+     * S'orienter vers une case voisine et y avancer
+     */
+    private void stepTowards(int x, int y) {
+        if (x == this.getX() - 1) setCurrentOrientation(Orientation.up);
+        if (x == this.getX() + 1) setCurrentOrientation(Orientation.down);
+        if (y == this.getY() - 1) setCurrentOrientation(Orientation.left);
+        if (y == this.getY() + 1) setCurrentOrientation(Orientation.right);
+
+        moveForward();
+    }
+
+    /**
+     * Appliquer une action de récupération si le robot est bloqué, oscille ou n'avance plus :
+     * recul aléatoire, cession de priorité ou replanification
+     * @return true si une action a remplacé le déplacement normal
+     */
+    private boolean recoverIfStuck(int targetX, int targetY) {
+        StallDetector.Status status = stallDetector.status();
+        if (status == StallDetector.Status.OK) {
+            return false;
+        }
+        stallDetector.recovering(status);
+        if (verbose) System.out.println(getName() + " - " + status + " vers (" + targetX + "," + targetY + "), récupération");
+        // if plutôt que switch : un switch sur une énumération charge une classe synthétique au premier blocage
+        if (status == StallDetector.Status.STALLED) {
+            // recul aléatoire vers une case libre voisine
+            int first = rnd.nextInt(4);
+            for (int k = 0; k < 4; k++) {
+                int[] m = MOVES[(first + k) % 4];
+                if (isCellFree(getX() + m[0], getY() + m[1]) && laneAllows(getX() + m[0], getY() + m[1])) {
+                    stepTowards(getX() + m[0], getY() + m[1]);
+                    return true;
+                }
+            }
+            yieldTicks = 1 + rnd.nextInt(3);
+            return true;
+        }
+        if (status == StallDetector.Status.OSCILLATING) {
+            // céder la priorité quelques pas
+            yieldTicks = 1 + rnd.nextInt(3);
+            return true;
+        }
+        // interblocage : replanifier par un parcours en largeur
+        int next = replanStep(targetX, targetY);
+        if (next >= 0) {
+            stepTowards(next / columns, next % columns);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tampons du parcours de replanStep() sur la fenêtre autour du robot. Une case est visitée si son
+     * marqueur vaut celui du parcours en cours : rien à effacer d'un parcours à l'autre.
+     */
+    private static final class ReplanScratch {
+        private static final int SIDE = 2 * REPLAN_RADIUS + 1;
+        final int[] mark = new int[SIDE * SIDE];
+        final int[] parent = new int[SIDE * SIDE];
+        final int[] queue = new int[SIDE * SIDE];
+        int stamp = 0;
+    }
+
+    /**
+     * Parcours en largeur depuis la position du robot jusqu'à la cible ou une case voisine de la cible,
+     * à travers les cases libres et dans le sens des voies, borné à une fenêtre de REPLAN_RADIUS cases.
+     * Si la cible est hors de la fenêtre, viser la case atteinte la plus proche de la cible.
+     * @return première case du chemin trouvé (x * columns + y), ou -1
+     */
+    private int replanStep(int targetX, int targetY) {
+        ReplanScratch scratch = REPLAN_SCRATCH.get();
+        if (++scratch.stamp == 0) {
+            Arrays.fill(scratch.mark, 0);
+            scratch.stamp = 1;
+        }
+        final int side = ReplanScratch.SIDE;
+        int[] mark = scratch.mark;
+        int[] parent = scratch.parent;
+        int[] queue = scratch.queue;
+        int stamp = scratch.stamp;
+        // coordonnées locales à la fenêtre : (x - x0) * side + (y - y0)
+        int x0 = getX() - REPLAN_RADIUS, y0 = getY() - REPLAN_RADIUS;
+        boolean targetInside = Math.abs(targetX - getX()) <= REPLAN_RADIUS + 1 && Math.abs(targetY - getY()) <= REPLAN_RADIUS + 1;
+        int start = REPLAN_RADIUS * side + REPLAN_RADIUS;
+        mark[start] = stamp;
+        parent[start] = start;
+        int headQ = 0, tailQ = 0;
+        queue[tailQ++] = start;
+        int found = -1;
+        int closest = start, closestDist = Math.abs(getX() - targetX) + Math.abs(getY() - targetY);
+        while (headQ < tailQ) {
+            int cell = queue[headQ++];
+            int cx = x0 + cell / side, cy = y0 + cell % side;
+            int dist = Math.abs(cx - targetX) + Math.abs(cy - targetY);
+            if (dist <= 1 && cell != start) {
+                found = cell;
+                break;
+            }
+            if (dist < closestDist) {
+                closestDist = dist;
+                closest = cell;
+            }
+            for (int[] m : MOVES) {
+                int nx = cx + m[0], ny = cy + m[1];
+                if (nx < 0 || nx >= rows || ny < 0 || ny >= columns) continue;
+                if (nx < x0 || nx >= x0 + side || ny < y0 || ny >= y0 + side) continue;
+                int n = (nx - x0) * side + (ny - y0);
+                if (mark[n] == stamp || !isCellFree(nx, ny)) continue;
+                if (lanes != null && !lanes.allows(cx, cy, nx, ny)) continue;
+                mark[n] = stamp;
+                parent[n] = cell;
+                queue[tailQ++] = n;
+            }
+        }
+        if (found < 0) {
+            if (targetInside || closest == start) return -1;
+            found = closest;
+        }
+        int cell = found;
+        while (parent[cell] != start) {
+            cell = parent[cell];
+        }
+        return (x0 + cell / side) * columns + (y0 + cell % side);
+    }
+
+    /**
+     * Niveau de batterie en % de la capacité
+     */
+    public int getBatteryLevel() {
+        return (int) (getBatteryCharge() * 100L / maxBatteryLevel);
+    }
+
+    /**
+     * Niveau de batterie en déplacements restants (0-maxBatteryLevel)
+     */
+    public int getBatteryCharge() {
+        return fleet.battery[slot];
+    }
+
+    protected void setBatteryCharge(int level) {
+        fleet.battery[slot] = level;
+    }
+
+    /**
+     * @return -1 tant que la négociation n'a rien attribué, 0 pour le rôle start→transit, 1 pour le rôle transit→goal
+     * (ou l'étape du pipeline)
+     */
+    public int getAssignedRole() {
+        return fleet.role[slot];
+    }
+
+    protected void setAssignedRole(int role) {
+        fleet.role[slot] = (byte) role;
+    }
+
+    protected Etat getEtat() {
+        return fleet.getEtat(slot);
+    }
+
+    protected void setEtat(Etat e) {
+        fleet.setEtat(slot, e);
+    }
+
+    protected int getDestX() {
+        return fleet.getDestX(slot);
+    }
+
+    protected int getDestY() {
+        return fleet.getDestY(slot);
+    }
+
+    protected void setDestination(int x, int y) {
+        fleet.setDestination(slot, x, y);
+    }
+
+    /**
+     * Colis porté : l'objet pour la grille et les zones, son identifiant dans la colonne du FleetStore
+     */
+    protected void setCarriedPackage(ColorPackage p) {
+        carriedPackage = p;
+        fleet.carried[slot] = p == null ? FleetStore.NONE : p.getId();
+    }
+
+    /**
+     * Métriques du détecteur de blocages
+     */
+    public StallDetector getStallDetector() {
+        return stallDetector;
+    }
+
+    /**
+     * Override de moveForward : avancer d'une case dans la colonne des positions (bornée à la grille comme Robot)
+     * et consommer la batterie à chaque mouvement réel
      */
     @Override
     public boolean moveForward() {
-        boolean result = super.moveForward();
+        int x = getX(), y = getY();
+        switch (getCurrentOrientation()) {
+            case up: x = Math.max(x - 1, 0); break;
+            case down: x = Math.min(x + 1, rows - 1); break;
+            case left: y = Math.max(y - 1, 0); break;
+            default: y = Math.min(y + 1, columns - 1); break;
+        }
+        boolean result = x != getX() || y != getY();
         if (result) {
+            fleet.setLocation(slot, x, y);
+            super.setX(x);
+            super.setY(y);
             consumeBattery();
         }
         return result;
     }
 
+    // Position : tenue dans la colonne du FleetStore ; x et y hérités n'en sont que la copie lue par
+    // les méthodes du framework qui y accèdent directement (toString, getNextCoordinate)
+
+    @Override
+    public int getX() {
+        return fleet.getX(slot);
+    }
+
+    @Override
+    public int getY() {
+        return fleet.getY(slot);
+    }
+
+    @Override
+    public void setX(int x) {
+        fleet.setLocation(slot, x, getY());
+        super.setX(x);
+    }
+
+    @Override
+    public void setY(int y) {
+        fleet.setLocation(slot, getX(), y);
+        super.setY(y);
+    }
+
+    @Override
+    public void setLocation(int[] pos) {
+        fleet.setLocation(slot, pos[0], pos[1]);
+        super.setLocation(pos);
+    }
+
+    @Override
+    public int[] getLocation() {
+        return new int[]{getX(), getY()};
+    }
+
     // MÉTHODES D'AIDE ET UTILITAIRES
     // Enfin, les robots ont besoin de méthodes utilitaires de base pour les calculs et vérifications...
 
@@ -623,7 +1551,7 @@ public class MyRobot extends ColorInteractionRobot {
      * @return
      */
     protected boolean isCellFree(int x, int y) {
-        if (x < 0 || x >= 20 || y < 0 || y >= 20) return false;
+        if (x < 0 || x >= rows || y < 0 || y >= columns) return false;
 
         Cell c = env.getGrid()[x][y];
         if (c == null) return true;
@@ -657,19 +1585,21 @@ public class MyRobot extends ColorInteractionRobot {
      * @return
      */
     protected double distanceTo(int x1, int y1, int x2, int y2) {
-        return Math.sqrt(Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2));
+        int dx = x2 - x1, dy = y2 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
     }
 
     /**
      * S'éloigner des zones de transit avec différents comportements selon le contexte
+     * @param zones Zones de transit à éviter (niveau de tampons amont ou aval du robot)
      * @param targetStartZones Si true, se diriger vers les zones de départ (pour rôle 0)
-     * @param minDistance Distance minimale à maintenir (4.0 pour évitement simple, 8.0 pour retour au travail)
+     * @param minDistance Distance minimale à maintenir (transitClearance pour évitement simple, returnDistance pour retour au travail)
      * @param changeStateWhenFar Si true, change l'état à FREE quand assez loin
      */
-    private void moveAwayFromTransitZones(boolean targetStartZones, double minDistance, boolean changeStateWhenFar) {
+    private void moveAwayFromTransitZones(int[][] zones, boolean targetStartZones, double minDistance, boolean changeStateWhenFar) {
         // Vérifier si on est trop proche des zones de transit
         double minDistToTransit = Double.MAX_VALUE;
-        for (int[] transitPos : transitZones) {
+        for (int[] transitPos : zones) {
             double dist = distanceTo(this.getX(), this.getY(), transitPos[0], transitPos[1]);
             minDistToTransit = Math.min(minDistToTransit, dist);
         }
@@ -681,15 +1611,15 @@ public class MyRobot extends ColorInteractionRobot {
 
             if (targetStartZones) {
                 targetZones = startZones;
-                successMessage = getName() + " (rôle 0) s'est éloigné vers les zones de départ et retourne au travail";
+                successMessage = verbose ? getName() + " (rôle 0) s'est éloigné vers les zones de départ et retourne au travail" : null;
             }
 
-            moveAwayFromZones(transitZones, minDistance, targetZones, changeStateWhenFar, successMessage);
+            moveAwayFromZones(zones, minDistance, targetZones, changeStateWhenFar, successMessage);
         } else if (changeStateWhenFar) {
             // Déjà assez loin, retourner au travail
-            etat = Etat.FREE;
+            setEtat(Etat.FREE);
             if (targetStartZones) {
-                System.out.println(getName() + " (rôle 0) s'est éloigné vers les zones de départ et retourne au travail");
+                if (verbose) System.out.println(getName() + " (rôle 0) s'est éloigné vers les zones de départ et retourne au travail");
             }
         }
     }
@@ -704,6 +1634,7 @@ public class MyRobot extends ColorInteractionRobot {
      */
     private void moveAwayFromZones(int[][] avoidZones, double minDistance, int[][] targetZones,
                                   boolean changeStateWhenFar, String successMessage) {
+        SimFactory.profiler.begin(TickProfiler.PATH);
         // Vérifier si on est déjà assez loin des zones à éviter
         double minDistToAvoid = Double.MAX_VALUE;
         for (int[] zonePos : avoidZones) {
@@ -714,11 +1645,12 @@ public class MyRobot extends ColorInteractionRobot {
         // Si on est assez loin, retourner à FREE
         if (minDistToAvoid >= minDistance) {
             if (changeStateWhenFar) {
-                etat = Etat.FREE;
+                setEtat(Etat.FREE);
                 if (successMessage != null) {
-                    System.out.println(successMessage);
+                    if (verbose) System.out.println(successMessage);
                 }
             }
+            SimFactory.profiler.end();
             return;
         }
 
@@ -728,8 +1660,8 @@ public class MyRobot extends ColorInteractionRobot {
         double bestScore = -Double.MAX_VALUE;
         int searchRadius = targetZones != null ? 3 : 2;
 
-        for (int x = Math.max(0, this.getX() - searchRadius); x <= Math.min(19, this.getX() + searchRadius); x++) {
-            for (int y = Math.max(0, this.getY() - searchRadius); y <= Math.min(19, this.getY() + searchRadius); y++) {
+        for (int x = Math.max(0, this.getX() - searchRadius); x <= Math.min(rows - 1, this.getX() + searchRadius); x++) {
+            for (int y = Math.max(0, this.getY() - searchRadius); y <= Math.min(columns - 1, this.getY() + searchRadius); y++) {
                 if (!isCellFree(x, y)) continue;
                 if (x == this.getX() && y == this.getY()) continue; // Ne pas rester sur place
 
@@ -768,8 +1700,9 @@ public class MyRobot extends ColorInteractionRobot {
         if ((bestX != this.getX() || bestY != this.getY()) && isCellFree(bestX, bestY)) {
             moveOneStepTo(bestX, bestY);
         } else if (changeStateWhenFar) {
-            etat = Etat.FREE; // Si aucun mouvement possible, retourner au travail
+            setEtat(Etat.FREE); // Si aucun mouvement possible, retourner au travail
         }
+        SimFactory.profiler.end();
     }
 
 
@@ -778,16 +1711,15 @@ public class MyRobot extends ColorInteractionRobot {
      * S'éloigner des zones de départ pour éviter l'encombrement
      */
     private void moveAwayFromStartZones() {
-        moveAwayFromZones(startZones, 2.0, null, false, null);
+        moveAwayFromZones(startZones, control.zoneClearance, null, false, null);
     }
 
     /**
      * S'éloigner des zones de goal après livraison
      */
     private void moveAwayFromGoalZones() {
-        int[][] goalArray = GOALS.values().toArray(new int[0][]);
-        moveAwayFromZones(goalArray, 2.0, null, true,
-                         getName() + " (rôle 1) s'est éloigné et retourne au travail");
+        moveAwayFromZones(goalArray, control.zoneClearance, null, true,
+                         verbose ? getName() + " (rôle 1) s'est éloigné et retourne au travail" : null);
     }
 
     // MÉTHODES DE GESTION DE LA BATTERIE
@@ -796,33 +1728,41 @@ public class MyRobot extends ColorInteractionRobot {
      * Consomme de la batterie à chaque mouvement
      */
     protected void consumeBattery() {
+        int batteryLevel = getBatteryCharge();
         if (batteryLevel > 0) {
-            batteryLevel -= batteryConsumptionPerMove;
+            // Surconsommation proportionnelle aux colis portés au-delà du premier
+            int load = carriedPackage == null ? 0 : 1 + batch.size();
+            loadWear += loadConsumption * Math.max(0, load - 1);
+            int extra = (int) loadWear;
+            loadWear -= extra;
+            batteryUsed += Math.min(batteryLevel, batteryConsumptionPerMove + extra);
+            batteryLevel -= batteryConsumptionPerMove + extra;
             if (batteryLevel < 0) {
                 batteryLevel = 0;
             }
+            setBatteryCharge(batteryLevel);
 
             // Afficher le niveau de batterie tous les 10% et quand critique
-            int currentDisplayLevel = (batteryLevel / 10) * 10;
-            if (currentDisplayLevel != lastBatteryDisplayLevel || batteryLevel <= lowBatteryThreshold) {
-                System.out.println(getName() + " - Niveau de batterie: " + batteryLevel + "%");
+            int currentDisplayLevel = (getBatteryLevel() / 10) * 10;
+            if (currentDisplayLevel != lastBatteryDisplayLevel || control.mustCharge(batteryLevel, maxBatteryLevel)) {
+                if (verbose) System.out.println(getName() + " - Niveau de batterie: " + getBatteryLevel() + "%");
                 lastBatteryDisplayLevel = currentDisplayLevel;
             }
         }
     }
 
     /**
-     * Vérifie si la batterie est critique (≤ 20%)
+     * Vérifie si la batterie est critique (≤ lowBattery de control, 20% par défaut)
      */
     protected boolean needsCharging() {
-        return batteryLevel <= lowBatteryThreshold;
+        return control.mustCharge(getBatteryCharge(), maxBatteryLevel);
     }
 
     /**
-     * Vérifie si la batterie est suffisante pour prendre un nouveau colis (≥ 60%)
+     * Vérifie si la batterie est suffisante pour prendre un nouveau colis (≥ taskBattery de control, 60% par défaut)
      */
     protected boolean hasSufficientBatteryForTask() {
-        return batteryLevel >= minBatteryForTask;
+        return control.canTakeTask(getBatteryCharge(), maxBatteryLevel);
     }
 
     /**
@@ -831,17 +1771,52 @@ public class MyRobot extends ColorInteractionRobot {
     protected void handleChargingLogic() {
         if (isCharging) {
             // Charger la batterie
-            batteryLevel += chargingRate;
-            if (batteryLevel >= maxBatteryLevel) {
-                batteryLevel = maxBatteryLevel;
+            setBatteryCharge(control.charge(getBatteryCharge(), maxBatteryLevel, 1));
+            if (getBatteryCharge() >= maxBatteryLevel) {
                 isCharging = false;
-                etat = Etat.FREE;
+                setEtat(Etat.FREE);
+                if (SimFactory.world != null) SimFactory.world.reserved(reservedChargingStation, -1);
                 reservedChargingStation = null;
-                System.out.println(getName() + " - Chargement terminé, retour au travail (100%)");
+                if (verbose) System.out.println(getName() + " - Chargement terminé, retour au travail (100%)");
             } else {
-                System.out.println(getName() + " - En charge: " + batteryLevel + "%");
+                if (verbose) System.out.println(getName() + " - En charge: " + getBatteryLevel() + "%");
+            }
+        }
+    }
+
+    /**
+     * Nombre de pas à venir pendant lesquels step() ne ferait qu'ajouter chargingRate à la batterie
+     * (le pas qui termine la charge n'est pas compté)
+     */
+    public int chargingIdleTicks() {
+        if (getEtat() != Etat.CHARGING || !isCharging || control.chargingRate <= 0) return 0;
+        return Math.max(0, control.ticksToFull(getBatteryCharge(), maxBatteryLevel) - 1);
+    }
+
+    /**
+     * Robot de rôle 1 (ou d'une étape suivante du pipeline) libre, assez chargé, à l'écart des zones de transit
+     * où il prend ses colis et sans colis à y prendre :
+     * step() ne fait rien tant qu'aucun colis n'est déposé en transit
+     */
+    public boolean isWaitingForTransitPackage() {
+        if (getAssignedRole() < 1 || getEtat() != Etat.FREE || carriedPackage != null || needsCharging() || !hasSufficientBatteryForTask()) {
+            return false;
+        }
+        for (int[] transitPos : pickupZones()) {
+            if (distanceTo(this.getX(), this.getY(), transitPos[0], transitPos[1]) < control.transitClearance) {
+                return false;
             }
         }
+        return findTransitZoneWithPackage() == null;
+    }
+
+    /**
+     * Rattraper des pas sautés par le mode événementiel : seule la recharge évolue pendant le sommeil
+     */
+    public void skipTicks(int ticks) {
+        if (getEtat() == Etat.CHARGING && isCharging) {
+            setBatteryCharge(control.charge(getBatteryCharge(), maxBatteryLevel, ticks));
+        }
     }
 
     /**
@@ -849,12 +1824,15 @@ public class MyRobot extends ColorInteractionRobot {
      */
     protected void goToChargingStation() {
         if (reservedChargingStation == null) {
+            SimFactory.profiler.begin(TickProfiler.ZONES);
             String nearestStation = findNearestChargingStation();
+            SimFactory.profiler.end();
             if (nearestStation != null) {
                 reservedChargingStation = nearestStation;
-                System.out.println(getName() + " - Se dirige vers la station: " + nearestStation);
+                if (SimFactory.world != null) SimFactory.world.reserved(nearestStation, 1);
+                if (verbose) System.out.println(getName() + " - Se dirige vers la station: " + nearestStation);
             } else {
-                System.out.println(getName() + " - Aucune station de chargement disponible!");
+                if (verbose) System.out.println(getName() + " - Aucune station de chargement disponible!");
                 return;
             }
         }
@@ -864,9 +1842,9 @@ public class MyRobot extends ColorInteractionRobot {
         if (stationPos != null) {
             if (isAdjacentTo(stationPos[0], stationPos[1])) {
                 // Adjacent à la station, commencer le chargement
-                etat = Etat.CHARGING;
+                setEtat(Etat.CHARGING);
                 isCharging = true;
-                System.out.println(getName() + " - Arrivé à la station, début du chargement");
+                if (verbose) System.out.println(getName() + " - Arrivé à la station, début du chargement");
             } else {
                 // Se diriger vers la station
                 moveOneStepTo(stationPos[0], stationPos[1]);
@@ -881,16 +1859,9 @@ public class MyRobot extends ColorInteractionRobot {
         String nearestStation = null;
         double minDistance = Double.MAX_VALUE;
 
-        // Positions des stations de chargement (définies dans environment.ini)
-        Map<String, int[]> chargingStations = new HashMap<>();
-        chargingStations.put("station1", new int[]{2, 2});
-        chargingStations.put("station2", new int[]{17, 2});
-        chargingStations.put("station3", new int[]{2, 17});
-        chargingStations.put("station4", new int[]{17, 17});
-
-        for (Map.Entry<String, int[]> entry : chargingStations.entrySet()) {
-            String stationName = entry.getKey();
-            int[] pos = entry.getValue();
+        for (int i = 0; i < stationNames.length; i++) {
+            String stationName = stationNames[i];
+            int[] pos = stationArray[i];
 
             if (isChargingStationFree(stationName)) {
                 double distance = distanceTo(this.getX(), this.getY(), pos[0], pos[1]);
@@ -908,18 +1879,11 @@ public class MyRobot extends ColorInteractionRobot {
      * Trouve une station de chargement adjacente
      */
     protected String findAdjacentChargingStation() {
-        Map<String, int[]> chargingStations = new HashMap<>();
-        chargingStations.put("station1", new int[]{2, 2});
-        chargingStations.put("station2", new int[]{17, 2});
-        chargingStations.put("station3", new int[]{2, 17});
-        chargingStations.put("station4", new int[]{17, 17});
-
-        for (Map.Entry<String, int[]> entry : chargingStations.entrySet()) {
-            String stationName = entry.getKey();
-            int[] pos = entry.getValue();
+        for (int i = 0; i < stationNames.length; i++) {
+            int[] pos = stationArray[i];
 
             if (isAdjacentTo(pos[0], pos[1])) {
-                return stationName;
+                return stationNames[i];
             }
         }
         return null;
@@ -931,9 +1895,14 @@ public class MyRobot extends ColorInteractionRobot {
     protected boolean isChargingStationFree(String stationName) {
         int[] stationPos = getChargingStationPosition(stationName);
         if (stationPos == null) return false;
+        if (SimFactory.world != null) {
+            return SimFactory.world.isStationFree(stationName, reservedChargingStation);
+        }
 
         // Vérifier si un autre robot est déjà adjacent à cette station
-        for (fr.emse.fayol.maqit.simulator.components.Robot robot : env.getRobot()) {
+        List<Robot> all = agents();
+        for (int i = 0; i < all.size(); i++) {
+            Robot robot = all.get(i);
             if (robot != this && robot instanceof MyRobot) {
                 MyRobot otherRobot = (MyRobot) robot;
                 if (stationName.equals(otherRobot.reservedChargingStation)) {
@@ -948,13 +1917,135 @@ public class MyRobot extends ColorInteractionRobot {
      * Obtient la position d'une station de chargement
      */
     protected int[] getChargingStationPosition(String stationName) {
-        Map<String, int[]> chargingStations = new HashMap<>();
-        chargingStations.put("station1", new int[]{2, 2});
-        chargingStations.put("station2", new int[]{17, 2});
-        chargingStations.put("station3", new int[]{2, 17});
-        chargingStations.put("station4", new int[]{17, 17});
+        return CHARGING_STATIONS.get(stationName);
+    }
+
+    // MODE DISTRIBUÉ : TRANSFERT D'UN ROBOT VERS UNE AUTRE RÉGION
+
+    /**
+     * Ecrire l'état du robot (hors position) pour le transférer à une région voisine :
+     * tâche, chargement, batterie, négociation et messages en attente, réservations, détecteur de blocages
+     * et suite aléatoire. Le chemin mémorisé n'est pas transféré, la région d'arrivée le recalcule.
+     */
+    void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(getEtat().ordinal());
+        writePackage(out, carriedPackage);
+        out.writeInt(batch.size());
+        for (ColorPackage p : batch) {
+            writePackage(out, p);
+        }
+        out.writeInt(getDestX());
+        out.writeInt(getDestY());
+        out.writeLong(tempsDepart);
+        out.writeLong(tempsArrivee);
+        out.writeInt(getBatteryCharge());
+        out.writeInt(maxBatteryLevel);
+        out.writeInt(batteryConsumptionPerMove);
+        out.writeBoolean(isCharging);
+        out.writeBoolean(reservedChargingStation != null);
+        if (reservedChargingStation != null) out.writeUTF(reservedChargingStation);
+        out.writeInt(lastBatteryDisplayLevel);
+        out.writeDouble(loadWear);
+        out.writeInt(getAssignedRole());
+        out.writeBoolean(roleNegotiationComplete);
+        out.writeInt(receivedRoleMessages.size());
+        for (String message : receivedRoleMessages) {
+            out.writeUTF(message);
+        }
+        out.writeInt(childSizes[0]);
+        out.writeInt(childSizes[1]);
+        out.writeBoolean(countReported);
+        out.writeInt(fleetSize);
+        out.writeInt(role0Granted);
+        out.writeInt(yieldTicks);
+        out.writeInt(dropZone);
+        out.writeInt(pickupZone);
+        out.writeInt(getCurrentOrientation().ordinal());
+        stallDetector.write(out);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+            objects.writeObject(rnd);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Relire l'état écrit par writeState() sur le robot reçu (créé avec fresh = false)
+     */
+    void readState(DataInputStream in, int[] packageColor) throws IOException {
+        setEtat(Etat.values()[in.readInt()]);
+        setCarriedPackage(readPackage(in, packageColor));
+        batch.clear();
+        for (int i = in.readInt(); i > 0; i--) {
+            batch.add(readPackage(in, packageColor));
+        }
+        setDestination(in.readInt(), in.readInt()); // x puis y
+        tempsDepart = in.readLong();
+        tempsArrivee = in.readLong();
+        setBatteryCharge(in.readInt());
+        maxBatteryLevel = in.readInt();
+        batteryConsumptionPerMove = in.readInt();
+        isCharging = in.readBoolean();
+        reservedChargingStation = in.readBoolean() ? in.readUTF() : null;
+        lastBatteryDisplayLevel = in.readInt();
+        loadWear = in.readDouble();
+        setAssignedRole(in.readInt());
+        roleNegotiationComplete = in.readBoolean();
+        receivedRoleMessages.clear();
+        for (int i = in.readInt(); i > 0; i--) {
+            receivedRoleMessages.add(in.readUTF());
+        }
+        childSizes[0] = in.readInt();
+        childSizes[1] = in.readInt();
+        countReported = in.readBoolean();
+        fleetSize = in.readInt();
+        role0Granted = in.readInt();
+        yieldTicks = in.readInt();
+        dropZone = in.readInt();
+        pickupZone = in.readInt();
+        setCurrentOrientation(Orientation.values()[in.readInt()]);
+        stallDetector.read(in);
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            rnd = (Random) objects.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Robot renvoyé à sa case d'origine par une région voisine qui n'a pas pu l'accueillir :
+     * le chemin mémorisé ne correspond plus à sa position
+     */
+    void resetRoute() {
+        route = new HierarchicalPathfinder.Route();
+        plannedCell = -1;
+    }
+
+    private static void writePackage(DataOutputStream out, ColorPackage p) throws IOException {
+        out.writeBoolean(p != null);
+        if (p == null) return;
+        out.writeInt(p.getDestinationGoalId());
+        out.writeInt(p.getTs());
+        out.writeInt(p.getTd());
+        out.writeInt(p.getState() == null ? -1 : p.getState().ordinal());
+        out.writeBoolean(p.getStartZone() != null);
+        if (p.getStartZone() != null) out.writeUTF(p.getStartZone());
+    }
 
-        return chargingStations.get(stationName);
+    private static ColorPackage readPackage(DataInputStream in, int[] color) throws IOException {
+        if (!in.readBoolean()) return null;
+        int goal = in.readInt();
+        int ts = in.readInt();
+        int td = in.readInt();
+        int state = in.readInt();
+        String zone = in.readBoolean() ? in.readUTF() : null;
+        ColorPackage p = new ColorPackage(new int[]{-1, -1}, color, goal, ts, zone);
+        p.setTd(td);
+        if (state >= 0) p.setState(PackageState.values()[state]);
+        return p;
     }
 
 }
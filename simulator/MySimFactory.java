@@ -4,9 +4,15 @@ import fr.emse.fayol.maqit.simulator.configuration.IniFile;
 
 
 import fr.emse.fayol.maqit.simulator.configuration.SimProperties;
+import fr.emse.fayol.maqit.simulator.display.LEDTable;
 
 
 import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +35,8 @@ public class MySimFactory extends SimFactory {
 
 	private Map<String, ColorStartZone> startZonesMap = new HashMap<>();
 	private Map<String, ColorObstacle> chargingStationsMap = new HashMap<>();
+	// Positions des stations de chargement (carte par défaut, remplacées par un entrepôt généré)
+	Map<String, int[]> chargingStationPositions = new HashMap<>();
 
 	public static int deliveredCount = 0;// compteur pour calculer le nb de pas effectuées
 	int nbPackages;
@@ -36,10 +44,34 @@ public class MySimFactory extends SimFactory {
 	int numberOfWorkers;
 	Random rnd;
 	int totalSteps= 0;
+	int agentThreads = 0; // 1 = un thread virtuel par agent, 0 = boucle séquentielle
+	boolean eventDriven = false; // boucle séquentielle : les robots au repos prévisible ne sont pas activés
+	boolean blackboard = false; // résumé des zones, de l'encombrement et des stations reconstruit à chaque pas
+	Random placementRnd;
+	int heatmapPeriod = 0; // export de la carte de trafic tous les n pas (0 = seulement en fin de simulation)
+	boolean heatmapBinary = false;
+	HeatmapWindow heatmapWindow;
+	List<Robot> robots; // agents activés à chaque pas (null avant schedule())
+	SteadyStateMonitor steadyState; // arrêt anticipé quand le débit est estimé assez précisément (null = désactivé)
+	AllocationProbe allocations; // octets alloués par pas, hors génération des colis (null = pas de mesure)
+	TickLatency latency; // durée de chaque pas et occupation du tas (null = pas de mesure)
+	TransitDispatcher transitDispatcher; // répartition et occupation des zones de transit
+	TransitDispatcher[] pipelineLevels; // tampons par niveau d'un pipeline à N étapes (null = deux étapes)
+	TelemetrySink telemetrySink; // destination de la télémétrie, publiée à partir du début du travail (null = aucune)
+	String telemetryTopic;
+	int telemetryPeriod = 1;
+	int telemetryQueue = 8;
+	LocalMqttBroker broker; // broker de substitution lancé dans le simulateur (null = broker externe)
+	LedPanelOutput ledOutput; // pixels modifiés envoyés aux tables LED (null = pas de tables)
+	FakeLedDevice ledDevice; // table factice qui enregistre les trames (null = tables réelles via MQTT)
 
 
     public MySimFactory(SimProperties sp) {
         super(sp);
+        chargingStationPositions.put("station1", new int[]{2, 2});
+        chargingStationPositions.put("station2", new int[]{17, 2});
+        chargingStationPositions.put("station3", new int[]{2, 17});
+        chargingStationPositions.put("station4", new int[]{17, 17});
     }
 
     /**
@@ -72,28 +104,136 @@ public class MySimFactory extends SimFactory {
      */
     @Override
     public void createGoal() {
-        int[] z1Pos = sp.goalPositions.get(1);
-        int[] z2Pos = sp.goalPositions.get(2);
-        // Z1
-        ((ColorCell) environment.getGrid()[z1Pos[0]][z1Pos[1]])
-            .setGoal(new ColorGoal(
-                1,// id de Z1
-                new int[]{
-                    sp.colorgoal.getRed(),
-                    sp.colorgoal.getGreen(),
-                    sp.colorgoal.getBlue()
-                }
-            ));
-        //Z2
-        ((ColorCell) environment.getGrid()[z2Pos[0]][z2Pos[1]])
-            .setGoal(new ColorGoal(
-                2,// id de Z2
-                new int[]{
-                    sp.colorgoal.getRed(),
-                    sp.colorgoal.getGreen(),
-                    sp.colorgoal.getBlue()
+        for (Map.Entry<Integer, int[]> entry : sp.goalPositions.entrySet()) {
+            int[] pos = entry.getValue();
+            ((ColorCell) environment.getGrid()[pos[0]][pos[1]])
+                .setGoal(new ColorGoal(
+                    entry.getKey(),// id du goal (Z1, Z2, ...)
+                    new int[]{
+                        sp.colorgoal.getRed(),
+                        sp.colorgoal.getGreen(),
+                        sp.colorgoal.getBlue()
+                    }
+                ));
+        }
+    }
+
+    /**
+     * Charger un entrepôt généré en une passe, à la place de createObstacle(), createGoal(),
+     * createStartZones(), createTransitZones(), createExitZones() et createChargingStations()
+     * @param layout plan généré (déjà appliqué à sp)
+     */
+    public void loadWarehouse(WarehouseLayout layout) {
+        long start = System.nanoTime();
+        layout.fill(environment, sp, startZonesMap, chargingStationsMap);
+        System.out.println("Entrepôt " + layout.rows + "x" + layout.columns + " chargé (" + layout.racks
+                + " racks) en " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Transmettre aux robots les zones de l'environnement chargé
+     */
+    public void configureRobotZones() {
+        int[][] starts = new int[startZonesMap.size()][];
+        int i = 0;
+        for (String id : startZoneIds()) {
+            starts[i++] = sp.startZonePositions.get(id);
+        }
+        int[][] transits = new int[sp.transitZoneData.size()][];
+        for (int t = 0; t < transits.length; t++) {
+            int[] data = sp.transitZoneData.get(t);
+            transits[t] = new int[]{data[0], data[1]};
+        }
+        MyRobot.configureZones(starts, transits, sp.goalPositions, chargingStationPositions);
+    }
+
+    /**
+     * Répartir les colis entre les zones de transit selon leur charge (ou sur la première disponible)
+     * et suivre l'occupation de chaque zone
+     * @param balanced true : choix selon la file d'attente, la distance, les réservations et la demande rôle 1
+     */
+    public void enableTransitDispatch(boolean balanced) {
+        int[][] transits = new int[sp.transitZoneData.size()][];
+        for (int t = 0; t < transits.length; t++) {
+            int[] data = sp.transitZoneData.get(t);
+            transits[t] = new int[]{data[0], data[1]};
+        }
+        transitDispatcher = new TransitDispatcher(environment.getGrid(), transits, balanced);
+        MyRobot.configureTransit(transitDispatcher);
+    }
+
+    /**
+     * Passer à un pipeline de N étapes : le niveau 1 reste celui des zones de transit, les niveaux 2 .. N-1
+     * sont des zones de relais lues dans la section [pipeline] de environment.ini (relayK_i = x,y,capacité)
+     * et les robots sont répartis entre les étapes (poolK, sinon répartition égale)
+     * @param ifilenv fichier d'environnement
+     * @param stages nombre d'étapes (au moins 3)
+     * @param balanced choix des zones selon leur charge
+     * @param capacity capacité imposée à tous les tampons (0 = celle du fichier)
+     */
+    public void enablePipeline(IniFile ifilenv, int stages, boolean balanced, int capacity) {
+        pipelineLevels = new TransitDispatcher[stages];
+        pipelineLevels[1] = transitDispatcher;
+        int[] color = {sp.colortransitzone.getRed(), sp.colortransitzone.getGreen(), sp.colortransitzone.getBlue()};
+        for (int level = 2; level < stages; level++) {
+            List<int[]> positions = new ArrayList<>();
+            for (int i = 1; ; i++) {
+                String value = ifilenv.getStringValue("pipeline", "relay" + level + "_" + i);
+                if (value == null) break;
+                String[] parts = value.split(",");
+                if (parts.length != 3) {
+                    throw new IllegalArgumentException("Zone de relais relay" + level + "_" + i + " invalide: " + value);
                 }
-            ));
+                int[] pos = {Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+                int zoneCapacity = capacity > 0 ? capacity : Integer.parseInt(parts[2].trim());
+                addNewComponent(new ColorTransitZone(pos, color, zoneCapacity));
+                positions.add(pos);
+            }
+            if (positions.isEmpty()) {
+                throw new IllegalArgumentException("Aucune zone de relais relay" + level + "_1 pour le niveau " + level);
+            }
+            pipelineLevels[level] = new TransitDispatcher(environment.getGrid(), positions.toArray(new int[0][]), balanced);
+        }
+        int[] pools = new int[stages];
+        for (int k = 0; k < stages; k++) {
+            pools[k] = ifilenv.getIntValue("pipeline", "pool" + (k + 1));
+        }
+        MyRobot.configurePipeline(pipelineLevels, pools);
+        System.out.println("Pipeline à " + stages + " étapes, pools " + Arrays.toString(pools));
+    }
+
+    /**
+     * Débit et occupation des tampons, étape par étape
+     * @param steps pas de simulation écoulés
+     */
+    private void printPipelineReport(int steps) {
+        System.out.println("=== PIPELINE ===");
+        int stages = pipelineLevels.length;
+        int[] robotsPerStage = new int[stages];
+        for (Robot r : robots) {
+            if (r instanceof MyRobot && ((MyRobot) r).getAssignedRole() >= 0) {
+                robotsPerStage[((MyRobot) r).getAssignedRole()]++;
+            }
+        }
+        for (int k = 0; k < stages; k++) {
+            long handled = k < stages - 1 ? pipelineLevels[k + 1].getDeposits() : deliveredCount;
+            String from = k == 0 ? "départ" : "niveau " + k;
+            String to = k == stages - 1 ? "goal" : "niveau " + (k + 1);
+            System.out.println(String.format("étape %d (%s → %s) : %d robots, %d colis, %.4f colis/pas",
+                    k, from, to, robotsPerStage[k], handled, steps == 0 ? 0 : handled / (double) steps));
+        }
+        for (int level = 1; level < stages; level++) {
+            System.out.print("niveau " + level + System.lineSeparator() + pipelineLevels[level].report());
+        }
+    }
+
+    /**
+     * Identifiants des zones de départ, triés (A1, A2, ...)
+     */
+    String[] startZoneIds() {
+        String[] ids = startZonesMap.keySet().toArray(new String[0]);
+        Arrays.sort(ids);
+        return ids;
     }
 
 
@@ -103,11 +243,11 @@ public class MySimFactory extends SimFactory {
 
     public void createPackages(int nbpackages) {
     	// Definir les zones de depart
-        String[] startZones = { "A1", "A2", "A3" };
+        String[] startZones = startZoneIds();
 
 
         for (int i = 0; i < nbpackages; i++) {
-            int destinationId = rnd.nextInt(2)+1;
+            int destinationId = rnd.nextInt(sp.goalPositions.size())+1;
             int ts = 0; // temps de depart
 
             int randomStartZone = rnd.nextInt(startZones.length);
@@ -116,21 +256,17 @@ public class MySimFactory extends SimFactory {
             // les paquets ne seront pas physiquement dessinés, on leur attribue une position virtuelle
             int[] position = { -1, -1 };
 
-            ColorPackage pack = new ColorPackage(
-                position,
-                new int[]{
-                    sp.colorpackage.getRed(),
-                    sp.colorpackage.getGreen(),
-                    sp.colorpackage.getBlue()
-                },
-                destinationId,
-                ts,
-                zone
-            );
+            int[] color = {sp.colorpackage.getRed(), sp.colorpackage.getGreen(), sp.colorpackage.getBlue()};
+            ColorPackage pack = sla != null
+                ? sla.create(position, color, destinationId, zone)
+                : new ColorPackage(position, color, destinationId, ts, zone);
 
             ColorStartZone startZone = getStartZoneById(zone);
             if (startZone != null) {
                 startZone.addPackage(pack);
+                if (sla != null) {
+                    sla.enqueue(startZone.getPackages());
+                }
             } else {
                 System.out.println("La zone de départ " + zone + " n'existe pas !");
             }
@@ -209,13 +345,6 @@ public class MySimFactory extends SimFactory {
      * Créer les stations de chargement (en orange)
      */
     public void createChargingStations() {
-        // Positions des stations de chargement définies dans environment.ini
-        Map<String, int[]> chargingStationPositions = new HashMap<>();
-        chargingStationPositions.put("station1", new int[]{2, 2});
-        chargingStationPositions.put("station2", new int[]{17, 2});
-        chargingStationPositions.put("station3", new int[]{2, 17});
-        chargingStationPositions.put("station4", new int[]{17, 17});
-
         for (Map.Entry<String, int[]> entry : chargingStationPositions.entrySet()) {
             String stationId = entry.getKey();
             int[] pos = entry.getValue();
@@ -233,12 +362,146 @@ public class MySimFactory extends SimFactory {
         }
     }
 
+    /**
+     * Activer les compteurs de trafic par case
+     * @param overlay true pour afficher la carte dans une fenêtre à côté de la grille
+     */
+    public void enableHeatmap(boolean overlay) {
+        heatmap = new TrafficHeatmap(sp.rows, sp.columns);
+        if (overlay) {
+            heatmapWindow = new HeatmapWindow(heatmap, sp.display_x + sp.display_width, sp.display_y,
+                    sp.display_height, sp.display_height);
+            heatmapWindow.init();
+        }
+    }
+
+    /**
+     * Construire le planificateur hiérarchique sur les éléments fixes déjà posés
+     * @param clusterSize taille des clusters (0 pour la taille par défaut)
+     */
+    public void enablePathfinder(int clusterSize) {
+        long start = System.nanoTime();
+        pathfinder = HierarchicalPathfinder.fromEnvironment(environment,
+                clusterSize > 0 ? clusterSize : HierarchicalPathfinder.DEFAULT_CLUSTER_SIZE, MyRobot.lanes, navigationCache);
+        System.out.println("Planificateur hiérarchique : " + pathfinder.getNodeCount() + " noeuds, "
+                + (navigationCache != null ? "prêt (cache " + navigationCache + ") en " : "construit en ")
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Activer le modèle de foule : les travailleurs vont des quais (zones de départ) aux portes
+     * @param stations nombre maximal de quais utilisés comme postes de travail (0 = tous)
+     * @param horizon nombre de pas de trajet annoncés aux robots
+     * @param dwell durée moyenne d'arrêt à destination
+     */
+    public void enableCrowd(int stations, int horizon, int dwell) {
+        String[] ids = startZoneIds();
+        int n = stations > 0 ? Math.min(stations, ids.length) : ids.length;
+        int[][] workstations = new int[n][];
+        for (int i = 0; i < n; i++) {
+            // quais répartis régulièrement le long du quai de chargement
+            workstations[i] = sp.startZonePositions.get(ids[i * ids.length / n]);
+        }
+        crowd = new WorkerCrowd(environment, workstations, sp.exitZonePositions, sp.goalPositions.values(),
+                horizon, Math.max(1, dwell), sp.seed, navigationCache);
+    }
+
+    /**
+     * Se connecter au broker MQTT de la télémétrie ; en cas d'échec la simulation continue sans télémétrie
+     * @param host adresse du broker, ou "local" pour lancer un broker de substitution dans le simulateur
+     * @param port port du broker
+     * @param clientId identifiant MQTT du simulateur
+     * @param delay délai par message du broker local (ms), pour tester la contre-pression
+     */
+    public void enableTelemetry(String host, int port, String clientId, int delay) {
+        try {
+            telemetrySink = connectMqtt(host, port, clientId, delay);
+        } catch (IOException e) {
+            System.out.println("Télémétrie MQTT désactivée (" + host + ":" + port + ") : " + e.getMessage());
+            if (broker != null) {
+                broker.close();
+                broker = null;
+            }
+        }
+    }
+
+    /**
+     * Client MQTT vers le broker indiqué ; "local" lance le broker de substitution, partagé par la télémétrie
+     * et les tables LED, sauf si un broker écoute déjà sur ce port de la machine : on publie alors vers lui
+     */
+    private MqttPublisher connectMqtt(String host, int port, String clientId, int delay) throws IOException {
+        if (host == null || host.isEmpty() || host.equals("local")) {
+            host = "127.0.0.1";
+            if (broker == null) {
+                try {
+                    broker = new LocalMqttBroker(port, delay);
+                    System.out.println("Broker MQTT local en écoute sur le port " + broker.getPort());
+                } catch (BindException e) {
+                    System.out.println("Port " + port + " déjà pris : publication vers le broker qui y écoute");
+                    return new MqttPublisher(host, port, clientId);
+                }
+            }
+            port = broker.getPort();
+        }
+        return new MqttPublisher(host, port, clientId);
+    }
+
+    /**
+     * Piloter les tables LED : seuls les pixels modifiés sont envoyés, au rythme des tables, par un thread dédié
+     * @param tables tables LED et leur position sur la grille
+     * @param device "fake" pour une table factice qui enregistre les trames, sinon les tables réelles via MQTT
+     * @param hz fréquence de rafraîchissement des tables
+     * @param keyframe rafraîchissements entre deux images complètes (0 = seulement la première)
+     * @param host adresse du broker MQTT des tables, ou "local"
+     * @param port port du broker
+     * @param clientId identifiant MQTT des tables
+     */
+    public void enableLed(List<LEDTable> tables, String device, int hz, int keyframe, String host, int port,
+            String clientId) {
+        TelemetrySink sink;
+        if ("fake".equals(device)) {
+            ledDevice = new FakeLedDevice(tables);
+            sink = ledDevice;
+        } else {
+            try {
+                sink = connectMqtt(host, port, clientId, 0);
+            } catch (IOException e) {
+                System.out.println("Tables LED désactivées (" + host + ":" + port + ") : " + e.getMessage());
+                return;
+            }
+        }
+        ledOutput = new LedPanelOutput((ColorCell[][]) environment.getGrid(), tables, sink, hz, keyframe);
+    }
+
+    /**
+     * Indexer les cases libres, une fois les éléments fixes (obstacles, zones, stations) posés
+     */
+    public void indexFreeCells() {
+        freeCells = FreeCellIndex.build(environment);
+        placementRnd = new Random(sp.seed);
+    }
+
+    /**
+     * Tirer une case libre au hasard (en O(1) grâce à l'index des cases libres)
+     * @return position [x, y]
+     */
+    public int[] randomFreePlace() {
+        if (freeCells == null) {
+            return environment.getPlace();
+        }
+        int[] pos = freeCells.sample(placementRnd);
+        if (pos == null) {
+            throw new IllegalStateException("Plus aucune case libre dans la grille");
+        }
+        return pos;
+    }
+
     /**
      *  creer les employés (en jaune)
      */
     public void createWorker() {
         for (int i = 0; i < numberOfWorkers; i++) {
-            int[] pos = environment.getPlace();
+            int[] pos = randomFreePlace();
             Worker worker = new Worker(
                 "Worker" + i,
                 sp.field,
@@ -247,6 +510,7 @@ public class MySimFactory extends SimFactory {
                 new Color(sp.colorother.getRed(), sp.colorother.getGreen(), sp.colorother.getBlue()),
                 sp.rows,
                 sp.columns,
+                environment,
                 sp.seed
             );
             addNewComponent(worker);
@@ -260,97 +524,387 @@ public class MySimFactory extends SimFactory {
     public void createRobot() {
         // Créer tous les robots comme MyRobot - ils négocieront leurs rôles
         for (int i = 0; i < sp.nbrobot; i++) {
-            int[] pos = environment.getPlace();
-            MyRobot robot = new MyRobot(
-                "Robot" + i, sp.field, sp.debug, pos,
-                new Color(sp.colorrobot.getRed(), sp.colorrobot.getGreen(), sp.colorrobot.getBlue()),
-                sp.rows, sp.columns, (ColorGridEnvironment) environment, sp.seed, sp.waittime
-            );
-            addNewComponent(robot);
+            createRobotAt(randomFreePlace(), i);
         }
 
         System.out.println("Tous les robots créés - négociation des rôles en cours...");
     }
 
+    private MyRobot createRobotAt(int[] pos, int i) {
+        MyRobot robot = new MyRobot(
+            "Robot" + i, sp.field, sp.debug, pos,
+            new Color(sp.colorrobot.getRed(), sp.colorrobot.getGreen(), sp.colorrobot.getBlue()),
+            sp.rows, sp.columns, (ColorGridEnvironment) environment, sp.seed, sp.waittime
+        );
+        addNewComponent(robot);
+        return robot;
+    }
+
+    /**
+     * Mode distribué : créer le robot d'identifiant donné (numérotation de toute la flotte)
+     * @param pos position du robot
+     * @param fresh true pour un robot nouveau, posé sur la grille et signalé à son parent ;
+     *              false pour un robot reçu d'une autre région, posé par l'appelant une fois son état relu
+     */
+    MyRobot createRobot(int id, int[] pos, boolean fresh) {
+        MyRobot robot = new MyRobot(
+            "Robot" + id, sp.field, sp.debug, pos,
+            new Color(sp.colorrobot.getRed(), sp.colorrobot.getGreen(), sp.colorrobot.getBlue()),
+            sp.rows, sp.columns, (ColorGridEnvironment) environment, sp.seed, sp.waittime, id, fresh
+        );
+        if (fresh) {
+            addNewComponent(robot);
+        }
+        return robot;
+    }
+
+    /**
+     * Ajouter un robot en cours de simulation, sur une case libre du rectangle donné.
+     * A appeler entre deux pas (mode séquentiel).
+     * @param x0 première ligne
+     * @param y0 première colonne
+     * @param x1 dernière ligne
+     * @param y1 dernière colonne
+     * @return le robot créé, ou null si le rectangle est plein
+     */
+    public MyRobot spawnRobot(int x0, int y0, int x1, int y1) {
+        if (freeCells == null) {
+            indexFreeCells();
+        }
+        int[] pos = freeCells.sampleIn(placementRnd, x0, y0, x1, y1);
+        if (pos == null) {
+            return null;
+        }
+        MyRobot robot = createRobotAt(pos, MyRobot.totalRobots);
+        if (robots != null) {
+            robots.add(robot);
+        }
+        return robot;
+    }
+
+    /**
+     * Tours de négociation jusqu'à ce que chaque robot ait son rôle (la négociation ne compte pas dans les étapes).
+     * Seuls les robots encore sans rôle sont visités, dans l'ordre de la liste, par MyRobot.negotiationRound() ;
+     * un tour ne fait qu'échanger quelques messages par robot : le journal par tour suit [configuration] quiet.
+     * @return nombre de tours, ou -1 si des robots n'ont pas de rôle après 64 tours
+     */
+    static int negotiateRoles(List<Robot> robots) {
+        List<MyRobot> negotiating = new ArrayList<>(robots.size());
+        for (Robot r : robots) {
+            if (r instanceof MyRobot && !((MyRobot) r).isRoleNegotiationComplete()) {
+                negotiating.add((MyRobot) r);
+            }
+        }
+        int rounds = 0;
+        // profondeur de l'arbre de comptage plus deux tours : 64 suffisent pour toute flotte
+        while (!negotiating.isEmpty() && rounds < 64) {
+            rounds++;
+            if (MyRobot.verbose) System.out.println("Étape de négociation " + rounds);
+            int pending = 0;
+            for (int k = 0; k < negotiating.size(); k++) {
+                MyRobot robot = negotiating.get(k);
+                if (!robot.negotiationRound()) {
+                    negotiating.set(pending++, robot);
+                }
+            }
+            while (negotiating.size() > pending) {
+                negotiating.remove(negotiating.size() - 1);
+            }
+        }
+        return negotiating.isEmpty() ? rounds : -1;
+    }
+
     /**
      * Methode pour faire fonctionner le robot
      */
     @Override
     public void schedule() {
-        List<Robot> robots = environment.getRobot();
+        robots = environment.getRobot();
+        MyRobot.configureAgents(robots);
 
         // Phase de négociation des rôles (ne compte pas dans les étapes)
         System.out.println("=== PHASE DE NÉGOCIATION DES RÔLES ===");
-        boolean negotiationComplete = false;
-        int negotiationSteps = 0;
-
-        while (!negotiationComplete && negotiationSteps < 10) { // Maximum 10 étapes pour la négociation
-            negotiationSteps++;
-            System.out.println("Étape de négociation " + negotiationSteps);
-
-            boolean allRolesAssigned = true;
-            for (Robot r : robots) {
-                if (r instanceof MyRobot) {
-                    MyRobot myRobot = (MyRobot) r;
-                    if (!myRobot.isRoleNegotiationComplete()) {
-                        myRobot.step(); // Seulement la négociation
-                        allRolesAssigned = false;
-                    }
-                }
-            }
-
-            if (allRolesAssigned) {
-                negotiationComplete = true;
-                System.out.println("=== NÉGOCIATION TERMINÉE EN " + negotiationSteps + " ÉTAPES ===");
-            }
+        long negotiationStart = System.nanoTime();
+        int negotiationSteps = negotiateRoles(robots);
+        if (negotiationSteps > 0) {
+            System.out.println("=== NÉGOCIATION TERMINÉE EN " + negotiationSteps + " ÉTAPES ("
+                    + String.format("%.1f", (System.nanoTime() - negotiationStart) / 1e6) + " ms) ===");
         }
 
         // Phase de travail (compte dans les étapes)
         System.out.println("=== DÉBUT DU TRAVAIL ===");
+        AgentThreadScheduler agentScheduler = null;
+        if (agentThreads == 1) {
+            agentScheduler = new AgentThreadScheduler(this);
+            agentScheduler.start(robots);
+        } else if (eventDriven) {
+            events = new EventScheduler(robots);
+        }
+        if (blackboard) {
+            world = new WorldSummary(environment.getGrid(), MyRobot.START_ZONES, MyRobot.TRANSIT_ZONES, MyRobot.stationNames);
+        }
+        if (telemetrySink != null) {
+            telemetry = new TelemetryPublisher(telemetrySink, telemetryTopic, telemetryPeriod, telemetryQueue, robots);
+        }
+        if (allocations != null && agentScheduler != null) {
+            System.out.println("Mesure des allocations ignorée : les agents s'exécutent sur leurs propres threads");
+            allocations = null;
+        }
+        if (profiler.isEnabled() && agentScheduler != null) {
+            System.out.println("Profil par phase ignoré : les agents s'exécutent sur leurs propres threads");
+            profiler = TickProfiler.NONE;
+        }
+        long startTime = System.nanoTime();
+        int workSteps = 0;
         int currentNBPacket;
         for (int i = 0; i < sp.step; i++) {
         	totalSteps++;
+        	workSteps++;
+        	profiler.begin(TickProfiler.TICK);
+        	if (latency != null) {
+        		latency.begin();
+        	}
+        	if (sla != null) {
+        		sla.advance(totalSteps);
+        	}
 
         // packet creation
         if (nbNotGeneratedPackets > 0 && validGeneration()) {
+        	profiler.begin(TickProfiler.GENERATION);
         	if (nbNotGeneratedPackets > 2)
         		currentNBPacket = rnd.nextInt(nbNotGeneratedPackets/2+1);
         	else
         		currentNBPacket = 2;
         	 createPackages(currentNBPacket);
         	 nbNotGeneratedPackets -= currentNBPacket;
+        	profiler.end();
         }
 
         // activation des robots
-        	 for (Robot r : robots) {
-                int[] prevPos = r.getLocation();
-                Cell[][] perception = environment.getNeighbor(r.getX(), r.getY(), r.getField());
-                r.updatePerception(perception);
+        	if (allocations != null) {
+        		allocations.begin();
+        	}
+        	profiler.begin(TickProfiler.AGENTS);
+        	if (crowd != null) {
+        		profiler.begin(TickProfiler.WORKER);
+        		crowd.tick();
+        		profiler.end();
+        	}
+        	if (world != null) {
+        		profiler.begin(TickProfiler.BLACKBOARD);
+        		world.rebuild(robots);
+        		profiler.end();
+        	}
+        	if (agentScheduler != null) {
+        		agentScheduler.tick();
+        	} else if (events != null) {
+        		events.advanceTo(totalSteps);
+        		for (int k = events.nextAwake(0); k >= 0; k = events.nextAwake(k + 1)) {
+        			Robot r = robots.get(k);
+        			events.beforeStep(k, r);
+        			activateRobot(r);
+        			events.afterStep(k, r);
+        		}
+        	} else {
+        		for (int k = 0; k < robots.size(); k++) {
+        			activateRobot(robots.get(k));
+        		}
+        	}
+        	profiler.end();
 
-                if(r instanceof MyRobot) {
-                	((MyRobot)r).step();
+            profiler.begin(TickProfiler.RENDERING);
+            refreshGW();
+            if (ledOutput != null) {
+                ledOutput.capture(totalSteps);
+            }
+            profiler.end();
+            profiler.begin(TickProfiler.OUTPUTS);
+            if (pipelineLevels != null) {
+                for (int level = 2; level < pipelineLevels.length; level++) {
+                    pipelineLevels[level].sample();
+                }
+            }
+            if (transitDispatcher != null) {
+                transitDispatcher.sample();
+            }
+            if (telemetry != null) {
+                if (events != null && telemetry.isDue(totalSteps)) {
+                    events.synchronize(); // batteries des robots endormis à jour dans le lot
                 }
-                else {
-                	r.move(1);
+                telemetry.tick(totalSteps);
+            }
+            if (heatmap != null && heatmapPeriod > 0 && totalSteps % heatmapPeriod == 0) {
+                if (events != null) {
+                    events.synchronize();
                 }
-
-                updateEnvironment(prevPos, r.getLocation());
-
+                heatmap.export(new File("output"), totalSteps, heatmapBinary);
+                if (heatmapWindow != null) {
+                    heatmapWindow.refresh();
+                }
+            }
+            profiler.end();
+            if (allocations != null) {
+                allocations.end();
+            }
+            if (latency != null) {
+                latency.end();
             }
 
-            refreshGW();
+            if (steadyState != null && steadyState.record(MySimFactory.deliveredCount)) {
+                System.out.println("Régime stationnaire estimé en " + totalSteps + " étapes, arrêt de la simulation.");
+                endTick();
+                break;
+            }
 
             if (MySimFactory.deliveredCount >= nbPackages) {
                 System.out.println("Tous les paquets sont livrés en " + totalSteps + " étapes.");
+                endTick();
                 break;
             }
 
+            profiler.begin(TickProfiler.SLEEP);
             try {
                 Thread.sleep(sp.waittime);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
+            profiler.end();
+            endTick();
+        }
+
+        if (agentScheduler != null) {
+            agentScheduler.stop();
+        }
+        if (events != null) {
+            events.synchronize();
+            System.out.println("Mode événementiel : " + events.report());
+        }
+        printStallReport();
+        if (allocations != null) {
+            System.out.println("Allocations : " + allocations.report());
+        }
+        if (profiler.isEnabled()) {
+            System.out.print("=== PROFIL PAR PHASE ===" + System.lineSeparator() + profiler.report());
+            try {
+                profiler.export(new File("output"));
+            } catch (IOException e) {
+                System.out.println("Export du profil impossible : " + e.getMessage());
+            }
+        }
+        if (latency != null) {
+            System.out.println("Durée des pas : " + latency.report());
+        }
+        if (crowd != null) {
+            System.out.println("Travailleurs : " + crowd.report());
+        }
+        if (steadyState != null) {
+            System.out.println("Régime stationnaire : " + steadyState.report());
         }
+        if (telemetry != null) {
+            telemetry.close();
+            System.out.println("Télémétrie : " + telemetry.report());
+        }
+        if (ledOutput != null) {
+            ledOutput.close();
+            System.out.println("Tables LED : " + ledOutput.report());
+            if (ledDevice != null) {
+                System.out.println("Table LED factice : " + ledDevice.report(ledOutput));
+            }
+        }
+        if (broker != null) {
+            System.out.println("Broker local : " + broker.report());
+            broker.close();
+        }
+        System.out.println(MyRobot.deliveryReport(deliveredCount, MyRobot.deliveryTrips, MyRobot.batteryUsed));
+        if (sla != null) {
+            System.out.print("=== NIVEAUX DE SERVICE ===" + System.lineSeparator() + sla.report());
+        }
+        if (pipelineLevels != null) {
+            printPipelineReport(workSteps);
+        } else if (transitDispatcher != null) {
+            System.out.print("=== ZONES DE TRANSIT ===" + System.lineSeparator() + transitDispatcher.report());
+        }
+        if (heatmap != null) {
+            heatmap.export(new File("output"), totalSteps, heatmapBinary);
+            if (heatmapWindow != null) {
+                heatmapWindow.refresh();
+            }
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.println("Mode " + (agentThreads == 1 ? "threads virtuels" : "séquentiel") + " : "
+                + workSteps + " étapes en " + String.format("%.3f", seconds) + " s ("
+                + String.format("%.1f", workSteps / seconds) + " étapes/s)");
+    }
+
+    /**
+     * Afficher, pour chaque robot, les pas perdus et les blocages détectés
+     */
+    private void printStallReport() {
+        System.out.println("=== PAS PERDUS PAR ROBOT ===");
+        int total = 0;
+        for (Robot r : robots) {
+            if (r instanceof MyRobot) {
+                StallDetector d = ((MyRobot) r).getStallDetector();
+                total += d.getWastedTicks();
+                System.out.println(r.getName() + " : " + d.getWastedTicks() + " pas perdus, "
+                        + d.getStalls() + " blocages, " + d.getOscillations() + " oscillations, "
+                        + d.getDeadlocks() + " interblocages");
+            }
+        }
+        System.out.println("Total : " + total + " pas perdus");
+    }
+
+    /**
+     * Mode un thread par agent : préparer l'activation d'un agent pendant la phase parallèle du pas,
+     * sans modifier la grille ni l'état partagé (prochain pas des robots)
+     * @param r robot ou travailleur
+     */
+    public void prepareRobot(Robot r) {
+        if (r instanceof MyRobot) {
+            ((MyRobot) r).plan();
+        }
+    }
+
+    /**
+     * Activer un agent pendant un pas : perception, décision puis mise à jour de la grille
+     * @param r robot ou travailleur à activer
+     */
+    public void activateRobot(Robot r) {
+        int fromX = r.getX();
+        int fromY = r.getY();
+        if (!(r instanceof MyRobot) && !(r instanceof Worker)) {
+            // nos robots et travailleurs lisent la grille directement : pas de copie pivotée du voisinage
+            profiler.begin(TickProfiler.PERCEPTION);
+            Cell[][] perception = environment.getNeighbor(r.getX(), r.getY(), r.getField());
+            r.updatePerception(perception);
+            profiler.end();
+        }
+
+        if(r instanceof MyRobot) {
+        	profiler.begin(TickProfiler.ROBOT);
+        	((MyRobot)r).step();
+        	profiler.end();
+        }
+        else {
+        	profiler.begin(TickProfiler.WORKER);
+        	r.move(1);
+        	profiler.end();
+        }
+
+        profiler.begin(TickProfiler.ENVIRONMENT);
+        updateEnvironment(fromX, fromY, r.getX(), r.getY());
+        if (world != null) {
+            world.moved(fromX, fromY, r.getX(), r.getY());
+        }
+        profiler.end();
+    }
+
+    /**
+     * Fin d'un pas de la phase de travail pour le profil par phase
+     */
+    private void endTick() {
+        profiler.end();
+        profiler.tick();
     }
 
 
@@ -360,16 +914,19 @@ public class MySimFactory extends SimFactory {
 		return false;
 	}
 
-	/**
-     * le main principale
-     * @param args
-     * @throws Exception
+    /**
+     * Charger la simulation décrite par les fichiers de paramètres, jusqu'aux réglages des robots :
+     * propriétés, plan (listes de environment.ini ou entrepôt généré), éléments fixes, zones des robots,
+     * [control], [carry], répartition des zones de transit, pipeline, cache de navigation et voies.
+     * Les obstacles et les racks ne sont posés que sur les lignes [rowFrom, rowTo[ (mode distribué :
+     * la bande d'une région et ses lignes fantômes) ; les zones, goals et stations sur toute la grille.
+     * @param ifile fichier principal
+     * @param ifilenv fichier d'environnement
+     * @param rowFrom première ligne où poser les obstacles
+     * @param rowTo ligne qui suit la dernière (Integer.MAX_VALUE pour toute la grille)
+     * @return la fabrique, environnement chargé, sans agents ni colis
      */
-    public static void main(String[] args) throws Exception {
-        // Charger le fichier principal et le fichier d'environnement
-        IniFile ifile = new IniFile("parameters/configuration.ini");
-        IniFile ifilenv = new IniFile("parameters/environment.ini");
-
+    static MySimFactory load(IniFile ifile, IniFile ifilenv, int rowFrom, int rowTo) {
         // instance pour les paramètres généraux (proptest.ini)
         SimProperties sp = new SimProperties(ifile);
         sp.simulationParams();
@@ -390,31 +947,189 @@ public class MySimFactory extends SimFactory {
         sp.exitZonePositions = envProp.exitZonePositions;
         sp.goalPositions = envProp.goalPositions;
 
+        MySimFactory sim = new MySimFactory(sp);
+
+        // entrepôt généré à la place des listes de environment.ini
+        WarehouseLayout layout = null;
+        if (ifile.getIntValue("warehouse", "enabled") == 1) {
+            layout = WarehouseLayout.generate(
+                ifile.getIntValue("warehouse", "rows"),
+                ifile.getIntValue("warehouse", "columns"),
+                ifile.getIntValue("warehouse", "racks"),
+                sp.seed);
+            layout.applyTo(sp);
+            layout.keepRacks(rowFrom, rowTo);
+            sim.chargingStationPositions = layout.chargingStationPositions;
+        }
+        if (rowFrom > 0 || rowTo < sp.rows) {
+            List<int[]> kept = new ArrayList<>();
+            for (int[] pos : sp.obstaclePositions) {
+                if (pos[0] >= rowFrom && pos[0] < rowTo) {
+                    kept.add(pos);
+                }
+            }
+            sp.obstaclePositions = kept.toArray(new int[0][]);
+        }
+
         System.out.println("Environment size: " + sp.rows + "x" + sp.columns);
 
-        MySimFactory sim = new MySimFactory(sp);
+        // capacité des tampons de transit (sinon celle de environment.ini)
+        if (ifile.getIntValue("transit", "capacity") > 0) {
+            for (int[] data : sp.transitZoneData) {
+                data[2] = ifile.getIntValue("transit", "capacity");
+            }
+        }
 
         // modifier
         sp.nbrobot = 5;
+        if (ifile.getIntValue("warehouse", "robots") > 0) {
+            sp.nbrobot = ifile.getIntValue("warehouse", "robots");
+        }
         sim.nbPackages = 10;
+        if (ifile.getIntValue("configuration", "packages") > 0) {
+            sim.nbPackages = ifile.getIntValue("configuration", "packages");
+        }
         sim.nbNotGeneratedPackets = sim.nbPackages;
         sim.numberOfWorkers = sp.nbobstacle / 2;
         sim.rnd = new Random(sp.seed);
-
         sim.createEnvironment();
-        sim.createObstacle();
-        sim.createGoal();
-        sim.createStartZones();
-        sim.createTransitZones();
-        sim.createExitZones();
-        sim.createChargingStations();
+        if (layout != null) {
+            sim.loadWarehouse(layout);
+        } else {
+            sim.createObstacle();
+            sim.createGoal();
+            sim.createStartZones();
+            sim.createTransitZones();
+            sim.createExitZones();
+            sim.createChargingStations();
+        }
+        sim.configureRobotZones();
+        MyRobot.configureControl(FleetControl.load(ifile));
+        MyRobot.configureFleet(new FleetStore(sp.columns, sp.nbrobot));
+        if (ifile.getIntValue("battery", "capacity") > 0) {
+            MyRobot.configureBattery(ifile.getIntValue("battery", "capacity"));
+        }
+        if (ifile.getIntValue("carry", "capacity") > 1) {
+            MyRobot.configureCarry(ifile.getIntValue("carry", "capacity"), ifile.getDoubleValue("carry", "loadcost"));
+        }
+        sim.enableTransitDispatch(ifile.getIntValue("transit", "balanced") == 1);
+        if (ifilenv.getIntValue("pipeline", "stages") > 2) {
+            if (layout != null) {
+                System.out.println("Pipeline ignoré : les zones de relais de environment.ini ne s'appliquent pas à un entrepôt généré");
+            } else {
+                sim.enablePipeline(ifilenv, ifilenv.getIntValue("pipeline", "stages"),
+                        ifile.getIntValue("transit", "balanced") == 1, ifile.getIntValue("transit", "capacity"));
+            }
+        }
+        if (ifile.getIntValue("navcache", "enabled") == 1) {
+            String dir = ifile.getStringValue("navcache", "dir");
+            navigationCache = new File(dir != null ? dir : "cache");
+        }
+        if (ifile.getIntValue("lanes", "enabled") == 1) {
+            // voies générées pour un entrepôt généré, sinon celles de environment.ini si auto = 0
+            LaneNetwork lanes = layout != null || ifile.getIntValue("lanes", "auto") == 1
+                    ? LaneNetwork.generate(sp.rows, sp.columns)
+                    : LaneNetwork.load(ifilenv, sp.rows, sp.columns);
+            MyRobot.configureLanes(lanes);
+            System.out.println("Voies à sens unique : " + lanes.getLaneCount() + " voies");
+        }
+        return sim;
+    }
+
+	/**
+     * le main principale
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        // Charger le fichier principal et le fichier d'environnement
+        IniFile ifile = new IniFile("parameters/configuration.ini");
+        IniFile ifilenv = new IniFile("parameters/environment.ini");
+
+        MySimFactory sim = load(ifile, ifilenv, 0, Integer.MAX_VALUE);
+        SimProperties sp = sim.sp;
+
+        sim.agentThreads = ifile.getIntValue("configuration", "agentthreads");
+        sim.eventDriven = ifile.getIntValue("configuration", "eventdriven") == 1;
+        sim.blackboard = ifile.getIntValue("blackboard", "enabled") == 1;
+        MyRobot.configureLogging(ifile.getIntValue("configuration", "quiet") != 1);
+        if (ifile.getIntValue("profiling", "phases") == 1) {
+            profiler = TickProfiler.create(ifile.getIntValue("profiling", "warmup"),
+                    ifile.getIntValue("profiling", "period"), ifile.getIntValue("profiling", "allocations") == 1);
+        }
+        if (ifile.getIntValue("profiling", "latency") == 1) {
+            sim.latency = new TickLatency();
+        }
+        if (ifile.getIntValue("profiling", "allocations") == 1) {
+            sim.allocations = AllocationProbe.create(ifile.getIntValue("profiling", "warmup"));
+            if (sim.allocations == null) {
+                System.out.println("Mesure des allocations indisponible sur cette JVM");
+            }
+        }
+        sim.indexFreeCells();
+        if (ifile.getIntValue("pathfinding", "hierarchical") == 1 || MyRobot.lanes != null) {
+            sim.enablePathfinder(ifile.getIntValue("pathfinding", "cluster"));
+        }
+        if (ifile.getIntValue("heatmap", "enabled") == 1) {
+            sim.heatmapPeriod = ifile.getIntValue("heatmap", "period");
+            sim.heatmapBinary = "bin".equals(ifile.getStringValue("heatmap", "format"));
+            sim.enableHeatmap(sp.display == 1 && ifile.getIntValue("heatmap", "overlay") == 1);
+        }
+        if (ifile.getIntValue("workers", "count") > 0) {
+            sim.numberOfWorkers = ifile.getIntValue("workers", "count");
+        }
+        if (ifile.getIntValue("workers", "crowd") == 1) {
+            sim.enableCrowd(ifile.getIntValue("workers", "stations"), ifile.getIntValue("workers", "horizon"),
+                    ifile.getIntValue("workers", "dwell"));
+        }
+        if (ifile.getIntValue("steadystate", "enabled") == 1) {
+            sim.steadyState = new SteadyStateMonitor(
+                ifile.getIntValue("steadystate", "warmup"),
+                ifile.getIntValue("steadystate", "batch"),
+                ifile.getIntValue("steadystate", "minbatches"),
+                ifile.getDoubleValue("steadystate", "precision"));
+        }
+        if (ifile.getIntValue("sla", "enabled") == 1) {
+            sla = new SlaMonitor(SlaMonitor.parsePolicy(ifile.getStringValue("sla", "policy")),
+                ifile.getIntValue("sla", "express"),
+                ifile.getIntValue("sla", "expressdue"),
+                ifile.getIntValue("sla", "standarddue"),
+                sp.seed + 1, sim.nbPackages);
+        }
+        if (sp.mqtt == 1) {
+            sp.loadMqttParams();
+            sim.telemetryTopic = ifile.getStringValue("mqtt", "topic");
+            sim.telemetryPeriod = Math.max(1, ifile.getIntValue("mqtt", "period"));
+            if (ifile.getIntValue("mqtt", "queue") > 0) {
+                sim.telemetryQueue = ifile.getIntValue("mqtt", "queue");
+            }
+            sim.enableTelemetry(sp.ipMqtt, sp.portMqtt, sp.nameMqtt, ifile.getIntValue("mqtt", "delay"));
+        }
+        if (sp.led == 1) {
+            List<LEDTable> tables;
+            if (ifile.getIntValue("LEDTable", "number") > 0) {
+                sp.loadLEDTablesParams();
+                tables = sp.generateLEDTables();
+            } else {
+                // une seule table couvrant toute la grille
+                tables = new ArrayList<>();
+                tables.add(new LEDTable("table", sp.rows, sp.columns, 0, 0, sp.debug));
+            }
+            if (sp.mqtt != 1) {
+                sp.loadMqttParams();
+            }
+            sim.enableLed(tables, ifile.getStringValue("led", "device"), ifile.getIntValue("led", "hz"),
+                    ifile.getIntValue("led", "keyframe"), sp.ipMqtt, sp.portMqtt, sp.nameMqtt + "-led");
+        }
         sim.createWorker();
         sim.createRobot();
 
         // Créer les paquets au début de la simulation
         sim.createPackages(sim.nbPackages);
 
-        sim.initializeGW();
+        if (sp.display == 1) {
+            sim.initializeGW();
+        }
         sim.schedule();
     }
 
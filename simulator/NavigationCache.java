@@ -0,0 +1,189 @@
+package simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Cache disque des précalculs de navigation d'un plan : champs de distances (FlowField) par destination
+ * et graphe abstrait du planificateur hiérarchique, pour qu'un plan déjà vu démarre sans parcours de la grille.
+ * Un dossier par plan, nommé d'après une empreinte sur 64 bits de la taille de la grille et des cases franchissables
+ * (le plan fixe, lu dans environment.ini ou généré) ; dans ce dossier, un fichier par destination et un par réglage
+ * du planificateur (taille des clusters, voies). Format : en-tête de 24 octets (type, version, lignes, colonnes,
+ * taille des données) puis les données brutes en petit-boutiste, deux octets par case pour un champ :
+ * le fichier est projeté en mémoire et copié d'un bloc, à la première demande de sa destination seulement.
+ * Un fichier absent, tronqué ou d'une autre grille est recalculé puis réécrit via un fichier temporaire renommé.
+ */
+public class NavigationCache {
+
+    private static final int FIELD = 0x4E415646; // "NAVF"
+    private static final int GRAPH = 0x4E415648; // "NAVH"
+    private static final int VERSION = 1;
+    private static final int HEADER = 24;
+
+    private final File dir;
+    private final int rows;
+    private final int columns;
+    private final boolean[] passable;
+    private boolean writable = true;
+    private int loaded = 0;
+    private int computed = 0;
+
+    private NavigationCache(File dir, int rows, int columns, boolean[] passable) {
+        this.dir = dir;
+        this.rows = rows;
+        this.columns = columns;
+        this.passable = passable;
+    }
+
+    /**
+     * Cache du plan donné par ses cases franchissables
+     * @param root dossier du cache, un sous-dossier par plan
+     * @param passable cases franchissables (indice x * columns + y)
+     */
+    public static NavigationCache open(File root, int rows, int columns, boolean[] passable) {
+        long h = mix(mix(0, rows), columns);
+        long bits = 0;
+        for (int c = 0; c < passable.length; c++) {
+            if (passable[c]) bits |= 1L << (c & 63);
+            if ((c & 63) == 63 || c == passable.length - 1) {
+                h = mix(h, bits);
+                bits = 0;
+            }
+        }
+        return new NavigationCache(new File(root, hex(h)), rows, columns, passable);
+    }
+
+    /**
+     * Champ de distances vers les cases sources, relu du cache ou calculé puis enregistré
+     * @param sources cases destination [x, y], dans un ordre quelconque
+     */
+    public FlowField field(int[][] sources) {
+        int[] cells = new int[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            cells[i] = sources[i][0] * columns + sources[i][1];
+        }
+        Arrays.sort(cells);
+        long h = mix(0, cells.length);
+        for (int cell : cells) {
+            h = mix(h, cell);
+        }
+        File file = new File(dir, "field-" + hex(h) + ".bin");
+
+        long size = 2L * rows * columns;
+        ByteBuffer data = map(file, FIELD, size);
+        if (data != null) {
+            char[] dist = new char[rows * columns];
+            data.asCharBuffer().get(dist);
+            loaded++;
+            return new FlowField(rows, columns, dist);
+        }
+        FlowField field = new FlowField(rows, columns, passable, sources);
+        computed++;
+        write(file, FIELD, size, out -> out.asCharBuffer().put(field.distances()));
+        return field;
+    }
+
+    /**
+     * Planificateur hiérarchique du plan, graphe abstrait relu du cache ou calculé puis enregistré
+     * @param clusterSize taille des clusters
+     * @param lanes voies à sens unique, null sans voies
+     */
+    public HierarchicalPathfinder pathfinder(int clusterSize, LaneNetwork lanes) {
+        long h = mix(0, clusterSize);
+        if (lanes != null) {
+            for (byte direction : lanes.directions()) {
+                h = mix(h, direction);
+            }
+        }
+        File file = new File(dir, "graph-" + hex(h) + ".bin");
+
+        ByteBuffer data = map(file, GRAPH, -1);
+        if (data != null) {
+            try {
+                HierarchicalPathfinder pathfinder = new HierarchicalPathfinder(rows, columns, passable, clusterSize, lanes,
+                        data.asIntBuffer());
+                loaded++;
+                return pathfinder;
+            } catch (RuntimeException e) {
+                // fichier incohérent : recalculé et réécrit
+            }
+        }
+        HierarchicalPathfinder pathfinder = new HierarchicalPathfinder(rows, columns, passable, clusterSize, lanes);
+        computed++;
+        write(file, GRAPH, 4L * pathfinder.graphSize(), out -> pathfinder.writeGraph(out.asIntBuffer()));
+        return pathfinder;
+    }
+
+    /**
+     * Projeter les données d'un fichier du cache
+     * @param size taille attendue des données, -1 si quelconque
+     * @return données (après l'en-tête), ou null si le fichier manque ou ne correspond pas
+     */
+    private ByteBuffer map(File file, int type, long size) {
+        if (!file.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) return null;
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            long length = buffer.getLong(16);
+            if (buffer.getInt(0) != type || buffer.getInt(4) != VERSION || buffer.getInt(8) != rows
+                    || buffer.getInt(12) != columns || length != channel.size() - HEADER || (size >= 0 && length != size)) {
+                return null;
+            }
+            return buffer.position(HEADER).slice().order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ecrire un fichier du cache : en-tête puis données remplies par fill
+     */
+    private void write(File file, int type, long size, Consumer<ByteBuffer> fill) {
+        if (!writable) return;
+        if (size > Integer.MAX_VALUE - HEADER) return; // trop grand pour un seul tampon : non enregistré
+        ByteBuffer buffer = ByteBuffer.allocate((int) (HEADER + size)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(type).putInt(VERSION).putInt(rows).putInt(columns).putLong(size);
+        fill.accept(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+        buffer.rewind();
+        try {
+            Files.createDirectories(dir.toPath());
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            writable = false;
+            System.out.println("Cache de navigation : écriture impossible dans " + dir + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Ajouter une valeur à une empreinte (mélange de splitmix64) ; sans MessageDigest, dont le chargement
+     * des fournisseurs coûte plus que la lecture d'un champ
+     */
+    private static long mix(long h, long value) {
+        long z = h + value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String hex(long h) {
+        return String.format("%016x", h);
+    }
+
+    public String report() {
+        return loaded + " précalcul(s) relu(s), " + computed + " calculé(s) et enregistré(s) dans " + dir;
+    }
+}
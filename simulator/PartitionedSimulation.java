@@ -0,0 +1,393 @@
+package simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+
+/**
+ * Mode distribué : la grille est découpée en bandes horizontales, chacune simulée par un processus
+ * RegionWorker sur la même machine, avec les robots MyRobot et le plan de configuration.ini / environment.ini.
+ * Les bandes sont coupées entre deux lignes sans zone de départ, de transit, goal ni station, au plus près
+ * d'un découpage en parts égales. Les voisins s'échangent directement leurs lignes fantômes et les robots
+ * qui changent de bande ; ce coordinateur :
+ * - place les robots et les confie à la région de leur case ;
+ * - génère les colis comme MySimFactory (même suite aléatoire) et les envoie à la région de leur zone de départ ;
+ * - diffuse à chaque pas le nombre de colis de chaque zone et les réservations des stations de charge
+ *   et des zones de transit, pour les répliques des régions ;
+ * - relaie les messages entre robots de régions différentes, d'après la région où chaque robot est arrivé ;
+ * - enchaîne la négociation des rôles puis le travail, jusqu'à la livraison de tous les colis.
+ * Comme chaque région traite ses robots dans un ordre fixe, deux exécutions avec la même graine donnent
+ * la même somme de contrôle, quel que soit l'ordonnancement des processus.
+ * Travailleurs, SLA, carte de trafic, télémétrie, tables LED, pipeline et profils ne sont pas simulés.
+ */
+public class PartitionedSimulation {
+
+    private final MySimFactory sim;   // plan complet : découpage, placement des robots, génération des colis
+    private final int regions;
+    private final int[] bands;        // première ligne de chaque bande, bands[regions] = nombre de lignes
+    private final int[] location;     // région de chaque robot
+
+    private final List<Process> processes = new ArrayList<>();
+    private final DataInputStream[] ins;
+    private final DataOutputStream[] outs;
+    private final Socket[] sockets;
+
+    // état de la simulation d'après les derniers comptes rendus des régions
+    private final int[] startCounts;
+    private final int[] transitCounts;
+    private final int[][] inbound;    // par région et zone de transit
+    private final int[][] claims;
+    private final int[][] stations;   // réservations par région et station de charge
+    private final List<List<int[]>> newPackages = new ArrayList<>();   // par région : zone, goal
+    private final List<List<Integer>> targets = new ArrayList<>();     // messages par région : destinataire
+    private final List<List<String>> messages = new ArrayList<>();     //                       et contenu
+    private int robots;
+    private int negotiating;
+    private int delivered;
+    private int trips;
+    private long battery;
+    private long checksum;
+    private int totalSteps = 0;
+
+    /**
+     * @param sim simulation chargée sur toute la grille
+     * @param regions nombre de bandes
+     */
+    public PartitionedSimulation(MySimFactory sim, int regions) {
+        this.sim = sim;
+        this.regions = regions;
+        this.bands = cut(sim.sp.rows, regions);
+        this.location = new int[sim.sp.nbrobot];
+        this.ins = new DataInputStream[regions];
+        this.outs = new DataOutputStream[regions];
+        this.sockets = new Socket[regions];
+        this.startCounts = new int[MyRobot.START_ZONES.length];
+        this.transitCounts = new int[MyRobot.TRANSIT_ZONES.length];
+        this.inbound = new int[regions][transitCounts.length];
+        this.claims = new int[regions][transitCounts.length];
+        this.stations = new int[regions][MyRobot.stationNames.length];
+        for (int i = 0; i < regions; i++) {
+            newPackages.add(new ArrayList<>());
+            targets.add(new ArrayList<>());
+            messages.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Charger la simulation pour le mode distribué (MySimFactory.load()), sans pipeline :
+     * les zones de relais ne sont pas réparties entre les régions
+     */
+    static MySimFactory load(IniFile ifile, IniFile ifilenv, int rowFrom, int rowTo) {
+        MySimFactory sim = MySimFactory.load(ifile, ifilenv, rowFrom, rowTo);
+        if (sim.pipelineLevels != null) {
+            MyRobot.configurePipeline(null, null);
+            sim.pipelineLevels = null;
+        }
+        return sim;
+    }
+
+    /**
+     * Découper les lignes en bandes d'au moins deux lignes. Une coupe avant la ligne b n'est possible que si
+     * les lignes b - 1 et b n'ont ni zone de départ, ni zone de transit, ni goal, ni station : un robot
+     * n'est alors voisin que des zones de sa propre bande. Chaque coupe est la plus proche du découpage égal.
+     * @return première ligne de chaque bande, suivie du nombre de lignes
+     */
+    private static int[] cut(int rows, int regions) {
+        boolean[] zone = new boolean[rows];
+        for (int[] pos : MyRobot.START_ZONES) zone[pos[0]] = true;
+        for (int[] pos : MyRobot.TRANSIT_ZONES) zone[pos[0]] = true;
+        for (int[] pos : MyRobot.goalArray) zone[pos[0]] = true;
+        for (int[] pos : MyRobot.stationArray) zone[pos[0]] = true;
+
+        int[] bands = new int[regions + 1];
+        bands[regions] = rows;
+        for (int i = 1; i < regions; i++) {
+            int ideal = (int) ((long) rows * i / regions);
+            int best = -1;
+            for (int b = bands[i - 1] + 2; b <= rows - 2 * (regions - i); b++) {
+                if (zone[b - 1] || zone[b]) continue;
+                if (best < 0 || Math.abs(b - ideal) < Math.abs(best - ideal)) {
+                    best = b;
+                }
+            }
+            if (best < 0) {
+                throw new IllegalArgumentException("Impossible de découper " + rows + " lignes en " + regions
+                        + " bandes entre des lignes sans zone");
+            }
+            bands[i] = best;
+        }
+        return bands;
+    }
+
+    /**
+     * Région de la ligne x
+     */
+    private int regionOf(int x) {
+        int r = 0;
+        while (x >= bands[r + 1]) {
+            r++;
+        }
+        return r;
+    }
+
+    /**
+     * Lancer les processus de région, les relier entre eux et leur confier les robots
+     * @throws Exception
+     */
+    public void start() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+        int[] ports = new int[regions];
+
+        try (ServerSocket server = new ServerSocket(0, regions, InetAddress.getLoopbackAddress())) {
+            for (int i = 0; i < regions; i++) {
+                ProcessBuilder pb = new ProcessBuilder(java, "-cp", classpath, "simulator.RegionWorker",
+                        String.valueOf(server.getLocalPort()), String.valueOf(i), String.valueOf(regions),
+                        String.valueOf(bands[i]), String.valueOf(bands[i + 1]));
+                pb.inheritIO();
+                processes.add(pb.start());
+            }
+            for (int i = 0; i < regions; i++) {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                int index = in.readInt();
+                ports[index] = in.readInt();
+                sockets[index] = s;
+                ins[index] = in;
+                outs[index] = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            }
+        }
+        // chaque région se connecte à celle du dessus
+        for (int i = 0; i < regions; i++) {
+            outs[i].writeInt(i == 0 ? 0 : ports[i - 1]);
+            outs[i].flush();
+        }
+
+        // robots sur des cases libres tirées comme en mode séquentiel, confiés à la région de leur case
+        sim.indexFreeCells();
+        List<List<int[]>> placed = new ArrayList<>();
+        for (int i = 0; i < regions; i++) {
+            placed.add(new ArrayList<>());
+        }
+        for (int id = 0; id < location.length; id++) {
+            int[] pos = sim.randomFreePlace();
+            sim.freeCells.remove(pos[0], pos[1]);
+            location[id] = regionOf(pos[0]);
+            placed.get(location[id]).add(new int[]{id, pos[0], pos[1]});
+        }
+        for (int i = 0; i < regions; i++) {
+            outs[i].writeInt(placed.get(i).size());
+            for (int[] robot : placed.get(i)) {
+                outs[i].writeInt(robot[0]);
+                outs[i].writeInt(robot[1]);
+                outs[i].writeInt(robot[2]);
+            }
+            outs[i].flush();
+        }
+        readReports();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < regions; i++) {
+            sb.append(i == 0 ? "" : ", ").append('[').append(bands[i]).append(',').append(bands[i + 1]).append('[');
+        }
+        System.out.println(regions + " régions lancées pour une grille " + sim.sp.rows + "x" + sim.sp.columns
+                + " (lignes " + sb + "), " + location.length + " robots");
+    }
+
+    /**
+     * Générer des colis avec la suite aléatoire de MySimFactory.createPackages()
+     */
+    private void generate(int nbpackages) {
+        int goals = sim.sp.goalPositions.size();
+        for (int i = 0; i < nbpackages; i++) {
+            int goal = sim.rnd.nextInt(goals) + 1;
+            int zone = sim.rnd.nextInt(startCounts.length);
+            newPackages.get(regionOf(MyRobot.START_ZONES[zone][0])).add(new int[]{zone, goal});
+            startCounts[zone]++;
+        }
+    }
+
+    /**
+     * Un pas de toutes les régions
+     * @param work false pour un pas de négociation des rôles
+     */
+    private void tick(boolean work) throws Exception {
+        for (int i = 0; i < regions; i++) {
+            DataOutputStream out = outs[i];
+            out.writeInt(RegionWorker.CMD_TICK);
+            out.writeBoolean(work);
+            for (int count : startCounts) {
+                out.writeInt(count);
+            }
+            for (int t = 0; t < transitCounts.length; t++) {
+                out.writeInt(transitCounts[t]);
+                out.writeInt(total(inbound, t) - inbound[i][t]);
+                out.writeInt(total(claims, t) - claims[i][t]);
+            }
+            for (int k = 0; k < stations[i].length; k++) {
+                out.writeInt(total(stations, k) - stations[i][k]);
+            }
+            out.writeInt(newPackages.get(i).size());
+            for (int[] p : newPackages.get(i)) {
+                out.writeInt(p[0]);
+                out.writeInt(p[1]);
+            }
+            out.writeInt(messages.get(i).size());
+            for (int m = 0; m < messages.get(i).size(); m++) {
+                out.writeInt(targets.get(i).get(m));
+                out.writeUTF(messages.get(i).get(m));
+            }
+            out.flush();
+            newPackages.get(i).clear();
+            targets.get(i).clear();
+            messages.get(i).clear();
+        }
+        readReports();
+    }
+
+    private static int total(int[][] perRegion, int k) {
+        int sum = 0;
+        for (int[] counts : perRegion) {
+            sum += counts[k];
+        }
+        return sum;
+    }
+
+    /**
+     * Lire les comptes rendus de toutes les régions, puis adresser les messages d'après la région
+     * où se trouve chaque robot à la fin du pas
+     */
+    private void readReports() throws Exception {
+        robots = 0;
+        negotiating = 0;
+        delivered = 0;
+        trips = 0;
+        battery = 0;
+        checksum = 0;
+        List<Integer> pendingTargets = new ArrayList<>();
+        List<String> pendingMessages = new ArrayList<>();
+        for (int i = 0; i < regions; i++) {
+            DataInputStream in = ins[i];
+            robots += in.readInt();
+            negotiating += in.readInt();
+            delivered += in.readInt();
+            trips += in.readInt();
+            battery += in.readLong();
+            for (int s = 0; s < startCounts.length; s++) {
+                int count = in.readInt();
+                if (count >= 0) startCounts[s] = count;
+            }
+            for (int t = 0; t < transitCounts.length; t++) {
+                int count = in.readInt();
+                if (count >= 0) transitCounts[t] = count;
+                inbound[i][t] = in.readInt();
+                claims[i][t] = in.readInt();
+            }
+            for (int k = 0; k < stations[i].length; k++) {
+                stations[i][k] = in.readInt();
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                location[in.readInt()] = i;
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                pendingTargets.add(in.readInt());
+                pendingMessages.add(in.readUTF());
+            }
+            checksum += in.readLong();
+        }
+        for (int m = 0; m < pendingTargets.size(); m++) {
+            int region = location[pendingTargets.get(m)];
+            targets.get(region).add(pendingTargets.get(m));
+            messages.get(region).add(pendingMessages.get(m));
+        }
+    }
+
+    /**
+     * Négociation des rôles puis travail, jusqu'à la livraison de tous les colis
+     * @param steps nombre maximal de pas de travail
+     * @return somme de contrôle finale de la simulation
+     * @throws Exception
+     */
+    public long run(int steps) throws Exception {
+        // Créer les paquets au début de la simulation
+        generate(sim.nbPackages);
+
+        System.out.println("=== PHASE DE NÉGOCIATION DES RÔLES ===");
+        int negotiationSteps = 0;
+        while (negotiating > 0 && negotiationSteps < 64) {
+            negotiationSteps++;
+            tick(false);
+        }
+        System.out.println("=== NÉGOCIATION TERMINÉE EN " + negotiationSteps + " ÉTAPES ===");
+
+        System.out.println("=== DÉBUT DU TRAVAIL ===");
+        long start = System.nanoTime();
+        for (int i = 0; i < steps; i++) {
+            totalSteps++;
+            if (sim.nbNotGeneratedPackets > 0 && totalSteps % 10 == 0) {
+                int currentNBPacket = sim.nbNotGeneratedPackets > 2 ? sim.rnd.nextInt(sim.nbNotGeneratedPackets / 2 + 1) : 2;
+                generate(currentNBPacket);
+                sim.nbNotGeneratedPackets -= currentNBPacket;
+            }
+            tick(true);
+            if (totalSteps % 100 == 0) {
+                System.out.println("Pas " + totalSteps + " : " + robots + " robots, " + delivered + " colis livrés");
+            }
+            if (delivered >= sim.nbPackages) {
+                System.out.println("Tous les paquets sont livrés en " + totalSteps + " étapes.");
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(MyRobot.deliveryReport(delivered, trips, battery));
+        System.out.println("Mode distribué : " + totalSteps + " étapes en " + String.format("%.3f", seconds) + " s ("
+                + String.format("%.1f", totalSteps / seconds) + " étapes/s), somme de contrôle " + Long.toHexString(checksum));
+        return checksum;
+    }
+
+    /**
+     * Arrêter les processus de région
+     * @throws Exception
+     */
+    public void stop() throws Exception {
+        for (int i = 0; i < regions; i++) {
+            outs[i].writeInt(RegionWorker.CMD_STOP);
+            outs[i].flush();
+        }
+        for (Process p : processes) {
+            p.waitFor();
+        }
+        for (Socket s : sockets) {
+            s.close();
+        }
+    }
+
+    /**
+     * le main du mode distribué (grille, robots et colis de configuration.ini et environment.ini)
+     * @param args [régions] [pas]
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        IniFile ifile = new IniFile("parameters/configuration.ini");
+        IniFile ifilenv = new IniFile("parameters/environment.ini");
+        int regions = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        MySimFactory sim = load(ifile, ifilenv, 0, Integer.MAX_VALUE);
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : sim.sp.step;
+
+        PartitionedSimulation partitioned = new PartitionedSimulation(sim, regions);
+        partitioned.start();
+        partitioned.run(steps);
+        partitioned.stop();
+    }
+}
@@ -0,0 +1,36 @@
+package simulator;
+
+import fr.emse.fayol.maqit.simulator.components.ColorPackage;
+
+/**
+ * Colis avec une classe de priorité (0 = express, 1 = standard) et un pas d'échéance.
+ * getTs() donne le pas de création, getTd() le pas de livraison.
+ */
+public class PriorityPackage extends ColorPackage {
+
+    public static final int EXPRESS = 0;
+    public static final int STANDARD = 1;
+
+    private final int priority;
+    private final int dueTick;
+
+    public PriorityPackage(int[] location, int[] color, int destinationGoalId, int createdTick, String startZone,
+                           int priority, int dueTick) {
+        super(location, color, destinationGoalId, createdTick, startZone);
+        this.priority = priority;
+        this.dueTick = dueTick;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getDueTick() {
+        return dueTick;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + (priority == EXPRESS ? ", express" : ", standard") + ", échéance " + dueTick;
+    }
+}
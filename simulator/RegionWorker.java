@@ -0,0 +1,605 @@
+package simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import fr.emse.fayol.maqit.simulator.components.ColorObstacle;
+import fr.emse.fayol.maqit.simulator.components.ColorPackage;
+import fr.emse.fayol.maqit.simulator.components.ColorStartZone;
+import fr.emse.fayol.maqit.simulator.components.ColorTransitZone;
+import fr.emse.fayol.maqit.simulator.components.Robot;
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+import fr.emse.fayol.maqit.simulator.environment.Cell;
+import fr.emse.fayol.maqit.simulator.environment.GridEnvironment;
+
+/**
+ * Processus qui simule une bande horizontale de la grille (lignes [rowStart, rowEnd[) avec les robots MyRobot.
+ * Il charge le plan de la simulation (environment.ini ou entrepôt généré) : obstacles et racks de sa bande et
+ * de ses deux lignes fantômes, zones, goals et stations de toute la grille. Les zones des autres régions sont
+ * des répliques dont le nombre de colis est remis à jour à chaque pas par PartitionedSimulation, comme les
+ * réservations des stations de charge et des zones de transit. Les bandes sont coupées entre deux lignes sans
+ * zone : un robot ne prend, ne dépose, ne livre et ne se charge que dans la région où il se trouve.
+ * Un pas de la région, toujours dans le même ordre :
+ * 1. colis générés, répliques des zones et messages reçus du coordinateur ;
+ * 2. pas des robots par identifiant croissant ; un robot entré dans une ligne fantôme quitte la région
+ *    et sa case d'origine lui reste réservée ;
+ * 3. premier échange avec les voisins : état des robots sortants, messages en attente compris ;
+ * 4. admission des robots entrants par identifiant croissant, si leur case est libre (un robot local arrivé
+ *    sur la case pendant le pas passe avant) ;
+ * 5. second échange : robots refusés, qui reprennent leur case d'origine (l'attente est bornée à un pas),
+ *    et lignes de bord, qui deviennent les lignes fantômes du voisin ;
+ * 6. compte rendu au coordinateur : colis des zones de la région, réservations, livraisons, robots arrivés,
+ *    messages pour les robots des autres régions et somme de contrôle.
+ */
+public class RegionWorker {
+
+    static final int CMD_TICK = 1;
+    static final int CMD_STOP = 2;
+
+    /**
+     * Robot sorti de la bande pendant le pas, en attente de la réponse du voisin
+     */
+    private static final class Emigrant {
+        final MyRobot robot;
+        final int originX;
+        final int originY;
+
+        Emigrant(MyRobot robot, int originX, int originY) {
+            this.robot = robot;
+            this.originX = originX;
+            this.originY = originY;
+        }
+    }
+
+    private final int index;
+    private final int rowStart;
+    private final int rowEnd;
+    private final MySimFactory sim;
+    private final GridEnvironment env;
+    private final int columns;
+    private final int[] packageColor;
+    private final String[] startIds;
+
+    // zones dans l'ordre de MyRobot.START_ZONES et MyRobot.TRANSIT_ZONES, et celles qui sont dans la bande
+    private final ColorStartZone[] starts;
+    private final ColorTransitZone[] transits;
+    private final boolean[] ownsStart;
+    private final boolean[] ownsTransit;
+    private final Map<String, Integer> stationIndex = new HashMap<>();
+
+    // marqueur des cases fantômes occupées et des cases d'origine réservées ; colis des répliques
+    private final ColorObstacle ghost;
+    private final ColorPackage placeholder;
+
+    private final List<Robot> robots = new ArrayList<>(); // robots de la région, par identifiant croissant
+    private final List<Emigrant> toUp = new ArrayList<>();
+    private final List<Emigrant> toDown = new ArrayList<>();
+    private final List<Integer> rejectedUp = new ArrayList<>();
+    private final List<Integer> rejectedDown = new ArrayList<>();
+    private final List<Integer> admitted = new ArrayList<>();
+    private final List<Integer> outTargets = new ArrayList<>();
+    private final List<String> outMessages = new ArrayList<>();
+
+    // réservations des robots des autres régions
+    private final int[] remoteInbound;
+    private final int[] remoteClaims;
+    private final int[] remoteStations;
+
+    private DataInputStream upIn, downIn, coordIn;
+    private DataOutputStream upOut, downOut, coordOut;
+
+    /**
+     * @param sim simulation chargée par MySimFactory.load() sur les lignes [rowStart - 1, rowEnd + 1[
+     */
+    RegionWorker(int index, int rowStart, int rowEnd, MySimFactory sim) {
+        this.index = index;
+        this.rowStart = rowStart;
+        this.rowEnd = rowEnd;
+        this.sim = sim;
+        this.env = sim.environment;
+        this.columns = sim.sp.columns;
+        this.packageColor = new int[]{sim.sp.colorpackage.getRed(), sim.sp.colorpackage.getGreen(), sim.sp.colorpackage.getBlue()};
+        this.startIds = sim.startZoneIds();
+        this.ghost = new ColorObstacle(new int[]{-1, -1}, new int[]{sim.sp.colorrobot.getRed(),
+                sim.sp.colorrobot.getGreen(), sim.sp.colorrobot.getBlue()});
+        this.placeholder = new ColorPackage(new int[]{-1, -1}, packageColor, 0, 0, null);
+
+        Cell[][] grid = env.getGrid();
+        starts = new ColorStartZone[MyRobot.START_ZONES.length];
+        ownsStart = new boolean[starts.length];
+        for (int s = 0; s < starts.length; s++) {
+            int[] pos = MyRobot.START_ZONES[s];
+            starts[s] = (ColorStartZone) grid[pos[0]][pos[1]].getContent();
+            ownsStart[s] = owns(pos[0]);
+        }
+        transits = new ColorTransitZone[MyRobot.TRANSIT_ZONES.length];
+        ownsTransit = new boolean[transits.length];
+        for (int t = 0; t < transits.length; t++) {
+            int[] pos = MyRobot.TRANSIT_ZONES[t];
+            transits[t] = (ColorTransitZone) grid[pos[0]][pos[1]].getContent();
+            ownsTransit[t] = owns(pos[0]);
+        }
+        for (int k = 0; k < MyRobot.stationNames.length; k++) {
+            stationIndex.put(MyRobot.stationNames[k], k);
+        }
+        remoteInbound = new int[transits.length];
+        remoteClaims = new int[transits.length];
+        remoteStations = new int[MyRobot.stationNames.length];
+
+        MyRobot.configureAgents(robots);
+        MyRobot.configureRegion(this);
+        SimFactory.world = new WorldSummary(grid, MyRobot.START_ZONES, MyRobot.TRANSIT_ZONES, MyRobot.stationNames);
+    }
+
+    private boolean owns(int x) {
+        return x >= rowStart && x < rowEnd;
+    }
+
+    /**
+     * Message d'un robot de la région pour un robot absent de l'annuaire : transmis par le coordinateur
+     * à la région du destinataire
+     */
+    void forward(int to, String content) {
+        outTargets.add(to);
+        outMessages.add(content);
+    }
+
+    /**
+     * Créer les robots initiaux de la région, par identifiant croissant
+     */
+    private void populate() throws IOException {
+        int n = coordIn.readInt();
+        for (int i = 0; i < n; i++) {
+            int id = coordIn.readInt();
+            int x = coordIn.readInt();
+            int y = coordIn.readInt();
+            robots.add(sim.createRobot(id, new int[]{x, y}, true));
+        }
+    }
+
+    /**
+     * Ordres du coordinateur au début du pas : répliques des zones des autres régions, réservations
+     * des autres régions, colis générés dans nos zones et messages pour nos robots
+     * @return true pour un pas de travail, false pour un pas de négociation des rôles
+     */
+    private boolean receive() throws IOException {
+        boolean work = coordIn.readBoolean();
+        for (int s = 0; s < starts.length; s++) {
+            int count = coordIn.readInt();
+            if (!ownsStart[s]) {
+                replicate(starts[s].getPackages(), count);
+            }
+        }
+        for (int t = 0; t < transits.length; t++) {
+            int count = coordIn.readInt();
+            if (!ownsTransit[t]) {
+                replicate(transits[t].getPackages(), count);
+            }
+            remoteInbound[t] = coordIn.readInt();
+            remoteClaims[t] = coordIn.readInt();
+        }
+        for (int k = 0; k < remoteStations.length; k++) {
+            remoteStations[k] = coordIn.readInt();
+        }
+        for (int n = coordIn.readInt(); n > 0; n--) {
+            int s = coordIn.readInt();
+            int goal = coordIn.readInt();
+            starts[s].addPackage(new ColorPackage(new int[]{-1, -1}, packageColor, goal, 0, startIds[s]));
+        }
+        for (int n = coordIn.readInt(); n > 0; n--) {
+            int to = coordIn.readInt();
+            String content = coordIn.readUTF();
+            MyRobot target = to < MyRobot.directory.size() ? MyRobot.directory.get(to) : null;
+            if (target != null) {
+                target.receiveMessage(content);
+            } else {
+                forward(to, content); // robot reparti entre-temps : le coordinateur le retrouvera
+            }
+        }
+
+        // tableau noir et réservations de toute la flotte
+        SimFactory.world.rebuild(robots);
+        for (int k = 0; k < remoteStations.length; k++) {
+            SimFactory.world.reserved(MyRobot.stationNames[k], remoteStations[k]);
+        }
+        if (MyRobot.transit != null) {
+            MyRobot.transit.clearDemand();
+            for (int i = 0; i < robots.size(); i++) {
+                MyRobot r = (MyRobot) robots.get(i);
+                if (r.dropZone >= 0) MyRobot.transit.addDemand(r.dropZone, 1, 0);
+                if (r.pickupZone >= 0) MyRobot.transit.addDemand(r.pickupZone, 0, 1);
+            }
+            for (int t = 0; t < transits.length; t++) {
+                MyRobot.transit.addDemand(t, remoteInbound[t], remoteClaims[t]);
+            }
+        }
+        return work;
+    }
+
+    /**
+     * Ajuster la réplique d'une zone d'une autre région au nombre de colis de l'originale
+     */
+    private void replicate(List<ColorPackage> packages, int count) {
+        while (packages.size() < count) {
+            packages.add(placeholder);
+        }
+        while (packages.size() > count) {
+            packages.remove(packages.size() - 1);
+        }
+    }
+
+    /**
+     * Pas des robots de la région, par identifiant croissant
+     * @param work false : seulement la négociation des rôles, comme dans MySimFactory.schedule()
+     */
+    private void stepRobots(boolean work) {
+        for (int i = 0; i < robots.size(); i++) {
+            MyRobot robot = (MyRobot) robots.get(i);
+            if (!work) {
+                if (!robot.isRoleNegotiationComplete()) {
+                    robot.step();
+                }
+                continue;
+            }
+            int fromX = robot.getX();
+            int fromY = robot.getY();
+            sim.activateRobot(robot);
+            if (!owns(robot.getX())) {
+                leave(robot, fromX, fromY);
+            }
+        }
+        if (toUp.isEmpty() && toDown.isEmpty()) return;
+        // robots sortis de la bande retirés en une passe, dans l'ordre
+        int kept = 0;
+        for (int i = 0; i < robots.size(); i++) {
+            MyRobot robot = (MyRobot) robots.get(i);
+            if (owns(robot.getX())) {
+                robots.set(kept++, robot);
+            }
+        }
+        robots.subList(kept, robots.size()).clear();
+    }
+
+    /**
+     * Le robot vient d'entrer dans une ligne fantôme : il quitte la région, sa case d'origine
+     * reste réservée (aucun autre robot ne peut la prendre) jusqu'à la réponse du voisin
+     */
+    private void leave(MyRobot robot, int fromX, int fromY) {
+        env.removeCellContent(robot.getX(), robot.getY());
+        env.setCell(robot.getX(), robot.getY(), ghost);
+        env.setCell(fromX, fromY, ghost);
+        MyRobot.unregister(robot.id);
+        (robot.getX() < rowStart ? toUp : toDown).add(new Emigrant(robot, fromX, fromY));
+    }
+
+    /**
+     * Admettre les robots reçus des voisins, par identifiant croissant ; un robot dont la case est prise
+     * (robot local arrivé pendant le pas, case réservée) est refusé et renvoyé à sa case d'origine
+     * @param received données du voisin du haut et du bas
+     */
+    private void admit(byte[][] received) throws IOException {
+        TreeMap<Integer, MyRobot> incoming = new TreeMap<>();
+        TreeMap<Integer, Boolean> fromUp = new TreeMap<>();
+        for (int side = 0; side < 2; side++) {
+            if (received[side] == null) continue;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(received[side]));
+            for (int n = in.readInt(); n > 0; n--) {
+                int id = in.readInt();
+                int x = in.readInt();
+                int y = in.readInt();
+                MyRobot robot = sim.createRobot(id, new int[]{x, y}, false);
+                robot.readState(in, packageColor);
+                incoming.put(id, robot);
+                fromUp.put(id, side == 0);
+            }
+        }
+        for (MyRobot robot : incoming.values()) {
+            if (env.getGrid()[robot.getX()][robot.getY()].getContent() == null) {
+                env.setCell(robot.getX(), robot.getY(), robot);
+                MyRobot.register(robot);
+                insert(robot);
+                admitted.add(robot.id);
+            } else {
+                (fromUp.get(robot.id) ? rejectedUp : rejectedDown).add(robot.id);
+                robot.discard();
+            }
+        }
+    }
+
+    /**
+     * Insérer un robot dans la liste de la région, par identifiant croissant
+     */
+    private void insert(MyRobot robot) {
+        int i = robots.size();
+        while (i > 0 && ((MyRobot) robots.get(i - 1)).id > robot.id) {
+            i--;
+        }
+        robots.add(i, robot);
+    }
+
+    /**
+     * Robots sortants refusés par le voisin et ligne de bord du voisin
+     * @param data données du voisin, null s'il n'y en a pas
+     * @param emigrants robots partis vers ce voisin pendant le pas
+     * @param halo ligne fantôme de ce côté
+     */
+    private void settle(byte[] data, List<Emigrant> emigrants, int halo) throws IOException {
+        if (data == null) return;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        List<Integer> rejected = new ArrayList<>();
+        for (int n = in.readInt(); n > 0; n--) {
+            rejected.add(in.readInt());
+        }
+        for (Emigrant e : emigrants) {
+            env.removeCellContent(e.originX, e.originY);
+            if (rejected.contains(e.robot.id)) {
+                // retour sur la case d'origine, réservée depuis le départ
+                e.robot.setX(e.originX);
+                e.robot.setY(e.originY);
+                e.robot.resetRoute();
+                env.setCell(e.originX, e.originY, e.robot);
+                MyRobot.register(e.robot);
+                insert(e.robot);
+            } else {
+                e.robot.discard();
+            }
+        }
+        emigrants.clear();
+        Cell[] row = env.getGrid()[halo];
+        for (int y = 0; y < columns; y++) {
+            boolean busy = in.readBoolean();
+            Object content = row[y].getContent();
+            if (busy && content == null) {
+                env.setCell(halo, y, ghost);
+            } else if (!busy && content == ghost) {
+                env.removeCellContent(halo, y);
+            }
+        }
+    }
+
+    private byte[] emigrants(List<Emigrant> list) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(list.size());
+        for (Emigrant e : list) {
+            out.writeInt(e.robot.id);
+            out.writeInt(e.robot.getX());
+            out.writeInt(e.robot.getY());
+            e.robot.writeState(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Robots refusés puis ligne de bord x : case occupée par un robot ou réservée
+     */
+    private byte[] border(List<Integer> rejected, int x) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(rejected.size());
+        for (int id : rejected) {
+            out.writeInt(id);
+        }
+        rejected.clear();
+        Cell[] row = env.getGrid()[x];
+        for (int y = 0; y < columns; y++) {
+            Object content = row[y].getContent();
+            out.writeBoolean(content instanceof MyRobot || content == ghost);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Échanger un bloc de données avec chaque voisin. Les régions paires écrivent puis lisent, les impaires
+     * lisent puis écrivent : chaque écriture trouve le voisin en lecture, sans interblocage même quand
+     * un bloc dépasse les tampons des sockets.
+     * @return blocs reçus du voisin du haut et du bas (null sans voisin)
+     */
+    private byte[][] exchange(byte[] up, byte[] down) throws IOException {
+        byte[][] received = new byte[2][];
+        if (index % 2 == 0) {
+            send(upOut, up);
+            send(downOut, down);
+            received[0] = receive(upIn);
+            received[1] = receive(downIn);
+        } else {
+            received[0] = receive(upIn);
+            received[1] = receive(downIn);
+            send(upOut, up);
+            send(downOut, down);
+        }
+        return received;
+    }
+
+    private static void send(DataOutputStream out, byte[] data) throws IOException {
+        if (out == null) return;
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+    }
+
+    private static byte[] receive(DataInputStream in) throws IOException {
+        if (in == null) return null;
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * Échanges de fin de pas avec les voisins : robots sortants, admission, puis refus et lignes de bord
+     */
+    private void exchangeBorders() throws IOException {
+        admit(exchange(emigrants(toUp), emigrants(toDown)));
+        byte[][] borders = exchange(border(rejectedUp, rowStart), border(rejectedDown, rowEnd - 1));
+        settle(borders[0], toUp, rowStart - 1);
+        settle(borders[1], toDown, rowEnd);
+    }
+
+    /**
+     * Compte rendu du pas au coordinateur
+     */
+    private void report() throws IOException {
+        int negotiating = 0;
+        int[] inbound = new int[transits.length];
+        int[] claims = new int[transits.length];
+        int[] stations = new int[remoteStations.length];
+        for (int i = 0; i < robots.size(); i++) {
+            MyRobot r = (MyRobot) robots.get(i);
+            if (!r.isRoleNegotiationComplete()) negotiating++;
+            if (r.dropZone >= 0) inbound[r.dropZone]++;
+            if (r.pickupZone >= 0) claims[r.pickupZone]++;
+            Integer k = r.reservedChargingStation == null ? null : stationIndex.get(r.reservedChargingStation);
+            if (k != null) stations[k]++;
+        }
+        coordOut.writeInt(robots.size());
+        coordOut.writeInt(negotiating);
+        coordOut.writeInt(MySimFactory.deliveredCount);
+        coordOut.writeInt(MyRobot.deliveryTrips);
+        coordOut.writeLong(MyRobot.batteryUsed);
+        for (int s = 0; s < starts.length; s++) {
+            coordOut.writeInt(ownsStart[s] ? starts[s].getPackages().size() : -1);
+        }
+        for (int t = 0; t < transits.length; t++) {
+            coordOut.writeInt(ownsTransit[t] ? transits[t].getPackages().size() : -1);
+            coordOut.writeInt(inbound[t]);
+            coordOut.writeInt(claims[t]);
+        }
+        for (int k = 0; k < stations.length; k++) {
+            coordOut.writeInt(stations[k]);
+        }
+        coordOut.writeInt(admitted.size());
+        for (int id : admitted) {
+            coordOut.writeInt(id);
+        }
+        coordOut.writeInt(outMessages.size());
+        for (int i = 0; i < outMessages.size(); i++) {
+            coordOut.writeInt(outTargets.get(i));
+            coordOut.writeUTF(outMessages.get(i));
+        }
+        coordOut.writeLong(checksum());
+        coordOut.flush();
+        admitted.clear();
+        outTargets.clear();
+        outMessages.clear();
+    }
+
+    /**
+     * Somme de contrôle de l'état de la région, pour vérifier le déterminisme
+     */
+    private long checksum() {
+        long sum = 0;
+        for (int i = 0; i < robots.size(); i++) {
+            MyRobot r = (MyRobot) robots.get(i);
+            long state = ((long) r.getX() * columns + r.getY()) * 1000 + r.getBatteryLevel();
+            state = state * 16 + r.getEtat().ordinal();
+            state = state * 64 + (r.carriedPackage == null ? 0 : 1 + r.batch.size());
+            sum += mix(r.id, state);
+        }
+        for (int s = 0; s < starts.length; s++) {
+            if (ownsStart[s]) sum += mix(-1 - s, starts[s].getPackages().size());
+        }
+        for (int t = 0; t < transits.length; t++) {
+            if (ownsTransit[t]) sum += mix(-1 - starts.length - t, transits[t].getPackages().size());
+        }
+        return sum;
+    }
+
+    static long mix(long a, long b) {
+        long h = a * 0x9E3779B97F4A7C15L + b;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Boucle principale : attendre les ordres du coordinateur jusqu'à l'arrêt
+     */
+    private void run() throws IOException {
+        populate();
+        exchangeBorders(); // lignes fantômes initiales
+        report();          // messages JOIN vers les parents des autres régions
+        while (coordIn.readInt() == CMD_TICK) {
+            boolean work = receive();
+            stepRobots(work);
+            exchangeBorders();
+            report();
+        }
+    }
+
+    private static DataInputStream in(Socket s) throws IOException {
+        return new DataInputStream(new BufferedInputStream(s.getInputStream()));
+    }
+
+    private static DataOutputStream out(Socket s) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+    }
+
+    /**
+     * Point d'entrée du processus de région
+     * @param args port du coordinateur, indice, nombre de régions, première ligne, ligne qui suit la dernière
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int coordPort = Integer.parseInt(args[0]);
+        int index = Integer.parseInt(args[1]);
+        int regions = Integer.parseInt(args[2]);
+        int rowStart = Integer.parseInt(args[3]);
+        int rowEnd = Integer.parseInt(args[4]);
+
+        IniFile ifile = new IniFile("parameters/configuration.ini");
+        IniFile ifilenv = new IniFile("parameters/environment.ini");
+        MyRobot.configureLogging(ifile.getIntValue("configuration", "quiet") != 1);
+        MySimFactory sim = PartitionedSimulation.load(ifile, ifilenv, rowStart - 1, rowEnd + 1);
+        if (ifile.getIntValue("pathfinding", "hierarchical") == 1 || MyRobot.lanes != null) {
+            sim.enablePathfinder(ifile.getIntValue("pathfinding", "cluster"));
+        }
+        RegionWorker worker = new RegionWorker(index, rowStart, rowEnd, sim);
+
+        InetAddress local = InetAddress.getLoopbackAddress();
+        try (ServerSocket server = new ServerSocket(0, 1, local);
+             Socket coord = new Socket(local, coordPort)) {
+            coord.setTcpNoDelay(true);
+            worker.coordIn = in(coord);
+            worker.coordOut = out(coord);
+            worker.coordOut.writeInt(index);
+            worker.coordOut.writeInt(server.getLocalPort());
+            worker.coordOut.flush();
+
+            // le coordinateur renvoie le port du voisin du haut (0 pour la première région)
+            int upPort = worker.coordIn.readInt();
+            Socket up = null;
+            Socket down = null;
+            if (upPort > 0) {
+                up = new Socket(local, upPort);
+                up.setTcpNoDelay(true);
+                worker.upIn = in(up);
+                worker.upOut = out(up);
+            }
+            if (index < regions - 1) {
+                down = server.accept();
+                down.setTcpNoDelay(true);
+                worker.downIn = in(down);
+                worker.downOut = out(down);
+            }
+            worker.run();
+            if (up != null) up.close();
+            if (down != null) down.close();
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package simulator;
 
 import fr.emse.fayol.maqit.simulator.configuration.SimProperties;
+import fr.emse.fayol.maqit.simulator.components.Robot;
 import fr.emse.fayol.maqit.simulator.components.SituatedComponent;
 import fr.emse.fayol.maqit.simulator.environment.ColorCell;
 import fr.emse.fayol.maqit.simulator.environment.GridEnvironment;
 import fr.emse.fayol.maqit.simulator.display.GraphicalWindow;
 
+import java.io.File;
+
 /**
  * A class to define the core of the simulator
  * test
@@ -16,6 +19,16 @@ public abstract class SimFactory {
     protected GridEnvironment environment; //!< the discrete environment of the simulation 
     protected static int idComponent = 1; //!< index of component id (from 1 to +inf) 
     protected GraphicalWindow gwindow;
+    protected FreeCellIndex freeCells; //!< index of free cells, kept up to date once built (null before)
+    protected static TrafficHeatmap heatmap; //!< per-cell traffic counters (null when disabled)
+    protected static HierarchicalPathfinder pathfinder; //!< hierarchical planner over fixed elements (null when disabled)
+    protected static WorkerCrowd crowd; //!< flow-field crowd model for workers (null: random walk)
+    protected static SlaMonitor sla; //!< package priorities, due times and service-level metrics (null when disabled)
+    protected static EventScheduler events; //!< wake-up queue of the event-driven mode (null: every agent stepped each tick)
+    protected static TelemetryPublisher telemetry; //!< batched fleet telemetry published off the tick loop (null when disabled)
+    protected static TickProfiler profiler = TickProfiler.NONE; //!< per-phase tick timers on the simulation thread (TickProfiler.NONE when disabled)
+    protected static File navigationCache; //!< directory of the on-disk distance fields and abstract graphs (null when disabled)
+    protected static WorldSummary world; //!< per-tick zone backlogs, crowding and station reservations read by the robots (null when disabled)
 
     /**
      * initialize SimProperties object and GridManagement object with constructor parameters
@@ -33,7 +46,9 @@ public abstract class SimFactory {
     }
 
     public void refreshGW() {
-        gwindow.refresh();
+        if (gwindow != null) {
+            gwindow.refresh();
+        }
     }
 
     /**
@@ -63,6 +78,12 @@ public abstract class SimFactory {
     public void addNewComponent(SituatedComponent sc){
         int[] pos = sc.getLocation();
     	environment.setCell(pos[0],pos[1],sc);
+        if (freeCells != null && environment.getCell(pos[0],pos[1]) != null) {
+            freeCells.remove(pos[0],pos[1]);
+        }
+        if (pathfinder != null && !(sc instanceof Robot)) {
+            pathfinder.setPassable(pos[0],pos[1],false);
+        }
     }
 
     /**
@@ -71,7 +92,26 @@ public abstract class SimFactory {
      * @param to int array of the destination cell ([x,y])
      */
     public void updateEnvironment(int[] from, int[] to){
-	   environment.moveComponent(from,to);
+        updateEnvironment(from[0],from[1],to[0],to[1]);
+    }
+
+    /**
+     * Move a component from (fromX, fromY) to (toX, toY), without allocating position arrays
+     */
+    public void updateEnvironment(int fromX, int fromY, int toX, int toY){
+        boolean moves = (fromX != toX || fromY != toY) && environment.getCell(toX,toY) == null;
+	   environment.moveComponent(fromX,fromY,toX,toY);
+        if (moves && freeCells != null) {
+            freeCells.add(fromX,fromY);
+            freeCells.remove(toX,toY);
+        }
+        if (heatmap != null) {
+            if (moves) {
+                heatmap.visit(toX,toY);
+            } else {
+                heatmap.stay(fromX,fromY);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,151 @@
+package simulator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import fr.emse.fayol.maqit.simulator.components.ColorPackage;
+
+/**
+ * Niveaux de service des colis : tirage de la classe (express ou standard) et de l'échéance à la création,
+ * ordre de service dans les files des zones de départ et de transit, et bilan à la livraison
+ * (taux de colis à l'heure, percentiles de retard par classe).
+ * Les files restent les listes des zones ; elles sont tenues triées par urgence à chaque ajout
+ * (tri par insertion, stable), si bien que getPackages().get(0) est toujours le colis le plus urgent.
+ */
+public class SlaMonitor {
+
+    public enum Policy {
+        FIFO,     // ordre d'arrivée (référence)
+        PRIORITY, // classe d'abord, puis échéance la plus proche
+        EDF       // échéance la plus proche, quelle que soit la classe
+    }
+
+    private static final String[] CLASS_NAMES = {"express", "standard"};
+
+    private final Policy policy;
+    private final Comparator<ColorPackage> urgency;
+    private final int expressPercent;
+    private final int[] dueWindow = new int[2]; // délai accordé par classe, en pas
+    private final Random rnd;
+    private int tick = 0;
+
+    // métriques par classe
+    private final int[] delivered = new int[2];
+    private final int[] onTime = new int[2];
+    private final int[][] tardiness; // retards par classe, dans l'ordre des livraisons
+
+    /**
+     * @param policy ordre de service des files
+     * @param expressPercent part des colis express (%)
+     * @param expressDue délai d'un colis express (pas)
+     * @param standardDue délai d'un colis standard (pas)
+     * @param seed graine du tirage des classes (indépendant de celui des destinations)
+     * @param packages colis prévus : les retards de chaque classe tiennent sans agrandissement en cours de simulation
+     */
+    public SlaMonitor(Policy policy, int expressPercent, int expressDue, int standardDue, long seed, int packages) {
+        this.policy = policy;
+        this.tardiness = new int[][]{new int[Math.max(64, packages)], new int[Math.max(64, packages)]};
+        this.expressPercent = expressPercent;
+        this.dueWindow[PriorityPackage.EXPRESS] = expressDue;
+        this.dueWindow[PriorityPackage.STANDARD] = standardDue;
+        this.rnd = new Random(seed);
+        Comparator<ColorPackage> byDue = Comparator.comparingInt(SlaMonitor::dueTick);
+        this.urgency = policy == Policy.EDF ? byDue
+                : Comparator.comparingInt(SlaMonitor::priority).thenComparing(byDue);
+    }
+
+    public static Policy parsePolicy(String value) {
+        if (value == null) return Policy.PRIORITY;
+        switch (value.trim().toLowerCase()) {
+            case "fifo": return Policy.FIFO;
+            case "priority": return Policy.PRIORITY;
+            case "edf": return Policy.EDF;
+            default: throw new IllegalArgumentException("Politique de service inconnue: " + value);
+        }
+    }
+
+    /**
+     * Début d'un pas de simulation
+     */
+    public void advance(int tick) {
+        this.tick = tick;
+    }
+
+    /**
+     * Créer un colis au pas courant, avec une classe et une échéance tirées au hasard
+     */
+    public PriorityPackage create(int[] location, int[] color, int destinationGoalId, String startZone) {
+        int priority = rnd.nextInt(100) < expressPercent ? PriorityPackage.EXPRESS : PriorityPackage.STANDARD;
+        return new PriorityPackage(location, color, destinationGoalId, tick, startZone,
+                priority, tick + dueWindow[priority]);
+    }
+
+    /**
+     * Remettre à sa place, selon l'urgence, le colis qui vient d'être ajouté en fin de file
+     * @param queue file d'une zone de départ ou de transit, triée sauf son dernier élément
+     */
+    public void enqueue(List<ColorPackage> queue) {
+        if (policy == Policy.FIFO || queue.size() < 2) return;
+        int i = queue.size() - 1;
+        ColorPackage p = queue.get(i);
+        while (i > 0 && urgency.compare(queue.get(i - 1), p) > 0) {
+            queue.set(i, queue.get(i - 1));
+            i--;
+        }
+        queue.set(i, p);
+    }
+
+    /**
+     * Colis arrivé au goal au pas courant
+     */
+    public void delivered(ColorPackage p) {
+        p.setTd(tick);
+        int c = priority(p);
+        int late = Math.max(0, tick - dueTick(p));
+        if (late == 0) onTime[c]++;
+        if (delivered[c] == tardiness[c].length) {
+            tardiness[c] = Arrays.copyOf(tardiness[c], delivered[c] * 2);
+        }
+        tardiness[c][delivered[c]++] = late;
+    }
+
+    private static int priority(ColorPackage p) {
+        return p instanceof PriorityPackage ? ((PriorityPackage) p).getPriority() : PriorityPackage.STANDARD;
+    }
+
+    private static int dueTick(ColorPackage p) {
+        return p instanceof PriorityPackage ? ((PriorityPackage) p).getDueTick() : Integer.MAX_VALUE;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder("politique " + policy.name().toLowerCase() + System.lineSeparator());
+        int[] all = new int[delivered[0] + delivered[1]];
+        System.arraycopy(tardiness[0], 0, all, 0, delivered[0]);
+        System.arraycopy(tardiness[1], 0, all, delivered[0], delivered[1]);
+        for (int c = 0; c < 2; c++) {
+            sb.append(line(CLASS_NAMES[c], Arrays.copyOf(tardiness[c], delivered[c]), onTime[c]));
+        }
+        sb.append(line("total", all, onTime[0] + onTime[1]));
+        return sb.toString();
+    }
+
+    private static String line(String name, int[] late, int onTime) {
+        if (late.length == 0) {
+            return name + " : aucun colis livré" + System.lineSeparator();
+        }
+        Arrays.sort(late);
+        return String.format("%s : %d livrés, %.1f %% à l'heure, retard p50 %d / p90 %d / p95 %d / p99 %d / max %d pas%n",
+                name, late.length, 100.0 * onTime / late.length, percentile(late, 50), percentile(late, 90),
+                percentile(late, 95), percentile(late, 99), late[late.length - 1]);
+    }
+
+    /**
+     * Percentile par la méthode du rang le plus proche (tableau trié)
+     */
+    private static int percentile(int[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,170 @@
+package simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Surveille les derniers déplacements d'un robot vers sa cible pour repérer :
+ * - un blocage (le robot ne bouge plus),
+ * - une oscillation (aller-retour entre deux cases),
+ * - un interblocage (le robot bouge mais ne se rapproche plus de sa cible).
+ * Compte aussi les pas perdus : pas où le robot voulait avancer sans se rapprocher de sa cible.
+ */
+public class StallDetector {
+
+    public enum Status { OK, STALLED, OSCILLATING, DEADLOCKED }
+
+    private static final int HISTORY = 8;          // nombre de positions mémorisées
+    private static final int STALL_TICKS = 4;      // pas immobiles avant de signaler un blocage
+    private static final int DEADLOCK_TICKS = 20;  // pas sans progrès avant de signaler un interblocage
+
+    private final long[] history = new long[HISTORY];
+    private int recorded = 0;
+    private int head = 0;
+
+    private int targetX = Integer.MIN_VALUE;
+    private int targetY = Integer.MIN_VALUE;
+    private int bestDistance = Integer.MAX_VALUE;
+    private int ticksWithoutProgress = 0;
+    private int ticksStill = 0;
+
+    // métriques
+    private int wastedTicks = 0;
+    private int stalls = 0;
+    private int oscillations = 0;
+    private int deadlocks = 0;
+
+    /**
+     * Enregistrer la position du robot après une tentative de déplacement vers (tx, ty)
+     */
+    public void record(int x, int y, int tx, int ty) {
+        if (tx != targetX || ty != targetY) {
+            // nouvelle cible : la progression repart de zéro
+            targetX = tx;
+            targetY = ty;
+            bestDistance = Integer.MAX_VALUE;
+            ticksWithoutProgress = 0;
+        }
+        long cell = ((long) x << 32) | (y & 0xffffffffL);
+        boolean still = recorded > 0 && history[(head + HISTORY - 1) % HISTORY] == cell;
+        history[head] = cell;
+        head = (head + 1) % HISTORY;
+        recorded = Math.min(recorded + 1, HISTORY);
+
+        int distance = Math.abs(x - tx) + Math.abs(y - ty);
+        if (distance < bestDistance) {
+            bestDistance = distance;
+            ticksWithoutProgress = 0;
+        } else {
+            ticksWithoutProgress++;
+            wastedTicks++;
+        }
+        ticksStill = still ? ticksStill + 1 : 0;
+    }
+
+    /**
+     * Etat du robot d'après l'historique récent
+     */
+    public Status status() {
+        if (ticksStill >= STALL_TICKS) {
+            return Status.STALLED;
+        }
+        if (isOscillating()) {
+            return Status.OSCILLATING;
+        }
+        if (ticksWithoutProgress >= DEADLOCK_TICKS) {
+            return Status.DEADLOCKED;
+        }
+        return Status.OK;
+    }
+
+    /**
+     * Aller-retour A, B, A, B... sur tout l'historique, sans progrès vers la cible
+     */
+    private boolean isOscillating() {
+        if (recorded < HISTORY || ticksWithoutProgress < HISTORY / 2) return false;
+        long a = history[0];
+        long b = history[1];
+        if (a == b) return false;
+        for (int i = 2; i < HISTORY; i++) {
+            if (history[i] != (i % 2 == 0 ? a : b)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Signaler qu'une action de récupération a été lancée pour le statut donné
+     */
+    public void recovering(Status status) {
+        if (status == Status.STALLED) {
+            stalls++;
+        } else if (status == Status.OSCILLATING) {
+            oscillations++;
+        } else if (status == Status.DEADLOCKED) {
+            deadlocks++;
+        } else {
+            return;
+        }
+        recorded = 0;
+        ticksStill = 0;
+        ticksWithoutProgress = 0;
+        bestDistance = Integer.MAX_VALUE;
+    }
+
+    public int getWastedTicks() {
+        return wastedTicks;
+    }
+
+    public int getStalls() {
+        return stalls;
+    }
+
+    public int getOscillations() {
+        return oscillations;
+    }
+
+    public int getDeadlocks() {
+        return deadlocks;
+    }
+
+    /**
+     * Ecrire l'historique et les métriques (transfert d'un robot vers une autre région)
+     */
+    public void write(DataOutputStream out) throws IOException {
+        for (long cell : history) {
+            out.writeLong(cell);
+        }
+        out.writeInt(recorded);
+        out.writeInt(head);
+        out.writeInt(targetX);
+        out.writeInt(targetY);
+        out.writeInt(bestDistance);
+        out.writeInt(ticksWithoutProgress);
+        out.writeInt(ticksStill);
+        out.writeInt(wastedTicks);
+        out.writeInt(stalls);
+        out.writeInt(oscillations);
+        out.writeInt(deadlocks);
+    }
+
+    /**
+     * Relire ce qu'a écrit write()
+     */
+    public void read(DataInputStream in) throws IOException {
+        for (int i = 0; i < HISTORY; i++) {
+            history[i] = in.readLong();
+        }
+        recorded = in.readInt();
+        head = in.readInt();
+        targetX = in.readInt();
+        targetY = in.readInt();
+        bestDistance = in.readInt();
+        ticksWithoutProgress = in.readInt();
+        ticksStill = in.readInt();
+        wastedTicks = in.readInt();
+        stalls = in.readInt();
+        oscillations = in.readInt();
+        deadlocks = in.readInt();
+    }
+}
@@ -0,0 +1,125 @@
+package simulator;
+
+import java.util.Arrays;
+
+/**
+ * Estimation en ligne du débit de livraison (colis par pas) par la méthode des moyennes par lots :
+ * après une période de chauffe ignorée, les pas sont groupés en lots de taille fixe et la moyenne des
+ * débits par lot donne l'estimation, avec un intervalle de confiance à 95 % (loi de Student).
+ * La simulation peut s'arrêter dès que la demi-largeur de l'intervalle, rapportée à l'estimation,
+ * passe sous la précision demandée.
+ */
+public class SteadyStateMonitor {
+
+    // quantiles à 97,5 % de la loi de Student, pour 1 à 30 degrés de liberté
+    private static final double[] T975 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+
+    private final int warmup;
+    private final int batchSize;
+    private final int minBatches;
+    private final double precision;
+
+    private int ticks = 0;
+    private int batchStartDelivered = 0;
+    private double[] batchMeans = new double[64];
+    private int batches = 0;
+    private double sum = 0;
+    private double sumSq = 0;
+
+    /**
+     * @param warmup pas ignorés au début de la simulation
+     * @param batchSize pas par lot
+     * @param minBatches nombre minimal de lots avant de pouvoir conclure
+     * @param precision demi-largeur relative visée (0.05 pour +/- 5 %)
+     */
+    public SteadyStateMonitor(int warmup, int batchSize, int minBatches, double precision) {
+        this.warmup = warmup;
+        this.batchSize = batchSize;
+        this.minBatches = Math.max(2, minBatches);
+        this.precision = precision;
+    }
+
+    /**
+     * Enregistrer la fin d'un pas
+     * @param delivered nombre total de colis livrés depuis le début
+     * @return true si l'estimation a atteint la précision demandée
+     */
+    public boolean record(int delivered) {
+        ticks++;
+        if (ticks == warmup) {
+            batchStartDelivered = delivered;
+            return false;
+        }
+        if (ticks < warmup || (ticks - warmup) % batchSize != 0) {
+            return false;
+        }
+        double mean = (delivered - batchStartDelivered) / (double) batchSize;
+        batchStartDelivered = delivered;
+        if (batches == batchMeans.length) {
+            batchMeans = Arrays.copyOf(batchMeans, batches * 2);
+        }
+        batchMeans[batches++] = mean;
+        sum += mean;
+        sumSq += mean * mean;
+        return converged();
+    }
+
+    public boolean converged() {
+        double mean = mean();
+        return batches >= minBatches && mean > 0 && halfWidth() / mean <= precision;
+    }
+
+    public double mean() {
+        return batches == 0 ? 0 : sum / batches;
+    }
+
+    /**
+     * Demi-largeur de l'intervalle de confiance à 95 %
+     */
+    public double halfWidth() {
+        if (batches < 2) return Double.POSITIVE_INFINITY;
+        double mean = mean();
+        double variance = Math.max(0, (sumSq - batches * mean * mean) / (batches - 1));
+        return studentQuantile(batches - 1) * Math.sqrt(variance / batches);
+    }
+
+    /**
+     * Autocorrélation d'ordre 1 des moyennes par lot : proche de 0 si les lots sont assez longs
+     * pour être considérés comme indépendants
+     */
+    public double lag1Autocorrelation() {
+        if (batches < 3) return 0;
+        double mean = mean();
+        double num = 0, den = 0;
+        for (int i = 0; i < batches; i++) {
+            double d = batchMeans[i] - mean;
+            den += d * d;
+            if (i > 0) num += d * (batchMeans[i - 1] - mean);
+        }
+        return den == 0 ? 0 : num / den;
+    }
+
+    public int getBatches() {
+        return batches;
+    }
+
+    private static double studentQuantile(int df) {
+        if (df <= T975.length) return T975[df - 1];
+        // développement de Cornish-Fisher au-delà de 30 degrés de liberté
+        double z = 1.959964;
+        return z + (z * z * z + z) / (4 * df);
+    }
+
+    public String report() {
+        if (batches < 2) {
+            return "débit non estimé (" + batches + " lot(s) après " + warmup + " pas de chauffe)";
+        }
+        return String.format("débit %.4f colis/pas +/- %.4f (IC 95 %%, %.1f %%), %d lots de %d pas après %d pas de chauffe, "
+                + "autocorrélation lag-1 %.2f%s", mean(), halfWidth(), 100 * halfWidth() / Math.max(mean(), 1e-12),
+                batches, batchSize, warmup, lag1Autocorrelation(), converged() ? "" : " (précision non atteinte)");
+    }
+}
@@ -0,0 +1,269 @@
+package simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import fr.emse.fayol.maqit.simulator.components.ColorPackage;
+import fr.emse.fayol.maqit.simulator.components.Robot;
+
+/**
+ * Télémétrie de la flotte : un lot par pas (positions, états, rôles et batteries des robots,
+ * livraisons survenues depuis le lot précédent), publié par un thread d'envoi dédié.
+ * La boucle de simulation ne fait que recopier l'état dans un lot pré-alloué et le déposer dans une file bornée ;
+ * la mise en JSON et l'envoi se font sur le thread d'envoi.
+ * Si l'envoi prend du retard et que la file est pleine, le plus ancien lot en attente est fusionné dans le nouveau :
+ * ses positions (périmées) sont abandonnées, ses livraisons sont reportées. La boucle n'attend jamais.
+ */
+public class TelemetryPublisher {
+
+    private static final String[] STATES = names(MyRobot.Etat.values());
+
+    /**
+     * Etat de la flotte à un pas, réutilisé d'un pas à l'autre
+     */
+    private static final class Frame {
+        int tick;
+        int n;
+        final int[] id, x, y, role, battery;
+        final byte[] state;
+        // livraisons : pas, robot, goal, pas de création du colis
+        int events;
+        int[] eventTick = new int[16];
+        String[] eventRobot = new String[16];
+        int[] eventGoal = new int[16];
+        int[] eventCreated = new int[16];
+
+        Frame(int robots) {
+            id = new int[robots];
+            x = new int[robots];
+            y = new int[robots];
+            role = new int[robots];
+            battery = new int[robots];
+            state = new byte[robots];
+        }
+
+        void addEvent(int tick, String robot, int goal, int created) {
+            if (events == eventTick.length) {
+                eventTick = Arrays.copyOf(eventTick, events * 2);
+                eventRobot = Arrays.copyOf(eventRobot, events * 2);
+                eventGoal = Arrays.copyOf(eventGoal, events * 2);
+                eventCreated = Arrays.copyOf(eventCreated, events * 2);
+            }
+            eventTick[events] = tick;
+            eventRobot[events] = robot;
+            eventGoal[events] = goal;
+            eventCreated[events++] = created;
+        }
+
+        /**
+         * Reprendre, avant les siennes, les livraisons d'un lot abandonné
+         */
+        void prependEvents(Frame older) {
+            int total = events + older.events;
+            if (total > eventTick.length) {
+                eventTick = Arrays.copyOf(eventTick, total);
+                eventRobot = Arrays.copyOf(eventRobot, total);
+                eventGoal = Arrays.copyOf(eventGoal, total);
+                eventCreated = Arrays.copyOf(eventCreated, total);
+            }
+            System.arraycopy(eventTick, 0, eventTick, older.events, events);
+            System.arraycopy(eventRobot, 0, eventRobot, older.events, events);
+            System.arraycopy(eventGoal, 0, eventGoal, older.events, events);
+            System.arraycopy(eventCreated, 0, eventCreated, older.events, events);
+            System.arraycopy(older.eventTick, 0, eventTick, 0, older.events);
+            System.arraycopy(older.eventRobot, 0, eventRobot, 0, older.events);
+            System.arraycopy(older.eventGoal, 0, eventGoal, 0, older.events);
+            System.arraycopy(older.eventCreated, 0, eventCreated, 0, older.events);
+            events = total;
+        }
+    }
+
+    private final TelemetrySink sink;
+    private final String topic;
+    private final int period;
+    private final MyRobot[] fleet;
+    private final ArrayBlockingQueue<Frame> outbox; // lots prêts, du plus ancien au plus récent
+    private final ArrayBlockingQueue<Frame> free;   // lots disponibles
+    private Frame current;                           // lot en cours de remplissage (thread de simulation)
+    private int lastTick = 0;                        // dernier pas terminé
+    private final Thread sender;
+    private volatile boolean closed = false;
+
+    // métriques (thread d'envoi, sauf coalesced et deliveries)
+    private long published = 0;
+    private long bytes = 0;
+    private long failed = 0;
+    private long coalesced = 0;
+    private long deliveries = 0;
+    private long deliveriesSent = 0;
+
+    /**
+     * @param sink destination des lots
+     * @param topic sujet MQTT des lots
+     * @param period nombre de pas entre deux lots (1 = chaque pas)
+     * @param queue lots en attente d'envoi au plus
+     * @param robots agents de la simulation (seuls les MyRobot sont publiés)
+     */
+    public TelemetryPublisher(TelemetrySink sink, String topic, int period, int queue, List<Robot> robots) {
+        this.sink = sink;
+        this.topic = topic;
+        this.period = Math.max(1, period);
+        int n = 0;
+        for (Robot r : robots) {
+            if (r instanceof MyRobot) n++;
+        }
+        this.fleet = new MyRobot[n];
+        n = 0;
+        for (Robot r : robots) {
+            if (r instanceof MyRobot) fleet[n++] = (MyRobot) r;
+        }
+        int capacity = Math.max(1, queue);
+        this.outbox = new ArrayBlockingQueue<>(capacity);
+        // un lot en cours de remplissage, un en cours d'envoi, les autres en file ; tous peuvent se retrouver
+        // libres un instant (lot déposé, envoyé et rendu avant que la boucle n'en reprenne un)
+        this.free = new ArrayBlockingQueue<>(capacity + 2);
+        for (int i = 0; i < capacity + 1; i++) {
+            free.add(new Frame(fleet.length));
+        }
+        this.current = new Frame(fleet.length);
+        this.sender = new Thread(this::send, "telemetrie");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Un colis vient d'être livré (thread de simulation)
+     */
+    public void delivered(MyRobot robot, ColorPackage p) {
+        current.addEvent(lastTick + 1, robot.getName(), p.getDestinationGoalId(), p.getTs());
+        deliveries++;
+    }
+
+    /**
+     * Un lot sera-t-il produit à la fin de ce pas ?
+     */
+    public boolean isDue(int tick) {
+        return tick % period == 0;
+    }
+
+    /**
+     * Fin de pas : recopier l'état de la flotte et confier le lot au thread d'envoi, sans attendre
+     * @return true si un lot a été produit à ce pas
+     */
+    public boolean tick(int tick) {
+        lastTick = tick;
+        if (!isDue(tick)) return false;
+        Frame f = current;
+        f.tick = tick;
+        f.n = fleet.length;
+        for (int i = 0; i < fleet.length; i++) {
+            MyRobot r = fleet[i];
+            f.id[i] = r.getId();
+            f.x[i] = r.getX();
+            f.y[i] = r.getY();
+            f.role[i] = r.getAssignedRole();
+            f.battery[i] = r.getBatteryLevel();
+            f.state[i] = (byte) r.getEtat().ordinal();
+        }
+        if (!outbox.offer(f)) {
+            // envoi en retard : fusionner le plus ancien lot en attente dans celui-ci
+            Frame stale = outbox.poll();
+            if (stale != null) {
+                f.prependEvents(stale);
+                stale.events = 0;
+                free.offer(stale);
+                coalesced++;
+            }
+            outbox.offer(f);
+        }
+        // le thread d'envoi rend chaque lot envoyé : il en reste toujours un de libre
+        current = free.poll();
+        current.events = 0;
+        return true;
+    }
+
+    private void send() {
+        StringBuilder json = new StringBuilder(256 + 96 * fleet.length);
+        boolean broken = false;
+        while (!closed || !outbox.isEmpty()) {
+            Frame f;
+            try {
+                f = outbox.poll(50, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (f == null) continue;
+            if (!broken) {
+                json.setLength(0);
+                toJson(f, json);
+                byte[] payload = json.toString().getBytes(StandardCharsets.UTF_8);
+                try {
+                    sink.publish(topic, payload);
+                    published++;
+                    bytes += payload.length;
+                    deliveriesSent += f.events;
+                } catch (IOException e) {
+                    // la simulation continue sans télémétrie
+                    System.out.println("Télémétrie interrompue : " + e.getMessage());
+                    broken = true;
+                }
+            }
+            if (broken) failed++;
+            f.events = 0;
+            free.offer(f);
+        }
+    }
+
+    private static void toJson(Frame f, StringBuilder sb) {
+        sb.append("{\"tick\":").append(f.tick).append(",\"robots\":[");
+        for (int i = 0; i < f.n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":").append(f.id[i])
+              .append(",\"x\":").append(f.x[i])
+              .append(",\"y\":").append(f.y[i])
+              .append(",\"state\":\"").append(STATES[f.state[i]])
+              .append("\",\"role\":").append(f.role[i])
+              .append(",\"battery\":").append(f.battery[i]).append('}');
+        }
+        sb.append("],\"deliveries\":[");
+        for (int i = 0; i < f.events; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"tick\":").append(f.eventTick[i])
+              .append(",\"robot\":\"").append(f.eventRobot[i])
+              .append("\",\"goal\":").append(f.eventGoal[i])
+              .append(",\"created\":").append(f.eventCreated[i]).append('}');
+        }
+        sb.append("]}");
+    }
+
+    /**
+     * Fin de simulation : envoyer les lots en attente (2 s au plus) et fermer la connexion
+     */
+    public void close() {
+        closed = true;
+        try {
+            sender.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    public String report() {
+        return String.format("%d lots publiés sur %s (%.1f Ko), %d fusionnés sous contrainte, %d non envoyés, "
+                + "%d livraisons signalées dont %d publiées", published, topic, bytes / 1024.0, coalesced, failed,
+                deliveries, deliveriesSent);
+    }
+
+    private static String[] names(Enum<?>[] values) {
+        String[] s = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            s[i] = values[i].name();
+        }
+        return s;
+    }
+}
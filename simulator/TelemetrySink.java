@@ -0,0 +1,23 @@
+package simulator;
+
+import java.io.IOException;
+
+/**
+ * Destination des messages de télémétrie et des tables LED (broker MQTT, FakeLedDevice, ...).
+ * Appelée uniquement depuis le thread d'envoi de TelemetryPublisher ou de LedPanelOutput,
+ * jamais depuis la boucle de simulation.
+ */
+public interface TelemetrySink {
+
+    /**
+     * Publier un message
+     * @param topic sujet du message
+     * @param payload contenu (JSON UTF-8)
+     */
+    void publish(String topic, byte[] payload) throws IOException;
+
+    /**
+     * Libérer la connexion
+     */
+    void close();
+}
@@ -0,0 +1,96 @@
+package simulator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+
+/**
+ * Durée de chaque pas de la phase de travail (génération, agents, affichage et sorties, sans l'attente entre deux pas),
+ * cumulée dans un histogramme à échelle log-linéaire : 32 classes par puissance de deux, soit au plus 3 % d'erreur
+ * sur les percentiles, sans allocation pendant la simulation.
+ * En fin de simulation : percentiles p50 / p99, pas le plus long, et occupation maximale du tas
+ * (somme des pics des zones mémoire du tas depuis le lancement de la JVM, construction de l'entrepôt comprise).
+ */
+public class TickLatency {
+
+    private static final int SUB_BITS = 5;               // 32 classes par puissance de deux
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB + SUB;
+
+    private final long[] counts = new long[BUCKETS];
+    private long ticks = 0;
+    private long total = 0;
+    private long max = 0;
+    private long start;
+
+    /**
+     * Début d'un pas
+     */
+    public void begin() {
+        start = System.nanoTime();
+    }
+
+    /**
+     * Fin du travail d'un pas (avant l'attente)
+     */
+    public void end() {
+        long nanos = System.nanoTime() - start;
+        counts[bucket(nanos)]++;
+        ticks++;
+        total += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * Classe d'une durée : valeur exacte sous 64 ns, puis 32 classes par puissance de deux
+     */
+    static int bucket(long nanos) {
+        if (nanos < 2 * SUB) return (int) Math.max(0, nanos);
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        return shift * SUB + (int) (nanos >>> shift);
+    }
+
+    /**
+     * Plus grande durée d'une classe
+     */
+    static long upper(int bucket) {
+        if (bucket < 2 * SUB) return bucket;
+        int shift = bucket / SUB - 1;
+        long mantissa = bucket % SUB + SUB;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Durée (ns) sous laquelle se trouvent q % des pas, bornée par le pas le plus long
+     */
+    public long percentile(double q) {
+        if (ticks == 0) return 0;
+        long rank = (long) Math.ceil(q / 100 * ticks);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= Math.max(1, rank)) return Math.min(upper(b), max);
+        }
+        return max;
+    }
+
+    /**
+     * Occupation maximale du tas (octets), somme des pics de chaque zone
+     */
+    public static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    public String report() {
+        return String.format(Locale.ROOT, "%d pas, moyenne %.4f ms, p50 %.4f ms, p99 %.4f ms, max %.4f ms, tas max %.1f Mo",
+                ticks, ticks == 0 ? 0 : total / 1e6 / ticks, percentile(50) / 1e6, percentile(99) / 1e6, max / 1e6,
+                peakHeap() / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,263 @@
+package simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Profil des pas de simulation par phase : temps (System.nanoTime) et octets alloués (compteurs par thread
+ * de la JVM, si disponibles) entre begin(phase) et end(), sur le thread de simulation uniquement.
+ * Les phases s'emboîtent (le pas d'un robot pendant l'activation des agents, elle-même pendant le pas) :
+ * chaque chemin de phases distinct est un noeud d'un petit arbre, cumulé sans allocation.
+ * Le pas d'un robot (MySimFactory.activateRobot()) est détaillé dans MyRobot.step() : négociation et
+ * traitement des messages, recherche de zones, choix du chemin, gestion de la batterie.
+ * En fin de simulation : classement des phases par temps propre, et export au format « collapsed stacks »
+ * (une ligne par chemin : pas;agents;robot 123456) pour flamegraph.pl, speedscope, etc.
+ * Les pas de chauffe sont mesurés puis oubliés. Un appel de System.nanoTime coûte quelques dizaines de ns :
+ * pour les longues simulations, seul un pas sur period est chronométré (les autres ne coûtent qu'un test).
+ */
+public class TickProfiler {
+
+    public static final int TICK = 0;
+    public static final int GENERATION = 1;
+    public static final int AGENTS = 2;
+    public static final int PERCEPTION = 3;
+    public static final int ROBOT = 4;
+    public static final int WORKER = 5;
+    public static final int NEGOTIATION = 6;
+    public static final int ZONES = 7;
+    public static final int BATTERY = 8;
+    public static final int ENVIRONMENT = 9;
+    public static final int RENDERING = 10;
+    public static final int OUTPUTS = 11;
+    public static final int SLEEP = 12;
+    public static final int MESSAGES = 13;
+    public static final int PATH = 14;
+    public static final int BLACKBOARD = 15;
+
+    private static final String[] NAMES = {
+        "pas", "generation_colis", "agents", "perception", "robot", "travailleur", "negociation",
+        "recherche_zones", "batterie", "mise_a_jour_grille", "affichage", "sorties", "attente",
+        "traitement_messages", "choix_chemin", "tableau_noir"
+    };
+    private static final int MAX_DEPTH = 16;
+    private static final int MAX_NODES = 256;
+
+    /**
+     * Profil désactivé : begin(), end() et tick() ne font rien, les appelants n'ont pas à tester null
+     */
+    public static final TickProfiler NONE = new TickProfiler(null, 0, 1, false);
+
+    private final com.sun.management.ThreadMXBean threads; // null : temps seulement
+    private final boolean enabled;
+    private final int warmup;
+    private final int period;
+    private boolean active; // pas en cours chronométré
+
+    // arbre des chemins de phases : noeud 0 = racine (aucune phase)
+    private final int[] parent = new int[MAX_NODES];
+    private final int[] phase = new int[MAX_NODES];
+    private final int[][] child = new int[MAX_NODES][];
+    private int nodes = 1;
+    private final long[] nanos = new long[MAX_NODES];
+    private final long[] bytes = new long[MAX_NODES];
+    private final long[] calls = new long[MAX_NODES];
+
+    // pile des phases ouvertes
+    private final int[] stackNode = new int[MAX_DEPTH];
+    private final long[] stackNanos = new long[MAX_DEPTH];
+    private final long[] stackBytes = new long[MAX_DEPTH];
+    private int depth = 0;
+    private int current = 0;
+
+    private int ticks = 0;
+    private int sampled = 0; // pas chronométrés après la chauffe
+    private long lost = 0; // begin() au-delà de MAX_DEPTH ou MAX_NODES, non mesurés
+
+    private TickProfiler(com.sun.management.ThreadMXBean threads, int warmup, int period, boolean enabled) {
+        this.threads = threads;
+        this.enabled = enabled;
+        this.active = enabled;
+        this.warmup = warmup;
+        this.period = Math.max(1, period);
+        child[0] = new int[NAMES.length];
+        phase[0] = -1;
+    }
+
+    /**
+     * @param warmup pas mesurés puis oubliés au début de la simulation
+     * @param period un pas chronométré sur period (1 = tous)
+     * @param allocations mesurer aussi les octets alloués par phase (si la JVM le permet)
+     */
+    public static TickProfiler create(int warmup, int period, boolean allocations) {
+        com.sun.management.ThreadMXBean threads = null;
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (allocations && bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        return new TickProfiler(threads, warmup, period, true);
+    }
+
+    /**
+     * false pour NONE
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Entrer dans une phase (une phase identique à la phase courante ne crée pas de niveau)
+     */
+    public void begin(int p) {
+        if (!active) return;
+        if (depth == MAX_DEPTH) {
+            lost++;
+            return;
+        }
+        int node = current;
+        if (phase[current] != p) {
+            node = child[current][p];
+            if (node == 0) {
+                if (nodes == MAX_NODES) {
+                    lost++;
+                    return;
+                }
+                node = nodes++;
+                parent[node] = current;
+                phase[node] = p;
+                child[node] = new int[NAMES.length];
+                child[current][p] = node;
+            }
+        }
+        stackNode[depth] = current;
+        stackBytes[depth] = threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+        stackNanos[depth++] = System.nanoTime();
+        current = node;
+    }
+
+    /**
+     * Sortir de la phase ouverte par le dernier begin()
+     */
+    public void end() {
+        if (!active || depth == 0) return;
+        long now = System.nanoTime();
+        long allocated = threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+        depth--;
+        if (stackNode[depth] != current) {
+            // phase réellement ouverte (sinon phase identique à la précédente, déjà comptée plus haut)
+            nanos[current] += now - stackNanos[depth];
+            bytes[current] += allocated - stackBytes[depth];
+            calls[current]++;
+        }
+        current = stackNode[depth];
+    }
+
+    /**
+     * Fin d'un pas : à la fin de la chauffe, oublier tout ce qui a été mesuré
+     */
+    public void tick() {
+        if (!enabled) return;
+        if (active && ticks >= warmup) sampled++;
+        ticks++;
+        if (ticks == warmup) {
+            Arrays.fill(nanos, 0);
+            Arrays.fill(bytes, 0);
+            Arrays.fill(calls, 0);
+        }
+        active = ticks < warmup || ticks % period == 0;
+    }
+
+    /**
+     * Temps propre d'un noeud : son temps moins celui des phases qu'il contient
+     */
+    private long selfNanos(int node) {
+        long self = nanos[node];
+        for (int c : child[node]) {
+            if (c != 0) self -= nanos[c];
+        }
+        return Math.max(0, self);
+    }
+
+    private long selfBytes(int node) {
+        long self = bytes[node];
+        for (int c : child[node]) {
+            if (c != 0) self -= bytes[c];
+        }
+        return Math.max(0, self);
+    }
+
+    /**
+     * Classement des phases par temps propre (cumulé sur tous les chemins où la phase apparaît)
+     */
+    public String report() {
+        int measured = sampled;
+        long[] self = new long[NAMES.length];
+        long[] alloc = new long[NAMES.length];
+        long[] count = new long[NAMES.length];
+        long total = 0;
+        for (int n = 1; n < nodes; n++) {
+            self[phase[n]] += selfNanos(n);
+            alloc[phase[n]] += selfBytes(n);
+            count[phase[n]] += calls[n];
+            total += selfNanos(n);
+        }
+        Integer[] order = new Integer[NAMES.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(self[b], self[a]));
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d pas chronométrés (1 sur %d) après %d de chauffe, %.3f ms par pas%n", measured, period,
+                Math.min(ticks, warmup), measured == 0 ? 0 : total / 1e6 / measured));
+        sb.append(String.format("%-20s %10s %7s %12s %10s %14s%n", "phase", "ms/pas", "%", "appels/pas", "ns/appel",
+                threads != null ? "octets/pas" : ""));
+        for (int p : order) {
+            if (count[p] == 0) continue;
+            sb.append(String.format("%-20s %10.4f %6.1f%% %12.1f %10d %14s%n", NAMES[p], self[p] / 1e6 / Math.max(1, measured),
+                    total == 0 ? 0 : 100.0 * self[p] / total, count[p] / (double) Math.max(1, measured), self[p] / count[p],
+                    threads != null ? String.format("%.1f", alloc[p] / (double) Math.max(1, measured)) : ""));
+        }
+        if (lost > 0) {
+            sb.append(lost).append(" phases non mesurées (profondeur ou nombre de chemins dépassé)").append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Ecrire les piles de phases : profile.folded (temps propre en ns) et, si mesurées,
+     * profile_alloc.folded (octets alloués)
+     * @param dir dossier de sortie
+     */
+    public void export(File dir) throws IOException {
+        dir.mkdirs();
+        write(new File(dir, "profile.folded"), false);
+        if (threads != null) {
+            write(new File(dir, "profile_alloc.folded"), true);
+        }
+    }
+
+    private void write(File file, boolean allocations) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            for (int n = 1; n < nodes; n++) {
+                long value = allocations ? selfBytes(n) : selfNanos(n);
+                if (value > 0) {
+                    out.println(path(n) + " " + value);
+                }
+            }
+        }
+    }
+
+    private String path(int node) {
+        String s = NAMES[phase[node]];
+        for (int n = parent[node]; n != 0; n = parent[n]) {
+            s = NAMES[phase[n]] + ";" + s;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,111 @@
+package simulator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Compteurs de trafic par case, dans des tableaux d'entiers (indice x * columns + y) :
+ * - visits : entrées d'un agent dans la case,
+ * - blocked : tentatives de déplacement sans case voisine libre (moveOneStepTo),
+ * - dwell : pas passés par un agent dans la case sans en bouger.
+ * Les matrices s'exportent en CSV ou en binaire (en-tête lignes/colonnes puis trois matrices d'int).
+ */
+public class TrafficHeatmap {
+
+    public final int rows;
+    public final int columns;
+    public final int[] visits;
+    public final int[] blocked;
+    public final int[] dwell;
+
+    public TrafficHeatmap(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.visits = new int[rows * columns];
+        this.blocked = new int[rows * columns];
+        this.dwell = new int[rows * columns];
+    }
+
+    public void visit(int x, int y) {
+        visits[x * columns + y]++;
+    }
+
+    public void block(int x, int y) {
+        blocked[x * columns + y]++;
+    }
+
+    public void stay(int x, int y) {
+        dwell[x * columns + y]++;
+    }
+
+    public void stay(int x, int y, int ticks) {
+        dwell[x * columns + y] += ticks;
+    }
+
+    /**
+     * Exporter les trois matrices dans un fichier CSV (une ligne de la grille par ligne du fichier)
+     * @param file fichier de sortie
+     * @throws IOException
+     */
+    public void exportCsv(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file)) {
+            writeMatrix(out, "visits", visits);
+            writeMatrix(out, "blocked", blocked);
+            writeMatrix(out, "dwell", dwell);
+        }
+    }
+
+    private void writeMatrix(PrintWriter out, String name, int[] m) {
+        out.println("# " + name);
+        StringBuilder line = new StringBuilder();
+        for (int x = 0; x < rows; x++) {
+            line.setLength(0);
+            for (int y = 0; y < columns; y++) {
+                if (y > 0) line.append(',');
+                line.append(m[x * columns + y]);
+            }
+            out.println(line);
+        }
+    }
+
+    /**
+     * Exporter les trois matrices dans un fichier binaire compact
+     * @param file fichier de sortie
+     * @throws IOException
+     */
+    public void exportBinary(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(rows);
+            out.writeInt(columns);
+            for (int[] m : new int[][]{visits, blocked, dwell}) {
+                for (int v : m) {
+                    out.writeInt(v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Exporter l'état courant dans le dossier donné, au format choisi
+     * @param dir dossier de sortie (créé si besoin)
+     * @param step pas de simulation, utilisé dans le nom du fichier
+     * @param binary true pour le format binaire, false pour CSV
+     */
+    public void export(File dir, int step, boolean binary) {
+        dir.mkdirs();
+        File file = new File(dir, "heatmap_" + step + (binary ? ".bin" : ".csv"));
+        try {
+            if (binary) {
+                exportBinary(file);
+            } else {
+                exportCsv(file);
+            }
+        } catch (IOException e) {
+            System.out.println("Export de la carte de trafic impossible: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.emse.fayol.maqit.simulator.components.ColorPackage;
+import fr.emse.fayol.maqit.simulator.components.ColorTransitZone;
+import fr.emse.fayol.maqit.simulator.environment.Cell;
+
+/**
+ * Répartition des colis entre les zones de transit (tampons FIFO de capacité quelconque).
+ * Pour chaque zone on suit les colis stockés, les robots rôle 0 en route pour y déposer (réservations)
+ * et les robots rôle 1 en route pour y prendre un colis (demande entrante).
+ * - dépôt : la zone de moindre coût, distance plus file d'attente prévue à l'arrivée
+ *   (stock + réservations - demande entrante) rapportée à la capacité, pénalisée si le tampon sera plein ;
+ * - retrait : la zone la plus proche ayant un colis que personne n'est encore venu chercher.
+ * Sans équilibrage, on garde l'ancienne règle : la première zone non pleine / non vide.
+ * Statistiques d'occupation par zone échantillonnées à chaque pas.
+ */
+public class TransitDispatcher {
+
+    private static final double QUEUE_COST = 8.0;      // cases de détour acceptées pour éviter un tampon plein
+    private static final double SATURATED_COST = 20.0; // pénalité d'une zone qui sera pleine à l'arrivée
+
+    private final ColorTransitZone[] zones;
+    private final int[][] positions;
+    private final boolean balanced;
+    private final int[] inbound; // robots rôle 0 en route avec un colis
+    private final int[] claims;  // robots rôle 1 en route pour prendre un colis
+
+    // métriques
+    private int tick = 0;
+    private final long[] deposits;
+    private final long[] pickups;
+    private final long[] occupancySum;
+    private final long[] fullTicks;
+    private final int[] maxOccupancy;
+    private final long[] waitSum;
+    private ColorPackage[] stored = new ColorPackage[16]; // colis stockés, dans un ordre quelconque
+    private int[] storedAt = new int[16];                 // et leur pas de dépôt
+    private int nbStored = 0;
+
+    /**
+     * @param grid grille où les zones de transit sont déjà posées
+     * @param positions positions des zones de transit
+     * @param balanced true : choix selon la charge, false : première zone disponible
+     */
+    public TransitDispatcher(Cell[][] grid, int[][] positions, boolean balanced) {
+        this.balanced = balanced;
+        this.zones = new ColorTransitZone[positions.length];
+        this.positions = positions;
+        for (int z = 0; z < positions.length; z++) {
+            zones[z] = (ColorTransitZone) grid[positions[z][0]][positions[z][1]].getContent();
+            // la liste de la zone n'a pas de tableau avant le premier dépôt : le réserver dès maintenant
+            // (ensureCapacity() ignore moins de 11 places sur une liste vide jamais remplie)
+            List<ColorPackage> packages = zones[z].getPackages();
+            if (packages instanceof ArrayList) {
+                ((ArrayList<ColorPackage>) packages).ensureCapacity(Math.max(11, zones[z].getCapacity()));
+            }
+        }
+        this.inbound = new int[zones.length];
+        this.claims = new int[zones.length];
+        this.deposits = new long[zones.length];
+        this.pickups = new long[zones.length];
+        this.occupancySum = new long[zones.length];
+        this.fullTicks = new long[zones.length];
+        this.maxOccupancy = new int[zones.length];
+        this.waitSum = new long[zones.length];
+    }
+
+    public boolean isBalanced() {
+        return balanced;
+    }
+
+    public ColorTransitZone zone(int z) {
+        return zones[z];
+    }
+
+    /**
+     * Positions [x, y] des zones, dans l'ordre des indices
+     */
+    public int[][] positions() {
+        return positions;
+    }
+
+    /**
+     * Nombre total de colis déposés dans les zones depuis le début
+     */
+    public long getDeposits() {
+        long total = 0;
+        for (long d : deposits) {
+            total += d;
+        }
+        return total;
+    }
+
+    /**
+     * Indice de la zone de transit en (x, y), -1 s'il n'y en a pas
+     */
+    public int indexOf(int x, int y) {
+        // quelques zones seulement : parcours direct, sans clé à convertir en Integer
+        for (int z = 0; z < positions.length; z++) {
+            if (positions[z][0] == x && positions[z][1] == y) return z;
+        }
+        return -1;
+    }
+
+    /**
+     * Zone où déposer un colis pris en (x, y), -1 si aucune.
+     * Avec l'équilibrage, une zone est toujours proposée : le robot attendra qu'une place se libère.
+     */
+    public int selectDrop(int x, int y) {
+        int best = -1;
+        double bestCost = Double.MAX_VALUE;
+        for (int z = 0; z < zones.length; z++) {
+            ColorTransitZone zone = zones[z];
+            if (!balanced) {
+                if (!zone.isFull()) return z;
+                continue;
+            }
+            int capacity = Math.max(1, zone.getCapacity());
+            int stored = zone.getPackages().size();
+            int backlog = stored + inbound[z] - claims[z];
+            double cost = Math.hypot(zone.getX() - x, zone.getY() - y)
+                    + QUEUE_COST * Math.max(0, backlog) / capacity;
+            if (stored + inbound[z] >= capacity) {
+                cost += SATURATED_COST;
+            }
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = z;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Zone où prendre un colis depuis (x, y), -1 si aucune
+     * @param current zone déjà visée par le robot (sa propre demande n'est pas comptée), -1 sinon
+     */
+    public int selectPickup(int x, int y, int current) {
+        int best = -1;
+        double bestDist = Double.MAX_VALUE;
+        for (int z = 0; z < zones.length; z++) {
+            int stored = zones[z].getPackages().size();
+            if (stored == 0) continue;
+            if (!balanced) return z;
+            int unclaimed = stored - claims[z] + (z == current ? 1 : 0);
+            if (unclaimed <= 0) continue;
+            double dist = Math.hypot(zones[z].getX() - x, zones[z].getY() - y);
+            if (dist < bestDist) {
+                bestDist = dist;
+                best = z;
+            }
+        }
+        return best;
+    }
+
+    public void reserveDrop(int z) {
+        inbound[z]++;
+    }
+
+    public void cancelDrop(int z) {
+        inbound[z]--;
+    }
+
+    public void claim(int z) {
+        claims[z]++;
+    }
+
+    public void unclaim(int z) {
+        claims[z]--;
+    }
+
+    /**
+     * Mode distribué : oublier les réservations et demandes, recomptées à chaque pas par addDemand()
+     * à partir des robots de la région et des totaux des autres régions
+     */
+    public void clearDemand() {
+        Arrays.fill(inbound, 0);
+        Arrays.fill(claims, 0);
+    }
+
+    /**
+     * Ajouter des robots en route vers la zone z : reserved pour y déposer, claimed pour y prendre un colis
+     */
+    public void addDemand(int z, int reserved, int claimed) {
+        inbound[z] += reserved;
+        claims[z] += claimed;
+    }
+
+    /**
+     * Le colis p vient d'être déposé dans la zone z
+     */
+    public void deposited(int z, ColorPackage p) {
+        deposits[z]++;
+        if (nbStored == stored.length) {
+            stored = Arrays.copyOf(stored, nbStored * 2);
+            storedAt = Arrays.copyOf(storedAt, nbStored * 2);
+        }
+        stored[nbStored] = p;
+        storedAt[nbStored++] = tick;
+    }
+
+    /**
+     * Le colis p vient d'être pris dans la zone z
+     */
+    public void pickedUp(int z, ColorPackage p) {
+        pickups[z]++;
+        // peu de colis en transit à la fois : recherche linéaire, retrait par échange avec le dernier
+        for (int i = 0; i < nbStored; i++) {
+            if (stored[i] == p) {
+                waitSum[z] += tick - storedAt[i];
+                stored[i] = stored[--nbStored];
+                storedAt[i] = storedAt[nbStored];
+                stored[nbStored] = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fin de pas : échantillonner l'occupation des tampons
+     */
+    public void sample() {
+        tick++;
+        for (int z = 0; z < zones.length; z++) {
+            int stored = zones[z].getPackages().size();
+            occupancySum[z] += stored;
+            if (stored >= zones[z].getCapacity()) fullTicks[z]++;
+            maxOccupancy[z] = Math.max(maxOccupancy[z], stored);
+        }
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (int z = 0; z < zones.length; z++) {
+            ColorTransitZone zone = zones[z];
+            sb.append(String.format("(%d,%d) capacité %d : %d dépôts, %d retraits, occupation moyenne %.2f (max %d), "
+                    + "pleine %.1f %% du temps, attente moyenne %.1f pas%n",
+                    zone.getX(), zone.getY(), zone.getCapacity(), deposits[z], pickups[z],
+                    tick == 0 ? 0 : occupancySum[z] / (double) tick, maxOccupancy[z],
+                    tick == 0 ? 0 : 100.0 * fullTicks[z] / tick,
+                    pickups[z] == 0 ? 0 : waitSum[z] / (double) pickups[z]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,325 @@
+package simulator;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import fr.emse.fayol.maqit.simulator.components.ColorExitZone;
+import fr.emse.fayol.maqit.simulator.components.ColorObstacle;
+import fr.emse.fayol.maqit.simulator.components.ColorStartZone;
+import fr.emse.fayol.maqit.simulator.components.ColorTransitZone;
+import fr.emse.fayol.maqit.simulator.components.SituatedComponent;
+import fr.emse.fayol.maqit.simulator.configuration.IniFile;
+import fr.emse.fayol.maqit.simulator.configuration.SimProperties;
+import fr.emse.fayol.maqit.simulator.environment.Cell;
+import fr.emse.fayol.maqit.simulator.environment.ColorCell;
+import fr.emse.fayol.maqit.simulator.environment.ColorGoal;
+import fr.emse.fayol.maqit.simulator.environment.ColorGridEnvironment;
+import fr.emse.fayol.maqit.simulator.environment.GridEnvironment;
+
+/**
+ * Générateur procédural d'entrepôt, sur le modèle de environment.ini :
+ * quais de départ sur la dernière colonne, goals et portes sur la colonne 0,
+ * zones de transit dans une bande centrale, stations de charge le long des deux allées de bordure et
+ * en bout de segments de racks,
+ * et entre les deux des lignes de racks doubles séparées par des allées,
+ * coupées par des allées transversales.
+ * Le plan est d'abord calculé dans un tableau d'octets, puis chargé dans la grille en une passe.
+ */
+public class WarehouseLayout {
+
+    public static final byte EMPTY = 0;
+    public static final byte RACK = 1;
+    public static final byte START = 2;
+    public static final byte TRANSIT = 3;
+    public static final byte GOAL = 4;
+    public static final byte EXIT = 5;
+    public static final byte CHARGING = 6;
+
+    private static final int CROSS_AISLE_PERIOD = 12; // une allée transversale toutes les 12 colonnes
+    private static final int CHARGER_PERIOD = 9;      // une ligne de stations de charge toutes les 9 lignes
+
+    public final int rows;
+    public final int columns;
+    public final byte[] cells; // indice x * columns + y
+    public int racks;
+
+    // mêmes structures que SimProperties pour réutiliser le code de la fabrique
+    public final Map<String, int[]> startZonePositions = new LinkedHashMap<>();
+    public final List<int[]> transitZoneData = new ArrayList<>();
+    public final Map<Integer, int[]> goalPositions = new LinkedHashMap<>();
+    public final List<int[]> exitZonePositions = new ArrayList<>();
+    public final Map<String, int[]> chargingStationPositions = new HashMap<>();
+
+    private WarehouseLayout(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.cells = new byte[rows * columns];
+    }
+
+    public byte get(int x, int y) {
+        return cells[x * columns + y];
+    }
+
+    private void set(int x, int y, byte type) {
+        cells[x * columns + y] = type;
+    }
+
+    /**
+     * Générer un entrepôt
+     * @param rows nombre de lignes (au moins 20)
+     * @param columns nombre de colonnes (au moins 20)
+     * @param targetRacks nombre de racks souhaité (borné par la place disponible)
+     * @param seed graine, pour des plans reproductibles
+     * @return le plan généré
+     */
+    public static WarehouseLayout generate(int rows, int columns, int targetRacks, long seed) {
+        if (rows < 20 || columns < 20) {
+            throw new IllegalArgumentException("Entrepôt trop petit: " + rows + "x" + columns + " (minimum 20x20)");
+        }
+        WarehouseLayout layout = new WarehouseLayout(rows, columns);
+        Random rnd = new Random(seed);
+        int mid = columns / 2;
+
+        // goals et portes sur la colonne 0, une porte de part et d'autre de chaque goal
+        int nbGoals = Math.max(2, rows / 10);
+        for (int g = 0; g < nbGoals; g++) {
+            int x = (int) ((g + 0.5) * rows / nbGoals);
+            layout.set(x, 0, GOAL);
+            layout.goalPositions.put(g + 1, new int[]{x, 0});
+            for (int ex : new int[]{x - 1, x + 1}) {
+                if (ex > 0 && ex < rows - 1 && layout.get(ex, 0) == EMPTY) {
+                    layout.set(ex, 0, EXIT);
+                    layout.exitZonePositions.add(new int[]{ex, 0});
+                }
+            }
+        }
+
+        // quais de départ sur la dernière colonne, espacés de 3 cases
+        int nbStarts = Math.max(3, rows / 7);
+        for (int s = 0; s < nbStarts; s++) {
+            int x = rows / 2 - 3 * (nbStarts / 2) + 3 * s;
+            if (x < 1 || x > rows - 2) continue;
+            layout.set(x, columns - 1, START);
+            layout.startZonePositions.put("A" + (s + 1), new int[]{x, columns - 1});
+        }
+
+        // zones de transit par paires dans la bande centrale
+        int nbTransitPairs = Math.max(2, rows / 10);
+        for (int t = 0; t < nbTransitPairs; t++) {
+            int x = (int) ((t + 0.5) * rows / nbTransitPairs);
+            x = Math.max(3, Math.min(rows - 4, x));
+            for (int y : new int[]{mid, mid - 1}) {
+                if (layout.get(x, y) == EMPTY) {
+                    layout.set(x, y, TRANSIT);
+                    layout.transitZoneData.add(new int[]{x, y, 1});
+                }
+            }
+        }
+
+        // stations de charge dans les allées de bordure côté goals et côté quais, réparties sur toute la hauteur :
+        // les coins pour un petit entrepôt, puis une station toutes les CHARGER_PERIOD lignes de chaque côté
+        int perSide = Math.max(2, rows / CHARGER_PERIOD);
+        int station = 1;
+        for (int y : new int[]{2, columns - 3}) {
+            for (int k = 0; k < perSide; k++) {
+                int x = 2 + (int) ((long) k * (rows - 5) / (perSide - 1));
+                layout.set(x, y, CHARGING);
+                layout.chargingStationPositions.put("station" + station++, new int[]{x, y});
+            }
+        }
+        // et dans la zone des racks, à la place du premier rack de segment après chaque allée transversale
+        // (ligne de racks bordée par une allée longitudinale), toutes les CHARGER_PERIOD lignes : le nombre de stations
+        // suit la surface, et un robot en trouve toujours une à quelques cases, sans qu'aucune allée soit coupée
+        for (int x = 4; x < rows - 3; x += CHARGER_PERIOD) {
+            for (int y = CROSS_AISLE_PERIOD + 1; y < columns - 4; y += CROSS_AISLE_PERIOD) {
+                if (y >= mid - 3 && y <= mid + 2) continue; // bande de transit
+                if (layout.get(x, y) != EMPTY) continue;
+                layout.set(x, y, CHARGING);
+                layout.chargingStationPositions.put("station" + station++, new int[]{x, y});
+            }
+        }
+
+        // emplacements de racks : doubles lignes séparées par une allée, hors allées transversales,
+        // hors bande de transit et hors bordure de circulation
+        int[] slots = new int[rows * columns];
+        int nbSlots = 0;
+        for (int x = 3; x < rows - 3; x++) {
+            if (x % 3 == 2) continue; // allée longitudinale
+            for (int y = 4; y < columns - 4; y++) {
+                if (y % CROSS_AISLE_PERIOD == 0) continue; // allée transversale
+                if (y >= mid - 3 && y <= mid + 2) continue; // bande de transit
+                if (layout.get(x, y) == EMPTY) {
+                    slots[nbSlots++] = x * columns + y;
+                }
+            }
+        }
+
+        // on garde des segments entiers (entre deux allées transversales), répartis régulièrement
+        int wanted = Math.min(targetRacks, nbSlots);
+        double ratio = nbSlots == 0 ? 0 : (double) wanted / nbSlots;
+        double acc = rnd.nextDouble();
+        int segment = -1;
+        boolean keep = false;
+        for (int i = 0; i < nbSlots && layout.racks < wanted; i++) {
+            int x = slots[i] / columns;
+            int y = slots[i] % columns;
+            int seg = x * columns + y / CROSS_AISLE_PERIOD;
+            if (seg != segment) {
+                segment = seg;
+                acc += ratio;
+                keep = acc >= 1;
+                if (keep) acc -= 1;
+            }
+            if (keep) {
+                layout.cells[slots[i]] = RACK;
+                layout.racks++;
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Copier les positions générées dans les propriétés de la simulation
+     * @param sp propriétés à compléter
+     */
+    public void applyTo(SimProperties sp) {
+        sp.rows = rows;
+        sp.columns = columns;
+        sp.obstaclePositions = new int[0][];
+        sp.startZonePositions = startZonePositions;
+        sp.transitZoneData = transitZoneData;
+        sp.goalPositions = goalPositions;
+        sp.exitZonePositions = exitZonePositions.toArray(new int[0][]);
+    }
+
+    /**
+     * Retirer du plan les racks hors des lignes [rowFrom, rowTo[ (mode distribué : une région ne pose
+     * que les racks de sa bande et de ses lignes fantômes)
+     */
+    public void keepRacks(int rowFrom, int rowTo) {
+        for (int c = 0; c < cells.length; c++) {
+            int x = c / columns;
+            if (cells[c] == RACK && (x < rowFrom || x >= rowTo)) {
+                cells[c] = EMPTY;
+                racks--;
+            }
+        }
+    }
+
+    /**
+     * Remplir la grille en une seule passe sur le plan.
+     * Les couleurs sont partagées entre composants et les cases sont écrites directement,
+     * sans passer par addNewComponent() cellule par cellule.
+     * @param environment grille vide (initializeGrid() déjà appelé)
+     * @param sp propriétés (couleurs)
+     * @param startZones table des zones de départ à compléter (identifiant vers zone)
+     * @param chargingStations table des stations de charge à compléter
+     */
+    public void fill(GridEnvironment environment, SimProperties sp,
+                     Map<String, ColorStartZone> startZones, Map<String, ColorObstacle> chargingStations) {
+        int[] rackColor = rgb(sp.colorobstacle);
+        int[] startColor = rgb(sp.colorstartzone);
+        int[] transitColor = rgb(sp.colortransitzone);
+        int[] goalColor = rgb(sp.colorgoal);
+        int[] exitColor = rgb(sp.colorexit);
+        int[] chargingColor = new int[]{255, 165, 0};
+
+        Map<Long, String> startIds = new HashMap<>();
+        for (Map.Entry<String, int[]> e : startZonePositions.entrySet()) {
+            startIds.put(key(e.getValue()[0], e.getValue()[1]), e.getKey());
+        }
+        Map<Long, String> stationIds = new HashMap<>();
+        for (Map.Entry<String, int[]> e : chargingStationPositions.entrySet()) {
+            stationIds.put(key(e.getValue()[0], e.getValue()[1]), e.getKey());
+        }
+        Map<Long, Integer> goalIds = new HashMap<>();
+        for (Map.Entry<Integer, int[]> e : goalPositions.entrySet()) {
+            goalIds.put(key(e.getValue()[0], e.getValue()[1]), e.getKey());
+        }
+
+        Map<Long, Integer> transitCapacities = new HashMap<>();
+        for (int[] data : transitZoneData) {
+            transitCapacities.put(key(data[0], data[1]), data[2]);
+        }
+
+        Cell[][] grid = environment.getGrid();
+        for (int x = 0; x < rows; x++) {
+            for (int y = 0; y < columns; y++) {
+                byte type = cells[x * columns + y];
+                if (type == EMPTY) continue;
+                int[] pos = {x, y};
+                SituatedComponent sc = null;
+                switch (type) {
+                    case RACK:
+                        sc = new ColorObstacle(pos, rackColor);
+                        break;
+                    case START:
+                        ColorStartZone zone = new ColorStartZone(pos, startColor);
+                        startZones.put(startIds.get(key(x, y)), zone);
+                        sc = zone;
+                        break;
+                    case TRANSIT:
+                        sc = new ColorTransitZone(pos, transitColor, transitCapacities.get(key(x, y)));
+                        break;
+                    case EXIT:
+                        sc = new ColorExitZone(pos, exitColor);
+                        break;
+                    case CHARGING:
+                        ColorObstacle stationObstacle = new ColorObstacle(pos, chargingColor);
+                        chargingStations.put(stationIds.get(key(x, y)), stationObstacle);
+                        sc = stationObstacle;
+                        break;
+                    case GOAL:
+                        ((ColorCell) grid[x][y]).setGoal(new ColorGoal(goalIds.get(key(x, y)), goalColor));
+                        break;
+                }
+                if (sc != null) {
+                    environment.setCell(x, y, sc);
+                }
+            }
+        }
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | y;
+    }
+
+    private static int[] rgb(Color c) {
+        return new int[]{c.getRed(), c.getGreen(), c.getBlue()};
+    }
+
+    /**
+     * Mesurer le temps de génération et de chargement d'un grand entrepôt
+     * @param args [lignes] [colonnes] [racks] [graine]
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int racks = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 250;
+
+        IniFile ifile = new IniFile("parameters/configuration.ini");
+        SimProperties sp = new SimProperties(ifile);
+        sp.simulationParams();
+        sp.displayParams();
+
+        for (int run = 0; run < 3; run++) {
+            long t0 = System.nanoTime();
+            WarehouseLayout layout = generate(rows, columns, racks, seed);
+            long t1 = System.nanoTime();
+            GridEnvironment env = new ColorGridEnvironment(rows, columns, 0, (int) seed);
+            long t2 = System.nanoTime();
+            layout.fill(env, sp, new HashMap<>(), new HashMap<>());
+            long t3 = System.nanoTime();
+            System.out.println("Entrepôt " + rows + "x" + columns + " (" + layout.racks + " racks) : génération "
+                    + (t1 - t0) / 1000000 + " ms, grille " + (t2 - t1) / 1000000 + " ms, chargement "
+                    + (t3 - t2) / 1000000 + " ms");
+        }
+    }
+}
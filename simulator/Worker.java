@@ -5,6 +5,8 @@ import java.awt.Color;
 import fr.emse.fayol.maqit.simulator.components.ColorInteractionRobot;
 import fr.emse.fayol.maqit.simulator.components.Message;
 import fr.emse.fayol.maqit.simulator.components.Orientation;
+import fr.emse.fayol.maqit.simulator.environment.Cell;
+import fr.emse.fayol.maqit.simulator.environment.GridEnvironment;
 
 
 /**
@@ -13,17 +15,47 @@ import fr.emse.fayol.maqit.simulator.components.Orientation;
  */
 public class Worker extends ColorInteractionRobot {
 
+    // état dans le modèle de foule (SimFactory.crowd)
+    protected int destination = WorkerCrowd.NONE;
+    protected int dwellTicks = 0;
+    protected int waitTicks = 0;
+    protected GridEnvironment env; // grille lue directement par freeForward()
 
-    public Worker(String name, int field, int debug, int[] pos, Color color, int rows, int columns, long seed) {
+    public Worker(String name, int field, int debug, int[] pos, Color color, int rows, int columns, GridEnvironment env, long seed) {
         super(name, field, debug, pos, color, rows, columns,seed);
+        this.env = env;
         orientation =Orientation.up;
     }
+
+    /**
+     * La case devant le travailleur est-elle libre ? Lue dans la grille plutôt que dans la perception,
+     * que l'activation ne recopie plus (une matrice allouée et pivotée à chaque pas)
+     */
+    @Override
+    protected boolean freeForward() {
+        int x = getX(), y = getY();
+        switch (orientation) {
+            case up: x--; break;
+            case down: x++; break;
+            case left: y--; break;
+            case right: y++; break;
+            default: return false;
+        }
+        Cell[][] cells = env.getGrid();
+        if (x < 0 || x >= cells.length || y < 0 || y >= cells[0].length) return false;
+        Cell c = cells[x][y];
+        return c != null && c.getContent() == null;
+    }
     /**
-     * le deplacement de worker
+     * le deplacement de worker : suivre le modèle de foule s'il est actif, sinon avancer au hasard
      */
     @Override
     public void move(int step) {
         for (int i = 0; i < step; i++) {
+            if (SimFactory.crowd != null) {
+                SimFactory.crowd.step(this);
+                continue;
+            }
             if (freeForward()) {
                 moveForward();
             }else {
@@ -0,0 +1,244 @@
+package simulator;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import fr.emse.fayol.maqit.simulator.components.Orientation;
+import fr.emse.fayol.maqit.simulator.components.Robot;
+import fr.emse.fayol.maqit.simulator.environment.Cell;
+import fr.emse.fayol.maqit.simulator.environment.GridEnvironment;
+
+/**
+ * Modèle de foule pour les travailleurs : chacun va d'un poste de travail à l'autre ou vers une sortie
+ * (ColorExitZone) en descendant un champ de distances (FlowField) partagé par tous ceux qui ont la même
+ * destination. Un champ par poste, calculé à la première demande, et un champ commun à toutes les sorties.
+ * Arrivé, le travailleur reste sur place quelques pas puis choisit sa destination suivante.
+ * Chaque travailleur annonce les cases qu'il va traverser dans les prochains pas ;
+ * les robots s'en servent pour les contourner.
+ */
+public class WorkerCrowd {
+
+    public static final int EXIT = -1;       // destination : la sortie la plus proche
+    static final int NONE = Integer.MIN_VALUE; // pas encore de destination
+    private static final int MAX_WAIT = 3;   // pas bloqués avant un pas de côté
+
+    private final GridEnvironment environment;
+    private final int rows;
+    private final int columns;
+    private final boolean[] passable;       // cases fixes franchissables par les travailleurs
+    private final int[][] workstations;
+    private final int[][] exits;
+    private final FlowField[] stationFields;
+    private FlowField exitField;
+    private final NavigationCache cache;    // champs relus du disque, null : toujours calculés
+    private final int horizon;
+    private final int dwell;
+    private final Random rnd;
+    private final int[] predictedUntil;     // dernier pas où un travailleur est attendu sur la case
+    private int tick = 0;
+
+    // métriques
+    private long moves = 0;
+    private long waits = 0;
+    private long arrivals = 0;
+
+    /**
+     * @param environment grille, éléments fixes déjà posés
+     * @param workstations postes de travail (les travailleurs se placent à côté)
+     * @param exits portes (ColorExitZone)
+     * @param goals goals, que les travailleurs n'occupent jamais pour ne pas bloquer les livraisons
+     * @param horizon nombre de pas annoncés aux robots
+     * @param dwell durée moyenne d'arrêt à destination
+     * @param cache dossier du cache de navigation, null sans cache
+     */
+    public WorkerCrowd(GridEnvironment environment, int[][] workstations, int[][] exits, Collection<int[]> goals,
+                       int horizon, int dwell, long seed, File cache) {
+        this.environment = environment;
+        Cell[][] grid = environment.getGrid();
+        this.rows = grid.length;
+        this.columns = grid[0].length;
+        this.passable = new boolean[rows * columns];
+        for (int x = 0; x < rows; x++) {
+            for (int y = 0; y < columns; y++) {
+                Object content = grid[x][y].getContent();
+                passable[x * columns + y] = content == null || content instanceof Robot;
+            }
+        }
+        for (int[] goal : goals) {
+            passable[goal[0] * columns + goal[1]] = false;
+        }
+        this.cache = cache != null ? NavigationCache.open(cache, rows, columns, passable) : null;
+        this.workstations = workstations;
+        this.exits = exits;
+        this.stationFields = new FlowField[workstations.length];
+        this.horizon = horizon;
+        this.dwell = dwell;
+        this.rnd = new Random(seed);
+        this.predictedUntil = new int[rows * columns];
+    }
+
+    /**
+     * Passer au pas suivant (avant l'activation des agents)
+     */
+    public void tick() {
+        tick++;
+    }
+
+    /**
+     * Un travailleur est-il attendu sur cette case dans les prochains pas ?
+     */
+    public boolean isPredicted(int x, int y) {
+        return predictedUntil[x * columns + y] > tick;
+    }
+
+    /**
+     * Faire avancer un travailleur d'un pas
+     */
+    public void step(Worker w) {
+        if (w.dwellTicks > 0) {
+            w.dwellTicks--;
+            return;
+        }
+        if (w.destination == NONE) {
+            w.destination = nextDestination(EXIT);
+        }
+        FlowField field = field(w.destination);
+        int x = w.getX(), y = w.getY();
+        int d = field.distance(x, y);
+        if (d == 0 || d == FlowField.UNREACHABLE) {
+            if (d == 0) {
+                arrivals++;
+                w.dwellTicks = dwell / 2 + rnd.nextInt(dwell + 1);
+            }
+            w.destination = nextDestination(w.destination);
+            return;
+        }
+
+        // descendre le champ vers la case libre la plus proche de la destination
+        int bestX = -1, bestY = -1, bestD = d;
+        for (int m = 0; m < 4; m++) {
+            int nx = x + (m == 0 ? -1 : m == 1 ? 1 : 0);
+            int ny = y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+            int nd = field.distance(nx, ny);
+            if (nd < bestD && isFree(nx, ny)) {
+                bestD = nd;
+                bestX = nx;
+                bestY = ny;
+            }
+        }
+        if (bestX < 0) {
+            waits++;
+            if (++w.waitTicks <= MAX_WAIT) return;
+            // bloqué trop longtemps : pas de côté vers une case libre quelconque
+            int first = rnd.nextInt(4);
+            for (int k = 0; k < 4 && bestX < 0; k++) {
+                int m = (first + k) % 4;
+                int nx = x + (m == 0 ? -1 : m == 1 ? 1 : 0);
+                int ny = y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+                if (field.distance(nx, ny) != FlowField.UNREACHABLE && isFree(nx, ny)) {
+                    bestX = nx;
+                    bestY = ny;
+                }
+            }
+            if (bestX < 0) return;
+        }
+        w.waitTicks = 0;
+        if (bestX == x - 1) w.setCurrentOrientation(Orientation.up);
+        if (bestX == x + 1) w.setCurrentOrientation(Orientation.down);
+        if (bestY == y - 1) w.setCurrentOrientation(Orientation.left);
+        if (bestY == y + 1) w.setCurrentOrientation(Orientation.right);
+        w.moveForward();
+        moves++;
+        predict(field, bestX, bestY);
+    }
+
+    /**
+     * Annoncer les prochaines cases du travailleur en suivant le champ depuis (x, y)
+     */
+    private void predict(FlowField field, int x, int y) {
+        for (int i = 1; i <= horizon; i++) {
+            int d = field.distance(x, y);
+            if (d == 0) return;
+            int nextX = x, nextY = y;
+            for (int m = 0; m < 4; m++) {
+                int nx = x + (m == 0 ? -1 : m == 1 ? 1 : 0);
+                int ny = y + (m == 2 ? -1 : m == 3 ? 1 : 0);
+                if (field.distance(nx, ny) < d) {
+                    nextX = nx;
+                    nextY = ny;
+                    break;
+                }
+            }
+            if (nextX == x && nextY == y) return;
+            x = nextX;
+            y = nextY;
+            int cell = x * columns + y;
+            predictedUntil[cell] = Math.max(predictedUntil[cell], tick + i);
+        }
+    }
+
+    private boolean isFree(int x, int y) {
+        if (x < 0 || x >= rows || y < 0 || y >= columns || !passable[x * columns + y]) return false;
+        return environment.getGrid()[x][y].getContent() == null;
+    }
+
+    /**
+     * Après une sortie, un poste au hasard ; après un poste, une sortie une fois sur trois, sinon un autre poste
+     */
+    private int nextDestination(int previous) {
+        if (workstations.length == 0) return EXIT;
+        if (exits.length > 0 && previous != EXIT && rnd.nextInt(3) == 0) return EXIT;
+        return rnd.nextInt(workstations.length);
+    }
+
+    private FlowField field(int destination) {
+        if (destination == EXIT) {
+            if (exitField == null) {
+                exitField = newField(approaches(exits));
+            }
+            return exitField;
+        }
+        if (stationFields[destination] == null) {
+            stationFields[destination] = newField(approaches(new int[][]{workstations[destination]}));
+        }
+        return stationFields[destination];
+    }
+
+    private FlowField newField(int[][] sources) {
+        return cache != null ? cache.field(sources) : new FlowField(rows, columns, passable, sources);
+    }
+
+    /**
+     * Cases d'où l'on atteint les destinations : les destinations franchissables elles-mêmes,
+     * sinon leurs voisines
+     */
+    private int[][] approaches(int[][] destinations) {
+        int[][] cells = new int[destinations.length * 4][];
+        int n = 0;
+        for (int[] dst : destinations) {
+            if (passable[dst[0] * columns + dst[1]]) {
+                cells[n++] = dst;
+                continue;
+            }
+            for (int m = 0; m < 4; m++) {
+                int nx = dst[0] + (m == 0 ? -1 : m == 1 ? 1 : 0);
+                int ny = dst[1] + (m == 2 ? -1 : m == 3 ? 1 : 0);
+                if (nx >= 0 && nx < rows && ny >= 0 && ny < columns) {
+                    cells[n++] = new int[]{nx, ny};
+                }
+            }
+        }
+        return Arrays.copyOf(cells, n);
+    }
+
+    public String report() {
+        int fields = exitField != null ? 1 : 0;
+        for (FlowField f : stationFields) {
+            if (f != null) fields++;
+        }
+        return moves + " déplacements, " + waits + " pas bloqués, " + arrivals + " arrivées, "
+                + fields + (cache != null ? " champs (cache : " + cache.report() + ")" : " champs calculés");
+    }
+}
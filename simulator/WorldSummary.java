@@ -0,0 +1,264 @@
+package simulator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.emse.fayol.maqit.simulator.components.ColorStartZone;
+import fr.emse.fayol.maqit.simulator.components.ColorTransitZone;
+import fr.emse.fayol.maqit.simulator.components.Robot;
+import fr.emse.fayol.maqit.simulator.environment.Cell;
+import fr.emse.fayol.maqit.simulator.environment.ColorCell;
+
+/**
+ * Tableau noir des faits globaux lus par les robots à chaque décision, reconstruit une fois par pas
+ * par MySimFactory.schedule() avant l'activation des agents :
+ * colis en attente par zone de départ, agents à moins de 3 cases de chaque zone de départ,
+ * réservations par station de charge et colis stockés par zone de transit.
+ * Pendant le pas, chaque changement (déplacement, colis pris ou déposé, station réservée ou libérée)
+ * y est reporté aussitôt : un robot lit exactement ce qu'il aurait compté en parcourant la grille et les agents,
+ * en O(1) (zone non vide, station libre) ou en O(zones) au lieu de O(zones x agents).
+ */
+public class WorldSummary {
+
+    private static final int NEARBY = 3; // rayon de l'encombrement d'une zone de départ (distance euclidienne)
+
+    private final int columns;
+
+    // zones de départ, dans l'ordre de MyRobot.START_ZONES (null si la case n'en contient pas)
+    private final ColorStartZone[] starts;
+    private final int[] backlog;   // colis en attente
+    private final int[] nearby;    // agents à moins de NEARBY cases
+    private int firstWithPackage;  // première zone non vide, starts.length si aucune
+    // case -> zones de départ à moins de NEARBY cases, en lignes compressées : near[offset[c] .. offset[c + 1] - 1]
+    private final int[] offset;
+    private final int[] near;
+
+    // zones de transit, dans l'ordre de MyRobot.TRANSIT_ZONES
+    private final ColorTransitZone[] transits;
+    private final int[] fill;
+    private int firstFilled;
+
+    // case -> zone : s + 1 pour la zone de départ s, -(t + 1) pour la zone de transit t, 0 sinon
+    private final int[] zoneAt;
+
+    // stations de charge, dans l'ordre de MyRobot.stationNames
+    private final Map<String, Integer> stationIndex = new HashMap<>();
+    private final int[] reservations;
+
+    /**
+     * @param grid grille où les zones sont déjà posées
+     * @param startPositions positions des zones de départ
+     * @param transitPositions positions des zones de transit
+     * @param stationNames noms des stations de charge
+     */
+    public WorldSummary(Cell[][] grid, int[][] startPositions, int[][] transitPositions, String[] stationNames) {
+        int rows = grid.length;
+        this.columns = grid[0].length;
+        this.zoneAt = new int[rows * columns];
+        this.starts = new ColorStartZone[startPositions.length];
+        this.backlog = new int[starts.length];
+        this.nearby = new int[starts.length];
+        for (int s = 0; s < starts.length; s++) {
+            Cell c = grid[startPositions[s][0]][startPositions[s][1]];
+            if (c instanceof ColorCell && c.getContent() instanceof ColorStartZone) {
+                starts[s] = (ColorStartZone) c.getContent();
+                zoneAt[cell(startPositions[s][0], startPositions[s][1])] = s + 1;
+            }
+        }
+        this.transits = new ColorTransitZone[transitPositions.length];
+        this.fill = new int[transits.length];
+        for (int t = 0; t < transits.length; t++) {
+            Cell c = grid[transitPositions[t][0]][transitPositions[t][1]];
+            if (c instanceof ColorCell && c.getContent() instanceof ColorTransitZone) {
+                transits[t] = (ColorTransitZone) c.getContent();
+                zoneAt[cell(transitPositions[t][0], transitPositions[t][1])] = -(t + 1);
+            }
+        }
+        for (int i = 0; i < stationNames.length; i++) {
+            stationIndex.put(stationNames[i], i);
+        }
+        this.reservations = new int[stationNames.length];
+
+        // voisinage des zones de départ, en deux passes : nombre de zones par case, puis zones
+        this.offset = new int[rows * columns + 1];
+        int[] next = null;
+        int[] list = null;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int s = 0; s < starts.length; s++) {
+                if (starts[s] == null) continue;
+                int zx = startPositions[s][0], zy = startPositions[s][1];
+                for (int x = Math.max(0, zx - NEARBY); x <= Math.min(rows - 1, zx + NEARBY); x++) {
+                    for (int y = Math.max(0, zy - NEARBY); y <= Math.min(columns - 1, zy + NEARBY); y++) {
+                        if ((x - zx) * (x - zx) + (y - zy) * (y - zy) > NEARBY * NEARBY) continue;
+                        if (pass == 0) {
+                            offset[cell(x, y) + 1]++;
+                        } else {
+                            list[next[cell(x, y)]++] = s;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int c = 0; c < rows * columns; c++) {
+                    offset[c + 1] += offset[c];
+                }
+                next = Arrays.copyOf(offset, rows * columns);
+                list = new int[offset[rows * columns]];
+            }
+        }
+        this.near = list;
+    }
+
+    private int cell(int x, int y) {
+        return x * columns + y;
+    }
+
+    /**
+     * Reconstruire le résumé au début d'un pas (colis générés, travailleurs déplacés depuis le pas précédent)
+     * @param agents robots et travailleurs de la simulation
+     */
+    public void rebuild(List<Robot> agents) {
+        for (int s = 0; s < starts.length; s++) {
+            backlog[s] = starts[s] == null ? 0 : starts[s].getPackages().size();
+        }
+        firstWithPackage = 0;
+        skipEmptyStarts();
+        for (int t = 0; t < transits.length; t++) {
+            fill[t] = transits[t] == null ? 0 : transits[t].getPackages().size();
+        }
+        firstFilled = 0;
+        skipEmptyTransits();
+        Arrays.fill(nearby, 0);
+        Arrays.fill(reservations, 0);
+        for (int i = 0; i < agents.size(); i++) {
+            Robot r = agents.get(i);
+            count(r.getX(), r.getY(), 1);
+            if (r instanceof MyRobot) {
+                reserved(((MyRobot) r).reservedChargingStation, 1);
+            }
+        }
+    }
+
+    private void skipEmptyStarts() {
+        while (firstWithPackage < starts.length && backlog[firstWithPackage] == 0) {
+            firstWithPackage++;
+        }
+    }
+
+    private void skipEmptyTransits() {
+        while (firstFilled < transits.length && fill[firstFilled] == 0) {
+            firstFilled++;
+        }
+    }
+
+    private void count(int x, int y, int delta) {
+        int c = cell(x, y);
+        for (int i = offset[c]; i < offset[c + 1]; i++) {
+            nearby[near[i]] += delta;
+        }
+    }
+
+    /**
+     * Un agent vient de passer de (fromX, fromY) à (toX, toY)
+     */
+    public void moved(int fromX, int fromY, int toX, int toY) {
+        if (fromX == toX && fromY == toY) return;
+        count(fromX, fromY, -1);
+        count(toX, toY, 1);
+    }
+
+    /**
+     * Des colis viennent d'être pris ou déposés dans la zone de départ ou de transit en (x, y)
+     */
+    public void zoneChanged(int x, int y) {
+        int z = zoneAt[cell(x, y)];
+        if (z > 0) {
+            int s = z - 1;
+            backlog[s] = starts[s].getPackages().size();
+            if (backlog[s] > 0) {
+                firstWithPackage = Math.min(firstWithPackage, s);
+            } else {
+                skipEmptyStarts();
+            }
+        } else if (z < 0) {
+            int t = -z - 1;
+            fill[t] = transits[t].getPackages().size();
+            if (fill[t] > 0) {
+                firstFilled = Math.min(firstFilled, t);
+            } else {
+                skipEmptyTransits();
+            }
+        }
+    }
+
+    /**
+     * Une réservation de la station name vient d'être prise (delta = 1) ou rendue (delta = -1)
+     */
+    public void reserved(String name, int delta) {
+        Integer i = name == null ? null : stationIndex.get(name);
+        if (i != null) {
+            reservations[i] += delta;
+        }
+    }
+
+    /**
+     * Première zone de départ (dans l'ordre des zones) qui a des colis, null si aucune
+     */
+    public ColorStartZone startZoneWithPackage() {
+        return firstWithPackage < starts.length ? starts[firstWithPackage] : null;
+    }
+
+    /**
+     * Première zone de transit (dans l'ordre des zones) qui a des colis, null si aucune
+     */
+    public ColorTransitZone transitZoneWithPackage() {
+        return firstFilled < transits.length ? transits[firstFilled] : null;
+    }
+
+    /**
+     * Zone de départ voisine (4-connexité) de la case (x, y), la première dans l'ordre des zones, null si aucune
+     */
+    public ColorStartZone adjacentStartZone(int x, int y) {
+        int best = Integer.MAX_VALUE;
+        for (int d = 0; d < 4; d++) {
+            int nx = x + (d == 0 ? -1 : d == 1 ? 1 : 0);
+            int ny = y + (d == 2 ? -1 : d == 3 ? 1 : 0);
+            if (nx < 0 || ny < 0 || ny >= columns || cell(nx, ny) >= zoneAt.length) continue;
+            int z = zoneAt[cell(nx, ny)];
+            if (z > 0) best = Math.min(best, z - 1);
+        }
+        return best == Integer.MAX_VALUE ? null : starts[best];
+    }
+
+    /**
+     * Nombre de zones de départ
+     */
+    public int startCount() {
+        return starts.length;
+    }
+
+    /**
+     * Zone de départ s, null si sa case n'en contient pas
+     */
+    public ColorStartZone startZone(int s) {
+        return starts[s];
+    }
+
+    /**
+     * Agents à moins de 3 cases de la zone de départ s, sans compter celui qui se trouve en (x, y)
+     */
+    public int agentsNear(int s, int x, int y) {
+        int dx = x - starts[s].getX(), dy = y - starts[s].getY();
+        return nearby[s] - (dx * dx + dy * dy <= NEARBY * NEARBY ? 1 : 0);
+    }
+
+    /**
+     * Station name réservée par aucun robot, sans compter la réservation own du robot qui demande
+     */
+    public boolean isStationFree(String name, String own) {
+        Integer i = stationIndex.get(name);
+        return i == null || reservations[i] - (name.equals(own) ? 1 : 0) == 0;
+    }
+}